@@ -37,10 +37,12 @@ package org.marre;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
 
 import org.marre.sms.*;
 import org.marre.sms.MwiType;
 import org.marre.sms.SmsMwiMessage;
+import org.marre.sms.transport.SmsSendResult;
 import org.marre.sms.transport.SmsTransport;
 import org.marre.sms.transport.SmsTransportManager;
 import org.marre.wap.nokia.NokiaOtaBrowserSettings;
@@ -503,6 +505,35 @@ public class SmsSender
         
         return transport_.send(msg, destAddress, senderAddress);
     }
+
+    /**
+     * Sends a SmsMessage without waiting for the SMS server.
+     * 
+     * @param msg The message to send.
+     * @param dest
+     *            Destination number (international format without leading +)
+     *            Ex. 44546754235
+     * @param sender
+     *            Destination number (international format without leading +).
+     *            Can also be an alphanumerical string. Ex "SMSJ". (not
+     *            supported by all transports).
+     *            
+     * @return Returns a future that completes when the SMS server has accepted or rejected the message.
+     * 
+     * @throws SmsException If the addresses are invalid
+     */
+    public CompletableFuture<SmsSendResult> sendSmsAsync(SmsMessage msg, String dest, String sender) throws SmsException
+    {
+        SmsAddress destAddress = new SmsAddress(dest);
+        SmsAddress senderAddress = null;
+
+        if (sender != null)
+        {
+            senderAddress = new SmsAddress(sender);
+        }
+        
+        return transport_.sendAsync(msg, destAddress, senderAddress);
+    }
     
     /**
      * Connect to the server.
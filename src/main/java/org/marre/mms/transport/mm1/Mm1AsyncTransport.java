@@ -0,0 +1,203 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is "SMS Library for the Java platform".
+ *
+ * The Initial Developer of the Original Code is Markus Eriksson.
+ * Portions created by the Initial Developer are Copyright (C) 2002
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.marre.mms.transport.mm1;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+
+import org.marre.mime.MimeBodyPart;
+import org.marre.mms.MmsException;
+import org.marre.mms.MmsHeaders;
+import org.marre.sms.transport.SmsAsyncUtil;
+import org.marre.sms.transport.http.SmsHttpUtil;
+import org.marre.util.StringUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sends mms using the mm1 protocol with the non-blocking java.net.http
+ * client.
+ * <p>
+ * sendAsync() doesn't hold a thread while the message is posted, which
+ * matters for MMS since the messages are large and the proxy gateways are
+ * often slow.
+ * <p>
+ * Besides smsj.mm1.proxygateway this transport supports:
+ * <pre>
+ * <b>smsj.mm1.http.version</b> - HTTP_2 or HTTP_1_1 (default HTTP_1_1, few proxy gateways speak HTTP/2)
+ * <b>smsj.mm1.http.timeout</b> - Milliseconds to wait for a connection or a response (default 60000)
+ * </pre>
+ * 
+ * @author Markus Eriksson
+ * @version $Id$
+ */
+public class Mm1AsyncTransport extends Mm1Transport
+{
+    private static final Logger log_ = LoggerFactory.getLogger(Mm1AsyncTransport.class);
+
+    private String httpVersion_;
+    private long timeout_;
+    private HttpClient httpClient_;
+
+    /**
+     * @see org.marre.mms.transport.MmsTransport#init(java.util.Properties)
+     */
+    public void init(Properties properties) throws MmsException
+    {
+        super.init(properties);
+
+        httpVersion_ = properties.getProperty("smsj.mm1.http.version", "HTTP_1_1");
+        try
+        {
+            HttpClient.Version.valueOf(httpVersion_);
+            timeout_ = Long.parseLong(properties.getProperty("smsj.mm1.http.timeout", "60000"));
+            URI.create(getProxyGatewayAddress());
+        }
+        catch (IllegalArgumentException ex)
+        {
+            // Also covers NumberFormatException
+            throw new MmsException("Invalid mm1 setting: " + ex.getMessage(), ex);
+        }
+    }
+
+    /**
+     * Sends MMS and waits for the response.
+     * 
+     * @see org.marre.mms.transport.MmsTransport#send(org.marre.mime.MimeBodyPart, org.marre.mms.MmsHeaders)
+     */
+    public void send(MimeBodyPart message, MmsHeaders headers) throws MmsException, IOException
+    {
+        try
+        {
+            sendAsync(message, headers).get();
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the MMSC");
+        }
+        catch (ExecutionException ex)
+        {
+            Throwable cause = SmsAsyncUtil.unwrap(ex);
+            if (cause instanceof MmsException)
+            {
+                throw (MmsException) cause;
+            }
+            if (cause instanceof IOException)
+            {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException)
+            {
+                throw (RuntimeException) cause;
+            }
+            throw new MmsException(cause.getMessage(), cause);
+        }
+    }
+
+    /**
+     * Sends MMS without blocking the caller.
+     * 
+     * @param message The message body
+     * @param headers The MMS headers
+     * @return A future with the response from the MMSC, the encoded
+     *         M-Send.conf. It fails with an MmsException if the message
+     *         couldn't be encoded and with an IOException if the post failed.
+     */
+    public CompletableFuture<byte[]> sendAsync(MimeBodyPart message, MmsHeaders headers)
+    {
+        byte[] body;
+        try
+        {
+            body = encode(message, headers);
+        }
+        catch (MmsException | IOException ex)
+        {
+            CompletableFuture<byte[]> failed = new CompletableFuture<byte[]>();
+            failed.completeExceptionally(ex);
+            return failed;
+        }
+
+        HttpRequest request = HttpRequest.newBuilder(URI.create(getProxyGatewayAddress()))
+                .timeout(Duration.ofMillis(timeout_))
+                .header("Content-Type", CONTENT_TYPE_WAP_MMS_MESSAGE)
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body))
+                .build();
+
+        return getHttpClient().sendAsync(request, HttpResponse.BodyHandlers.ofByteArray()).thenApply(response -> {
+            log_.debug("HTTP response code : " + response.statusCode());
+            if (response.statusCode() >= 300)
+            {
+                throw new CompletionException(new IOException("MMSC returned HTTP " + response.statusCode()));
+            }
+            if (log_.isDebugEnabled())
+            {
+                String str = StringUtil.bytesToHexString(response.body());
+                log_.debug("response [" + str + "]");
+            }
+            return response.body();
+        });
+    }
+
+    private synchronized HttpClient getHttpClient()
+    {
+        if (httpClient_ == null)
+        {
+            httpClient_ = SmsHttpUtil.createAsyncClient(httpVersion_, timeout_);
+        }
+        return httpClient_;
+    }
+
+    /**
+     * Drops the HTTP client.
+     * @see org.marre.mms.transport.MmsTransport#disconnect()
+     */
+    public void disconnect()
+    {
+        synchronized (this)
+        {
+            httpClient_ = null;
+        }
+    }
+}
@@ -105,14 +105,7 @@ public class Mm1Transport implements MmsTransport
         
         // First create the data so we can find out how large it is
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        Mm1Encoder.writeMessageToStream(baos, message, headers);
-        baos.close();
-        
-        if (log_.isDebugEnabled())
-        {
-            String str = StringUtil.bytesToHexString(baos.toByteArray());
-            log_.debug("request [" + str + "]");
-        }
+        baos.write(encode(message, headers));
         
         URL url = new URL(mmsProxyGatewayAddress_);
         HttpURLConnection urlConn = (HttpURLConnection)url.openConnection();
@@ -150,6 +143,38 @@ public class Mm1Transport implements MmsTransport
         // TODO: Parse the response
     }
 
+    /**
+     * Encodes the message as an M-Send.req.
+     * 
+     * @param message The message body
+     * @param headers The MMS headers
+     * @return The encoded message
+     * @throws MmsException If the message couldn't be encoded
+     * @throws IOException If the message couldn't be written
+     */
+    protected byte[] encode(MimeBodyPart message, MmsHeaders headers) throws MmsException, IOException
+    {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        Mm1Encoder.writeMessageToStream(baos, message, headers);
+        baos.close();
+
+        byte[] request = baos.toByteArray();
+        if (log_.isDebugEnabled())
+        {
+            String str = StringUtil.bytesToHexString(request);
+            log_.debug("request [" + str + "]");
+        }
+        return request;
+    }
+
+    /**
+     * Returns the URL of the proxy gateway.
+     */
+    protected String getProxyGatewayAddress()
+    {
+        return mmsProxyGatewayAddress_;
+    }
+
     /**
      * The mm1 protocol is connection less so this method is not used.
      * @see org.marre.mms.transport.MmsTransport#disconnect()
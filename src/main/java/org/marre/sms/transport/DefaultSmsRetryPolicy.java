@@ -0,0 +1,106 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is "SMS Library for the Java platform".
+ *
+ * The Initial Developer of the Original Code is Markus Eriksson.
+ * Portions created by the Initial Developer are Copyright (C) 2002
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.marre.sms.transport;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.UnknownHostException;
+import java.net.http.HttpConnectTimeoutException;
+
+import org.apache.http.conn.ConnectTimeoutException;
+import org.marre.sms.SmsException;
+
+/**
+ * Retries failures that happened before the message reached the SMS server,
+ * but no SmsException.
+ * <p>
+ * A message is known not to be sent when the send failed with an
+ * SmsNotSentException, or when we couldn't connect to the server. Other
+ * IOExceptions, like a read timeout or a connection that closed while
+ * waiting for the response, are not retried since the server may have
+ * accepted the message, and sending it again would create a duplicate.
+ * <p>
+ * Transport specific policies extend this class and decide which
+ * SmsExceptions are temporary.
+ * 
+ * @author Markus Eriksson
+ * @version $Id$
+ */
+public class DefaultSmsRetryPolicy implements SmsRetryPolicy
+{
+    public boolean isRetryable(Throwable error)
+    {
+        Throwable cause = SmsAsyncUtil.unwrap(error);
+        if (cause instanceof IOException)
+        {
+            return isNotSent((IOException) cause);
+        }
+        if (cause instanceof SmsException)
+        {
+            return isRetryable((SmsException) cause);
+        }
+        return false;
+    }
+
+    /**
+     * Returns true if the message can't have reached the SMS server.
+     * 
+     * @param ex The failure
+     * @return true for SmsNotSentException and connect failures, override
+     *         to retry more
+     */
+    protected boolean isNotSent(IOException ex)
+    {
+        return ex instanceof SmsNotSentException
+            || ex instanceof ConnectException
+            || ex instanceof ConnectTimeoutException
+            || ex instanceof HttpConnectTimeoutException
+            || ex instanceof NoRouteToHostException
+            || ex instanceof UnknownHostException;
+    }
+
+    /**
+     * Returns true if the SMS server rejected the message for a reason that
+     * may go away.
+     * 
+     * @param ex The rejection
+     * @return false, override to retry some errors
+     */
+    protected boolean isRetryable(SmsException ex)
+    {
+        return false;
+    }
+}
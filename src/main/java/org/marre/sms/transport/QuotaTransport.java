@@ -0,0 +1,370 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is "SMS Library for the Java platform".
+ *
+ * The Initial Developer of the Original Code is Markus Eriksson.
+ * Portions created by the Initial Developer are Copyright (C) 2002
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.marre.sms.transport;
+
+import java.io.IOException;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.marre.sms.SmsAddress;
+import org.marre.sms.SmsException;
+import org.marre.sms.SmsMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An SmsTransport that stops sending to a gateway account that is out of
+ * credit.
+ * <p>
+ * Messages are only passed on to the transport while the SmsQuota admits
+ * them. The quota is kept from two sources. The first is the balance that
+ * the transport reports, if it is an SmsQuotaSource, checked at connect and
+ * then every <b>smsj.quota.check.interval</b> ms, and reduced by the cost of
+ * every message sent. The second is the SmsQuotaException that the
+ * transport throws when the gateway says the account is out of credit.
+ * <p>
+ * A refused message fails with an SmsQuotaException without a round trip
+ * to the gateway, or goes to the fallback transport if there is one. After
+ * an out of credit error the quota stays closed until a balance check finds
+ * credit, or for one check interval if the transport can't report its
+ * balance.
+ * <p>
+ * This transport supports the following parameters:
+ * <pre>
+ * <b>smsj.quota.transport</b> - Class name of the transport to send with (required)
+ * <b>smsj.quota.fallback</b> - Class name of a transport for refused messages (default none)
+ * <b>smsj.quota.cost</b> - Credit used per pdu (default 1)
+ * <b>smsj.quota.reserve</b> - Credit to leave unused (default 0)
+ * <b>smsj.quota.check.interval</b> - Milliseconds between balance checks (default 60000)
+ * </pre>
+ * All properties are also passed on to the transports.
+ * 
+ * @author Markus Eriksson
+ * @version $Id$
+ */
+public class QuotaTransport implements SmsTransport
+{
+    private static final Logger log_ = LoggerFactory.getLogger(QuotaTransport.class);
+
+    private SmsTransport transport_;
+    private SmsTransport fallback_;
+    private SmsQuota quota_;
+    private double cost_;
+    private long checkInterval_;
+    /** True once the transport has reported a balance. */
+    private volatile boolean balanceKnown_;
+
+    /** Runs the balance checks. */
+    private ScheduledExecutorService scheduler_;
+
+    /**
+     * Creates a QuotaTransport that is configured with init().
+     */
+    public QuotaTransport()
+    {
+        // Empty
+    }
+
+    /**
+     * Creates a QuotaTransport around transports that are already
+     * initialized.
+     * <p>
+     * init() must still be called to read the quota settings, but it won't
+     * create any transports.
+     * 
+     * @param transport The transport to send with
+     * @param fallback Transport for the refused messages, or null to fail them
+     */
+    public QuotaTransport(SmsTransport transport, SmsTransport fallback)
+    {
+        transport_ = transport;
+        fallback_ = fallback;
+    }
+
+    public void init(Properties props) throws SmsException
+    {
+        if (transport_ == null)
+        {
+            String classname = props.getProperty("smsj.quota.transport");
+            if (classname == null)
+            {
+                throw new SmsException("smsj.quota.transport is required");
+            }
+            transport_ = SmsTransportManager.getTransport(classname, props);
+
+            classname = props.getProperty("smsj.quota.fallback");
+            if (classname != null)
+            {
+                fallback_ = SmsTransportManager.getTransport(classname, props);
+            }
+        }
+
+        try
+        {
+            cost_ = Double.parseDouble(props.getProperty("smsj.quota.cost", "1"));
+            quota_ = new SmsQuota(Double.parseDouble(props.getProperty("smsj.quota.reserve", "0")));
+            checkInterval_ = Long.parseLong(props.getProperty("smsj.quota.check.interval", "60000"));
+        }
+        catch (NumberFormatException ex)
+        {
+            throw new SmsException("Invalid quota setting: " + ex.getMessage(), ex);
+        }
+
+        if (cost_ < 0 || checkInterval_ < 1)
+        {
+            throw new SmsException("Invalid quota setting, need cost >= 0 and check interval >= 1");
+        }
+    }
+
+    /**
+     * Connects the transports and checks the balance.
+     */
+    public void connect() throws SmsException, IOException
+    {
+        transport_.connect();
+        if (fallback_ != null)
+        {
+            fallback_.connect();
+        }
+
+        try
+        {
+            checkBalance();
+        }
+        catch (SmsException | IOException ex)
+        {
+            log_.warn("Failed to check the balance", ex);
+        }
+
+        if (transport_ instanceof SmsQuotaSource)
+        {
+            synchronized (this)
+            {
+                if (scheduler_ == null)
+                {
+                    scheduler_ = Executors.newSingleThreadScheduledExecutor(r -> {
+                        Thread thread = new Thread(r, "smsj-quota");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                    scheduler_.scheduleWithFixedDelay(() -> {
+                        try
+                        {
+                            checkBalance();
+                        }
+                        catch (Exception ex)
+                        {
+                            log_.warn("Failed to check the balance", ex);
+                        }
+                    }, checkInterval_, checkInterval_, TimeUnit.MILLISECONDS);
+                }
+            }
+        }
+    }
+
+    public void ping() throws SmsException, IOException
+    {
+        transport_.ping();
+    }
+
+    /**
+     * Asks the transport for its balance and updates the quota.
+     * 
+     * @return The balance, or Double.NaN if the transport can't report it
+     * @throws SmsException If the gateway rejected the request
+     * @throws IOException If we fail to talk to the gateway
+     */
+    public double checkBalance() throws SmsException, IOException
+    {
+        if (!(transport_ instanceof SmsQuotaSource))
+        {
+            return Double.NaN;
+        }
+
+        double balance = ((SmsQuotaSource) transport_).queryBalance();
+        if (!Double.isNaN(balance))
+        {
+            log_.debug("Balance is " + balance);
+            balanceKnown_ = true;
+            quota_.setBalance(balance);
+        }
+        return balance;
+    }
+
+    /**
+     * Sends the message if the quota admits it.
+     * 
+     * @throws SmsQuotaException If the message was refused and there is no
+     *         fallback, or if the gateway is out of credit
+     */
+    public String send(SmsMessage msg, SmsAddress dest, SmsAddress sender) throws SmsException, IOException
+    {
+        double cost = getCost(msg);
+        if (!quota_.tryAcquire(cost, System.currentTimeMillis()))
+        {
+            return reroute(msg, dest, sender, refused());
+        }
+
+        try
+        {
+            return transport_.send(msg, dest, sender);
+        }
+        catch (SmsQuotaException ex)
+        {
+            outOfCredit(ex);
+            return reroute(msg, dest, sender, ex);
+        }
+        catch (SmsException | IOException ex)
+        {
+            quota_.release(cost);
+            throw ex;
+        }
+    }
+
+    /**
+     * Sends the message without blocking the caller, if the quota admits it.
+     * <p>
+     * A refused message fails at once, or goes to the fallback.
+     */
+    public CompletableFuture<SmsSendResult> sendAsync(final SmsMessage msg, final SmsAddress dest, final SmsAddress sender)
+    {
+        final double cost = getCost(msg);
+        if (!quota_.tryAcquire(cost, System.currentTimeMillis()))
+        {
+            return rerouteAsync(msg, dest, sender, refused());
+        }
+
+        return transport_.sendAsync(msg, dest, sender).handle((result, ex) -> {
+            if (ex == null)
+            {
+                return CompletableFuture.completedFuture(result);
+            }
+
+            Throwable cause = SmsAsyncUtil.unwrap(ex);
+            if (cause instanceof SmsQuotaException)
+            {
+                outOfCredit((SmsQuotaException) cause);
+                return rerouteAsync(msg, dest, sender, (SmsQuotaException) cause);
+            }
+
+            quota_.release(cost);
+            CompletableFuture<SmsSendResult> failed = new CompletableFuture<SmsSendResult>();
+            failed.completeExceptionally(cause);
+            return failed;
+        }).thenCompose(future -> future);
+    }
+
+    /**
+     * Returns the credit a message uses. The message is only split into
+     * pdus when the balance is known, otherwise the cost doesn't matter.
+     */
+    private double getCost(SmsMessage msg)
+    {
+        if (cost_ == 0 || Double.isNaN(quota_.getBalance()))
+        {
+            return 0;
+        }
+        return cost_ * msg.getPdus().length;
+    }
+
+    private SmsQuotaException refused()
+    {
+        if (quota_.isClosed(System.currentTimeMillis()))
+        {
+            return new SmsQuotaException("Gateway is out of credit");
+        }
+        return new SmsQuotaException("Not enough credit, balance is " + quota_.getBalance());
+    }
+
+    private void outOfCredit(SmsQuotaException ex)
+    {
+        log_.warn("Gateway is out of credit, refusing messages: " + ex.getMessage());
+        // Wait for a balance check to find credit, if there are any
+        quota_.close(balanceKnown_ ? Long.MAX_VALUE : System.currentTimeMillis() + checkInterval_);
+    }
+
+    private String reroute(SmsMessage msg, SmsAddress dest, SmsAddress sender, SmsQuotaException ex)
+        throws SmsException, IOException
+    {
+        if (fallback_ == null)
+        {
+            throw ex;
+        }
+        log_.debug("Sending with the fallback transport: " + ex.getMessage());
+        return fallback_.send(msg, dest, sender);
+    }
+
+    private CompletableFuture<SmsSendResult> rerouteAsync(SmsMessage msg, SmsAddress dest, SmsAddress sender, SmsQuotaException ex)
+    {
+        if (fallback_ == null)
+        {
+            CompletableFuture<SmsSendResult> failed = new CompletableFuture<SmsSendResult>();
+            failed.completeExceptionally(ex);
+            return failed;
+        }
+        log_.debug("Sending with the fallback transport: " + ex.getMessage());
+        return fallback_.sendAsync(msg, dest, sender);
+    }
+
+    /**
+     * @return The quota that decides which messages are sent
+     */
+    public SmsQuota getQuota()
+    {
+        return quota_;
+    }
+
+    public void disconnect() throws SmsException, IOException
+    {
+        ScheduledExecutorService scheduler;
+        synchronized (this)
+        {
+            scheduler = scheduler_;
+            scheduler_ = null;
+        }
+        if (scheduler != null)
+        {
+            scheduler.shutdown();
+        }
+        transport_.disconnect();
+        if (fallback_ != null)
+        {
+            fallback_.disconnect();
+        }
+    }
+}
@@ -0,0 +1,330 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is "SMS Library for the Java platform".
+ *
+ * The Initial Developer of the Original Code is Markus Eriksson.
+ * Portions created by the Initial Developer are Copyright (C) 2002
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.marre.sms.transport;
+
+import java.io.IOException;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.marre.sms.SmsAddress;
+import org.marre.sms.SmsException;
+import org.marre.sms.SmsMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An SmsTransport that retries failed sends of another transport.
+ * <p>
+ * The SmsRetryPolicy decides which failures that are worth another attempt.
+ * Retries are delayed with exponential backoff and full jitter, so that
+ * callers that failed together don't retry together. All retries of the
+ * transport share an SmsRetryBudget, so a failing SMS server gets at most a
+ * fixed share of extra requests no matter how many messages are failing.
+ * <p>
+ * The whole message is sent again, including parts that the SMS server may
+ * already have accepted.
+ * <p>
+ * This transport supports the following parameters:
+ * <pre>
+ * <b>smsj.retry.transport</b> - Class name of the transport to send with (required)
+ * <b>smsj.retry.policy</b> - Class name of the SmsRetryPolicy (default org.marre.sms.transport.DefaultSmsRetryPolicy)
+ * <b>smsj.retry.attempts</b> - Max attempts per message, including the first one (default 3)
+ * <b>smsj.retry.backoff.initial</b> - Max delay in ms before the first retry (default 500)
+ * <b>smsj.retry.backoff.max</b> - Max delay in ms before any retry (default 30000)
+ * <b>smsj.retry.budget.ratio</b> - Retries allowed per message (default 0.1)
+ * <b>smsj.retry.budget.reserve</b> - Retries allowed before any message has been sent (default 10)
+ * </pre>
+ * All properties are also passed on to the transport.
+ * 
+ * @author Markus Eriksson
+ * @version $Id$
+ */
+public class RetryTransport implements SmsTransport
+{
+    private static final Logger log_ = LoggerFactory.getLogger(RetryTransport.class);
+
+    private SmsTransport transport_;
+    private SmsRetryPolicy policy_;
+    private SmsRetryBudget budget_;
+    private int maxAttempts_;
+    private long initialBackoff_;
+    private long maxBackoff_;
+
+    /** Runs the delayed retries of sendAsync(). */
+    private ScheduledExecutorService scheduler_;
+
+    /**
+     * Creates a RetryTransport that is configured with init().
+     */
+    public RetryTransport()
+    {
+        // Empty
+    }
+
+    /**
+     * Creates a RetryTransport around a transport that is already
+     * initialized.
+     * <p>
+     * init() must still be called to read the retry settings, but it won't
+     * create a transport or change the policy.
+     * 
+     * @param transport The transport to send with
+     * @param policy Decides what to retry
+     */
+    public RetryTransport(SmsTransport transport, SmsRetryPolicy policy)
+    {
+        transport_ = transport;
+        policy_ = policy;
+    }
+
+    public void init(Properties props) throws SmsException
+    {
+        if (transport_ == null)
+        {
+            String classname = props.getProperty("smsj.retry.transport");
+            if (classname == null)
+            {
+                throw new SmsException("smsj.retry.transport is required");
+            }
+            transport_ = SmsTransportManager.getTransport(classname, props);
+        }
+
+        if (policy_ == null)
+        {
+            String classname = props.getProperty("smsj.retry.policy", DefaultSmsRetryPolicy.class.getName());
+            try
+            {
+                policy_ = (SmsRetryPolicy) Class.forName(classname).getDeclaredConstructor().newInstance();
+            }
+            catch (ClassCastException ex)
+            {
+                throw new SmsException(classname + " is not an SmsRetryPolicy.", ex);
+            }
+            catch (ReflectiveOperationException ex)
+            {
+                throw new SmsException("Couldn't create " + classname + ". Please check your classpath.", ex);
+            }
+        }
+
+        try
+        {
+            maxAttempts_ = Integer.parseInt(props.getProperty("smsj.retry.attempts", "3"));
+            initialBackoff_ = Long.parseLong(props.getProperty("smsj.retry.backoff.initial", "500"));
+            maxBackoff_ = Long.parseLong(props.getProperty("smsj.retry.backoff.max", "30000"));
+            budget_ = new SmsRetryBudget(Double.parseDouble(props.getProperty("smsj.retry.budget.ratio", "0.1")),
+                    Integer.parseInt(props.getProperty("smsj.retry.budget.reserve", "10")));
+        }
+        catch (IllegalArgumentException ex)
+        {
+            // Also covers NumberFormatException
+            throw new SmsException("Invalid retry setting: " + ex.getMessage(), ex);
+        }
+
+        if (maxAttempts_ < 1 || initialBackoff_ < 0 || maxBackoff_ < initialBackoff_)
+        {
+            throw new SmsException("Invalid retry setting, need attempts >= 1 and 0 <= initial backoff <= max backoff");
+        }
+
+        // The transport given to the constructor may already be connected
+        startScheduler();
+    }
+
+    public void connect() throws SmsException, IOException
+    {
+        startScheduler();
+        transport_.connect();
+    }
+
+    private synchronized void startScheduler()
+    {
+        if (scheduler_ == null)
+        {
+            scheduler_ = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "smsj-retry");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    public void ping() throws SmsException, IOException
+    {
+        transport_.ping();
+    }
+
+    /**
+     * Sends the message, retrying it as the policy and budget allow.
+     * 
+     * @return The message id from the attempt that succeeded
+     * @throws SmsException The error of the last attempt
+     * @throws IOException The error of the last attempt
+     */
+    public String send(SmsMessage msg, SmsAddress dest, SmsAddress sender) throws SmsException, IOException
+    {
+        budget_.deposit();
+        for (int attempt = 1; ; attempt++)
+        {
+            try
+            {
+                return transport_.send(msg, dest, sender);
+            }
+            catch (SmsException | IOException ex)
+            {
+                long delay = retryDelay(ex, attempt);
+                if (delay < 0)
+                {
+                    throw ex;
+                }
+                try
+                {
+                    Thread.sleep(delay);
+                }
+                catch (InterruptedException ie)
+                {
+                    Thread.currentThread().interrupt();
+                    throw ex;
+                }
+            }
+        }
+    }
+
+    /**
+     * Sends the message without blocking the caller.
+     * <p>
+     * Retries are scheduled on a timer thread, no thread waits during the
+     * backoff.
+     */
+    public CompletableFuture<SmsSendResult> sendAsync(SmsMessage msg, SmsAddress dest, SmsAddress sender)
+    {
+        CompletableFuture<SmsSendResult> result = new CompletableFuture<SmsSendResult>();
+        budget_.deposit();
+        attempt(msg, dest, sender, 1, result);
+        return result;
+    }
+
+    private void attempt(final SmsMessage msg, final SmsAddress dest, final SmsAddress sender, final int attempt,
+            final CompletableFuture<SmsSendResult> result)
+    {
+        transport_.sendAsync(msg, dest, sender).whenComplete((sendResult, ex) -> {
+            if (ex == null)
+            {
+                result.complete(sendResult);
+                return;
+            }
+
+            Throwable cause = SmsAsyncUtil.unwrap(ex);
+            ScheduledExecutorService scheduler = scheduler_;
+            if (scheduler == null)
+            {
+                // Disconnected, don't spend the budget on a retry that can't run
+                result.completeExceptionally(cause);
+                return;
+            }
+            long delay = retryDelay(cause, attempt);
+            if (delay < 0)
+            {
+                result.completeExceptionally(cause);
+                return;
+            }
+
+            try
+            {
+                scheduler.schedule(() -> attempt(msg, dest, sender, attempt + 1, result), delay, TimeUnit.MILLISECONDS);
+            }
+            catch (RuntimeException re)
+            {
+                // Disconnected while we were waiting
+                result.completeExceptionally(cause);
+            }
+        });
+    }
+
+    /**
+     * Decides if a failed attempt is retried.
+     * 
+     * @param error What the attempt failed with
+     * @param attempt The number of the attempt that failed, 1 for the first
+     * @return The delay in ms before the next attempt, or -1 to give up
+     */
+    long retryDelay(Throwable error, int attempt)
+    {
+        if (attempt >= maxAttempts_ || !policy_.isRetryable(error))
+        {
+            return -1;
+        }
+        if (!budget_.tryWithdraw())
+        {
+            log_.warn("Retry budget is spent, not retrying: " + error);
+            return -1;
+        }
+
+        // Full jitter, a random delay up to the exponential backoff
+        long backoff = initialBackoff_ << Math.min(attempt - 1, 30);
+        if (backoff > maxBackoff_ || backoff < 0)
+        {
+            backoff = maxBackoff_;
+        }
+        long delay = ThreadLocalRandom.current().nextLong(backoff + 1);
+        log_.debug("Attempt " + attempt + " failed, retrying in " + delay + " ms: " + error);
+        return delay;
+    }
+
+    /**
+     * @return The budget shared by all retries of this transport
+     */
+    public SmsRetryBudget getRetryBudget()
+    {
+        return budget_;
+    }
+
+    public void disconnect() throws SmsException, IOException
+    {
+        ScheduledExecutorService scheduler;
+        synchronized (this)
+        {
+            scheduler = scheduler_;
+            scheduler_ = null;
+        }
+        if (scheduler != null)
+        {
+            scheduler.shutdown();
+        }
+        transport_.disconnect();
+    }
+}
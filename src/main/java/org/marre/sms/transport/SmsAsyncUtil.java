@@ -0,0 +1,222 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is "SMS Library for the Java platform".
+ *
+ * The Initial Developer of the Original Code is Markus Eriksson.
+ * Portions created by the Initial Developer are Copyright (C) 2002
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.marre.sms.transport;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.marre.sms.SmsException;
+
+/**
+ * Helpers for the asynchronous SmsTransport API.
+ * 
+ * @author Markus Eriksson
+ * @version $Id$
+ */
+public final class SmsAsyncUtil
+{
+    /**
+     * Runs blocking send calls for transports that don't have a
+     * non-blocking implementation.
+     */
+    private static final ExecutorService defaultExecutor_ = Executors.newCachedThreadPool(new ThreadFactory()
+    {
+        private final AtomicInteger count_ = new AtomicInteger();
+
+        public Thread newThread(Runnable r)
+        {
+            Thread thread = new Thread(r, "smsj-async-" + count_.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    /**
+     * A task that may fail with the same exceptions as SmsTransport.send().
+     */
+    public interface SmsCallable<T>
+    {
+        T call() throws SmsException, IOException;
+    }
+
+    /**
+     * This class isn't intended to be instantiated.
+     */
+    private SmsAsyncUtil()
+    {
+    }
+
+    /**
+     * Returns the executor used to adapt blocking transports.
+     * <p>
+     * Every in-flight call holds one of its threads for the whole round trip.
+     * 
+     * @return The shared executor
+     */
+    public static Executor getDefaultExecutor()
+    {
+        return defaultExecutor_;
+    }
+
+    /**
+     * Runs the task on the given executor.
+     * 
+     * @param task The task to run
+     * @param executor Where to run it
+     * @return A future that completes with the result of the task, or
+     *         exceptionally with the SmsException or IOException it threw
+     */
+    public static <T> CompletableFuture<T> supplyAsync(final SmsCallable<T> task, Executor executor)
+    {
+        final CompletableFuture<T> future = new CompletableFuture<T>();
+        executor.execute(() -> {
+            try
+            {
+                future.complete(task.call());
+            }
+            catch (Throwable ex)
+            {
+                future.completeExceptionally(ex);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Combines the results of the individual pdus to a result for the
+     * whole message.
+     * 
+     * @param pduResults Futures for each pdu, in pdu order
+     * @return A future that completes when all pdus are done, or exceptionally
+     *         as soon as one of them fails
+     */
+    public static CompletableFuture<SmsSendResult> allOf(final List<CompletableFuture<SmsPduResult>> pduResults)
+    {
+        final CompletableFuture<SmsSendResult> result = new CompletableFuture<SmsSendResult>();
+
+        CompletableFuture.allOf(pduResults.toArray(new CompletableFuture[pduResults.size()]))
+            .whenComplete((ignored, ex) -> {
+                if (ex != null)
+                {
+                    result.completeExceptionally(unwrap(ex));
+                    return;
+                }
+
+                List<SmsPduResult> results = new ArrayList<SmsPduResult>(pduResults.size());
+                for (CompletableFuture<SmsPduResult> pduResult : pduResults)
+                {
+                    results.add(pduResult.join());
+                }
+                result.complete(new SmsSendResult(results));
+            });
+
+        // Fail fast, don't wait for the remaining pdus
+        for (CompletableFuture<SmsPduResult> pduResult : pduResults)
+        {
+            pduResult.whenComplete((ignored, ex) -> {
+                if (ex != null)
+                {
+                    result.completeExceptionally(unwrap(ex));
+                }
+            });
+        }
+
+        return result;
+    }
+
+    /**
+     * Waits for a future and rethrows its failure as the exception the
+     * synchronous API would have thrown.
+     * 
+     * @param future The future to wait for
+     * @return The result of the future
+     * @throws SmsException If the future failed with an SmsException, or was interrupted
+     * @throws IOException If the future failed with an IOException
+     */
+    public static <T> T get(CompletableFuture<T> future) throws SmsException, IOException
+    {
+        try
+        {
+            return future.get();
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            throw new SmsException("Interrupted", ex);
+        }
+        catch (ExecutionException ex)
+        {
+            Throwable cause = unwrap(ex);
+            if (cause instanceof SmsException)
+            {
+                throw (SmsException) cause;
+            }
+            if (cause instanceof IOException)
+            {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException)
+            {
+                throw (RuntimeException) cause;
+            }
+            throw new SmsException(cause);
+        }
+    }
+
+    /**
+     * Removes the CompletionException and ExecutionException wrappers that
+     * CompletableFuture adds.
+     * 
+     * @param ex The exception a future completed with
+     * @return The original exception
+     */
+    public static Throwable unwrap(Throwable ex)
+    {
+        while ((ex instanceof CompletionException || ex instanceof ExecutionException) && ex.getCause() != null)
+        {
+            ex = ex.getCause();
+        }
+        return ex;
+    }
+}
@@ -0,0 +1,157 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is "SMS Library for the Java platform".
+ *
+ * The Initial Developer of the Original Code is Markus Eriksson.
+ * Portions created by the Initial Developer are Copyright (C) 2002
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.marre.sms.transport;
+
+/**
+ * The outcome of sending one SmsPdu.
+ * 
+ * @author Markus Eriksson
+ * @version $Id$
+ */
+public class SmsPduResult
+{
+    private final String messageId_;
+    private final int messageReference_;
+    private final String response_;
+    private final long submitTime_;
+    private final long responseTime_;
+
+    /**
+     * Creates an SmsPduResult without timings.
+     * 
+     * @param messageId The identifier the SMS server gave the pdu, may be null
+     * @param response The raw response from the SMS server, may be null
+     */
+    public SmsPduResult(String messageId, String response)
+    {
+        this(messageId, -1, response, 0, 0);
+    }
+
+    /**
+     * Creates an SmsPduResult.
+     * 
+     * @param messageId The identifier the SMS server gave the pdu, may be null
+     * @param messageReference The TP-Message-Reference (0-255) that the modem
+     *            gave the pdu, or -1 if the pdu wasn't sent through a modem
+     * @param response The raw response from the SMS server, may be null
+     * @param submitTime When the transport started to send the pdu, in
+     *            milliseconds since the epoch, 0 if unknown
+     * @param responseTime When the SMS server responded, in milliseconds since
+     *            the epoch, 0 if unknown
+     */
+    public SmsPduResult(String messageId, int messageReference, String response, long submitTime, long responseTime)
+    {
+        messageId_ = messageId;
+        messageReference_ = messageReference;
+        response_ = response;
+        submitTime_ = submitTime;
+        responseTime_ = responseTime;
+    }
+
+    /**
+     * Returns the identifier that the SMS server gave this pdu.
+     * 
+     * This is the id that delivery receipts refer to.
+     * 
+     * @return The message id or null if the transport doesn't handle message ids
+     */
+    public String getMessageId()
+    {
+        return messageId_;
+    }
+
+    /**
+     * Returns the TP-Message-Reference that a GSM modem returned in the
+     * +CMGS response.
+     * 
+     * Status reports from the modem refer to this value.
+     * 
+     * @return The message reference (0-255) or -1 if unknown
+     */
+    public int getMessageReference()
+    {
+        return messageReference_;
+    }
+
+    /**
+     * Returns the raw response from the SMS server.
+     * 
+     * The format is specific to the SmsTransport implementation.
+     * 
+     * @return The response or null
+     */
+    public String getResponse()
+    {
+        return response_;
+    }
+
+    /**
+     * Returns when the transport started to send the pdu.
+     * 
+     * For a transport with a send queue this includes the time in the queue.
+     * 
+     * @return Milliseconds since the epoch, or 0 if unknown
+     */
+    public long getSubmitTime()
+    {
+        return submitTime_;
+    }
+
+    /**
+     * Returns when the SMS server responded to the pdu.
+     * 
+     * @return Milliseconds since the epoch, or 0 if unknown
+     */
+    public long getResponseTime()
+    {
+        return responseTime_;
+    }
+
+    /**
+     * Returns the time it took to get the response.
+     * 
+     * @return Milliseconds, or -1 if unknown
+     */
+    public long getLatency()
+    {
+        return (submitTime_ > 0 && responseTime_ > 0) ? responseTime_ - submitTime_ : -1;
+    }
+
+    public String toString()
+    {
+        return "SmsPduResult[messageId=" + messageId_ + ", messageReference=" + messageReference_
+                + ", latency=" + getLatency() + ", response=" + response_ + "]";
+    }
+}
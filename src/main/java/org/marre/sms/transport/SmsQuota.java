@@ -0,0 +1,155 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is "SMS Library for the Java platform".
+ *
+ * The Initial Developer of the Original Code is Markus Eriksson.
+ * Portions created by the Initial Developer are Copyright (C) 2002
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.marre.sms.transport;
+
+/**
+ * Local estimate of how much credit a gateway account has left.
+ * <p>
+ * The balance is set from balance checks and reduced by every message
+ * that is admitted, so that sends stop before the gateway starts
+ * rejecting them. When the gateway reports that the account is out of
+ * credit, nothing is admitted until the given time, or until a balance
+ * check finds credit again.
+ * <p>
+ * Before the first balance check the balance is unknown and only the
+ * gateway errors stop sends.
+ * 
+ * @author Markus Eriksson
+ * @version $Id$
+ */
+public class SmsQuota
+{
+    private final double reserve_;
+    private double balance_ = Double.NaN;
+    private long closedUntil_;
+
+    /**
+     * Creates a quota with an unknown balance.
+     * 
+     * @param reserve Credit to leave unused, messages that would bring the
+     *        balance below it are refused
+     */
+    public SmsQuota(double reserve)
+    {
+        reserve_ = reserve;
+    }
+
+    /**
+     * Admits a message if there is credit for it, and reserves the credit.
+     * 
+     * @param cost The credit the message will use
+     * @param now The current time in ms
+     * @return false if the message should not be sent
+     */
+    public synchronized boolean tryAcquire(double cost, long now)
+    {
+        if (now < closedUntil_)
+        {
+            return false;
+        }
+        if (Double.isNaN(balance_))
+        {
+            return true;
+        }
+        if (balance_ - cost < reserve_)
+        {
+            return false;
+        }
+        balance_ -= cost;
+        return true;
+    }
+
+    /**
+     * Gives back credit that was reserved for a message that the gateway
+     * didn't accept.
+     * 
+     * @param cost The credit that tryAcquire() reserved
+     */
+    public synchronized void release(double cost)
+    {
+        if (!Double.isNaN(balance_))
+        {
+            balance_ += cost;
+        }
+    }
+
+    /**
+     * Sets the balance that the gateway reported. Reopens the quota if the
+     * gateway has credit above the reserve.
+     * 
+     * @param balance The remaining credit, or Double.NaN if unknown
+     */
+    public synchronized void setBalance(double balance)
+    {
+        balance_ = balance;
+        if (!Double.isNaN(balance) && balance > reserve_)
+        {
+            closedUntil_ = 0;
+        }
+    }
+
+    /**
+     * Stops admitting messages after the gateway reported that the account
+     * is out of credit.
+     * 
+     * @param until The time in ms when messages may be tried again, or
+     *        Long.MAX_VALUE to wait for a balance check
+     */
+    public synchronized void close(long until)
+    {
+        closedUntil_ = Math.max(closedUntil_, until);
+    }
+
+    /**
+     * Returns the estimated credit.
+     * 
+     * @return The credit, or Double.NaN if it is unknown
+     */
+    public synchronized double getBalance()
+    {
+        return balance_;
+    }
+
+    /**
+     * Returns true if messages are refused because the gateway reported
+     * that the account is out of credit.
+     * 
+     * @param now The current time in ms
+     */
+    public synchronized boolean isClosed(long now)
+    {
+        return now < closedUntil_;
+    }
+}
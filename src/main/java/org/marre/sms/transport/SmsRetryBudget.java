@@ -0,0 +1,102 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is "SMS Library for the Java platform".
+ *
+ * The Initial Developer of the Original Code is Markus Eriksson.
+ * Portions created by the Initial Developer are Copyright (C) 2002
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.marre.sms.transport;
+
+/**
+ * Limits retries to a share of the first attempts.
+ * <p>
+ * Every first attempt deposits <code>ratio</code> tokens and every retry
+ * withdraws one. The balance is capped at <code>reserve</code> tokens, but at
+ * least one, and the budget starts full. When an SMS server starts to fail,
+ * the retries are limited to the reserve and then to <code>ratio</code> of
+ * the traffic, instead of multiplying the load by the number of attempts.
+ * 
+ * @author Markus Eriksson
+ * @version $Id$
+ */
+public class SmsRetryBudget
+{
+    private final double ratio_;
+    private final double max_;
+    private double balance_;
+
+    /**
+     * Creates a retry budget.
+     * 
+     * @param ratio Retries allowed per first attempt, e.g. 0.1 for 10%
+     * @param reserve Retries that can be made without new first attempts
+     */
+    public SmsRetryBudget(double ratio, int reserve)
+    {
+        if (ratio < 0 || reserve < 0)
+        {
+            throw new IllegalArgumentException("The retry ratio and reserve can't be negative");
+        }
+        ratio_ = ratio;
+        max_ = Math.max(reserve, 1);
+        balance_ = reserve;
+    }
+
+    /**
+     * Records a first attempt.
+     */
+    public synchronized void deposit()
+    {
+        balance_ = Math.min(max_, balance_ + ratio_);
+    }
+
+    /**
+     * Takes a token for a retry.
+     * 
+     * @return false if the budget is spent and the retry should not be made
+     */
+    public synchronized boolean tryWithdraw()
+    {
+        if (balance_ < 1.0)
+        {
+            return false;
+        }
+        balance_ -= 1.0;
+        return true;
+    }
+
+    /**
+     * @return The number of retries that can be made right now
+     */
+    public synchronized int getBalance()
+    {
+        return (int) balance_;
+    }
+}
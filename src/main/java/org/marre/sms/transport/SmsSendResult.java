@@ -0,0 +1,107 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is "SMS Library for the Java platform".
+ *
+ * The Initial Developer of the Original Code is Markus Eriksson.
+ * Portions created by the Initial Developer are Copyright (C) 2002
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.marre.sms.transport;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The outcome of sending an SmsMessage.
+ * <p>
+ * Contains one SmsPduResult for every pdu that the message was split into,
+ * in the same order as SmsMessage.getPdus().
+ * 
+ * @author Markus Eriksson
+ * @version $Id$
+ */
+public class SmsSendResult
+{
+    private final String messageId_;
+    private final List<SmsPduResult> pduResults_;
+
+    /**
+     * Creates an SmsSendResult.
+     * 
+     * @param messageId The local identifier for the message, may be null
+     * @param pduResults Result for each pdu
+     */
+    public SmsSendResult(String messageId, List<SmsPduResult> pduResults)
+    {
+        messageId_ = messageId;
+        pduResults_ = Collections.unmodifiableList(pduResults);
+    }
+
+    /**
+     * Creates an SmsSendResult from the results of the individual pdus.
+     * <p>
+     * The message id is taken from the last pdu, which is what the synchronous
+     * send method returns.
+     * 
+     * @param pduResults Result for each pdu
+     */
+    public SmsSendResult(List<SmsPduResult> pduResults)
+    {
+        this(pduResults.isEmpty() ? null : pduResults.get(pduResults.size() - 1).getMessageId(), pduResults);
+    }
+
+    /**
+     * Returns the local identifier for the message.
+     * 
+     * This is the same value as SmsTransport.send() returns.
+     * 
+     * @return The message id or null if the transport doesn't handle message ids
+     */
+    public String getMessageId()
+    {
+        return messageId_;
+    }
+
+    /**
+     * Returns the result for each pdu.
+     * 
+     * May be empty if the transport doesn't report per-pdu results.
+     * 
+     * @return An unmodifiable list of results
+     */
+    public List<SmsPduResult> getPduResults()
+    {
+        return pduResults_;
+    }
+
+    public String toString()
+    {
+        return "SmsSendResult[messageId=" + messageId_ + ", pdus=" + pduResults_ + "]";
+    }
+}
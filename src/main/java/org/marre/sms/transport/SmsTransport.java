@@ -35,7 +35,9 @@
 package org.marre.sms.transport;
 
 import java.io.IOException;
+import java.util.Collections;
 import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
 
 import org.marre.sms.SmsAddress;
 import org.marre.sms.SmsException;
@@ -100,6 +102,28 @@ public interface SmsTransport
      */
     String send(SmsMessage msg, SmsAddress dest, SmsAddress sender) throws SmsException, IOException;
 
+    /**
+     * Sends an SmsMessage to the given destination without blocking the caller.
+     * <p>
+     * The returned future completes with the outcome of every pdu, or exceptionally
+     * with the SmsException or IOException that send() would have thrown.
+     * <p>
+     * The default implementation runs send() on a shared thread pool so that it
+     * works for any transport. Transports that can have many requests in flight
+     * without a thread per request should override it.
+     * 
+     * @param msg The Message to send
+     * @param dest Destination address
+     * @param sender Sender address
+     * @return a future for the result of the send.
+     */
+    default CompletableFuture<SmsSendResult> sendAsync(final SmsMessage msg, final SmsAddress dest, final SmsAddress sender)
+    {
+        return SmsAsyncUtil.supplyAsync(
+                () -> new SmsSendResult(send(msg, dest, sender), Collections.<SmsPduResult>emptyList()),
+                SmsAsyncUtil.getDefaultExecutor());
+    }
+
     /**
      * Disconnects from the SMS server.
      * 
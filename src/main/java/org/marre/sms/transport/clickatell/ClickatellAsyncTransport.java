@@ -0,0 +1,179 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is "SMS Library for the Java platform".
+ *
+ * The Initial Developer of the Original Code is Markus Eriksson.
+ * Portions created by the Initial Developer are Copyright (C) 2002
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.marre.sms.transport.clickatell;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import org.marre.sms.SmsException;
+import org.marre.sms.transport.http.SmsHttpUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A ClickatellTransport that talks to clickatell with the non-blocking
+ * java.net.http client.
+ * <p>
+ * sendAsync() doesn't hold a thread while a request is in flight, so a
+ * single transport can have thousands of messages outstanding. If the
+ * server supports HTTP/2 all requests share one multiplexed connection.
+ * Authentication and the synchronous methods use the same client.
+ * <p>
+ * Besides the ClickatellTransport parameters this transport supports:
+ * <pre>
+ * <b>smsj.clickatell.http.version</b> - HTTP_2 or HTTP_1_1 (default HTTP_2)
+ * <b>smsj.clickatell.http.timeout</b> - Milliseconds to wait for a connection or a response (default 30000)
+ * </pre>
+ * 
+ * @author Markus Eriksson
+ * @version $Id$
+ */
+public class ClickatellAsyncTransport extends ClickatellTransport
+{
+    private static final Logger log_ = LoggerFactory.getLogger(ClickatellAsyncTransport.class);
+
+    private String httpVersion_;
+    private long timeout_;
+    private HttpClient httpClient_;
+
+    /**
+     * Creates a ClickatellAsyncTransport.
+     */
+    public ClickatellAsyncTransport()
+    {
+        // Empty
+    }
+
+    public void init(Properties properties) throws SmsException
+    {
+        super.init(properties);
+
+        httpVersion_ = properties.getProperty("smsj.clickatell.http.version", "HTTP_2");
+        try
+        {
+            HttpClient.Version.valueOf(httpVersion_);
+            timeout_ = Long.parseLong(properties.getProperty("smsj.clickatell.http.timeout", "30000"));
+        }
+        catch (IllegalArgumentException ex)
+        {
+            // Also covers NumberFormatException
+            throw new SmsException("Invalid HTTP setting for clickatell: " + ex.getMessage(), ex);
+        }
+    }
+
+    String[] sendRequest(String url, String requestString) throws ClickatellException, IOException
+    {
+        HttpResponse<byte[]> response;
+        try
+        {
+            response = getHttpClient().send(buildRequest(url, requestString), HttpResponse.BodyHandlers.ofByteArray());
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for clickatell");
+        }
+        return parseResponse(response);
+    }
+
+    CompletableFuture<String[]> sendRequestAsync(String url, String requestString)
+    {
+        return getHttpClient().sendAsync(buildRequest(url, requestString), HttpResponse.BodyHandlers.ofByteArray())
+                .thenApply(response -> {
+                    try
+                    {
+                        return parseResponse(response);
+                    }
+                    catch (ClickatellException | IOException ex)
+                    {
+                        throw new CompletionException(ex);
+                    }
+                });
+    }
+
+    private HttpRequest buildRequest(String url, String requestString)
+    {
+        log_.debug("sendRequest: posting : " + requestString + " to " + url);
+
+        return HttpRequest.newBuilder(URI.create(url))
+                .timeout(Duration.ofMillis(timeout_))
+                .header("Content-Type", "application/x-www-form-urlencoded; charset=ISO-8859-1")
+                .POST(HttpRequest.BodyPublishers.ofString(requestString, StandardCharsets.ISO_8859_1))
+                .build();
+    }
+
+    private static String[] parseResponse(HttpResponse<byte[]> response) throws ClickatellException, IOException
+    {
+        if (response.statusCode() >= 300)
+        {
+            throw new IOException("Clickatell returned HTTP " + response.statusCode());
+        }
+        return ClickatellTransport.parseResponse(new ByteArrayInputStream(response.body()));
+    }
+
+    private synchronized HttpClient getHttpClient()
+    {
+        if (httpClient_ == null)
+        {
+            httpClient_ = SmsHttpUtil.createAsyncClient(httpVersion_, timeout_);
+        }
+        return httpClient_;
+    }
+
+    /**
+     * Drops the HTTP client.
+     * <p>
+     * Requests that are in flight are completed, the connections are closed
+     * when they have been idle for a while.
+     */
+    public void disconnect() throws IOException
+    {
+        super.disconnect();
+        synchronized (this)
+        {
+            httpClient_ = null;
+        }
+    }
+}
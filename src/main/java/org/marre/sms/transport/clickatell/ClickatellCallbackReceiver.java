@@ -0,0 +1,223 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is "SMS Library for the Java platform".
+ *
+ * The Initial Developer of the Original Code is Markus Eriksson.
+ * Portions created by the Initial Developer are Copyright (C) 2002
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.marre.sms.transport.clickatell;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Receives the status callbacks that clickatell posts when
+ * <b>smsj.clickatell.callback</b> is set, and records them in a
+ * ClickatellStatusIndex.
+ * <p>
+ * Runs an embedded HTTP server. Both the GET and the form POST callback
+ * formats are understood, they carry apiMsgId, status and timestamp
+ * (seconds since the epoch). The server should be reachable by
+ * clickatell only, e.g. behind a reverse proxy, it doesn't authenticate
+ * the callbacks.
+ * 
+ * @author Markus Eriksson
+ * @version $Id$
+ */
+public class ClickatellCallbackReceiver
+{
+    private static final Logger log_ = LoggerFactory.getLogger(ClickatellCallbackReceiver.class);
+
+    private final ClickatellStatusIndex index_;
+    private final InetSocketAddress address_;
+    private final String path_;
+    private HttpServer server_;
+
+    /**
+     * Creates a receiver.
+     * 
+     * @param index Where the statuses go
+     * @param address Address to listen on, port 0 picks a free port
+     * @param path The callback path, e.g. "/clickatell/status"
+     */
+    public ClickatellCallbackReceiver(ClickatellStatusIndex index, InetSocketAddress address, String path)
+    {
+        index_ = index;
+        address_ = address;
+        path_ = path;
+    }
+
+    /**
+     * Starts listening for callbacks.
+     * 
+     * @throws IOException If the address can't be bound
+     */
+    public synchronized void start() throws IOException
+    {
+        if (server_ != null)
+        {
+            return;
+        }
+
+        server_ = HttpServer.create(address_, 0);
+        server_.createContext(path_, this::handle);
+        server_.start();
+        log_.info("Listening for clickatell callbacks on " + server_.getAddress() + path_);
+    }
+
+    /**
+     * Stops listening. Callbacks that are being handled are allowed to finish.
+     */
+    public synchronized void stop()
+    {
+        if (server_ != null)
+        {
+            server_.stop(1);
+            server_ = null;
+        }
+    }
+
+    /**
+     * Returns the address that the receiver listens on.
+     * 
+     * @return The address, or null if it isn't started
+     */
+    public synchronized InetSocketAddress getAddress()
+    {
+        return (server_ == null) ? null : server_.getAddress();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException
+    {
+        // Anything but 200 makes clickatell send the callback again
+        int responseCode = 500;
+        try
+        {
+            String query = "POST".equalsIgnoreCase(exchange.getRequestMethod()) ? readBody(exchange)
+                                                                                 : exchange.getRequestURI().getRawQuery();
+            ClickatellMessageStatus status;
+            try
+            {
+                status = parseCallback(parseParameters(query));
+            }
+            catch (IllegalArgumentException ex)
+            {
+                // Malformed %-encoding
+                status = null;
+            }
+
+            if (status == null)
+            {
+                log_.warn("Invalid clickatell callback: " + query);
+                responseCode = 400;
+            }
+            else
+            {
+                log_.debug("Callback: " + status);
+                index_.update(status);
+                responseCode = 200;
+            }
+        }
+        finally
+        {
+            exchange.sendResponseHeaders(responseCode, -1);
+            exchange.close();
+        }
+    }
+
+    /**
+     * Creates a status from the callback parameters.
+     * 
+     * @return The status, or null if a parameter is missing or invalid
+     */
+    static ClickatellMessageStatus parseCallback(Map<String, String> params)
+    {
+        String messageId = params.get("apiMsgId");
+        String status = params.get("status");
+        if (messageId == null || messageId.length() == 0 || status == null)
+        {
+            return null;
+        }
+
+        try
+        {
+            String timestamp = params.get("timestamp");
+            long time = (timestamp == null) ? System.currentTimeMillis() : Long.parseLong(timestamp) * 1000L;
+            return new ClickatellMessageStatus(messageId, Integer.parseInt(status), time);
+        }
+        catch (NumberFormatException ex)
+        {
+            return null;
+        }
+    }
+
+    private static Map<String, String> parseParameters(String query) throws IOException
+    {
+        Map<String, String> params = new HashMap<String, String>();
+        if (query == null)
+        {
+            return params;
+        }
+
+        for (String param : query.split("&"))
+        {
+            int eq = param.indexOf('=');
+            if (eq > 0)
+            {
+                params.put(URLDecoder.decode(param.substring(0, eq), "UTF-8"), URLDecoder.decode(param.substring(eq + 1), "UTF-8"));
+            }
+        }
+        return params;
+    }
+
+    private static String readBody(HttpExchange exchange) throws IOException
+    {
+        InputStream in = exchange.getRequestBody();
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int n;
+        while ((n = in.read(buffer)) >= 0)
+        {
+            body.write(buffer, 0, n);
+        }
+        return body.toString("UTF-8");
+    }
+}
@@ -42,6 +42,9 @@ class ClickatellException extends Exception
 
     public static final int ERROR_AUTH_FAILED = 1;
     public static final int ERROR_SESSION_ID_EXPIRED = 3;
+    public static final int ERROR_NO_CREDIT = 301;
+    public static final int ERROR_MAX_CREDIT = 302;
+    public static final int ERROR_INTERNAL = 901;
 
     private final int errId_;
 
@@ -61,4 +64,22 @@ class ClickatellException extends Exception
     {
         return errId_;
     }
+
+    /**
+     * Errors 101-199 concern the message or its recipient, not the account
+     * or the session.
+     */
+    boolean isRecipientError()
+    {
+        return errId_ > 100 && errId_ < 200;
+    }
+
+    /**
+     * Errors 301 and 302, the account is out of credit or has reached its
+     * credit limit.
+     */
+    boolean isQuotaError()
+    {
+        return errId_ == ERROR_NO_CREDIT || errId_ == ERROR_MAX_CREDIT;
+    }
 }
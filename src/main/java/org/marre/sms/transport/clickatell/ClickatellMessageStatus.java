@@ -0,0 +1,188 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is "SMS Library for the Java platform".
+ *
+ * The Initial Developer of the Original Code is Markus Eriksson.
+ * Portions created by the Initial Developer are Copyright (C) 2002
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.marre.sms.transport.clickatell;
+
+/**
+ * The delivery status of a message sent with clickatell.
+ * <p>
+ * The status codes are the ones from the "Clickatell HTTP API v. 2.2.4",
+ * both querymsg and the status callbacks use them.
+ * 
+ * @author Markus Eriksson
+ * @version $Id$
+ */
+public final class ClickatellMessageStatus
+{
+    /** No status has been received yet, not a clickatell code. */
+    public static final int STATUS_NONE = 0;
+    /**
+     * querymsg answered with an error for the message id, e.g. "ERR: 116,
+     * Invalid unique identifier". Not a clickatell code.
+     */
+    public static final int STATUS_QUERY_ERROR = -1;
+    /** Message unknown. */
+    public static final int STATUS_UNKNOWN = 1;
+    /** Message queued. */
+    public static final int STATUS_QUEUED = 2;
+    /** Delivered to gateway. */
+    public static final int STATUS_DELIVERED_TO_GATEWAY = 3;
+    /** Received by recipient. */
+    public static final int STATUS_RECEIVED = 4;
+    /** Error with message. */
+    public static final int STATUS_ERROR_WITH_MESSAGE = 5;
+    /** User cancelled message delivery. */
+    public static final int STATUS_CANCELLED = 6;
+    /** Error delivering message. */
+    public static final int STATUS_ERROR_DELIVERING = 7;
+    /** OK, message received by the gateway. */
+    public static final int STATUS_OK = 8;
+    /** Routing error. */
+    public static final int STATUS_ROUTING_ERROR = 9;
+    /** Message expired. */
+    public static final int STATUS_EXPIRED = 10;
+    /** Message queued for later delivery. */
+    public static final int STATUS_DELAYED = 11;
+    /** Out of credit. */
+    public static final int STATUS_OUT_OF_CREDIT = 12;
+    /** Maximum MT limit exceeded. */
+    public static final int STATUS_MAX_MT_EXCEEDED = 14;
+
+    private static final String STATUS = "Status:";
+
+    private final String messageId_;
+    private final int status_;
+    private final long timestamp_;
+
+    /**
+     * Creates a status.
+     * 
+     * @param messageId The clickatell message id (apimsgid)
+     * @param status One of the STATUS_ codes
+     * @param timestamp When the status was reported, in milliseconds since the epoch
+     */
+    public ClickatellMessageStatus(String messageId, int status, long timestamp)
+    {
+        messageId_ = messageId;
+        status_ = status;
+        timestamp_ = timestamp;
+    }
+
+    /**
+     * Parses a querymsg response, "apimsgid Status: 004".
+     * 
+     * @param value The response without "ID: "
+     * @param timestamp When the response was received
+     * @return The status, or null if the value isn't a status
+     */
+    static ClickatellMessageStatus parse(String value, long timestamp)
+    {
+        int pos = value.indexOf(STATUS);
+        if (pos <= 0)
+        {
+            return null;
+        }
+
+        String messageId = value.substring(0, pos).trim();
+        int start = pos + STATUS.length();
+        while (start < value.length() && value.charAt(start) == ' ')
+        {
+            start++;
+        }
+        int end = start;
+        while (end < value.length() && value.charAt(end) >= '0' && value.charAt(end) <= '9')
+        {
+            end++;
+        }
+        if (messageId.length() == 0 || end == start)
+        {
+            return null;
+        }
+        return new ClickatellMessageStatus(messageId, Integer.parseInt(value.substring(start, end)), timestamp);
+    }
+
+    public String getMessageId()
+    {
+        return messageId_;
+    }
+
+    /**
+     * Returns the status code.
+     * 
+     * @return One of the STATUS_ codes
+     */
+    public int getStatus()
+    {
+        return status_;
+    }
+
+    /**
+     * Returns when the status was reported.
+     * 
+     * @return Milliseconds since the epoch
+     */
+    public long getTimestamp()
+    {
+        return timestamp_;
+    }
+
+    /**
+     * Returns true if the status won't change any more, the message has
+     * been delivered or has failed.
+     */
+    public boolean isFinal()
+    {
+        switch (status_)
+        {
+        case STATUS_RECEIVED:
+        case STATUS_ERROR_WITH_MESSAGE:
+        case STATUS_CANCELLED:
+        case STATUS_ERROR_DELIVERING:
+        case STATUS_ROUTING_ERROR:
+        case STATUS_EXPIRED:
+        case STATUS_OUT_OF_CREDIT:
+        case STATUS_MAX_MT_EXCEEDED:
+        case STATUS_QUERY_ERROR:
+            return true;
+
+        default:
+            return false;
+        }
+    }
+
+    public String toString()
+    {
+        return messageId_ + " Status: " + status_;
+    }
+}
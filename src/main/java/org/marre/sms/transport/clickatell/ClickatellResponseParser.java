@@ -0,0 +1,333 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is "SMS Library for the Java platform".
+ *
+ * The Initial Developer of the Original Code is Markus Eriksson.
+ * Portions created by the Initial Developer are Copyright (C) 2002
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.marre.sms.transport.clickatell;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+/**
+ * Reads the lines of a clickatell HTTP API response straight from the
+ * response stream.
+ * <p>
+ * Understands "OK: sessionid", "ID: apimsgid", "ERR: 114, description" and
+ * the multi-recipient forms "ID: apimsgid To: 46701234567" and
+ * "ERR: 114, description To: 46701234567". The lines are split in place,
+ * without regular expressions or format objects, and only the strings that
+ * the caller asks for are created.
+ * 
+ * <pre>
+ * ClickatellResponseParser parser = new ClickatellResponseParser(in);
+ * while (parser.next())
+ * {
+ *     if (parser.isError()) ...
+ * }
+ * </pre>
+ * 
+ * @author Markus Eriksson
+ * @version $Id$
+ */
+final class ClickatellResponseParser
+{
+    private static final Charset CHARSET = Charset.forName("ISO-8859-1");
+    private static final byte[] TO = { ' ', 'T', 'o', ':', ' ' };
+
+    private final InputStream in_;
+    private final byte[] buffer_;
+    private int pos_;
+    private int limit_;
+
+    private byte[] line_ = new byte[128];
+    private int lineLength_;
+
+    private boolean error_;
+    private int errorCode_;
+    private int valueStart_;
+    private int valueEnd_;
+    private int recipientStart_;
+
+    ClickatellResponseParser(InputStream in)
+    {
+        this(in, 4096);
+    }
+
+    ClickatellResponseParser(InputStream in, int bufferSize)
+    {
+        in_ = in;
+        buffer_ = new byte[bufferSize];
+    }
+
+    /**
+     * Moves to the next non-empty line.
+     * 
+     * @return false at the end of the response
+     * @throws ClickatellException If the line isn't a clickatell response
+     * @throws IOException If the stream fails
+     */
+    boolean next() throws ClickatellException, IOException
+    {
+        while (readLine())
+        {
+            if (lineLength_ > 0)
+            {
+                parseLine();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns true if the current line is an "ERR:" line.
+     */
+    boolean isError()
+    {
+        return error_;
+    }
+
+    /**
+     * Returns the error number of an "ERR:" line.
+     * 
+     * @return The error number, or ClickatellException.ERROR_UNKNOWN if the
+     *         line has none
+     */
+    int getErrorCode()
+    {
+        return errorCode_;
+    }
+
+    /**
+     * Returns the value of the current line, without the recipient.
+     * 
+     * @return The session id or message id, or the error description of an
+     *         "ERR:" line
+     */
+    String getValue()
+    {
+        return new String(line_, valueStart_, valueEnd_ - valueStart_, CHARSET);
+    }
+
+    /**
+     * Returns the recipient of a multi-recipient response.
+     * 
+     * @return The number after "To:", or null if the line has none
+     */
+    String getRecipient()
+    {
+        if (recipientStart_ < 0)
+        {
+            return null;
+        }
+        return new String(line_, recipientStart_, lineLength_ - recipientStart_, CHARSET);
+    }
+
+    /**
+     * Returns the value and the recipient, e.g. "apimsgid To: 46701234567".
+     */
+    String getValueAndRecipient()
+    {
+        return new String(line_, valueStart_, lineLength_ - valueStart_, CHARSET);
+    }
+
+    /**
+     * Returns the whole current line.
+     */
+    String getLine()
+    {
+        return new String(line_, 0, lineLength_, CHARSET);
+    }
+
+    /**
+     * Copies the next line into line_, without the line terminator and
+     * surrounding white space.
+     * 
+     * @return false if the stream has ended
+     */
+    private boolean readLine() throws IOException
+    {
+        lineLength_ = 0;
+        boolean read = false;
+        while (true)
+        {
+            if (pos_ == limit_)
+            {
+                limit_ = in_.read(buffer_, 0, buffer_.length);
+                pos_ = 0;
+                if (limit_ < 0)
+                {
+                    limit_ = 0;
+                    break;
+                }
+                continue;
+            }
+
+            read = true;
+            int end = pos_;
+            while (end < limit_ && buffer_[end] != '\n')
+            {
+                end++;
+            }
+            append(pos_, end - pos_);
+            if (end < limit_)
+            {
+                // Skip the '\n'
+                pos_ = end + 1;
+                break;
+            }
+            pos_ = end;
+        }
+
+        while (lineLength_ > 0 && isSpace(line_[lineLength_ - 1]))
+        {
+            lineLength_--;
+        }
+        int start = 0;
+        while (start < lineLength_ && isSpace(line_[start]))
+        {
+            start++;
+        }
+        if (start > 0)
+        {
+            lineLength_ -= start;
+            System.arraycopy(line_, start, line_, 0, lineLength_);
+        }
+        return read;
+    }
+
+    private void append(int offset, int length)
+    {
+        if (lineLength_ + length > line_.length)
+        {
+            byte[] line = new byte[Math.max(line_.length * 2, lineLength_ + length)];
+            System.arraycopy(line_, 0, line, 0, lineLength_);
+            line_ = line;
+        }
+        System.arraycopy(buffer_, offset, line_, lineLength_, length);
+        lineLength_ += length;
+    }
+
+    private static boolean isSpace(byte b)
+    {
+        return b == ' ' || b == '\t' || b == '\r';
+    }
+
+    private void parseLine() throws ClickatellException
+    {
+        int colon = indexOf((byte) ':', 0);
+        if (colon < 0)
+        {
+            throw new ClickatellException("Unexpected response from Clickatell. : " + getLine(),
+                    ClickatellException.ERROR_UNKNOWN);
+        }
+
+        error_ = (colon == 3) && (line_[0] | 0x20) == 'e' && (line_[1] | 0x20) == 'r' && (line_[2] | 0x20) == 'r';
+        int start = skipSpaces(colon + 1);
+        int end = lineLength_;
+
+        recipientStart_ = -1;
+        int to = lastIndexOfTo(start);
+        if (to >= 0)
+        {
+            recipientStart_ = to + TO.length;
+            end = to;
+        }
+
+        errorCode_ = ClickatellException.ERROR_UNKNOWN;
+        if (error_)
+        {
+            // "114, Cannot route message"
+            int pos = start;
+            int code = 0;
+            while (pos < end && line_[pos] >= '0' && line_[pos] <= '9')
+            {
+                code = code * 10 + (line_[pos] - '0');
+                pos++;
+            }
+            if (pos > start)
+            {
+                errorCode_ = code;
+                if (pos < end && line_[pos] == ',')
+                {
+                    pos++;
+                }
+                start = skipSpaces(pos);
+            }
+        }
+
+        valueStart_ = Math.min(start, end);
+        valueEnd_ = end;
+    }
+
+    private int indexOf(byte b, int from)
+    {
+        for (int i = from; i < lineLength_; i++)
+        {
+            if (line_[i] == b)
+            {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int skipSpaces(int from)
+    {
+        while (from < lineLength_ && line_[from] == ' ')
+        {
+            from++;
+        }
+        return from;
+    }
+
+    /**
+     * Finds the last " To: " that starts at or after from.
+     */
+    private int lastIndexOfTo(int from)
+    {
+        for (int i = lineLength_ - TO.length; i >= from; i--)
+        {
+            int j = 0;
+            while (j < TO.length && line_[i + j] == TO[j])
+            {
+                j++;
+            }
+            if (j == TO.length)
+            {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,160 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is "SMS Library for the Java platform".
+ *
+ * The Initial Developer of the Original Code is Markus Eriksson.
+ * Portions created by the Initial Developer are Copyright (C) 2002
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.marre.sms.transport.clickatell;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Keeps the latest delivery status of each message, keyed on the clickatell
+ * message id.
+ * <p>
+ * The index is filled by ClickatellTransport when messages are sent, by
+ * ClickatellStatusPoller and by ClickatellCallbackReceiver. All methods are
+ * thread safe. Callbacks can arrive out of order, so a final status is
+ * never replaced by an intermediate one.
+ * 
+ * @author Markus Eriksson
+ * @version $Id$
+ */
+public class ClickatellStatusIndex
+{
+    private final ConcurrentMap<String, ClickatellMessageStatus> statuses_ =
+        new ConcurrentHashMap<String, ClickatellMessageStatus>();
+
+    /**
+     * Creates an empty index.
+     */
+    public ClickatellStatusIndex()
+    {
+        // Empty
+    }
+
+    /**
+     * Starts tracking a message. Does nothing if it is already tracked.
+     * 
+     * @param messageId The clickatell message id
+     */
+    public void track(String messageId)
+    {
+        statuses_.putIfAbsent(messageId,
+                new ClickatellMessageStatus(messageId, ClickatellMessageStatus.STATUS_NONE, System.currentTimeMillis()));
+    }
+
+    /**
+     * Records a status.
+     * 
+     * @param status The new status
+     * @return false if it was ignored because the message already has a
+     *         final status
+     */
+    public boolean update(final ClickatellMessageStatus status)
+    {
+        ClickatellMessageStatus current = statuses_.merge(status.getMessageId(), status,
+                (oldStatus, newStatus) -> oldStatus.isFinal() ? oldStatus : newStatus);
+        return current == status;
+    }
+
+    /**
+     * Returns the latest status of a message.
+     * 
+     * @param messageId The clickatell message id
+     * @return The status, or null if the message isn't tracked
+     */
+    public ClickatellMessageStatus get(String messageId)
+    {
+        return statuses_.get(messageId);
+    }
+
+    /**
+     * Returns the messages that don't have a final status yet.
+     */
+    public List<String> getPendingIds()
+    {
+        List<String> pending = new ArrayList<String>();
+        for (ClickatellMessageStatus status : statuses_.values())
+        {
+            if (!status.isFinal())
+            {
+                pending.add(status.getMessageId());
+            }
+        }
+        return pending;
+    }
+
+    /**
+     * Stops tracking a message.
+     * 
+     * @param messageId The clickatell message id
+     * @return The last status, or null if the message wasn't tracked
+     */
+    public ClickatellMessageStatus remove(String messageId)
+    {
+        return statuses_.remove(messageId);
+    }
+
+    /**
+     * Drops messages that got a final status before the given time, so that
+     * the index doesn't grow without bounds.
+     * 
+     * @param before Milliseconds since the epoch
+     * @return The number of dropped messages
+     */
+    public int removeFinal(long before)
+    {
+        int removed = 0;
+        for (Iterator<ClickatellMessageStatus> i = statuses_.values().iterator(); i.hasNext();)
+        {
+            ClickatellMessageStatus status = i.next();
+            if (status.isFinal() && status.getTimestamp() < before)
+            {
+                i.remove();
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Returns the number of tracked messages.
+     */
+    public int size()
+    {
+        return statuses_.size();
+    }
+}
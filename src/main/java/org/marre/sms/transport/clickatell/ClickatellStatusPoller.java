@@ -0,0 +1,159 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is "SMS Library for the Java platform".
+ *
+ * The Initial Developer of the Original Code is Markus Eriksson.
+ * Portions created by the Initial Developer are Copyright (C) 2002
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.marre.sms.transport.clickatell;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.marre.sms.SmsException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Polls clickatell for the delivery status of the pending messages in a
+ * ClickatellStatusIndex.
+ * <p>
+ * Each round queries all messages that don't have a final status yet, in
+ * as few requests as the transport allows, see
+ * ClickatellTransport.queryStatus(). Ids that clickatell answers with an
+ * error get the final STATUS_QUERY_ERROR and are not polled again, any
+ * other failed round is logged and retried at the next interval.
+ * 
+ * <pre>
+ * ClickatellStatusIndex index = new ClickatellStatusIndex();
+ * transport.setStatusIndex(index);
+ * ClickatellStatusPoller poller = new ClickatellStatusPoller(transport, index, 60000);
+ * poller.start();
+ * </pre>
+ * 
+ * @author Markus Eriksson
+ * @version $Id$
+ */
+public class ClickatellStatusPoller
+{
+    private static final Logger log_ = LoggerFactory.getLogger(ClickatellStatusPoller.class);
+
+    private final ClickatellTransport transport_;
+    private final ClickatellStatusIndex index_;
+    private final long interval_;
+    private ScheduledExecutorService scheduler_;
+
+    /**
+     * Creates a poller.
+     * 
+     * @param transport A connected transport
+     * @param index The messages to poll for, and where the results go
+     * @param interval Milliseconds between the rounds
+     */
+    public ClickatellStatusPoller(ClickatellTransport transport, ClickatellStatusIndex index, long interval)
+    {
+        transport_ = transport;
+        index_ = index;
+        interval_ = interval;
+    }
+
+    /**
+     * Starts polling in a background thread.
+     */
+    public synchronized void start()
+    {
+        if (scheduler_ != null)
+        {
+            return;
+        }
+
+        scheduler_ = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "smsj-clickatell-status");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler_.scheduleWithFixedDelay(() -> {
+            try
+            {
+                poll();
+            }
+            catch (Exception ex)
+            {
+                log_.warn("Failed to poll clickatell for message status", ex);
+            }
+        }, interval_, interval_, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops polling. A round that is running is allowed to finish.
+     */
+    public synchronized void stop()
+    {
+        if (scheduler_ != null)
+        {
+            scheduler_.shutdown();
+            scheduler_ = null;
+        }
+    }
+
+    /**
+     * Runs one round in the calling thread.
+     * 
+     * @return The number of messages that got a new status
+     * @throws SmsException If clickatell rejected the query
+     * @throws IOException If we fail to talk to clickatell
+     */
+    public int poll() throws SmsException, IOException
+    {
+        List<String> pending = index_.getPendingIds();
+        if (pending.isEmpty())
+        {
+            return 0;
+        }
+
+        int updated = 0;
+        for (ClickatellMessageStatus status : transport_.queryStatus(pending))
+        {
+            ClickatellMessageStatus current = index_.get(status.getMessageId());
+            if (current == null || current.getStatus() != status.getStatus())
+            {
+                if (index_.update(status))
+                {
+                    updated++;
+                }
+            }
+        }
+        log_.debug("Polled " + pending.size() + " messages, " + updated + " changed status");
+        return updated;
+    }
+}
@@ -38,29 +38,55 @@ import org.marre.sms.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
 import java.io.UnsupportedEncodingException;
-import java.net.URL;
-import java.net.URLConnection;
 import java.net.URLEncoder;
-import java.text.MessageFormat;
-import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
+import org.apache.http.HttpEntity;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.util.EntityUtils;
+import org.marre.sms.transport.SmsAsyncUtil;
+import org.marre.sms.transport.SmsPduResult;
+import org.marre.sms.transport.SmsQuotaException;
+import org.marre.sms.transport.SmsQuotaSource;
+import org.marre.sms.transport.SmsSendResult;
 import org.marre.sms.transport.SmsTransport;
-import org.marre.util.StringUtil;
+import org.marre.sms.transport.http.SmsHttpParameters;
+import org.marre.sms.transport.http.SmsHttpUtil;
 
 /**
  * An SmsTransport that sends the SMS with clickatell over HTTP.
  * <p>
  * It is developed to use the "Clickatell HTTP API v. 2.2.4".
  * <p>
+ * Requests are posted over a pool of keep-alive HTTP connections, so TCP and
+ * TLS setup is only paid when a new connection is opened. Call disconnect()
+ * to close the pool.
+ * <p>
+ * A transport can be shared by many threads. They all use the same session
+ * id. When it expires only one thread authenticates again, the others wait
+ * for the new session id. A session that has been idle for almost
+ * <b>smsj.clickatell.session.timeout</b> is renewed before it is used, so
+ * that requests don't fail on a session that clickatell has just dropped.
+ * <p>
+ * Errors 301 and 302, out of credit, are thrown as SmsQuotaException.
+ * Wrap the transport in a QuotaTransport to stop sending before clickatell
+ * starts rejecting messages.
+ * <p>
  * 
  * Known limitations:<br>
  * - Cannot send 8-Bit messages without an UDH.<br>
@@ -71,15 +97,28 @@ import org.marre.util.StringUtil;
  * @author Markus Eriksson
  * @version $Id$
  */
-public class ClickatellTransport implements SmsTransport
+public class ClickatellTransport implements SmsTransport, SmsQuotaSource
 {
     private static final Logger log_ = LoggerFactory.getLogger(ClickatellTransport.class);
 
     private String username_;
     private String password_;
     private String apiId_;
-    private String sessionId_;
+    private volatile String sessionId_;
+    /** When the session was last used, it expires after sessionTimeout_ of inactivity. */
+    private volatile long sessionUsed_;
+    private long sessionTimeout_;
+    /** Held while authenticating, so that only one thread renews the session. */
+    private final Object sessionLock_ = new Object();
     private String protocol_;
+    private String baseUrl_;
+    private int poolSize_;
+    private long idleTimeout_;
+    private int batchSize_;
+    private int statusBatchSize_;
+    private String callback_;
+    private volatile ClickatellStatusIndex statusIndex_;
+    private CloseableHttpClient httpClient_;
 
     /** Required feature "Text". Set by default. */
     public static final int FEAT_TEXT = 0x0001;
@@ -109,81 +148,142 @@ public class ClickatellTransport implements SmsTransport
      * 
      * @param url the url to clickatell
      * @param requestString parameters to send
-     * @return An array of responses (sessionid or msgid)
+     * @return An array of responses (sessionid or msgid). For a request with
+     *         several recipients each element is "msgid To: recipient", or
+     *         the whole "ERR: ... To: recipient" line if that recipient failed.
      * @throws ClickatellException
      * @throws IOException
      */
-    private String[] sendRequest(String url, String requestString) throws ClickatellException, IOException
+    String[] sendRequest(String url, String requestString) throws ClickatellException, IOException
     {
-        String response = null;
-        MessageFormat responseFormat = new MessageFormat("{0}: {1}");
-
-        List idList = new LinkedList();
-
         //
         // Send request to clickatell
         //
+        log_.debug("sendRequest: posting : " + requestString + " to " + url);
+
+        HttpPost post = new HttpPost(url);
+        post.setEntity(new StringEntity(requestString, ContentType.APPLICATION_FORM_URLENCODED));
+
+        CloseableHttpResponse httpResponse = getHttpClient().execute(post);
+        HttpEntity entity = httpResponse.getEntity();
         try
         {
-            log_.debug("sendRequest: posting : " + requestString + " to " + url);
-            
-            URL requestURL = new URL(url);
-            URLConnection urlConn = requestURL.openConnection();
-            urlConn.setDoInput(true);
-            urlConn.setDoOutput(true);
-            urlConn.setUseCaches(false);
-            urlConn.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
-
-            // Send request
-            PrintWriter pw = new PrintWriter(urlConn.getOutputStream());
-            pw.print(requestString);                     
-            pw.flush();
-            pw.close();
-            
-            // Connect
-            InputStream is = urlConn.getInputStream(); 
-            BufferedReader responseReader = new BufferedReader(new InputStreamReader(is));
-
-            // Read response
-            while ((response = responseReader.readLine()) != null)
+            int status = httpResponse.getStatusLine().getStatusCode();
+            if (status >= 300)
             {
-                // Parse response
-                Object[] objs = responseFormat.parse(response);
-                if ("ERR".equalsIgnoreCase((String) objs[0]))
+                throw new IOException("Clickatell returned HTTP " + status + " for " + url);
+            }
+            if (entity == null)
+            {
+                throw new ClickatellException("Empty response from Clickatell", ClickatellException.ERROR_UNKNOWN);
+            }
+
+            return parseResponse(entity.getContent());
+        }
+        finally
+        {
+            // Read what is left so that the connection goes back to the pool
+            EntityUtils.consumeQuietly(entity);
+            httpResponse.close();
+        }
+    }
+
+    /**
+     * Reads the response to a request.
+     * 
+     * @param in The response body
+     * @return An array of responses, see sendRequest
+     * @throws ClickatellException If clickatell returned an error
+     * @throws IOException If the stream fails
+     */
+    static String[] parseResponse(InputStream in) throws ClickatellException, IOException
+    {
+        List<String> idList = new ArrayList<String>();
+
+        ClickatellResponseParser parser = new ClickatellResponseParser(in);
+        while (parser.next())
+        {
+            if (parser.isError())
+            {
+                if (parser.getRecipient() != null)
                 {
-                    MessageFormat errorFormat = new MessageFormat("{0}: {1}, {2}");
-                    Object[] errObjs = errorFormat.parse(response);
-                    
-                    // Error message...
-                    String errorNo = (String) errObjs[1];
-                    String description = (String) errObjs[2];
-                    throw new ClickatellException("Clickatell error. Error " + errorNo + ", " + description, 
-                                                  Integer.parseInt(errorNo));
+                    // Only this recipient failed
+                    idList.add(parser.getLine());
+                    continue;
                 }
-                
-                log_.debug("sendRequest: Got ID : " + (objs[1]));
-                idList.add(objs[1]);
+
+                throw new ClickatellException("Clickatell error. Error " + parser.getErrorCode() + ", " + parser.getValue(),
+                                              parser.getErrorCode());
             }
-            responseReader.close();
+
+            String id = (parser.getRecipient() != null) ? parser.getValueAndRecipient() : parser.getValue();
+            log_.debug("sendRequest: Got ID : " + id);
+            idList.add(id);
         }
-        catch (ParseException ex)
+
+        return idList.toArray(new String[idList.size()]);
+    }
+
+    /**
+     * Sends a request to clickatell without blocking the caller.
+     * <p>
+     * This implementation runs sendRequest() on the shared async pool.
+     * ClickatellAsyncTransport overrides it with a non-blocking client.
+     * 
+     * @param url the url to clickatell
+     * @param requestString parameters to send
+     * @return A future with the responses, see sendRequest, that fails with
+     *         a ClickatellException or an IOException
+     */
+    CompletableFuture<String[]> sendRequestAsync(final String url, final String requestString)
+    {
+        final CompletableFuture<String[]> future = new CompletableFuture<String[]>();
+        SmsAsyncUtil.getDefaultExecutor().execute(() -> {
+            try
+            {
+                future.complete(sendRequest(url, requestString));
+            }
+            catch (Throwable ex)
+            {
+                future.completeExceptionally(ex);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Returns the pooled HTTP client, creating it on first use.
+     * <p>
+     * Connections are kept alive between requests so that only the first
+     * request on each connection pays for the TCP and TLS handshakes.
+     */
+    private synchronized CloseableHttpClient getHttpClient()
+    {
+        if (httpClient_ == null)
         {
-            throw new ClickatellException("Unexpected response from Clickatell. : " + response,
-                    ClickatellException.ERROR_UNKNOWN);
+            httpClient_ = SmsHttpUtil.createPooledClient(poolSize_, idleTimeout_);
         }
-
-        return (String[]) idList.toArray(new String[idList.size()]);
+        return httpClient_;
     }
 
-    private String[] sendRequestWithRetry(String url, String requestString)
+    /**
+     * Sends a request that needs a session, and renews the session once if
+     * clickatell says that it has expired.
+     * 
+     * @param url the url to clickatell
+     * @param params parameters to send, the session_id is added here
+     * @return An array of responses, see sendRequest
+     */
+    private String[] sendRequestWithRetry(String url, String params)
         throws SmsException, IOException
     {
         String[] msgIds;
+        String sessionId = getSessionId();
         
         // Send request to clickatell
         try
         {
-            msgIds = sendRequest(url, requestString);
+            msgIds = sendRequest(url, buildSessionRequest(sessionId, params));
         }
         catch (ClickatellException ex)
         {
@@ -193,29 +293,225 @@ public class ClickatellTransport implements SmsTransport
             // they are using "Authentication failed" instead
             case ClickatellException.ERROR_AUTH_FAILED:
             case ClickatellException.ERROR_SESSION_ID_EXPIRED:
-                // Try to get a new session id
-                connect();
+                // Try to get a new session id, unless another thread already has
+                sessionId = renewSession(sessionId);
     
-                // Retry the request...
-                // OK, this is a bit ugly...
+                // Retry the request with the new session id...
                 try
                 {
-                    msgIds = sendRequest(url, requestString);
+                    msgIds = sendRequest(url, buildSessionRequest(sessionId, params));
                 }
                 catch (ClickatellException ex2)
                 {
-                    throw new SmsException(ex2.getMessage());
+                    throw toSmsException(ex2);
                 }
                 break;
     
             case ClickatellException.ERROR_UNKNOWN:
             default:
-                throw new SmsException(ex.getMessage());
+                throw toSmsException(ex);
             }
         }
         
         return msgIds;
     }
+
+    /**
+     * The non-blocking version of sendRequestWithRetry().
+     * 
+     * @return A future with the responses that fails with an SmsException or IOException
+     */
+    private CompletableFuture<String[]> sendRequestWithRetryAsync(final String url, final String params)
+    {
+        return getSessionIdAsync().thenCompose(sessionId -> sendRequestWithRetryAsync(url, params, sessionId));
+    }
+
+    private CompletableFuture<String[]> sendRequestWithRetryAsync(final String url, final String params,
+            final String sessionId)
+    {
+        return sendRequestAsync(url, buildSessionRequest(sessionId, params)).handle((msgIds, ex) -> {
+            if (ex == null)
+            {
+                return CompletableFuture.completedFuture(msgIds);
+            }
+
+            Throwable cause = SmsAsyncUtil.unwrap(ex);
+            if (cause instanceof ClickatellException)
+            {
+                int errId = ((ClickatellException) cause).getErrId();
+                if (errId == ClickatellException.ERROR_AUTH_FAILED || errId == ClickatellException.ERROR_SESSION_ID_EXPIRED)
+                {
+                    // Authenticating blocks, keep it off the I/O threads
+                    return SmsAsyncUtil.supplyAsync(() -> renewSession(sessionId), SmsAsyncUtil.getDefaultExecutor())
+                            .thenCompose(newSessionId -> sendRequestAsync(url, buildSessionRequest(newSessionId, params)))
+                            .handle((retryIds, retryEx) -> {
+                                if (retryEx != null)
+                                {
+                                    throw new CompletionException(toSmsException(SmsAsyncUtil.unwrap(retryEx)));
+                                }
+                                return retryIds;
+                            });
+                }
+            }
+            return ClickatellTransport.<String[]>failedFuture(toSmsException(cause));
+        }).thenCompose(future -> future);
+    }
+
+    /**
+     * Converts a ClickatellException to the SmsException that the public
+     * methods throw. Other exceptions are returned as is.
+     */
+    private static Throwable toSmsException(Throwable ex)
+    {
+        if (ex instanceof ClickatellException)
+        {
+            return toSmsException((ClickatellException) ex);
+        }
+        return ex;
+    }
+
+    /**
+     * Converts a ClickatellException to the SmsException that the public
+     * methods throw, an SmsQuotaException if the account is out of credit.
+     */
+    private static SmsException toSmsException(ClickatellException ex)
+    {
+        if (ex.isQuotaError())
+        {
+            return new SmsQuotaException(ex.getMessage(), ex);
+        }
+        return new SmsException(ex.getMessage(), ex);
+    }
+
+    private static <T> CompletableFuture<T> failedFuture(Throwable ex)
+    {
+        CompletableFuture<T> failed = new CompletableFuture<T>();
+        failed.completeExceptionally(ex);
+        return failed;
+    }
+
+    private static String buildSessionRequest(String sessionId, String params)
+    {
+        return (params.length() == 0) ? "session_id=" + sessionId : "session_id=" + sessionId + "&" + params;
+    }
+
+    /**
+     * Returns the session id to use for the next request.
+     * <p>
+     * A session that is about to expire is renewed first. 
+     */
+    private String getSessionId() throws SmsException, IOException
+    {
+        String sessionId = sessionId_;
+        if (sessionId == null)
+        {
+            throw new SmsException("Must connect before sending");
+        }
+
+        long now = System.currentTimeMillis();
+        if (isSessionIdle(now))
+        {
+            log_.debug("Session has been idle for " + (now - sessionUsed_) + " ms, renewing it");
+            sessionId = renewSession(sessionId);
+        }
+
+        sessionUsed_ = now;
+        return sessionId;
+    }
+
+    /**
+     * The non-blocking version of getSessionId().
+     * <p>
+     * Authenticating blocks, so an idle session is renewed on the default
+     * executor instead of the caller's thread.
+     */
+    private CompletableFuture<String> getSessionIdAsync()
+    {
+        final String sessionId = sessionId_;
+        if (sessionId == null)
+        {
+            return failedFuture(new SmsException("Must connect before sending"));
+        }
+
+        final long now = System.currentTimeMillis();
+        if (isSessionIdle(now))
+        {
+            log_.debug("Session has been idle for " + (now - sessionUsed_) + " ms, renewing it");
+            return SmsAsyncUtil.supplyAsync(() -> {
+                String newSessionId = renewSession(sessionId);
+                sessionUsed_ = now;
+                return newSessionId;
+            }, SmsAsyncUtil.getDefaultExecutor());
+        }
+
+        sessionUsed_ = now;
+        return CompletableFuture.completedFuture(sessionId);
+    }
+
+    /**
+     * Returns true if the session should be renewed before it is used. It
+     * is renewed a bit before clickatell would drop it, our clock starts
+     * before theirs.
+     */
+    private boolean isSessionIdle(long now)
+    {
+        long renewAfter = sessionTimeout_ - Math.min(60000, sessionTimeout_ / 10);
+        return now - sessionUsed_ >= renewAfter;
+    }
+
+    /**
+     * Replaces an expired session id.
+     * <p>
+     * Only one thread authenticates at a time. Threads that find that the
+     * session has already been replaced while they waited use the new one.
+     * 
+     * @param expiredSessionId The session id that the caller found expired
+     * @return A valid session id
+     */
+    private String renewSession(String expiredSessionId) throws SmsException, IOException
+    {
+        synchronized (sessionLock_)
+        {
+            String sessionId = sessionId_;
+            if (sessionId != null && !sessionId.equals(expiredSessionId))
+            {
+                return sessionId;
+            }
+            return authenticate();
+        }
+    }
+
+    /**
+     * Sends the auth command. Must be called with sessionLock_ held.
+     */
+    private String authenticate() throws SmsException, IOException
+    {
+        String[] response = null;
+        String url = baseUrl_ + "/auth";
+        String requestString;
+        
+        requestString  = "api_id=" + apiId_;
+        requestString += "&user=" + username_;
+        requestString += "&password=" + password_;
+        
+        try
+        {
+            response = sendRequest(url, requestString);
+        }
+        catch (ClickatellException ex)
+        {
+            throw new SmsException(ex);
+        }
+
+        if (response.length == 0)
+        {
+            throw new SmsException("No session id from Clickatell");
+        }
+
+        sessionUsed_ = System.currentTimeMillis();
+        sessionId_ = response[0];
+        return response[0];
+    }
     
     /**
      * Initializes the transport.
@@ -227,6 +523,13 @@ public class ClickatellTransport implements SmsTransport
      *       smsj.clickatell.password - clickatell password
      *       smsj.clickatell.apiid    - clickatell apiid
      *       smsj.clickatell.protocol - http or https
+     *       smsj.clickatell.url      - base url of the API (default protocol://api.clickatell.com/http)
+     *       smsj.clickatell.pool.size - max number of open HTTP connections (default 10)
+     *       smsj.clickatell.pool.idle - milliseconds before an unused connection is closed (default 30000)
+     *       smsj.clickatell.batch.size - max number of recipients in one sendmsg request (default 100)
+     *       smsj.clickatell.session.timeout - milliseconds of inactivity before clickatell drops the session (default 900000)
+     *       smsj.clickatell.callback - status callbacks to ask for, 0-7, see the clickatell API (default none)
+     *       smsj.clickatell.status.batch.size - max number of message ids in one querymsg request (default 1)
      * </pre>
      * 
      * @param properties
@@ -250,6 +553,32 @@ public class ClickatellTransport implements SmsTransport
         {
             throw new SmsException("Unsupported protocol : " + protocol_); 
         }
+
+        baseUrl_ = properties.getProperty("smsj.clickatell.url", protocol_ + "://api.clickatell.com/http");
+
+        try
+        {
+            poolSize_ = Integer.parseInt(properties.getProperty("smsj.clickatell.pool.size", "10"));
+            idleTimeout_ = Long.parseLong(properties.getProperty("smsj.clickatell.pool.idle", "30000"));
+            batchSize_ = Integer.parseInt(properties.getProperty("smsj.clickatell.batch.size", "100"));
+            sessionTimeout_ = Long.parseLong(properties.getProperty("smsj.clickatell.session.timeout", "900000"));
+            statusBatchSize_ = Integer.parseInt(properties.getProperty("smsj.clickatell.status.batch.size", "1"));
+        }
+        catch (NumberFormatException ex)
+        {
+            throw new SmsException("Invalid connection pool, batch or session setting for clickatell", ex);
+        }
+
+        if (poolSize_ < 1 || batchSize_ < 1 || statusBatchSize_ < 1)
+        {
+            throw new SmsException("smsj.clickatell.pool.size and the batch sizes must be at least 1");
+        }
+
+        callback_ = properties.getProperty("smsj.clickatell.callback");
+        if (callback_ != null && !callback_.matches("[0-7]"))
+        {
+            throw new SmsException("smsj.clickatell.callback must be 0-7");
+        }
     }
 
     /**
@@ -262,37 +591,31 @@ public class ClickatellTransport implements SmsTransport
      */
     public void connect() throws SmsException, IOException
     {
-        String[] response = null;
-        String url = protocol_ + "://api.clickatell.com/http/auth";
-        String requestString;
-        
-        requestString  = "api_id=" + apiId_;
-        requestString += "&user=" + username_;
-        requestString += "&password=" + password_;
-        
-        try
+        synchronized (sessionLock_)
         {
-            response = sendRequest(url, requestString);
-        }
-        catch (ClickatellException ex)
-        {
-            throw new SmsException(ex);
+            authenticate();
         }
+    }
 
-        sessionId_ = response[0];
+    /**
+     * Builds the sendmsg parameters for one recipient, or for several
+     * recipients separated with commas.
+     */
+    private String buildSendRequest(String to, String payload)
+    {
+        return "to=" + to + payload;
     }
 
     /**
-     * 
+     * Builds the part of the sendmsg parameters that doesn't depend on the
+     * recipient, so that it can be reused for every recipient.
      */
-    private String buildSendRequest(SmsUserData ud, byte[] udhData, SmsAddress dest, SmsAddress sender)
+    private String buildPayload(SmsUserData ud, byte[] udhData, SmsAddress sender)
         throws SmsException
     {
-        String requestString;
+        SmsHttpParameters parameters = new SmsHttpParameters(ud, udhData);
+        String requestString = "";
         int reqFeat = 0;
-        
-        requestString  = "session_id=" + sessionId_;
-        requestString += "&to=" + dest.getAddress();
 
         if (SmsUdhUtil.isConcat(ud, udhData))
         {
@@ -307,7 +630,7 @@ public class ClickatellTransport implements SmsTransport
         }
         
         // CLASS_0 message?
-        if (ud.getDcs().getMessageClass() == SmsMsgClass.CLASS_0)
+        if (parameters.isFlash())
         {
             requestString += "&msg_type=SMS_FLASH";
             reqFeat |= FEAT_FLASH;
@@ -316,28 +639,26 @@ public class ClickatellTransport implements SmsTransport
         //
         // Generate request URL
         //
-        if ( (udhData == null) || (udhData.length == 0) )
+        if (!parameters.hasUdh())
         {                        
             //
             // Message without UDH
             //
-            switch (ud.getDcs().getAlphabet())
+            switch (parameters.getAlphabet())
             {
             case LATIN1:
                 throw new SmsException("Clickatell API cannot send 8 bit encoded messages without UDH");
 
             case UCS2:
-                String udStr = StringUtil.bytesToHexString(ud.getData());
                 requestString += "&unicode=1";
-                requestString += "&text=" + udStr;
+                requestString += "&text=" + parameters.getHex();
                 reqFeat |= FEAT_UCS2;
                 break;
 
             case GSM:
-                String msg = SmsPduUtil.readSeptets(ud.getData(), ud.getLength());            
                 try
                 {
-                    requestString += "&text=" + URLEncoder.encode(msg, "ISO-8859-1");
+                    requestString += "&text=" + URLEncoder.encode(parameters.getText(), "ISO-8859-1");
                 }
                 catch (UnsupportedEncodingException e)
                 {
@@ -352,28 +673,21 @@ public class ClickatellTransport implements SmsTransport
         }
         else
         {
-            String udStr;
-            String udhStr;
-            
             //
             // Message Contains UDH
             //
-            switch (ud.getDcs().getAlphabet())
+            switch (parameters.getAlphabet())
             {
             case LATIN1:
-                udStr = StringUtil.bytesToHexString(ud.getData());
-                udhStr = StringUtil.bytesToHexString(udhData);                
-                requestString += "&udh=" + udhStr;
-                requestString += "&text=" + udStr;                
+                requestString += "&udh=" + parameters.getUdhHex();
+                requestString += "&text=" + parameters.getHex();
                 reqFeat |= FEAT_UDH | FEAT_8BIT;
                 break;
 
             case UCS2:
-                udStr = StringUtil.bytesToHexString(ud.getData());
-                udhStr = StringUtil.bytesToHexString(udhData);
                 requestString += "&unicode=1";
-                requestString += "&udh=" + udhStr;
-                requestString += "&text=" + udStr;
+                requestString += "&udh=" + parameters.getUdhHex();
+                requestString += "&text=" + parameters.getHex();
                 reqFeat |= FEAT_UDH | FEAT_UCS2;
                 break;
 
@@ -385,6 +699,11 @@ public class ClickatellTransport implements SmsTransport
             }
         }
 
+        if (callback_ != null)
+        {
+            requestString += "&callback=" + callback_;
+        }
+
         // Add the req_feat parameter
         requestString += "&req_feat=" + reqFeat;
         
@@ -397,18 +716,28 @@ public class ClickatellTransport implements SmsTransport
      * @param msg
      * @param receiver
      * @param sender
+     * @return A result for each message id that clickatell returned
      * @throws SmsException
      */
-    private String[] sendConcatMessage(SmsConcatMessage msg, SmsAddress receiver, SmsAddress sender)
+    private List<SmsPduResult> sendConcatMessage(SmsConcatMessage msg, SmsAddress receiver, SmsAddress sender)
         throws SmsException, IOException
     {
-        String url = protocol_ + "://api.clickatell.com/http/sendmsg";
+        String url = baseUrl_ + "/sendmsg";
         SmsUserData userData = msg.getUserData();
         SmsUdhElement[] udhElements = msg.getUdhElements();
         byte[] udhData = SmsUdhUtil.toByteArray(udhElements);
 
-        String requestString = buildSendRequest(userData, udhData, receiver, sender);
-        return sendRequestWithRetry(url, requestString);
+        String requestString = buildSendRequest(receiver.getAddress(), buildPayload(userData, udhData, sender));
+        long submitTime = System.currentTimeMillis();
+        String[] msgIds = sendRequestWithRetry(url, requestString);
+        long responseTime = System.currentTimeMillis();
+
+        List<SmsPduResult> results = new ArrayList<SmsPduResult>(msgIds.length);
+        for (String msgId : msgIds)
+        {
+            results.add(new SmsPduResult(msgId, -1, null, submitTime, responseTime));
+        }
+        return results;
     }
 
     /**
@@ -417,19 +746,22 @@ public class ClickatellTransport implements SmsTransport
      * @param pdu
      * @param receiver
      * @param sender
+     * @return The message id and timings of the pdu
      * @throws SmsException
      *             If clickatell sends an error message, unexpected response or
      *             if we fail to connect.
      */
-    private String send(SmsPdu pdu, SmsAddress receiver, SmsAddress sender) throws SmsException, IOException
+    private SmsPduResult send(SmsPdu pdu, SmsAddress receiver, SmsAddress sender) throws SmsException, IOException
     {
-        String url = protocol_ + "://api.clickatell.com/http/sendmsg";
+        String url = baseUrl_ + "/sendmsg";
         SmsUserData userData = pdu.getUserData();
         byte[] udhData = pdu.getUserDataHeaders();
         
-        String requestString = buildSendRequest(userData, udhData, receiver, sender);
+        String requestString = buildSendRequest(receiver.getAddress(), buildPayload(userData, udhData, sender));
 
-        return sendRequestWithRetry(url, requestString)[0];
+        long submitTime = System.currentTimeMillis();
+        String msgId = sendRequestWithRetry(url, requestString)[0];
+        return new SmsPduResult(msgId, -1, null, submitTime, System.currentTimeMillis());
     }
 
     /**
@@ -439,11 +771,11 @@ public class ClickatellTransport implements SmsTransport
      * @param receiver
      * @param sender
      * @throws SmsException
-     * @return Message ids
+     * @return The clickatell message id of the last pdu
      */
     public String send(SmsMessage msg, SmsAddress receiver, SmsAddress sender) throws SmsException, IOException
     {
-        String[] msgIds;
+        List<SmsPduResult> results;
         
         if (receiver.isAlphanumeric())
         { 
@@ -458,59 +790,462 @@ public class ClickatellTransport implements SmsTransport
         
         if (msg instanceof SmsConcatMessage)
         {
-            msgIds = sendConcatMessage((SmsConcatMessage) msg, receiver, sender);
+            results = sendConcatMessage((SmsConcatMessage) msg, receiver, sender);
         }
         else
         {
             SmsPdu[] msgPdu = msg.getPdus();
-            msgIds = new String[msgPdu.length];
+            results = new ArrayList<SmsPduResult>(msgPdu.length);
 
-            for (int i = 0; i < msgPdu.length; i++)
+            for (SmsPdu pdu : msgPdu)
             {
-                msgIds[i] = send(msgPdu[i], receiver, sender);
+                results.add(send(pdu, receiver, sender));
             }
         }
         
-        // TODO: Return a real message id
-        return null;
+        return track(new SmsSendResult(results)).getMessageId();
     }
 
     /**
-     * Disconnect from clickatell.
+     * Sends the same SMS Message to many recipients.
+     * <p>
+     * The message is encoded once and posted with up to
+     * <b>smsj.clickatell.batch.size</b> comma separated recipients in each
+     * request. The message ids in the response are mapped back to the
+     * recipients. A recipient that clickatell rejects, e.g. with "114, Cannot
+     * route message", doesn't fail the others. Its result has no message id
+     * and the error as response. Errors that concern the whole request, like
+     * an expired account, are thrown.
      * 
-     * Not needed for the clickatell API
+     * @param msg The message to send
+     * @param receivers The recipients
+     * @param sender Sender address
+     * @return One result per recipient, in the same order as receivers
+     * @throws SmsException If clickatell rejected the request
+     * @throws IOException If we fail to talk to clickatell
+     */
+    public List<SmsSendResult> send(SmsMessage msg, List<SmsAddress> receivers, SmsAddress sender)
+        throws SmsException, IOException
+    {
+        for (SmsAddress receiver : receivers)
+        {
+            if (receiver.isAlphanumeric())
+            { 
+                throw new SmsException("Cannot sent SMS to an ALPHANUMERIC address"); 
+            }
+        }
+
+        if (sessionId_ == null) 
+        { 
+            throw new SmsException("Must connect before sending"); 
+        }
+
+        // Encode each part once, whatever the number of recipients
+        List<String> payloads = new ArrayList<String>();
+        if (msg instanceof SmsConcatMessage)
+        {
+            SmsConcatMessage concatMsg = (SmsConcatMessage) msg;
+            payloads.add(buildPayload(concatMsg.getUserData(), SmsUdhUtil.toByteArray(concatMsg.getUdhElements()), sender));
+        }
+        else
+        {
+            for (SmsPdu pdu : msg.getPdus())
+            {
+                payloads.add(buildPayload(pdu.getUserData(), pdu.getUserDataHeaders(), sender));
+            }
+        }
+
+        List<List<SmsPduResult>> pduResults = new ArrayList<List<SmsPduResult>>(receivers.size());
+        for (int i = 0; i < receivers.size(); i++)
+        {
+            pduResults.add(new ArrayList<SmsPduResult>(payloads.size()));
+        }
+
+        String url = baseUrl_ + "/sendmsg";
+        for (String payload : payloads)
+        {
+            for (int start = 0; start < receivers.size(); start += batchSize_)
+            {
+                List<SmsAddress> batch = receivers.subList(start, Math.min(start + batchSize_, receivers.size()));
+                StringBuilder to = new StringBuilder(batch.size() * 16);
+                for (SmsAddress receiver : batch)
+                {
+                    if (to.length() > 0)
+                    {
+                        to.append(',');
+                    }
+                    to.append(receiver.getAddress());
+                }
+
+                long submitTime = System.currentTimeMillis();
+                if (batch.size() == 1)
+                {
+                    // Clickatell doesn't say "To:" when there is only one recipient
+                    pduResults.get(start).add(sendToOne(url, buildSendRequest(to.toString(), payload), submitTime));
+                }
+                else
+                {
+                    String[] responses = sendRequestWithRetry(url, buildSendRequest(to.toString(), payload));
+                    mapResponses(batch, start, responses, submitTime, pduResults);
+                }
+            }
+        }
+
+        List<SmsSendResult> results = new ArrayList<SmsSendResult>(receivers.size());
+        for (List<SmsPduResult> recipientResults : pduResults)
+        {
+            results.add(track(new SmsSendResult(recipientResults)));
+        }
+        return results;
+    }
+
+    /**
+     * Sends a request with a single recipient. Errors about the recipient are
+     * returned as a result, like for a batch.
+     */
+    private SmsPduResult sendToOne(String url, String requestString, long submitTime) throws SmsException, IOException
+    {
+        try
+        {
+            String msgId = sendRequestWithRetry(url, requestString)[0];
+            return new SmsPduResult(msgId, -1, null, submitTime, System.currentTimeMillis());
+        }
+        catch (SmsException ex)
+        {
+            if (ex.getCause() instanceof ClickatellException && ((ClickatellException) ex.getCause()).isRecipientError())
+            {
+                return new SmsPduResult(null, -1, ex.getMessage(), submitTime, System.currentTimeMillis());
+            }
+            throw ex;
+        }
+    }
+
+    /**
+     * Maps the "msgid To: recipient" responses of a batch back to the
+     * recipients.
+     */
+    private void mapResponses(List<SmsAddress> batch, int offset, String[] responses, long submitTime,
+            List<List<SmsPduResult>> pduResults)
+        throws SmsException
+    {
+        long responseTime = System.currentTimeMillis();
+
+        // The same number can be in a batch more than once
+        Map<String, LinkedList<Integer>> index = new HashMap<String, LinkedList<Integer>>();
+        for (int i = 0; i < batch.size(); i++)
+        {
+            String number = normalizeNumber(batch.get(i).getAddress());
+            LinkedList<Integer> positions = index.get(number);
+            if (positions == null)
+            {
+                positions = new LinkedList<Integer>();
+                index.put(number, positions);
+            }
+            positions.add(offset + i);
+        }
+
+        for (String response : responses)
+        {
+            int toPos = response.lastIndexOf(" To: ");
+            if (toPos < 0)
+            {
+                throw new SmsException("Unexpected response from Clickatell. : " + response);
+            }
+
+            LinkedList<Integer> positions = index.get(normalizeNumber(response.substring(toPos + 5)));
+            if (positions == null || positions.isEmpty())
+            {
+                log_.warn("Response from Clickatell for unknown recipient : " + response);
+                continue;
+            }
+
+            SmsPduResult result = response.startsWith("ERR")
+                    ? new SmsPduResult(null, -1, response, submitTime, responseTime)
+                    : new SmsPduResult(response.substring(0, toPos).trim(), -1, null, submitTime, responseTime);
+            pduResults.get(positions.removeFirst()).add(result);
+        }
+
+        for (LinkedList<Integer> positions : index.values())
+        {
+            for (Integer position : positions)
+            {
+                log_.warn("No response from Clickatell for recipient " + (position - offset) + " in batch");
+                pduResults.get(position).add(new SmsPduResult(null, null));
+            }
+        }
+    }
+
+    /**
+     * Clickatell returns the numbers without "+" or spaces.
+     */
+    private static String normalizeNumber(String number)
+    {
+        StringBuilder digits = new StringBuilder(number.length());
+        for (int i = 0; i < number.length(); i++)
+        {
+            char c = number.charAt(i);
+            if (c >= '0' && c <= '9')
+            {
+                digits.append(c);
+            }
+        }
+        return digits.toString();
+    }
+
+    /**
+     * Sends an SMS Message without blocking the caller.
+     * <p>
+     * The pdus of a message are sent in parallel. How the requests are made
+     * depends on sendRequestAsync(). This class runs the blocking client on
+     * the shared async pool, ClickatellAsyncTransport doesn't block at all.
      * 
-     * @throws SmsException Never
-     * @throws IOException Never
+     * @param msg
+     * @param receiver
+     * @param sender
+     * @return A future with the clickatell message id of every pdu
      */
-    public void disconnect()
+    public CompletableFuture<SmsSendResult> sendAsync(final SmsMessage msg, final SmsAddress receiver, final SmsAddress sender)
     {
-        // The clickatell HTTP API is connection less
+        if (receiver.isAlphanumeric() || sessionId_ == null)
+        {
+            return failedFuture(new SmsException(receiver.isAlphanumeric() ?
+                    "Cannot sent SMS to an ALPHANUMERIC address" : "Must connect before sending"));
+        }
+
+        final String url = baseUrl_ + "/sendmsg";
+        try
+        {
+            if (msg instanceof SmsConcatMessage)
+            {
+                SmsConcatMessage concatMsg = (SmsConcatMessage) msg;
+                byte[] udhData = SmsUdhUtil.toByteArray(concatMsg.getUdhElements());
+                String requestString = buildSendRequest(receiver.getAddress(), buildPayload(concatMsg.getUserData(), udhData, sender));
+                final long submitTime = System.currentTimeMillis();
+                return sendRequestWithRetryAsync(url, requestString).thenApply(msgIds -> {
+                    long responseTime = System.currentTimeMillis();
+                    List<SmsPduResult> results = new ArrayList<SmsPduResult>(msgIds.length);
+                    for (String msgId : msgIds)
+                    {
+                        results.add(new SmsPduResult(msgId, -1, null, submitTime, responseTime));
+                    }
+                    return track(new SmsSendResult(results));
+                });
+            }
+
+            SmsPdu[] msgPdu = msg.getPdus();
+            List<CompletableFuture<SmsPduResult>> results = new ArrayList<CompletableFuture<SmsPduResult>>(msgPdu.length);
+            for (SmsPdu pdu : msgPdu)
+            {
+                String requestString = buildSendRequest(receiver.getAddress(),
+                        buildPayload(pdu.getUserData(), pdu.getUserDataHeaders(), sender));
+                final long submitTime = System.currentTimeMillis();
+                results.add(sendRequestWithRetryAsync(url, requestString).thenApply(
+                        msgIds -> new SmsPduResult(msgIds[0], -1, null, submitTime, System.currentTimeMillis())));
+            }
+            return SmsAsyncUtil.allOf(results).thenApply(this::track);
+        }
+        catch (SmsException ex)
+        {
+            return failedFuture(ex);
+        }
     }
 
     /**
-     * Pings the clickatell service
+     * Sets the index that sent messages are added to.
+     * <p>
+     * Every message id that clickatell returns is tracked in the index, so
+     * that a ClickatellStatusPoller or ClickatellCallbackReceiver can fill
+     * in its delivery status.
      * 
-     * Not needed for the clickatell API
+     * @param statusIndex The index, or null to stop tracking
+     */
+    public void setStatusIndex(ClickatellStatusIndex statusIndex)
+    {
+        statusIndex_ = statusIndex;
+    }
+
+    private SmsSendResult track(SmsSendResult result)
+    {
+        ClickatellStatusIndex statusIndex = statusIndex_;
+        if (statusIndex != null)
+        {
+            for (SmsPduResult pduResult : result.getPduResults())
+            {
+                if (pduResult.getMessageId() != null)
+                {
+                    statusIndex.track(pduResult.getMessageId());
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Queries the delivery status of messages with querymsg.
+     * <p>
+     * The ids are sent <b>smsj.clickatell.status.batch.size</b> at a time as
+     * a comma separated apimsgid, and up to <b>smsj.clickatell.pool.size</b>
+     * requests are in flight at once. Clickatell HTTP API v. 2.2.4 only
+     * accepts one id per request, raise the batch size for accounts that
+     * accept more.
+     * <p>
+     * An "ERR: 1xx" answer concerns the queried ids, not the account. A
+     * batch that gets one is split and its ids are queried one by one, an
+     * id that still gets an error is logged and reported with
+     * STATUS_QUERY_ERROR so that it isn't polled again. The other batches
+     * are not affected.
      * 
-     * @throws SmsException Never
-     * @throws IOException Never
+     * @param messageIds The clickatell message ids
+     * @return The status of each message that clickatell answered for
+     * @throws SmsException If clickatell rejected a request for another reason
+     * @throws IOException If we fail to talk to clickatell
      */
-    public void ping() throws SmsException, IOException
+    public List<ClickatellMessageStatus> queryStatus(List<String> messageIds) throws SmsException, IOException
     {
-        String[] response = null;
-        String url = protocol_ + "://api.clickatell.com/http/ping";
-        String requestString;
-        
-        requestString = "session_id=" + sessionId_;
-        
+        if (sessionId_ == null) 
+        { 
+            throw new SmsException("Must connect before querying"); 
+        }
+
+        String url = baseUrl_ + "/querymsg";
+        List<ClickatellMessageStatus> statuses = new ArrayList<ClickatellMessageStatus>(messageIds.size());
+        LinkedList<List<String>> batches = new LinkedList<List<String>>();
+        for (int start = 0; start < messageIds.size(); start += statusBatchSize_)
+        {
+            batches.add(messageIds.subList(start, Math.min(start + statusBatchSize_, messageIds.size())));
+        }
+
+        LinkedList<StatusQuery> inFlight = new LinkedList<StatusQuery>();
+        while (!batches.isEmpty() || !inFlight.isEmpty())
+        {
+            if (!batches.isEmpty() && inFlight.size() < poolSize_)
+            {
+                List<String> batch = batches.removeFirst();
+                inFlight.add(new StatusQuery(batch, sendRequestWithRetryAsync(url, "apimsgid=" + String.join(",", batch))));
+                continue;
+            }
+
+            StatusQuery query = inFlight.removeFirst();
+            try
+            {
+                parseStatus(SmsAsyncUtil.get(query.response_), statuses);
+            }
+            catch (SmsException ex)
+            {
+                if (!(ex.getCause() instanceof ClickatellException)
+                        || !((ClickatellException) ex.getCause()).isRecipientError())
+                {
+                    throw ex;
+                }
+
+                if (query.messageIds_.size() > 1)
+                {
+                    // Find out which of the ids clickatell refused
+                    for (String messageId : query.messageIds_)
+                    {
+                        batches.add(Collections.singletonList(messageId));
+                    }
+                }
+                else
+                {
+                    String messageId = query.messageIds_.get(0);
+                    log_.warn("Failed to query the status of " + messageId + " : " + ex.getMessage());
+                    statuses.add(new ClickatellMessageStatus(messageId, ClickatellMessageStatus.STATUS_QUERY_ERROR, System.currentTimeMillis()));
+                }
+            }
+        }
+        return statuses;
+    }
+
+    /**
+     * A querymsg request in flight and the ids it asked for.
+     */
+    private static final class StatusQuery
+    {
+        private final List<String> messageIds_;
+        private final CompletableFuture<String[]> response_;
+
+        StatusQuery(List<String> messageIds, CompletableFuture<String[]> response)
+        {
+            messageIds_ = messageIds;
+            response_ = response;
+        }
+    }
+
+    private static void parseStatus(String[] response, List<ClickatellMessageStatus> statuses) throws SmsException
+    {
+        long now = System.currentTimeMillis();
+        for (String value : response)
+        {
+            ClickatellMessageStatus status = ClickatellMessageStatus.parse(value, now);
+            if (status == null)
+            {
+                throw new SmsException("Unexpected querymsg response from Clickatell: " + value);
+            }
+            statuses.add(status);
+        }
+    }
+
+    /**
+     * Disconnect from clickatell.
+     * 
+     * The clickatell HTTP API is connection less, this only closes the
+     * pooled HTTP connections.
+     * 
+     * @throws IOException If the connections couldn't be closed
+     */
+    public void disconnect() throws IOException
+    {
+        CloseableHttpClient httpClient;
+        synchronized (this)
+        {
+            httpClient = httpClient_;
+            httpClient_ = null;
+        }
+
+        if (httpClient != null)
+        {
+            httpClient.close();
+        }
+    }
+
+    /**
+     * Asks clickatell for the credit left on the account with getbalance.
+     * 
+     * @return The number of credits
+     * @throws SmsException If clickatell rejected the request
+     * @throws IOException If we fail to talk to clickatell
+     */
+    public double queryBalance() throws SmsException, IOException
+    {
+        if (sessionId_ == null) 
+        { 
+            throw new SmsException("Must connect before querying"); 
+        }
+
+        // "Credit: 12.5"
+        String[] response = sendRequestWithRetry(baseUrl_ + "/getbalance", "");
         try
         {
-            response = sendRequest(url, requestString);
+            return Double.parseDouble(response[0]);
         }
-        catch (ClickatellException ex)
+        catch (RuntimeException ex)
         {
-            throw new SmsException(ex);
+            // NumberFormatException or an empty response
+            throw new SmsException("Unexpected getbalance response from Clickatell", ex);
         }
     }
+
+    /**
+     * Pings the clickatell service
+     * 
+     * Not needed to send messages, but it keeps the session from expiring.
+     * 
+     * @throws SmsException If clickatell doesn't accept the ping
+     * @throws IOException If we fail to talk to clickatell
+     */
+    public void ping() throws SmsException, IOException
+    {
+        sendRequestWithRetry(baseUrl_ + "/ping", "");
+    }
 }
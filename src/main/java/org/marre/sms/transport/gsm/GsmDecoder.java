@@ -0,0 +1,302 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is "SMS Library for the Java platform".
+ *
+ * The Initial Developer of the Original Code is Markus Eriksson.
+ * Portions created by the Initial Developer are Copyright (C) 2002
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.marre.sms.transport.gsm;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Calendar;
+import java.util.TimeZone;
+
+import org.marre.sms.*;
+
+/**
+ * Decodes the GSM pdus that a device receives, SMS-DELIVER and
+ * SMS-STATUS-REPORT.
+ * <p>
+ * All pdus start with the SMSC address, the way the device returns them
+ * in PDU mode.
+ * 
+ * @author Markus Eriksson
+ * @version $Id$
+ * @see GsmEncoder
+ */
+public final class GsmDecoder
+{
+    /** TP-Message-Type-Indicator for SMS-DELIVER. */
+    public static final int MTI_DELIVER = 0x00;
+    /** TP-Message-Type-Indicator for SMS-STATUS-REPORT. */
+    public static final int MTI_STATUS_REPORT = 0x02;
+
+    private GsmDecoder()
+    {
+        // Utility class
+    }
+
+    /**
+     * Returns the TP-Message-Type-Indicator of the pdu.
+     * 
+     * @param pdu
+     * @return One of the MTI_ constants, or another MTI
+     * @throws SmsException If the pdu is too short
+     */
+    public static int getMessageType(byte[] pdu)
+        throws SmsException
+    {
+        int offset = skipSmsc(pdu);
+        return pdu[offset] & 0x03;
+    }
+
+    /**
+     * Decodes an SMS-DELIVER pdu.
+     * 
+     * @param pdu
+     * @return The decoded pdu
+     * @throws SmsException If this isn't a valid SMS-DELIVER pdu
+     */
+    public static GsmDeliverPdu decodeDeliver(byte[] pdu)
+        throws SmsException
+    {
+        try
+        {
+            int offset = skipSmsc(pdu);
+
+            int firstOctet = pdu[offset++] & 0xff;
+            if ((firstOctet & 0x03) != MTI_DELIVER)
+            {
+                throw new SmsException("Not an SMS-DELIVER pdu, MTI " + (firstOctet & 0x03));
+            }
+            boolean udhi = (firstOctet & 0x40) != 0;
+
+            // TP-OA
+            int nDigits = pdu[offset] & 0xff;
+            int toa = pdu[offset + 1] & 0xff;
+            SmsTon ton = SmsTon.valueOf((toa >> 4) & 0x07);
+            String originator = readAddress(pdu, offset);
+            offset += 2 + (nDigits + 1) / 2;
+
+            int pid = pdu[offset++] & 0xff;
+            SmsDcs dcs = new SmsDcs(pdu[offset++]);
+            long timestamp = readTimestamp(pdu, offset);
+            offset += 7;
+
+            // TP-UDL, in septets for GSM and in octets otherwise
+            int udl = pdu[offset++] & 0xff;
+            int udOffset = offset;
+
+            byte[] udh = null;
+            int nUdhBytes = 0;
+            if (udhi)
+            {
+                nUdhBytes = (pdu[udOffset] & 0xff) + 1;
+                udh = new byte[nUdhBytes];
+                System.arraycopy(pdu, udOffset, udh, 0, nUdhBytes);
+            }
+
+            String text = null;
+            byte[] data = null;
+            switch (dcs.getAlphabet())
+            {
+            case GSM:
+                int nUdBytes = (udl * 7 + 7) / 8;
+                byte[] ud = new byte[nUdBytes];
+                System.arraycopy(pdu, udOffset, ud, 0, nUdBytes);
+                // The header and its fill bits take whole septets
+                int nUdhSeptets = (nUdhBytes * 8 + 6) / 7;
+                text = SmsPduUtil.readSeptets(ud, udl).substring(nUdhSeptets);
+                break;
+
+            case UCS2:
+                text = new String(pdu, udOffset + nUdhBytes, udl - nUdhBytes, StandardCharsets.UTF_16BE);
+                break;
+
+            default:
+                data = new byte[udl - nUdhBytes];
+                System.arraycopy(pdu, udOffset + nUdhBytes, data, 0, data.length);
+                break;
+            }
+
+            GsmDeliverPdu deliver = new GsmDeliverPdu(originator, ton, pid, dcs, timestamp, udh, text, data);
+            if (udh != null)
+            {
+                readConcat(udh, deliver);
+            }
+            return deliver;
+        }
+        catch (RuntimeException ex)
+        {
+            throw new SmsException("Invalid SMS-DELIVER pdu", ex);
+        }
+    }
+
+    /**
+     * Decodes an SMS-STATUS-REPORT pdu.
+     * 
+     * @param pdu
+     * @return The decoded pdu
+     * @throws SmsException If this isn't a valid SMS-STATUS-REPORT pdu
+     */
+    public static GsmStatusReport decodeStatusReport(byte[] pdu)
+        throws SmsException
+    {
+        try
+        {
+            int offset = skipSmsc(pdu);
+
+            int firstOctet = pdu[offset++] & 0xff;
+            if ((firstOctet & 0x03) != MTI_STATUS_REPORT)
+            {
+                throw new SmsException("Not an SMS-STATUS-REPORT pdu, MTI " + (firstOctet & 0x03));
+            }
+
+            int mr = pdu[offset++] & 0xff;
+
+            // TP-RA
+            int nDigits = pdu[offset] & 0xff;
+            String recipient = readAddress(pdu, offset);
+            offset += 2 + (nDigits + 1) / 2;
+
+            long timestamp = readTimestamp(pdu, offset);
+            offset += 7;
+            long dischargeTime = readTimestamp(pdu, offset);
+            offset += 7;
+            int status = pdu[offset] & 0xff;
+
+            return new GsmStatusReport(mr, recipient, timestamp, dischargeTime, status);
+        }
+        catch (RuntimeException ex)
+        {
+            throw new SmsException("Invalid SMS-STATUS-REPORT pdu", ex);
+        }
+    }
+
+    private static int skipSmsc(byte[] pdu)
+        throws SmsException
+    {
+        if (pdu == null || pdu.length < 2)
+        {
+            throw new SmsException("Too short pdu");
+        }
+        int offset = (pdu[0] & 0xff) + 1;
+        if (offset >= pdu.length)
+        {
+            throw new SmsException("Too short pdu");
+        }
+        return offset;
+    }
+
+    /**
+     * Reads an address field: length in digits, type of address and the
+     * BCD or septet coded address.
+     */
+    private static String readAddress(byte[] pdu, int offset)
+    {
+        int nDigits = pdu[offset] & 0xff;
+        int toa = pdu[offset + 1] & 0xff;
+        int nBytes = (nDigits + 1) / 2;
+
+        if (((toa >> 4) & 0x07) == SmsTon.ALPHANUMERIC.getValue())
+        {
+            byte[] septets = new byte[nBytes];
+            System.arraycopy(pdu, offset + 2, septets, 0, nBytes);
+            return SmsPduUtil.readSeptets(septets, nDigits * 4 / 7);
+        }
+
+        String number = SmsPduUtil.readBcdNumber(pdu, offset + 2, nBytes);
+        // An odd number of digits is padded with 0xF, which readBcdNumber skips
+        return (number.length() > nDigits) ? number.substring(0, nDigits) : number;
+    }
+
+    /**
+     * Reads a 7 octet, semi octet coded, time stamp.
+     * 
+     * @return Milliseconds since 1970-01-01 UTC
+     */
+    private static long readTimestamp(byte[] pdu, int offset)
+    {
+        Calendar cal = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        cal.clear();
+        cal.set(2000 + readSemiOctets(pdu[offset]),
+                readSemiOctets(pdu[offset + 1]) - 1,
+                readSemiOctets(pdu[offset + 2]),
+                readSemiOctets(pdu[offset + 3]),
+                readSemiOctets(pdu[offset + 4]),
+                readSemiOctets(pdu[offset + 5]));
+
+        // Time zone in quarters of an hour, bit 3 is the sign
+        int tz = pdu[offset + 6];
+        int quarters = (tz & 0x07) * 10 + ((tz >> 4) & 0x0f);
+        if ((tz & 0x08) != 0)
+        {
+            quarters = -quarters;
+        }
+        return cal.getTimeInMillis() - quarters * 15L * 60L * 1000L;
+    }
+
+    private static int readSemiOctets(byte b)
+    {
+        return (b & 0x0f) * 10 + ((b >> 4) & 0x0f);
+    }
+
+    private static void readConcat(byte[] udh, GsmDeliverPdu deliver)
+        throws SmsException
+    {
+        int offset = 1;
+        while (offset + 1 < udh.length)
+        {
+            int iei = udh[offset] & 0xff;
+            int length = udh[offset + 1] & 0xff;
+            int data = offset + 2;
+            if (iei == (SmsUdhIei.CONCATENATED_8BIT.getValue() & 0xff) && length == 3)
+            {
+                setConcat(deliver, udh[data] & 0xff, udh[data + 1] & 0xff, udh[data + 2] & 0xff);
+            }
+            else if (iei == (SmsUdhIei.CONCATENATED_16BIT.getValue() & 0xff) && length == 4)
+            {
+                setConcat(deliver, ((udh[data] & 0xff) << 8) | (udh[data + 1] & 0xff),
+                        udh[data + 2] & 0xff, udh[data + 3] & 0xff);
+            }
+            offset = data + length;
+        }
+    }
+
+    private static void setConcat(GsmDeliverPdu deliver, int ref, int total, int seq)
+        throws SmsException
+    {
+        if (total < 1 || seq < 1 || seq > total)
+        {
+            throw new SmsException("Invalid concatenation header, part " + seq + " of " + total);
+        }
+        deliver.setConcat(ref, total, seq);
+    }
+}
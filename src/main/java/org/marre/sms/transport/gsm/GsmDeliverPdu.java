@@ -0,0 +1,182 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is "SMS Library for the Java platform".
+ *
+ * The Initial Developer of the Original Code is Markus Eriksson.
+ * Portions created by the Initial Developer are Copyright (C) 2002
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.marre.sms.transport.gsm;
+
+import org.marre.sms.SmsDcs;
+import org.marre.sms.SmsTon;
+
+/**
+ * A decoded SMS-DELIVER pdu, a message that was sent to the device.
+ * 
+ * @author Markus Eriksson
+ * @version $Id$
+ * @see GsmDecoder
+ */
+public class GsmDeliverPdu
+{
+    private final String originator_;
+    private final SmsTon originatorTon_;
+    private final int protocolId_;
+    private final SmsDcs dcs_;
+    private final long timestamp_;
+    private final byte[] udh_;
+    private final String text_;
+    private final byte[] data_;
+
+    private int concatRef_ = -1;
+    private int concatTotal_ = 1;
+    private int concatSeq_ = 1;
+
+    GsmDeliverPdu(String originator, SmsTon originatorTon, int protocolId, SmsDcs dcs, long timestamp,
+            byte[] udh, String text, byte[] data)
+    {
+        originator_ = originator;
+        originatorTon_ = originatorTon;
+        protocolId_ = protocolId;
+        dcs_ = dcs;
+        timestamp_ = timestamp;
+        udh_ = udh;
+        text_ = text;
+        data_ = data;
+    }
+
+    void setConcat(int ref, int total, int seq)
+    {
+        concatRef_ = ref;
+        concatTotal_ = total;
+        concatSeq_ = seq;
+    }
+
+    /**
+     * Returns the TP-Originating-Address, without a leading '+'.
+     */
+    public String getOriginator()
+    {
+        return originator_;
+    }
+
+    public SmsTon getOriginatorTon()
+    {
+        return originatorTon_;
+    }
+
+    /**
+     * Returns the TP-Protocol-Identifier.
+     */
+    public int getProtocolId()
+    {
+        return protocolId_;
+    }
+
+    public SmsDcs getDcs()
+    {
+        return dcs_;
+    }
+
+    /**
+     * Returns the TP-Service-Centre-Time-Stamp.
+     * 
+     * @return Milliseconds since 1970-01-01 UTC
+     */
+    public long getTimestamp()
+    {
+        return timestamp_;
+    }
+
+    /**
+     * Returns the user data headers, including the UDHL octet.
+     * 
+     * @return The headers, or null if the pdu has none
+     */
+    public byte[] getUserDataHeaders()
+    {
+        return udh_;
+    }
+
+    /**
+     * Returns the text of a GSM or UCS2 coded message.
+     * 
+     * @return The text, or null for an 8 bit data message
+     */
+    public String getText()
+    {
+        return text_;
+    }
+
+    /**
+     * Returns the user data of an 8 bit data message, without headers.
+     * 
+     * @return The data, or null for a text message
+     */
+    public byte[] getData()
+    {
+        return data_;
+    }
+
+    /**
+     * Is this a part of a concatenated message?
+     */
+    public boolean isConcatenated()
+    {
+        return concatRef_ >= 0;
+    }
+
+    /**
+     * Returns the reference number of the concatenated message.
+     * 
+     * @return The reference, or -1 if this isn't a part of a concatenated message
+     */
+    public int getConcatRef()
+    {
+        return concatRef_;
+    }
+
+    /**
+     * Returns the number of parts in the concatenated message, 1 if this
+     * isn't a part of a concatenated message.
+     */
+    public int getConcatTotal()
+    {
+        return concatTotal_;
+    }
+
+    /**
+     * Returns the sequence number of this part, starting at 1.
+     */
+    public int getConcatSeq()
+    {
+        return concatSeq_;
+    }
+}
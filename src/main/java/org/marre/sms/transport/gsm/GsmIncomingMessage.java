@@ -0,0 +1,149 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is "SMS Library for the Java platform".
+ *
+ * The Initial Developer of the Original Code is Markus Eriksson.
+ * Portions created by the Initial Developer are Copyright (C) 2002
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.marre.sms.transport.gsm;
+
+import org.marre.sms.SmsDcs;
+import org.marre.sms.SmsTon;
+
+/**
+ * A message received by a GSM device. A concatenated message is
+ * reassembled into one GsmIncomingMessage.
+ * 
+ * @author Markus Eriksson
+ * @version $Id$
+ * @see GsmMessageAssembler
+ */
+public class GsmIncomingMessage
+{
+    private final String originator_;
+    private final SmsTon originatorTon_;
+    private final SmsDcs dcs_;
+    private final long timestamp_;
+    private final String text_;
+    private final byte[] data_;
+    private final int nParts_;
+    private final int nReceivedParts_;
+    private final int[] indexes_;
+
+    GsmIncomingMessage(GsmDeliverPdu first, String text, byte[] data, int nParts, int nReceivedParts, int[] indexes)
+    {
+        originator_ = first.getOriginator();
+        originatorTon_ = first.getOriginatorTon();
+        dcs_ = first.getDcs();
+        timestamp_ = first.getTimestamp();
+        text_ = text;
+        data_ = data;
+        nParts_ = nParts;
+        nReceivedParts_ = nReceivedParts;
+        indexes_ = indexes;
+    }
+
+    /**
+     * Returns the sender, without a leading '+'.
+     */
+    public String getOriginator()
+    {
+        return originator_;
+    }
+
+    public SmsTon getOriginatorTon()
+    {
+        return originatorTon_;
+    }
+
+    /**
+     * Returns the data coding scheme of the first part.
+     */
+    public SmsDcs getDcs()
+    {
+        return dcs_;
+    }
+
+    /**
+     * Returns the time the SC received the first part.
+     * 
+     * @return Milliseconds since 1970-01-01 UTC
+     */
+    public long getTimestamp()
+    {
+        return timestamp_;
+    }
+
+    /**
+     * Returns the text of a GSM or UCS2 coded message.
+     * 
+     * @return The text, or null for an 8 bit data message
+     */
+    public String getText()
+    {
+        return text_;
+    }
+
+    /**
+     * Returns the user data of an 8 bit data message, without headers.
+     * 
+     * @return The data, or null for a text message
+     */
+    public byte[] getData()
+    {
+        return data_;
+    }
+
+    /**
+     * Returns the number of parts that the message was sent in.
+     */
+    public int getPartCount()
+    {
+        return nParts_;
+    }
+
+    /**
+     * Were all parts received? A message that is still incomplete when the
+     * reassembly times out is delivered without the missing parts.
+     */
+    public boolean isComplete()
+    {
+        return nReceivedParts_ == nParts_;
+    }
+
+    /**
+     * Returns the storage indexes of the parts, -1 for parts that were
+     * routed directly to us.
+     */
+    int[] getIndexes()
+    {
+        return indexes_;
+    }
+}
@@ -0,0 +1,182 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is "SMS Library for the Java platform".
+ *
+ * The Initial Developer of the Original Code is Markus Eriksson.
+ * Portions created by the Initial Developer are Copyright (C) 2002
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.marre.sms.transport.gsm;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Splits the stream from a GSM device into rows.
+ * <p>
+ * The stream is read in blocks into a reusable buffer and a row is only
+ * turned into a String when it is returned. A row ends at "\n", at the
+ * end of the stream, or when it equals the string that the caller looks
+ * for, like the "> " prompt of AT+CMGS that has no line end. "\r" is
+ * skipped.
+ * <p>
+ * Not thread safe.
+ * 
+ * @author Markus Eriksson
+ * @version $Id$
+ */
+final class GsmLineReader
+{
+    private static final int BUFFER_SIZE = 512;
+
+    private final InputStream is_;
+    private final byte[] buf_ = new byte[BUFFER_SIZE];
+    private int pos_;
+    private int limit_;
+
+    /** The current row, grows when needed. */
+    private byte[] row_ = new byte[256];
+    private int rowLength_;
+
+    GsmLineReader(InputStream is)
+    {
+        is_ = is;
+    }
+
+    /**
+     * Reads one row.
+     * 
+     * @param find End the row when it equals this string, may be null
+     * @return The row, without "\r" and "\n"
+     * @throws IOException
+     */
+    String readLine(String find)
+        throws IOException
+    {
+        readRow(find);
+        return (rowLength_ == 0) ? "" : new String(row_, 0, rowLength_, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Reads one row and throws it away.
+     * 
+     * @throws IOException
+     */
+    void skipLine()
+        throws IOException
+    {
+        readRow(null);
+    }
+
+    /**
+     * Skips "\r\n" if those are the next two bytes. Waits for two bytes,
+     * like mark() and reset() on a BufferedInputStream.
+     * 
+     * @throws IOException
+     */
+    void skipCrLf()
+        throws IOException
+    {
+        if (fill(2) && buf_[pos_] == '\r' && buf_[pos_ + 1] == '\n')
+        {
+            pos_ += 2;
+        }
+    }
+
+    private void readRow(String find)
+        throws IOException
+    {
+        rowLength_ = 0;
+        int findLength = (find == null) ? 0 : find.length();
+        // Does the row still match the start of find?
+        boolean matching = findLength > 0;
+
+        while (pos_ < limit_ || fill(1))
+        {
+            while (pos_ < limit_)
+            {
+                int ch = buf_[pos_++] & 0xff;
+                if (ch == '\r')
+                {
+                    continue;
+                }
+                if (ch == '\n')
+                {
+                    return;
+                }
+
+                if (rowLength_ == row_.length)
+                {
+                    row_ = Arrays.copyOf(row_, row_.length * 2);
+                }
+                if (matching)
+                {
+                    matching = rowLength_ < findLength && find.charAt(rowLength_) == ch;
+                }
+                row_[rowLength_++] = (byte) ch;
+
+                if (matching && rowLength_ == findLength)
+                {
+                    // Found the string we are looking for...
+                    return;
+                }
+            }
+        }
+        // End of stream, or a receive timeout
+    }
+
+    /**
+     * Makes sure that n bytes are buffered.
+     * 
+     * @return false if the stream ended, or timed out, first
+     */
+    private boolean fill(int n)
+        throws IOException
+    {
+        while (limit_ - pos_ < n)
+        {
+            if (pos_ > 0)
+            {
+                System.arraycopy(buf_, pos_, buf_, 0, limit_ - pos_);
+                limit_ -= pos_;
+                pos_ = 0;
+            }
+
+            int read = is_.read(buf_, limit_, buf_.length - limit_);
+            if (read <= 0)
+            {
+                return false;
+            }
+            limit_ += read;
+        }
+        return true;
+    }
+}
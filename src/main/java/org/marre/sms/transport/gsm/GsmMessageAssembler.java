@@ -0,0 +1,199 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is "SMS Library for the Java platform".
+ *
+ * The Initial Developer of the Original Code is Markus Eriksson.
+ * Portions created by the Initial Developer are Copyright (C) 2002
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.marre.sms.transport.gsm;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reassembles concatenated messages from their SMS-DELIVER parts.
+ * <p>
+ * Parts are kept until all have arrived. A part that arrives again, e.g.
+ * because it is still stored on the device, replaces the earlier copy.
+ * 
+ * @author Markus Eriksson
+ * @version $Id$
+ */
+public class GsmMessageAssembler
+{
+    private static class Parts
+    {
+        final GsmDeliverPdu[] pdus_;
+        final int[] indexes_;
+        final long firstSeen_;
+        int nReceived_;
+
+        Parts(int total, long now)
+        {
+            pdus_ = new GsmDeliverPdu[total];
+            indexes_ = new int[total];
+            firstSeen_ = now;
+        }
+    }
+
+    private final long timeout_;
+    private final Map<String, Parts> pending_ = new HashMap<String, Parts>();
+
+    /**
+     * Creates a GsmMessageAssembler.
+     * 
+     * @param timeout Milliseconds to wait for the missing parts of a message
+     */
+    public GsmMessageAssembler(long timeout)
+    {
+        timeout_ = timeout;
+    }
+
+    /**
+     * Adds a received pdu.
+     * 
+     * @param pdu The pdu
+     * @param index Storage index of the pdu, -1 if it isn't stored
+     * @return The message, or null if parts are still missing
+     */
+    public synchronized GsmIncomingMessage add(GsmDeliverPdu pdu, int index)
+    {
+        if (!pdu.isConcatenated() || pdu.getConcatTotal() == 1)
+        {
+            return new GsmIncomingMessage(pdu, pdu.getText(), pdu.getData(), 1, 1, new int[] { index });
+        }
+
+        String key = pdu.getOriginator() + "/" + pdu.getConcatRef() + "/" + pdu.getConcatTotal();
+        Parts parts = pending_.get(key);
+        if (parts == null)
+        {
+            parts = new Parts(pdu.getConcatTotal(), System.currentTimeMillis());
+            pending_.put(key, parts);
+        }
+
+        int slot = pdu.getConcatSeq() - 1;
+        if (parts.pdus_[slot] == null)
+        {
+            parts.nReceived_++;
+        }
+        parts.pdus_[slot] = pdu;
+        parts.indexes_[slot] = index;
+
+        if (parts.nReceived_ < parts.pdus_.length)
+        {
+            return null;
+        }
+        pending_.remove(key);
+        return assemble(parts);
+    }
+
+    /**
+     * Removes the messages that have waited longer than the timeout for
+     * their missing parts.
+     * 
+     * @return The incomplete messages
+     */
+    public synchronized List<GsmIncomingMessage> expire()
+    {
+        List<GsmIncomingMessage> expired = new ArrayList<GsmIncomingMessage>();
+        long now = System.currentTimeMillis();
+        for (Iterator<Parts> i = pending_.values().iterator(); i.hasNext();)
+        {
+            Parts parts = i.next();
+            if (now - parts.firstSeen_ >= timeout_)
+            {
+                i.remove();
+                expired.add(assemble(parts));
+            }
+        }
+        return expired;
+    }
+
+    /**
+     * Returns the number of messages that are waiting for parts.
+     */
+    public synchronized int getPendingCount()
+    {
+        return pending_.size();
+    }
+
+    private GsmIncomingMessage assemble(Parts parts)
+    {
+        GsmDeliverPdu first = null;
+        StringBuilder text = null;
+        ByteArrayOutputStream data = null;
+        List<Integer> indexes = new ArrayList<Integer>();
+
+        for (int i = 0; i < parts.pdus_.length; i++)
+        {
+            GsmDeliverPdu pdu = parts.pdus_[i];
+            if (pdu == null)
+            {
+                continue;
+            }
+            if (first == null)
+            {
+                first = pdu;
+            }
+            indexes.add(parts.indexes_[i]);
+
+            if (pdu.getText() != null)
+            {
+                if (text == null)
+                {
+                    text = new StringBuilder();
+                }
+                text.append(pdu.getText());
+            }
+            if (pdu.getData() != null)
+            {
+                if (data == null)
+                {
+                    data = new ByteArrayOutputStream();
+                }
+                data.write(pdu.getData(), 0, pdu.getData().length);
+            }
+        }
+
+        int[] indexArray = new int[indexes.size()];
+        for (int i = 0; i < indexArray.length; i++)
+        {
+            indexArray[i] = indexes.get(i);
+        }
+        return new GsmIncomingMessage(first,
+                (text == null) ? null : text.toString(),
+                (data == null) ? null : data.toByteArray(),
+                parts.pdus_.length, parts.nReceived_, indexArray);
+    }
+}
@@ -0,0 +1,462 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is "SMS Library for the Java platform".
+ *
+ * The Initial Developer of the Original Code is Markus Eriksson.
+ * Portions created by the Initial Developer are Copyright (C) 2002
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.marre.sms.transport.gsm;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.marre.sms.SmsAddress;
+import org.marre.sms.SmsException;
+import org.marre.sms.SmsMessage;
+import org.marre.sms.transport.SmsAsyncUtil;
+import org.marre.sms.transport.SmsSendResult;
+import org.marre.sms.transport.SmsTransport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An SmsTransport that sends from several GSM modems.
+ * <p>
+ * Every modem is a GsmTransport with its own sender thread and queue, so
+ * the modems send in parallel. Each message goes to the healthy modem with
+ * the shortest queue. A modem whose sends fail with "+CMS ERROR" or an I/O
+ * error too many times in a row is quarantined. When the quarantine is over
+ * the modem is pinged, and reconnected if needed, before it gets messages
+ * again.
+ * <p>
+ * All properties of GsmTransport apply to every modem. In addition:
+ * <pre>
+ * <b>sms.gsm.pool.size</b> - Number of modems (default 2)
+ * <b>sms.gsm.pool.&lt;n&gt;.&lt;setting&gt;</b> - Overrides sms.gsm.&lt;setting&gt; for modem n (0 based), e.g. sms.gsm.pool.1.serialport
+ * <b>sms.gsm.pool.quarantine.errors</b> - Consecutive failures before a modem is quarantined (default 3)
+ * <b>sms.gsm.pool.quarantine.time</b> - Milliseconds a modem is quarantined (default 60000)
+ * </pre>
+ * 
+ * @author Markus Eriksson
+ * @version $Id$
+ */
+public class GsmPoolTransport implements SmsTransport
+{
+    private static final Logger log_ = LoggerFactory.getLogger(GsmPoolTransport.class);
+
+    private Modem[] modems_;
+    private int maxErrors_;
+    private long quarantineTime_;
+    private final AtomicInteger nextModem_ = new AtomicInteger();
+
+    /** Probes the quarantined modems. */
+    private ScheduledExecutorService scheduler_;
+
+    /**
+     * One modem and its health.
+     */
+    private static class Modem
+    {
+        final String name_;
+        final GsmTransport transport_;
+        volatile boolean connected_;
+        /** The modem gets no messages until this time. */
+        volatile long quarantinedUntil_;
+        final AtomicInteger consecutiveErrors_ = new AtomicInteger();
+
+        Modem(String name, GsmTransport transport)
+        {
+            name_ = name;
+            transport_ = transport;
+        }
+
+        boolean isAvailable(long now)
+        {
+            return connected_ && now >= quarantinedUntil_;
+        }
+
+        public String toString()
+        {
+            return name_;
+        }
+    }
+
+    /**
+     * Creates a GsmPoolTransport that is configured with init().
+     */
+    public GsmPoolTransport()
+    {
+        // Empty
+    }
+
+    /**
+     * Creates a pool of modems that are already configured.
+     * <p>
+     * init() must still be called to read the quarantine settings, but it
+     * won't create any modems.
+     * 
+     * @param modems The modems to send from
+     */
+    public GsmPoolTransport(List<GsmTransport> modems)
+    {
+        modems_ = new Modem[modems.size()];
+        for (int i = 0; i < modems_.length; i++)
+        {
+            modems_[i] = new Modem("modem " + i, modems.get(i));
+        }
+    }
+
+    /**
+     * Initializes the pool. See the class description for the available
+     * properties.
+     * 
+     * @param props Properties used to configure this transport.
+     * @throws SmsException If there was a problem with the configuration.
+     */
+    public void init(Properties props) throws SmsException
+    {
+        int size;
+        try
+        {
+            size = Integer.parseInt(props.getProperty("sms.gsm.pool.size", "2"));
+            maxErrors_ = Integer.parseInt(props.getProperty("sms.gsm.pool.quarantine.errors", "3"));
+            quarantineTime_ = Long.parseLong(props.getProperty("sms.gsm.pool.quarantine.time", "60000"));
+        }
+        catch (NumberFormatException ex)
+        {
+            throw new SmsException("GSM Pool: invalid pool property", ex);
+        }
+
+        if (size < 1 || maxErrors_ < 1 || quarantineTime_ < 1)
+        {
+            throw new SmsException("GSM Pool: size, quarantine errors and quarantine time must be at least 1");
+        }
+
+        if (modems_ != null)
+        {
+            return;
+        }
+
+        modems_ = new Modem[size];
+        for (int i = 0; i < size; i++)
+        {
+            String prefix = "sms.gsm.pool." + i + ".";
+            Properties modemProps = new Properties();
+            modemProps.putAll(props);
+            for (String name : props.stringPropertyNames())
+            {
+                if (name.startsWith(prefix))
+                {
+                    modemProps.setProperty("sms.gsm." + name.substring(prefix.length()), props.getProperty(name));
+                }
+            }
+
+            GsmTransport transport = new GsmTransport();
+            transport.init(modemProps);
+            modems_[i] = new Modem(modemProps.getProperty("sms.gsm.serialport", "modem " + i), transport);
+        }
+    }
+
+    /**
+     * Connects all modems.
+     * <p>
+     * Succeeds as long as at least one modem could be connected, the others
+     * are quarantined and retried later.
+     * 
+     * @throws SmsException If no modem could be connected
+     */
+    public void connect() throws SmsException, IOException
+    {
+        Exception lastFailure = null;
+        int nConnected = 0;
+
+        for (Modem modem : modems_)
+        {
+            try
+            {
+                modem.transport_.connect();
+                modem.connected_ = true;
+                modem.consecutiveErrors_.set(0);
+                modem.quarantinedUntil_ = 0;
+                nConnected++;
+            }
+            catch (SmsException | IOException ex)
+            {
+                log_.warn("Failed to connect GSM modem " + modem + ", will retry", ex);
+                modem.quarantinedUntil_ = System.currentTimeMillis() + quarantineTime_;
+                lastFailure = ex;
+            }
+        }
+
+        if (nConnected == 0)
+        {
+            throw new SmsException("Failed to connect any GSM modem", lastFailure);
+        }
+
+        synchronized (this)
+        {
+            if (scheduler_ == null)
+            {
+                scheduler_ = Executors.newSingleThreadScheduledExecutor(r -> {
+                    Thread thread = new Thread(r, "smsj-gsm-pool");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+                long interval = Math.max(quarantineTime_ / 4, 10);
+                scheduler_.scheduleWithFixedDelay(this::probe, interval, interval, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * Picks the available modem with the shortest queue. Ties are broken
+     * round robin.
+     */
+    private Modem getModem() throws SmsException
+    {
+        long now = System.currentTimeMillis();
+        Modem best = null;
+        int bestDepth = Integer.MAX_VALUE;
+        int start = nextModem_.getAndIncrement() & Integer.MAX_VALUE;
+
+        for (int i = 0; i < modems_.length; i++)
+        {
+            Modem modem = modems_[(start + i) % modems_.length];
+            if (modem.isAvailable(now))
+            {
+                int depth = modem.transport_.getQueueDepth();
+                if (depth < bestDepth)
+                {
+                    best = modem;
+                    bestDepth = depth;
+                }
+            }
+        }
+
+        if (best == null)
+        {
+            throw new SmsException("No GSM modem available");
+        }
+        return best;
+    }
+
+    /**
+     * Sends the message from the least loaded modem and waits for it.
+     * 
+     * @return The message reference that the modem gave the last pdu
+     */
+    public String send(SmsMessage msg, SmsAddress dest, SmsAddress sender) throws SmsException, IOException
+    {
+        return SmsAsyncUtil.get(sendAsync(msg, dest, sender)).getMessageId();
+    }
+
+    /**
+     * Queues the message on the least loaded modem.
+     */
+    public CompletableFuture<SmsSendResult> sendAsync(SmsMessage msg, SmsAddress dest, SmsAddress sender)
+    {
+        final Modem modem;
+        try
+        {
+            modem = getModem();
+        }
+        catch (SmsException ex)
+        {
+            CompletableFuture<SmsSendResult> failed = new CompletableFuture<SmsSendResult>();
+            failed.completeExceptionally(ex);
+            return failed;
+        }
+
+        return modem.transport_.sendAsync(msg, dest, sender).whenComplete((result, ex) -> {
+            if (ex == null)
+            {
+                modem.consecutiveErrors_.set(0);
+            }
+            else if (isModemError(SmsAsyncUtil.unwrap(ex)))
+            {
+                int errors = modem.consecutiveErrors_.incrementAndGet();
+                if (errors >= maxErrors_ && modem.quarantinedUntil_ <= System.currentTimeMillis())
+                {
+                    quarantine(modem, errors + " consecutive errors");
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns true for failures that say something about the modem rather
+     * than the message: "+CMS ERROR" from the modem and I/O errors.
+     */
+    private static boolean isModemError(Throwable ex)
+    {
+        if (ex instanceof IOException)
+        {
+            return true;
+        }
+        return ex.getCause() instanceof GsmException
+                && GsmRetryPolicy.getCmsError(((GsmException) ex.getCause()).getResponse()) >= 0;
+    }
+
+    private void quarantine(Modem modem, String reason)
+    {
+        log_.warn("Quarantining GSM modem " + modem + " for " + quarantineTime_ + " ms: " + reason);
+        modem.quarantinedUntil_ = System.currentTimeMillis() + quarantineTime_;
+    }
+
+    /**
+     * Pings the modems whose quarantine is over, and reconnects them if
+     * needed. Runs on the scheduler thread.
+     */
+    void probe()
+    {
+        long now = System.currentTimeMillis();
+        for (Modem modem : modems_)
+        {
+            if (modem.quarantinedUntil_ == 0 || now < modem.quarantinedUntil_)
+            {
+                continue;
+            }
+
+            try
+            {
+                if (!modem.connected_)
+                {
+                    modem.transport_.connect();
+                    modem.connected_ = true;
+                }
+                else
+                {
+                    ping(modem);
+                }
+                modem.consecutiveErrors_.set(0);
+                modem.quarantinedUntil_ = 0;
+                log_.info("GSM modem " + modem + " is back in rotation");
+            }
+            catch (SmsException | IOException | RuntimeException ex)
+            {
+                quarantine(modem, "probe failed, " + ex.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Pings a connected modem. If the ping fails the modem is disconnected,
+     * the serial port may have died, and it is reopened at the next probe.
+     */
+    private void ping(Modem modem) throws IOException
+    {
+        try
+        {
+            modem.transport_.ping();
+        }
+        catch (IOException ex)
+        {
+            modem.connected_ = false;
+            modem.transport_.disconnect();
+            throw ex;
+        }
+    }
+
+    /**
+     * Returns true if the modem is quarantined.
+     * 
+     * @param index Index of the modem
+     */
+    public boolean isQuarantined(int index)
+    {
+        return modems_[index].quarantinedUntil_ > System.currentTimeMillis();
+    }
+
+    /**
+     * Pings all available modems. Modems that don't answer are quarantined.
+     * 
+     * @throws IOException If no modem answered
+     */
+    public void ping() throws IOException
+    {
+        long now = System.currentTimeMillis();
+        IOException lastFailure = null;
+        int nOk = 0;
+        for (Modem modem : modems_)
+        {
+            if (!modem.isAvailable(now))
+            {
+                continue;
+            }
+            try
+            {
+                modem.transport_.ping();
+                nOk++;
+            }
+            catch (IOException ex)
+            {
+                quarantine(modem, "ping failed, " + ex.getMessage());
+                lastFailure = ex;
+            }
+        }
+
+        if (nOk == 0)
+        {
+            throw (lastFailure != null) ? lastFailure : new IOException("No GSM modem available");
+        }
+    }
+
+    /**
+     * Disconnects all modems.
+     */
+    public void disconnect()
+    {
+        ScheduledExecutorService scheduler;
+        synchronized (this)
+        {
+            scheduler = scheduler_;
+            scheduler_ = null;
+        }
+        if (scheduler != null)
+        {
+            scheduler.shutdown();
+        }
+
+        for (Modem modem : modems_)
+        {
+            if (modem.connected_)
+            {
+                modem.connected_ = false;
+                modem.transport_.disconnect();
+            }
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is "SMS Library for the Java platform".
+ *
+ * The Initial Developer of the Original Code is Markus Eriksson.
+ * Portions created by the Initial Developer are Copyright (C) 2002
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.marre.sms.transport.gsm;
+
+import org.marre.sms.SmsException;
+import org.marre.sms.transport.DefaultSmsRetryPolicy;
+
+/**
+ * Retries sends that the phone rejected with a temporary "+CMS ERROR".
+ * <p>
+ * The temporary errors are the network failures from 3GPP TS 24.011
+ * (38 network out of order, 41 temporary failure, 42 congestion, 47
+ * resources unavailable) and from 3GPP TS 27.005 (331 no network service,
+ * 332 network timeout).
+ * 
+ * @author Markus Eriksson
+ * @version $Id$
+ */
+public class GsmRetryPolicy extends DefaultSmsRetryPolicy
+{
+    private static final String CMS_ERROR = "+CMS ERROR:";
+
+    protected boolean isRetryable(SmsException ex)
+    {
+        if (!(ex.getCause() instanceof GsmException))
+        {
+            return false;
+        }
+
+        switch (getCmsError(((GsmException) ex.getCause()).getResponse()))
+        {
+        case 38:
+        case 41:
+        case 42:
+        case 47:
+        case 331:
+        case 332:
+            return true;
+
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * Parses a "+CMS ERROR: &lt;err&gt;" line.
+     * 
+     * @param response The response from the phone, may be null
+     * @return The error code, or -1 if the response isn't a +CMS ERROR
+     */
+    static int getCmsError(String response)
+    {
+        if (response == null || !response.startsWith(CMS_ERROR))
+        {
+            return -1;
+        }
+        try
+        {
+            return Integer.parseInt(response.substring(CMS_ERROR.length()).trim());
+        }
+        catch (NumberFormatException ex)
+        {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is "SMS Library for the Java platform".
+ *
+ * The Initial Developer of the Original Code is Markus Eriksson.
+ * Portions created by the Initial Developer are Copyright (C) 2002
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.marre.sms.transport.gsm;
+
+/**
+ * A decoded SMS-STATUS-REPORT pdu, the delivery report for a message that
+ * was sent from the device.
+ * 
+ * @author Markus Eriksson
+ * @version $Id$
+ * @see GsmDecoder
+ */
+public class GsmStatusReport
+{
+    /** Short message received by the SME. */
+    public static final int STATUS_DELIVERED = 0x00;
+    /** Forwarded by the SC to the SME but the SC is unable to confirm delivery. */
+    public static final int STATUS_FORWARDED = 0x01;
+    /** Short message replaced by the SC. */
+    public static final int STATUS_REPLACED = 0x02;
+
+    private final int messageReference_;
+    private final String recipient_;
+    private final long timestamp_;
+    private final long dischargeTime_;
+    private final int status_;
+
+    GsmStatusReport(int messageReference, String recipient, long timestamp, long dischargeTime, int status)
+    {
+        messageReference_ = messageReference;
+        recipient_ = recipient;
+        timestamp_ = timestamp;
+        dischargeTime_ = dischargeTime;
+        status_ = status;
+    }
+
+    /**
+     * Returns the TP-Message-Reference of the sent message, the same
+     * reference that the device returned in the +CMGS response.
+     */
+    public int getMessageReference()
+    {
+        return messageReference_;
+    }
+
+    /**
+     * Returns the TP-Recipient-Address, without a leading '+'.
+     */
+    public String getRecipient()
+    {
+        return recipient_;
+    }
+
+    /**
+     * Returns the time the SC received the message.
+     * 
+     * @return Milliseconds since 1970-01-01 UTC
+     */
+    public long getTimestamp()
+    {
+        return timestamp_;
+    }
+
+    /**
+     * Returns the time the message was delivered, or the time of the last
+     * attempt.
+     * 
+     * @return Milliseconds since 1970-01-01 UTC
+     */
+    public long getDischargeTime()
+    {
+        return dischargeTime_;
+    }
+
+    /**
+     * Returns the TP-Status, see 3GPP TS 23.040 9.2.3.15.
+     */
+    public int getStatus()
+    {
+        return status_;
+    }
+
+    /**
+     * Was the message delivered?
+     */
+    public boolean isDelivered()
+    {
+        return status_ <= STATUS_REPLACED;
+    }
+
+    /**
+     * Is this the last report for the message? A status between 0x20 and
+     * 0x3F means that the SC is still trying to deliver it.
+     */
+    public boolean isFinal()
+    {
+        return status_ < 0x20 || status_ > 0x3F;
+    }
+
+    public String toString()
+    {
+        return "GsmStatusReport[mr=" + messageReference_ + ", recipient=" + recipient_
+            + ", status=0x" + Integer.toHexString(status_) + "]";
+    }
+}
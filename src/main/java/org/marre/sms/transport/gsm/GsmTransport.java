@@ -36,14 +36,35 @@
 package org.marre.sms.transport.gsm;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.marre.sms.*;
+import org.marre.sms.transport.SmsAsyncUtil;
+import org.marre.sms.transport.SmsPduResult;
+import org.marre.sms.transport.SmsSendResult;
 import org.marre.sms.transport.SmsTransport;
+import org.marre.sms.transport.gsm.commands.DeleteMessageReq;
 import org.marre.sms.transport.gsm.commands.MessageFormatSetReq;
+import org.marre.sms.transport.gsm.commands.MoreMessagesToSendReq;
+import org.marre.sms.transport.gsm.commands.NewMessageIndicationsReq;
+import org.marre.sms.transport.gsm.commands.PduListMessagesReq;
+import org.marre.sms.transport.gsm.commands.PduMessageRsp;
 import org.marre.sms.transport.gsm.commands.PduSendMessageReq;
 import org.marre.sms.transport.gsm.commands.PduSendMessageRsp;
 import org.marre.sms.transport.gsm.commands.PingReq;
+import org.marre.util.StringUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -63,11 +84,29 @@ import org.slf4j.LoggerFactory;
  * <b>sms.gsm.echo</b> - Is the device echoing the input?
  * <b>sms.gsm.flowcontrol</b> - FlowControl (XONXOFF, RTSCTS, NONE)
  * <b>sms.gsm.timeout</b> - Timeout to apply when communicating with the device
+ * <b>sms.gsm.urc</b> - Read the device from a background thread and pass unsolicited
+ *                      result codes to GsmUrcListeners (1 or 0, default 0)
+ * <b>sms.gsm.urc.timeout</b> - Milliseconds to wait for a response line when
+ *                              sms.gsm.urc is enabled, 0 to wait forever (default 30000)
+ * <b>sms.gsm.cmms</b> - Keep the link to the SMSC open with AT+CMMS while sending
+ *                       multipart messages and queued messages (1 or 0, default 0)
+ * <b>sms.gsm.cnmi</b> - Parameters for AT+CNMI, sent on connect, e.g. "2,1,0,1,0" to get
+ *                       +CMTI and +CDSI for new messages (default not sent)
+ * <b>sms.gsm.receive.interval</b> - Milliseconds between reading the stored messages,
+ *                                   0 to only read on receive() or +CMTI (default 0)
+ * <b>sms.gsm.receive.concat.timeout</b> - Milliseconds to wait for the missing parts of a
+ *                                         concatenated message (default 3600000)
  * <b>
  * </pre>
  * <p>
  * <i>This transport cannot set the sending "address" to anything else
  * than the sending phone's phonenumber.</i>
+ * <p>
+ * Received messages and status reports are passed to the
+ * GsmMessageListener. Stored messages are read with receive(), every
+ * sms.gsm.receive.interval ms, and on +CMTI and +CDSI when sms.gsm.urc is
+ * enabled. Messages routed directly with +CMT and +CDS are also handled,
+ * but not acknowledged with AT+CNMA, so AT+CSMS must be 0 for that.
  *
  * @author Markus Eriksson, Boris von Loesch
  * @version $Id$
@@ -84,7 +123,32 @@ public class GsmTransport implements SmsTransport
     private static final int RESPONSE_TEXT = 8;
     private static final int RESPONSE_CONTINUE = 16;
     
-    private SerialComm serialComm_ = null;
+    private GsmComm serialComm_ = null;
+    private String name_ = "smsj-gsm-sender";
+
+    /**
+     * The modem can only handle one command at a time, all sends are
+     * serialized through this executor.
+     */
+    private ExecutorService executor_ = null;
+
+    /** Messages queued or being sent. */
+    private final AtomicInteger queueDepth_ = new AtomicInteger();
+
+    /** Use AT+CMMS, and is it enabled on the device? Only used on the executor. */
+    private boolean cmms_ = false;
+    private boolean cmmsEnabled_ = false;
+
+    private String cnmi_ = null;
+    private long receiveInterval_ = 0;
+    private GsmMessageAssembler assembler_ = new GsmMessageAssembler(3600000);
+    private volatile GsmMessageListener messageListener_ = null;
+
+    /** Reads the stored messages every receiveInterval_ ms. */
+    private ScheduledExecutorService receiveScheduler_ = null;
+
+    /** Set while a read of the stored messages is queued. */
+    private final AtomicBoolean receiveQueued_ = new AtomicBoolean();
     
     /**
      * Creates a GsmTransport.
@@ -95,6 +159,21 @@ public class GsmTransport implements SmsTransport
         // Empty
     }
 
+    /**
+     * Creates a GsmTransport on a device that is already configured.
+     * <p>
+     * init() isn't needed.
+     * 
+     * @param comm The device
+     * @param name Name of the device, used for the sender thread
+     */
+    public GsmTransport(GsmComm comm, String name)
+    {
+        serialComm_ = comm;
+        name_ = "smsj-gsm-" + name;
+        registerUrcListener();
+    }
+
     /**
      * Initializes this transport.
      * 
@@ -105,15 +184,74 @@ public class GsmTransport implements SmsTransport
         String appName = props.getProperty("sms.gsm.appname", DEFAULT_SERIAL_PORT_APP_NAME); 
         String portName = props.getProperty("sms.gsm.serialport", "COM1");
 
-        serialComm_ = new SerialComm(appName, portName);
+        SerialComm serialComm = new SerialComm(appName, portName);
+
+        serialComm.setBitRate(props.getProperty("sms.gsm.bitrate", "19200"));
+        serialComm.setDataBits(props.getProperty("sms.gsm.bit", "8"));
+        serialComm.setStopBits(props.getProperty("sms.gsm.stopbits", "8"));
+        serialComm.setParity(props.getProperty("sms.gsm.parity", "NONE"));
+        serialComm.setFlowControl(props.getProperty("sms.gsm.flowcontrol", "NONE"));
+        serialComm.setTimeout(props.getProperty("sms.gsm.timeout", "0"));
+        boolean echo = props.getProperty("sms.gsm.echo", "1").equals("1");
+
+        if (props.getProperty("sms.gsm.urc", "0").equals("1"))
+        {
+            // The reader thread handles the echo
+            serialComm.setEcho(false);
+            long timeout = Long.parseLong(props.getProperty("sms.gsm.urc.timeout", "30000"));
+            serialComm_ = new UrcComm(serialComm, portName, echo, timeout);
+            registerUrcListener();
+        }
+        else
+        {
+            serialComm.setEcho(echo);
+            serialComm_ = serialComm;
+        }
+        name_ = "smsj-gsm-" + portName;
+
+        cmms_ = props.getProperty("sms.gsm.cmms", "0").equals("1");
+        cnmi_ = props.getProperty("sms.gsm.cnmi");
+        receiveInterval_ = Long.parseLong(props.getProperty("sms.gsm.receive.interval", "0"));
+        assembler_ = new GsmMessageAssembler(Long.parseLong(props.getProperty("sms.gsm.receive.concat.timeout", "3600000")));
+    }
+
+    /**
+     * Enables AT+CMMS batching, see sms.gsm.cmms.
+     * <p>
+     * Must be called before connect().
+     * 
+     * @param cmms true to keep the link open between the pdus
+     */
+    public void setMoreMessagesToSend(boolean cmms)
+    {
+        cmms_ = cmms;
+    }
+
+    /**
+     * Sets the listener for received messages and status reports.
+     * 
+     * @param listener The listener, or null to leave messages on the device
+     */
+    public void setMessageListener(GsmMessageListener listener)
+    {
+        messageListener_ = listener;
+    }
 
-        serialComm_.setBitRate(props.getProperty("sms.gsm.bitrate", "19200"));
-        serialComm_.setDataBits(props.getProperty("sms.gsm.bit", "8"));
-        serialComm_.setStopBits(props.getProperty("sms.gsm.stopbits", "8"));
-        serialComm_.setParity(props.getProperty("sms.gsm.parity", "NONE"));
-        serialComm_.setFlowControl(props.getProperty("sms.gsm.flowcontrol", "NONE"));
-        serialComm_.setTimeout(props.getProperty("sms.gsm.timeout", "0"));
-        serialComm_.setEcho(props.getProperty("sms.gsm.echo", "1").equals("1"));
+    /**
+     * Adds a listener for unsolicited result codes, like "+CMTI" for
+     * incoming messages.
+     * 
+     * @param listener The listener
+     * @throws IllegalStateException If the device isn't read by a UrcComm,
+     *         see sms.gsm.urc
+     */
+    public void addUrcListener(GsmUrcListener listener)
+    {
+        if (!(serialComm_ instanceof UrcComm))
+        {
+            throw new IllegalStateException("Unsolicited result codes need sms.gsm.urc=1");
+        }
+        ((UrcComm) serialComm_).addUrcListener(listener);
     }
     
     /**
@@ -140,6 +278,29 @@ public class GsmTransport implements SmsTransport
             // Init
             MessageFormatSetReq messageFormatSetReq = new MessageFormatSetReq(MessageFormatSetReq.MODE_PDU);
             messageFormatSetReq.send(serialComm_);
+
+            if (cnmi_ != null)
+            {
+                new NewMessageIndicationsReq(cnmi_).send(serialComm_);
+            }
+
+            final String name = name_;
+            executor_ = Executors.newSingleThreadExecutor(r -> {
+                Thread thread = new Thread(r, name);
+                thread.setDaemon(true);
+                return thread;
+            });
+
+            if (receiveInterval_ > 0)
+            {
+                receiveScheduler_ = Executors.newSingleThreadScheduledExecutor(r -> {
+                    Thread thread = new Thread(r, name + "-receive");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+                receiveScheduler_.scheduleWithFixedDelay(this::queueReceive,
+                        receiveInterval_, receiveInterval_, TimeUnit.MILLISECONDS);
+            }
         }
         catch (GsmException e)
         {
@@ -159,11 +320,63 @@ public class GsmTransport implements SmsTransport
      * @param msg The message to send
      * @param dest The reciever
      * @param sender The sending address, ignored
-     * @return Returns a local message id
+     * @return The message reference that the phone gave the last pdu, as a
+     *         string, or null if the phone didn't return one
      * @throws SmsException Thrown if we fail to send the SMS
      * @throws IOException 
      */
     public String send(SmsMessage msg, SmsAddress dest, SmsAddress sender) throws SmsException, IOException
+    {
+        return SmsAsyncUtil.get(sendAsync(msg, dest, sender)).getMessageId();
+    }
+
+    /**
+     * Queues the SMS message for sending.
+     * <p>
+     * Messages are sent one at a time in the order they were queued.
+     * 
+     * Note: The sending address is ignored for the GSM transport.
+     *
+     * @param msg The message to send
+     * @param dest The reciever
+     * @param sender The sending address, ignored
+     * @return A future with the +CMGS message reference of every pdu
+     */
+    public CompletableFuture<SmsSendResult> sendAsync(final SmsMessage msg, final SmsAddress dest, final SmsAddress sender)
+    {
+        if (executor_ == null)
+        {
+            CompletableFuture<SmsSendResult> failed = new CompletableFuture<SmsSendResult>();
+            failed.completeExceptionally(new SmsException("Must connect before sending"));
+            return failed;
+        }
+
+        queueDepth_.incrementAndGet();
+        CompletableFuture<SmsSendResult> result;
+        try
+        {
+            result = SmsAsyncUtil.supplyAsync(() -> new SmsSendResult(sendPdus(msg, dest, sender)), executor_);
+        }
+        catch (RejectedExecutionException ex)
+        {
+            // Disconnected
+            result = new CompletableFuture<SmsSendResult>();
+            result.completeExceptionally(new SmsException("Must connect before sending", ex));
+        }
+        result.whenComplete((ignored, ex) -> queueDepth_.decrementAndGet());
+        return result;
+    }
+
+    /**
+     * Returns the number of messages that are queued or being sent.
+     */
+    public int getQueueDepth()
+    {
+        return queueDepth_.get();
+    }
+
+    private List<SmsPduResult> sendPdus(SmsMessage msg, SmsAddress dest, SmsAddress sender)
+        throws SmsException, IOException
     {
         if (dest.getTypeOfNumber() == SmsTon.ALPHANUMERIC)
         {
@@ -173,28 +386,104 @@ public class GsmTransport implements SmsTransport
         try
         {
             SmsPdu[] msgPdu = msg.getPdus();
+
+            // queueDepth_ includes this message
+            if (msgPdu.length > 1 || queueDepth_.get() > 1)
+            {
+                applyCmms(true);
+            }
+
+            List<SmsPduResult> results = new ArrayList<SmsPduResult>(msgPdu.length);
             for (SmsPdu aMsgPdu : msgPdu) {
                 byte[] data = GsmEncoder.encodePdu(aMsgPdu, dest, sender);
                 PduSendMessageReq sendMessageReq = new PduSendMessageReq(data);
+                long submitTime = System.currentTimeMillis();
                 PduSendMessageRsp sendMessageRsp = sendMessageReq.send(serialComm_);
+                int messageReference = sendMessageRsp.getMessageReference();
+                results.add(new SmsPduResult((messageReference < 0) ? null : String.valueOf(messageReference),
+                        messageReference, sendMessageRsp.getResponse(), submitTime, System.currentTimeMillis()));
             }
+            return results;
         }
         catch (GsmException e)
         {
             throw new SmsException("Send failed: " + e.getMessage() + " Last response:" + e.getResponse(), e);
         }
-        
-        // TODO: Return a real message id
-        return null;
+        finally
+        {
+            if (queueDepth_.get() <= 1)
+            {
+                try
+                {
+                    applyCmms(false);
+                }
+                catch (IOException e)
+                {
+                    log_.warn("Failed to disable AT+CMMS on " + name_, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Enables or disables AT+CMMS=2 on the device, if sms.gsm.cmms is set.
+     * A device that doesn't support AT+CMMS sends without it.
+     */
+    private void applyCmms(boolean enable)
+        throws IOException
+    {
+        if (!cmms_ || cmmsEnabled_ == enable)
+        {
+            return;
+        }
+
+        try
+        {
+            new MoreMessagesToSendReq(enable ? MoreMessagesToSendReq.MODE_ENABLED : MoreMessagesToSendReq.MODE_DISABLED)
+                .send(serialComm_);
+            cmmsEnabled_ = enable;
+        }
+        catch (GsmException e)
+        {
+            log_.warn("AT+CMMS not supported by " + name_ + ", sending without it. Last response: " + e.getResponse());
+            cmms_ = false;
+            cmmsEnabled_ = false;
+        }
     }
 
     /**
      * Sends a "AT" command to keep the connection alive.
+     * <p>
+     * The ping is queued behind the messages, so that it doesn't interrupt
+     * a send.
      *
      * @throws IOException 
      */
     public void ping()
         throws IOException
+    {
+        ExecutorService executor = executor_;
+        if (executor == null)
+        {
+            sendPing();
+            return;
+        }
+
+        try
+        {
+            SmsAsyncUtil.get(SmsAsyncUtil.supplyAsync(() -> {
+                sendPing();
+                return null;
+            }, executor));
+        }
+        catch (SmsException | RejectedExecutionException e)
+        {
+            throw new IOException("Ping failed: " + e.getMessage(), e);
+        }
+    }
+
+    private void sendPing()
+        throws IOException
     {
         try
         {
@@ -209,6 +498,251 @@ public class GsmTransport implements SmsTransport
         }
     }
 
+    /**
+     * Reads the stored messages and status reports from the device, passes
+     * them to the GsmMessageListener and deletes them.
+     * <p>
+     * The parts of a concatenated message stay on the device until all have
+     * been read. The read is queued behind the messages that are being sent.
+     * 
+     * @return The number of messages and status reports that were passed on
+     * @throws SmsException If the device can't list the messages
+     * @throws IOException
+     */
+    public int receive()
+        throws SmsException, IOException
+    {
+        ExecutorService executor = executor_;
+        if (executor == null)
+        {
+            throw new SmsException("Must connect before receiving");
+        }
+
+        try
+        {
+            return SmsAsyncUtil.get(SmsAsyncUtil.supplyAsync(this::readMessages, executor));
+        }
+        catch (RejectedExecutionException ex)
+        {
+            throw new SmsException("Must connect before receiving", ex);
+        }
+    }
+
+    /**
+     * Queues a read of the stored messages, unless one is queued already.
+     */
+    private void queueReceive()
+    {
+        ExecutorService executor = executor_;
+        if (executor == null || !receiveQueued_.compareAndSet(false, true))
+        {
+            return;
+        }
+
+        try
+        {
+            executor.execute(() -> {
+                receiveQueued_.set(false);
+                try
+                {
+                    readMessages();
+                }
+                catch (SmsException | IOException ex)
+                {
+                    log_.warn("Failed to read messages from " + name_, ex);
+                }
+            });
+        }
+        catch (RejectedExecutionException ex)
+        {
+            // Disconnected
+            receiveQueued_.set(false);
+        }
+    }
+
+    private int readMessages()
+        throws SmsException, IOException
+    {
+        GsmMessageListener listener = messageListener_;
+        if (listener == null)
+        {
+            return 0;
+        }
+
+        List<PduMessageRsp> stored;
+        try
+        {
+            stored = new PduListMessagesReq(PduListMessagesReq.STAT_ALL).send(serialComm_);
+        }
+        catch (GsmException e)
+        {
+            throw new SmsException("Receive failed: " + e.getMessage() + " Last response:" + e.getResponse(), e);
+        }
+
+        int nDelivered = 0;
+        Set<Integer> listed = new TreeSet<Integer>();
+        Set<Integer> handled = new TreeSet<Integer>();
+        for (PduMessageRsp rsp : stored)
+        {
+            if (rsp.getStat() == PduListMessagesReq.STAT_STO_UNSENT || rsp.getStat() == PduListMessagesReq.STAT_STO_SENT)
+            {
+                // Outgoing messages that someone stored on the device
+                continue;
+            }
+            listed.add(rsp.getIndex());
+
+            try
+            {
+                int[] indexes = dispatch(rsp.getPdu(), rsp.getIndex(), listener);
+                if (indexes != null)
+                {
+                    nDelivered++;
+                    for (int index : indexes)
+                    {
+                        handled.add(index);
+                    }
+                }
+            }
+            catch (SmsException ex)
+            {
+                // Would fill the storage if left
+                log_.warn("Deleting undecodable message " + rsp.getIndex() + ": "
+                        + StringUtil.bytesToHexString(rsp.getPdu()), ex);
+                handled.add(rsp.getIndex());
+            }
+            catch (RuntimeException ex)
+            {
+                log_.warn("GsmMessageListener failed, leaving message " + rsp.getIndex() + " on the device", ex);
+            }
+        }
+
+        for (GsmIncomingMessage msg : assembler_.expire())
+        {
+            log_.warn("Parts are missing from message from " + msg.getOriginator());
+            try
+            {
+                listener.messageReceived(msg);
+                nDelivered++;
+                for (int index : msg.getIndexes())
+                {
+                    handled.add(index);
+                }
+            }
+            catch (RuntimeException ex)
+            {
+                log_.warn("GsmMessageListener failed, leaving message on the device", ex);
+            }
+        }
+
+        // Parts that were routed directly with +CMT have no index
+        handled.remove(-1);
+        deleteMessages(handled, handled.equals(listed));
+        return nDelivered;
+    }
+
+    /**
+     * Decodes a pdu and passes it to the listener.
+     * 
+     * @return The storage indexes that can be deleted, or null if parts of
+     *         the message are still missing
+     */
+    private int[] dispatch(byte[] pdu, int index, GsmMessageListener listener)
+        throws SmsException
+    {
+        switch (GsmDecoder.getMessageType(pdu))
+        {
+        case GsmDecoder.MTI_DELIVER:
+            GsmIncomingMessage msg = assembler_.add(GsmDecoder.decodeDeliver(pdu), index);
+            if (msg == null)
+            {
+                return null;
+            }
+            listener.messageReceived(msg);
+            return msg.getIndexes();
+
+        case GsmDecoder.MTI_STATUS_REPORT:
+            listener.statusReportReceived(GsmDecoder.decodeStatusReport(pdu));
+            return new int[] { index };
+
+        default:
+            throw new SmsException("Unsupported message type " + GsmDecoder.getMessageType(pdu));
+        }
+    }
+
+    /**
+     * Deletes the handled messages. If every listed message was handled
+     * they are deleted with one AT+CMGD, otherwise one at a time.
+     */
+    private void deleteMessages(Set<Integer> indexes, boolean all)
+        throws IOException
+    {
+        if (indexes.isEmpty())
+        {
+            return;
+        }
+
+        if (all && indexes.size() > 1)
+        {
+            try
+            {
+                // The listed messages are read now, new ones are still unread
+                new DeleteMessageReq(indexes.iterator().next(), DeleteMessageReq.DELFLAG_READ).send(serialComm_);
+                return;
+            }
+            catch (GsmException e)
+            {
+                log_.debug("AT+CMGD with delflag not supported, deleting one at a time");
+            }
+        }
+
+        for (int index : indexes)
+        {
+            try
+            {
+                new DeleteMessageReq(index).send(serialComm_);
+            }
+            catch (GsmException e)
+            {
+                log_.warn("Failed to delete message " + index + ": " + e.getResponse());
+            }
+        }
+    }
+
+    /**
+     * Handles the new message indications, and the messages that are
+     * routed directly, when the device is read by a UrcComm.
+     */
+    private void registerUrcListener()
+    {
+        if (!(serialComm_ instanceof UrcComm))
+        {
+            return;
+        }
+
+        ((UrcComm) serialComm_).addUrcListener((urc, pdu) -> {
+            if (urc.startsWith("+CMTI:") || urc.startsWith("+CDSI:"))
+            {
+                queueReceive();
+            }
+            else if (pdu != null && (urc.startsWith("+CMT:") || urc.startsWith("+CDS:")))
+            {
+                GsmMessageListener listener = messageListener_;
+                if (listener == null)
+                {
+                    return;
+                }
+                try
+                {
+                    dispatch(StringUtil.hexStringToBytes(pdu.trim()), -1, listener);
+                }
+                catch (SmsException ex)
+                {
+                    log_.warn("Dropping undecodable message: " + pdu, ex);
+                }
+            }
+        });
+    }
+
     /**
      * Closes the serial connection to the phone.
      * 
@@ -216,6 +750,16 @@ public class GsmTransport implements SmsTransport
      */
     public void disconnect()
     {
+        if (receiveScheduler_ != null)
+        {
+            receiveScheduler_.shutdown();
+            receiveScheduler_ = null;
+        }
+        if (executor_ != null)
+        {
+            executor_.shutdown();
+            executor_ = null;
+        }
         serialComm_.close();
     }
 }
@@ -37,7 +37,6 @@ package org.marre.sms.transport.gsm;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -64,6 +63,10 @@ public class SerialComm implements GsmComm
     private SerialPort serialPort_;
     private OutputStream serialOs_;
     private InputStream serialIs_;
+    private GsmLineReader reader_;
+
+    /** Reused for every row that is sent. */
+    private byte[] writeBuf_ = new byte[256];
 
     private final String appName_;
     private final String portName_;
@@ -176,7 +179,8 @@ public class SerialComm implements GsmComm
         try 
         {
             serialOs_ = serialPort_.getOutputStream();
-            serialIs_ = new BufferedInputStream(serialPort_.getInputStream());
+            serialIs_ = serialPort_.getInputStream();
+            reader_ = new GsmLineReader(serialIs_);
         }
         catch (IOException ex) 
         {
@@ -208,28 +212,45 @@ public class SerialComm implements GsmComm
         
         serialOs_ = null;
         serialIs_ = null;            
+        reader_ = null;
         serialPort_ = null; 
     }
 
     /* (non-Javadoc)
      * @see org.marre.sms.transport.gsm.GsmComm#sendLine(java.lang.String)
      */
-    public void send(String row) 
+    public synchronized void send(String row) 
         throws IOException
     {
-        // TODO: Remove \r\n from log
-        log_.debug(">> " + row);
+        if (log_.isDebugEnabled())
+        {
+            log_.debug(">> " + row.trim());
+        }
 
-        serialOs_.write(row.getBytes());
+        // AT commands and hex coded pdus are plain ASCII
+        int length = row.length();
+        if (writeBuf_.length < length)
+        {
+            writeBuf_ = new byte[Math.max(length, writeBuf_.length * 2)];
+        }
+        for (int i = 0; i < length; i++)
+        {
+            writeBuf_[i] = (byte) row.charAt(i);
+        }
+        serialOs_.write(writeBuf_, 0, length);
         
         if (echo_) {
-            String echo = readOneRowOfData(null);
+            if (log_.isDebugEnabled())
+            {
+                log_.debug("<< " + reader_.readLine(null));
+            }
+            else
+            {
+                reader_.skipLine();
+            }
             
             // Some devices adds an extra \r\n as well
-            serialIs_.mark(2);
-            if ((serialIs_.read() != '\r') || (serialIs_.read() != '\n')) {
-                serialIs_.reset();
-            }
+            reader_.skipCrLf();
         }
     }
 
@@ -251,38 +272,13 @@ public class SerialComm implements GsmComm
     private String readOneRowOfData(String find)
         throws IOException
     {
-        StringBuilder buffer = new StringBuilder(256);
-        int ch;
-
-        while (true)
+        String row = reader_.readLine(find);
+        
+        if (log_.isDebugEnabled())
         {
-            ch = serialIs_.read();
-            
-            if ( ch == '\r' )
-            {
-                continue;
-            }
-            
-            if ( (ch == -1) ||
-                 (ch == '\n') )
-            {
-                break;
-            }
-                        
-            buffer.append((char) ch);
-            
-            if ( (find != null) && 
-                 (find.equals(buffer.toString())) ) {
-                // Found the string we are looking for...
-                break;
-            }
+            log_.debug("<< " + row);
         }
 
-        String row = buffer.toString();
-        
-        // LOG
-        log_.debug("<< " + row);
-
         return row;
     }
     
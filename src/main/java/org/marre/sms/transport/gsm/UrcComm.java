@@ -0,0 +1,362 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is "SMS Library for the Java platform".
+ *
+ * The Initial Developer of the Original Code is Markus Eriksson.
+ * Portions created by the Initial Developer are Copyright (C) 2002
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.marre.sms.transport.gsm;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A GsmComm that reads the device from a background thread and separates
+ * unsolicited result codes from command responses.
+ * <p>
+ * Every line from the device is either an unsolicited result code (URC),
+ * which is passed to the GsmUrcListeners, or part of the response to the
+ * running command, which is queued for readLine(). A "+CMTI" that arrives
+ * in the middle of an AT+CMGS therefore no longer breaks the command.
+ * A line that starts with the name of the running command, like "+CREG"
+ * during AT+CREG?, is always a response.
+ * <p>
+ * Listeners are called on a dispatch thread of their own, so they may send
+ * commands to the device without stalling the reader.
+ * <p>
+ * The wrapped GsmComm must not read the echo itself, set echo on this
+ * class instead.
+ * 
+ * @author Markus Eriksson
+ * @version $Id$
+ */
+public class UrcComm implements GsmComm
+{
+    private static final Logger log_ = LoggerFactory.getLogger(UrcComm.class);
+
+    /** Unsolicited result codes, from 3GPP TS 27.005 and 27.007. */
+    private static final String[] URC_PREFIXES = {
+        "+CMTI:", "+CMT:", "+CDSI:", "+CDS:", "+CBMI:", "+CBM:", "+CREG:", "+CGREG:",
+        "+CRING:", "RING", "+CLIP:", "+CUSD:", "+CIEV:",
+    };
+
+    /** URCs that are followed by a line with the pdu. */
+    private static final String[] PDU_PREFIXES = { "+CMT:", "+CDS:", "+CBM:" };
+
+    /** Marks the end of the stream in the response queue. */
+    private static final String CLOSED = new String("closed");
+
+    private final GsmComm comm_;
+    private final String name_;
+    private final boolean echo_;
+    private final long timeout_;
+    private final List<GsmUrcListener> listeners_ = new CopyOnWriteArrayList<GsmUrcListener>();
+    private final BlockingQueue<String> responses_ = new LinkedBlockingQueue<String>();
+
+    /** Name of the running command, e.g. "+CMGS", and the echo we expect for it. */
+    private volatile String command_;
+    private volatile String expectedEcho_;
+    private volatile boolean dropBlankLine_;
+
+    private volatile Thread reader_;
+    private ExecutorService dispatcher_;
+
+    /**
+     * Creates a UrcComm.
+     * 
+     * @param comm The device, without echo handling
+     * @param name Name of the device, used for the threads
+     * @param echo Does the device echo the commands?
+     * @param timeout Milliseconds to wait for a response line, 0 to wait forever
+     */
+    public UrcComm(GsmComm comm, String name, boolean echo, long timeout)
+    {
+        comm_ = comm;
+        name_ = name;
+        echo_ = echo;
+        timeout_ = timeout;
+    }
+
+    public void addUrcListener(GsmUrcListener listener)
+    {
+        listeners_.add(listener);
+    }
+
+    public void removeUrcListener(GsmUrcListener listener)
+    {
+        listeners_.remove(listener);
+    }
+
+    /**
+     * Opens the device and starts the reader.
+     */
+    public synchronized void open() throws IOException
+    {
+        comm_.open();
+        responses_.clear();
+
+        dispatcher_ = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "smsj-gsm-urc-" + name_);
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        Thread reader = new Thread(this::read, "smsj-gsm-reader-" + name_);
+        reader.setDaemon(true);
+        reader_ = reader;
+        reader.start();
+    }
+
+    /**
+     * Stops the reader and closes the device.
+     */
+    public synchronized void close()
+    {
+        Thread reader = reader_;
+        reader_ = null;
+        comm_.close();
+        if (reader != null)
+        {
+            reader.interrupt();
+        }
+        if (dispatcher_ != null)
+        {
+            dispatcher_.shutdown();
+            dispatcher_ = null;
+        }
+    }
+
+    /**
+     * Sends a command. Response lines that nobody read for the previous
+     * command are dropped.
+     */
+    public void send(String data) throws IOException
+    {
+        responses_.clear();
+        command_ = getCommandName(data);
+        if (echo_)
+        {
+            expectedEcho_ = stripControl(data);
+        }
+        comm_.send(data);
+    }
+
+    /**
+     * Reads the next response line.
+     * 
+     * @throws IOException If no line arrived in time, or the device was closed
+     */
+    public String readLine() throws IOException
+    {
+        String line;
+        try
+        {
+            line = (timeout_ > 0) ? responses_.poll(timeout_, TimeUnit.MILLISECONDS) : responses_.take();
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the device");
+        }
+
+        if (line == null)
+        {
+            throw new IOException("No response from the device in " + timeout_ + " ms");
+        }
+        if (line == CLOSED)
+        {
+            // Leave the marker for the next reader
+            responses_.add(CLOSED);
+            throw new IOException("The device is closed");
+        }
+        return line;
+    }
+
+    /**
+     * Reads the next response line. The reader already ends a line at the
+     * "> " prompt of AT+CMGS.
+     */
+    public String readLine(String find) throws IOException
+    {
+        return readLine();
+    }
+
+    /**
+     * The reader thread.
+     */
+    private void read()
+    {
+        Thread self = Thread.currentThread();
+        try
+        {
+            while (reader_ == self)
+            {
+                // The "> " prompt has no line end
+                String line = comm_.readLine("> ");
+                if (reader_ != self)
+                {
+                    break;
+                }
+                handleLine(line);
+            }
+        }
+        catch (IOException | RuntimeException ex)
+        {
+            if (reader_ == self)
+            {
+                log_.warn("Reading from " + name_ + " failed", ex);
+            }
+        }
+        finally
+        {
+            responses_.add(CLOSED);
+        }
+    }
+
+    private void handleLine(String line) throws IOException
+    {
+        String echo = expectedEcho_;
+        if (echo != null && stripControl(line).equals(echo))
+        {
+            expectedEcho_ = null;
+            // Some devices add an extra \r\n after the echo
+            dropBlankLine_ = true;
+            return;
+        }
+        if (dropBlankLine_)
+        {
+            dropBlankLine_ = false;
+            if (line.length() == 0)
+            {
+                return;
+            }
+        }
+
+        if (!isUrc(line))
+        {
+            responses_.add(line);
+            return;
+        }
+
+        String pdu = null;
+        for (String prefix : PDU_PREFIXES)
+        {
+            if (line.startsWith(prefix))
+            {
+                pdu = comm_.readLine();
+                break;
+            }
+        }
+        dispatch(line, pdu);
+    }
+
+    private boolean isUrc(String line)
+    {
+        String command = command_;
+        if (command != null && line.startsWith(command))
+        {
+            return false;
+        }
+        for (String prefix : URC_PREFIXES)
+        {
+            if (line.startsWith(prefix))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void dispatch(final String urc, final String pdu)
+    {
+        log_.debug("URC from " + name_ + ": " + urc);
+        ExecutorService dispatcher = dispatcher_;
+        if (dispatcher == null)
+        {
+            return;
+        }
+        dispatcher.execute(() -> {
+            for (GsmUrcListener listener : listeners_)
+            {
+                try
+                {
+                    listener.urcReceived(urc, pdu);
+                }
+                catch (RuntimeException ex)
+                {
+                    log_.warn("GsmUrcListener failed", ex);
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns the name of an AT command, e.g. "+CMGS" for "AT+CMGS=23\r".
+     * 
+     * @return The name, or null if the data isn't an AT command
+     */
+    static String getCommandName(String data)
+    {
+        if (!data.regionMatches(true, 0, "AT", 0, 2))
+        {
+            return null;
+        }
+        int end = 2;
+        while (end < data.length() && "=?\r\n;".indexOf(data.charAt(end)) < 0)
+        {
+            end++;
+        }
+        return (end > 2) ? data.substring(2, end).toUpperCase() : null;
+    }
+
+    private static String stripControl(String data)
+    {
+        int start = 0;
+        int end = data.length();
+        while (start < end && data.charAt(start) <= ' ')
+        {
+            start++;
+        }
+        while (end > start && data.charAt(end - 1) <= ' ')
+        {
+            end--;
+        }
+        return data.substring(start, end);
+    }
+}
@@ -0,0 +1,113 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is "SMS Library for the Java platform".
+ *
+ * The Initial Developer of the Original Code is Markus Eriksson.
+ * Portions created by the Initial Developer are Copyright (C) 2002
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.marre.sms.transport.gsm.commands;
+
+import java.io.IOException;
+
+import org.marre.sms.transport.gsm.GsmComm;
+import org.marre.sms.transport.gsm.GsmException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Represents a Delete Message request (AT+CMGD).
+ * 
+ * @author Markus Eriksson
+ * @version $Id$
+ */
+public class DeleteMessageReq
+{
+    private static final Logger log_ = LoggerFactory.getLogger(DeleteMessageReq.class);
+
+    /** Delete the message at the index. */
+    public static final int DELFLAG_INDEX = 0;
+    /** Delete all read messages, the index is ignored. */
+    public static final int DELFLAG_READ = 1;
+    /** Delete all read and sent messages, the index is ignored. */
+    public static final int DELFLAG_READ_SENT = 2;
+    /** Delete all read, sent and unsent messages, the index is ignored. */
+    public static final int DELFLAG_READ_SENT_UNSENT = 3;
+    /** Delete all messages, the index is ignored. */
+    public static final int DELFLAG_ALL = 4;
+
+    private final int index_;
+    private final int delflag_;
+
+    public DeleteMessageReq(int index)
+    {
+        this(index, DELFLAG_INDEX);
+    }
+
+    /**
+     * Not all devices support delflag, use DELFLAG_INDEX for those.
+     * 
+     * @param index Storage index
+     * @param delflag One of the DELFLAG_ constants
+     */
+    public DeleteMessageReq(int index, int delflag)
+    {
+        if (delflag < DELFLAG_INDEX || delflag > DELFLAG_ALL)
+        {
+            throw new IllegalArgumentException("Invalid delflag.");
+        }
+        index_ = index;
+        delflag_ = delflag;
+    }
+
+    /**
+     * Sends the command.
+     * 
+     * @param comm
+     * @throws GsmException
+     * @throws IOException
+     */
+    public void send(GsmComm comm) throws GsmException, IOException
+    {
+        log_.debug("Sending AT+CMGD command");
+        if (delflag_ == DELFLAG_INDEX)
+        {
+            comm.send("AT+CMGD=" + index_ + "\r");
+        }
+        else
+        {
+            comm.send("AT+CMGD=" + index_ + "," + delflag_ + "\r");
+        }
+
+        String rsp = comm.readLine();
+        if (! rsp.startsWith("OK")) {
+            throw new GsmException("AT+CMGD failed.", rsp);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is "SMS Library for the Java platform".
+ *
+ * The Initial Developer of the Original Code is Markus Eriksson.
+ * Portions created by the Initial Developer are Copyright (C) 2002
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.marre.sms.transport.gsm.commands;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.marre.sms.transport.gsm.GsmComm;
+import org.marre.sms.transport.gsm.GsmException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Represents a PDU mode List Messages request (AT+CMGL).
+ * <p>
+ * Listing marks received unread messages as read.
+ * 
+ * @author Markus Eriksson
+ * @version $Id$
+ */
+public class PduListMessagesReq
+{
+    private static final Logger log_ = LoggerFactory.getLogger(PduListMessagesReq.class);
+
+    public static final int STAT_REC_UNREAD = 0;
+    public static final int STAT_REC_READ = 1;
+    public static final int STAT_STO_UNSENT = 2;
+    public static final int STAT_STO_SENT = 3;
+    public static final int STAT_ALL = 4;
+
+    private final int stat_;
+
+    public PduListMessagesReq(int stat)
+    {
+        if (stat < STAT_REC_UNREAD || stat > STAT_ALL)
+        {
+            throw new IllegalArgumentException("Invalid stat.");
+        }
+        stat_ = stat;
+    }
+
+    /**
+     * Sends the command and reads all listed messages.
+     * 
+     * @param comm
+     * @return The messages, in the order the device listed them
+     * @throws GsmException
+     * @throws IOException
+     */
+    public List<PduMessageRsp> send(GsmComm comm) throws GsmException, IOException
+    {
+        log_.debug("Sending AT+CMGL command");
+        comm.send("AT+CMGL=" + stat_ + "\r");
+
+        List<PduMessageRsp> messages = new ArrayList<PduMessageRsp>();
+        while (true)
+        {
+            String rsp = comm.readLine();
+            if (rsp.startsWith("+CMGL:"))
+            {
+                String pdu = comm.readLine();
+                try
+                {
+                    messages.add(PduMessageRsp.parse(-1, rsp, pdu));
+                }
+                catch (IllegalArgumentException ex)
+                {
+                    throw new GsmException(ex.getMessage(), rsp);
+                }
+            }
+            else if (rsp.startsWith("OK"))
+            {
+                log_.debug("Listed " + messages.size() + " messages");
+                return messages;
+            }
+            else if (rsp.contains("ERROR"))
+            {
+                throw new GsmException("AT+CMGL failed.", rsp);
+            }
+            // Some devices send empty lines between the messages
+        }
+    }
+}
@@ -0,0 +1,118 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is "SMS Library for the Java platform".
+ *
+ * The Initial Developer of the Original Code is Markus Eriksson.
+ * Portions created by the Initial Developer are Copyright (C) 2002
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.marre.sms.transport.gsm.commands;
+
+import org.marre.util.StringUtil;
+
+/**
+ * A message read from the storage of the device in PDU mode, from a
+ * "+CMGL: &lt;index&gt;,&lt;stat&gt;,[&lt;alpha&gt;],&lt;length&gt;" or
+ * "+CMGR: &lt;stat&gt;,[&lt;alpha&gt;],&lt;length&gt;" line and the pdu line
+ * that follows it.
+ * 
+ * @author Markus Eriksson
+ * @version $Id$
+ */
+public class PduMessageRsp
+{
+    private final int index_;
+    private final int stat_;
+    private final byte[] pdu_;
+
+    public PduMessageRsp(int index, int stat, byte[] pdu)
+    {
+        index_ = index;
+        stat_ = stat;
+        pdu_ = pdu;
+    }
+
+    /**
+     * Parses the header line and the hex coded pdu line.
+     * 
+     * @param index The index, or -1 to read it from a +CMGL header
+     * @param header The +CMGL or +CMGR line
+     * @param pdu The pdu line
+     * @return The message
+     * @throws IllegalArgumentException If the lines can't be parsed
+     */
+    static PduMessageRsp parse(int index, String header, String pdu)
+    {
+        int colon = header.indexOf(':');
+        if (colon < 0)
+        {
+            throw new IllegalArgumentException("Invalid header: " + header);
+        }
+        String[] fields = header.substring(colon + 1).split(",");
+        int field = 0;
+        try
+        {
+            if (index < 0)
+            {
+                index = Integer.parseInt(fields[field++].trim());
+            }
+            int stat = Integer.parseInt(fields[field].trim());
+            return new PduMessageRsp(index, stat, StringUtil.hexStringToBytes(pdu.trim()));
+        }
+        catch (RuntimeException ex)
+        {
+            throw new IllegalArgumentException("Invalid message: " + header + " " + pdu, ex);
+        }
+    }
+
+    /**
+     * Returns the storage index of the message.
+     */
+    public int getIndex()
+    {
+        return index_;
+    }
+
+    /**
+     * Returns the status of the message, one of the
+     * PduListMessagesReq.STAT_ constants.
+     */
+    public int getStat()
+    {
+        return stat_;
+    }
+
+    /**
+     * Returns the pdu, starting with the SMSC address.
+     */
+    public byte[] getPdu()
+    {
+        return pdu_;
+    }
+}
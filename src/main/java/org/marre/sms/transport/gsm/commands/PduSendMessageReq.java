@@ -136,8 +136,7 @@ public class PduSendMessageReq
                 throw new GsmException("AT+CMGF failed.", ok);
             }
             
-            // TODO: Parse message reference
-            return new PduSendMessageRsp(cmgs);
+            return PduSendMessageRsp.parse(cmgs);
         } 
         else if (cmgs.startsWith("+CMS ERROR:"))
         {
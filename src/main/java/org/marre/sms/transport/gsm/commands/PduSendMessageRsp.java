@@ -34,6 +34,9 @@
  * ***** END LICENSE BLOCK ***** */
 package org.marre.sms.transport.gsm.commands;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 /**
  * Represents a successful PDU mode Send Message Set response (AT+CMGS).
  * 
@@ -42,14 +45,65 @@ package org.marre.sms.transport.gsm.commands;
  */
 public class PduSendMessageRsp
 {
-    private final String messageReference_;
+    private static final Logger log_ = LoggerFactory.getLogger(PduSendMessageRsp.class);
+
+    private final int messageReference_;
+    private final String response_;
     
-    public PduSendMessageRsp(String messageReference) {
+    public PduSendMessageRsp(int messageReference, String response) {
         messageReference_ = messageReference;
+        response_ = response;
     }
     
-    String getMessageReference()
+    /**
+     * Parses a "+CMGS: &lt;mr&gt;[,&lt;scts&gt;]" line.
+     * <p>
+     * The message has been sent when this line arrives, so a reference that
+     * can't be parsed is reported as -1 rather than as an error.
+     * 
+     * @param cmgs The line from the device
+     * @return The response
+     */
+    public static PduSendMessageRsp parse(String cmgs)
+    {
+        int messageReference = -1;
+        int start = cmgs.indexOf(':');
+        if (start >= 0)
+        {
+            int end = cmgs.indexOf(',', start);
+            try
+            {
+                messageReference = Integer.parseInt(cmgs.substring(start + 1, (end < 0) ? cmgs.length() : end).trim());
+            }
+            catch (NumberFormatException ex)
+            {
+                messageReference = -1;
+            }
+        }
+
+        if (messageReference < 0 || messageReference > 255)
+        {
+            log_.warn("No message reference in " + cmgs);
+            messageReference = -1;
+        }
+        return new PduSendMessageRsp(messageReference, cmgs);
+    }
+
+    /**
+     * Returns the TP-Message-Reference that the device gave the message.
+     * 
+     * @return 0-255, or -1 if the device didn't give a valid reference
+     */
+    public int getMessageReference()
     {
         return messageReference_;
     }
+
+    /**
+     * Returns the +CMGS line.
+     */
+    public String getResponse()
+    {
+        return response_;
+    }
 }
@@ -0,0 +1,229 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is "SMS Library for the Java platform".
+ *
+ * The Initial Developer of the Original Code is Markus Eriksson.
+ * Portions created by the Initial Developer are Copyright (C) 2002
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.marre.sms.transport.http;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.Charset;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import org.marre.sms.SmsAddress;
+import org.marre.sms.SmsException;
+import org.marre.sms.SmsMessage;
+import org.marre.sms.SmsPdu;
+import org.marre.sms.transport.SmsAsyncUtil;
+import org.marre.sms.transport.SmsPduResult;
+import org.marre.sms.transport.SmsSendResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An HttpTransport that uses the non-blocking java.net.http client.
+ * <p>
+ * The pdus of a message are sent in parallel without holding a thread while
+ * they are in flight. If the gateway supports HTTP/2 all requests share one
+ * multiplexed connection, smsj.http.pool.size and smsj.http.pool.idle are
+ * not used.
+ * <p>
+ * Besides the HttpTransport parameters this transport supports:
+ * <pre>
+ * <b>smsj.http.version</b> - HTTP_2 or HTTP_1_1 (default HTTP_2)
+ * <b>smsj.http.timeout</b> - Milliseconds to wait for a connection or a response (default 30000)
+ * </pre>
+ * 
+ * @author Markus Eriksson
+ * @version $Id$
+ */
+public class HttpAsyncTransport extends HttpTransport
+{
+    private static final Logger log_ = LoggerFactory.getLogger(HttpAsyncTransport.class);
+
+    private String httpVersion_;
+    private long timeout_;
+    private HttpClient httpClient_;
+
+    /**
+     * Creates an HttpAsyncTransport.
+     */
+    public HttpAsyncTransport()
+    {
+        // Empty
+    }
+
+    public void init(Properties props) throws SmsException
+    {
+        super.init(props);
+
+        httpVersion_ = props.getProperty("smsj.http.version", "HTTP_2");
+        try
+        {
+            HttpClient.Version.valueOf(httpVersion_);
+            timeout_ = Long.parseLong(props.getProperty("smsj.http.timeout", "30000"));
+        }
+        catch (IllegalArgumentException ex)
+        {
+            // Also covers NumberFormatException
+            throw new SmsException("Invalid HTTP transport setting: " + ex.getMessage(), ex);
+        }
+    }
+
+    /**
+     * Creates the HTTP client.
+     * <p>
+     * The connections are opened when they are needed.
+     */
+    public void connect()
+    {
+        getHttpClient();
+    }
+
+    /**
+     * Sends the message and waits for all pdus.
+     * 
+     * @return The message id of the last pdu, or null if there is no
+     *         smsj.http.id.pattern
+     */
+    public String send(SmsMessage msg, SmsAddress dest, SmsAddress sender) throws SmsException, IOException
+    {
+        return SmsAsyncUtil.get(sendAsync(msg, dest, sender)).getMessageId();
+    }
+
+    /**
+     * Sends the message without blocking the caller.
+     * <p>
+     * The pdus are posted in parallel.
+     */
+    public CompletableFuture<SmsSendResult> sendAsync(SmsMessage msg, SmsAddress dest, SmsAddress sender)
+    {
+        try
+        {
+            checkDestination(dest);
+        }
+        catch (SmsException ex)
+        {
+            CompletableFuture<SmsSendResult> failed = new CompletableFuture<SmsSendResult>();
+            failed.completeExceptionally(ex);
+            return failed;
+        }
+
+        SmsPdu[] msgPdu = msg.getPdus();
+        List<CompletableFuture<SmsPduResult>> results = new ArrayList<CompletableFuture<SmsPduResult>>(msgPdu.length);
+        for (SmsPdu pdu : msgPdu)
+        {
+            results.add(sendAsync(pdu, dest, sender));
+        }
+        return SmsAsyncUtil.allOf(results);
+    }
+
+    private CompletableFuture<SmsPduResult> sendAsync(SmsPdu pdu, SmsAddress dest, SmsAddress sender)
+    {
+        Map<String, String> variables = getVariables(pdu, dest, sender);
+        Charset charset = Charset.forName(getCharset());
+
+        String url = getUrl(variables);
+        HttpRequest.Builder request;
+        try
+        {
+            request = HttpRequest.newBuilder(URI.create(url)).timeout(Duration.ofMillis(timeout_));
+            if (isPost())
+            {
+                request.header("Content-Type", getContentType());
+                request.POST(HttpRequest.BodyPublishers.ofString(getBody(variables), charset));
+            }
+            else
+            {
+                request.GET();
+            }
+            for (Map.Entry<String, String> header : getHeaders(variables).entrySet())
+            {
+                request.setHeader(header.getKey(), header.getValue());
+            }
+        }
+        catch (IllegalArgumentException ex)
+        {
+            // A bad URL, or a header that the client doesn't allow to be set
+            CompletableFuture<SmsPduResult> failed = new CompletableFuture<SmsPduResult>();
+            failed.completeExceptionally(new SmsException("Invalid HTTP request: " + ex.getMessage(), ex));
+            return failed;
+        }
+
+        log_.debug("send: " + (isPost() ? "POST " : "GET ") + url);
+        final long submitTime = System.currentTimeMillis();
+        return getHttpClient().sendAsync(request.build(), HttpResponse.BodyHandlers.ofString(charset))
+                .thenApply(response -> {
+                    try
+                    {
+                        return parseResponse(response.statusCode(), response.body(), submitTime, System.currentTimeMillis());
+                    }
+                    catch (SmsException | IOException ex)
+                    {
+                        throw new CompletionException(ex);
+                    }
+                });
+    }
+
+    private synchronized HttpClient getHttpClient()
+    {
+        if (httpClient_ == null)
+        {
+            httpClient_ = SmsHttpUtil.createAsyncClient(httpVersion_, timeout_);
+        }
+        return httpClient_;
+    }
+
+    /**
+     * Drops the HTTP client.
+     * <p>
+     * Requests that are in flight are completed, the connections are closed
+     * when they have been idle for a while.
+     */
+    public void disconnect() throws IOException
+    {
+        super.disconnect();
+        synchronized (this)
+        {
+            httpClient_ = null;
+        }
+    }
+}
@@ -0,0 +1,215 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is "SMS Library for the Java platform".
+ *
+ * The Initial Developer of the Original Code is Markus Eriksson.
+ * Portions created by the Initial Developer are Copyright (C) 2002
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.marre.sms.transport.http;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.marre.sms.SmsException;
+
+/**
+ * A request template with ${name} variables.
+ * <p>
+ * The template is split into literals and variables once, when it is
+ * compiled, so expanding it is only a matter of appending strings. Values
+ * are escaped for where they end up, e.g. URL encoded in a form post and
+ * JSON escaped in a JSON body. Variables without a value expand to "".
+ * 
+ * @author Markus Eriksson
+ * @version $Id$
+ */
+public final class HttpTemplate
+{
+    /** How the values are escaped. */
+    public enum Escape
+    {
+        /** As is, e.g. for a header. */
+        NONE,
+        /** URL encoded, for a URL or an application/x-www-form-urlencoded body. */
+        URL,
+        /** As the contents of a JSON string. */
+        JSON
+    }
+
+    /** literals_[i] comes before names_[i], the last literal ends the template. */
+    private final String[] literals_;
+    private final String[] names_;
+    private final Escape escape_;
+    private final String charset_;
+    private final int length_;
+
+    private HttpTemplate(String[] literals, String[] names, Escape escape, String charset)
+    {
+        literals_ = literals;
+        names_ = names;
+        escape_ = escape;
+        charset_ = charset;
+
+        int length = 0;
+        for (String literal : literals)
+        {
+            length += literal.length();
+        }
+        length_ = length;
+    }
+
+    /**
+     * Compiles a template.
+     * 
+     * @param template The template, e.g. "to=${to}&amp;text=${text}"
+     * @param escape How the values are escaped
+     * @param charset Charset for URL encoding
+     * @return The compiled template
+     * @throws SmsException If a variable isn't terminated or the charset is unknown
+     */
+    public static HttpTemplate compile(String template, Escape escape, String charset) throws SmsException
+    {
+        try
+        {
+            URLEncoder.encode("", charset);
+        }
+        catch (UnsupportedEncodingException ex)
+        {
+            throw new SmsException("Unsupported charset " + charset, ex);
+        }
+
+        List<String> literals = new ArrayList<String>();
+        List<String> names = new ArrayList<String>();
+        int pos = 0;
+        while (true)
+        {
+            int start = template.indexOf("${", pos);
+            if (start < 0)
+            {
+                literals.add(template.substring(pos));
+                break;
+            }
+            int end = template.indexOf('}', start);
+            if (end < 0)
+            {
+                throw new SmsException("Unterminated variable in template: " + template);
+            }
+            literals.add(template.substring(pos, start));
+            names.add(template.substring(start + 2, end).trim());
+            pos = end + 1;
+        }
+
+        return new HttpTemplate(literals.toArray(new String[literals.size()]), names.toArray(new String[names.size()]),
+                escape, charset);
+    }
+
+    /**
+     * Expands the template.
+     * 
+     * @param values The values of the variables
+     * @return The expanded template
+     */
+    public String expand(Map<String, String> values)
+    {
+        StringBuilder result = new StringBuilder(length_ + names_.length * 32);
+        for (int i = 0; i < names_.length; i++)
+        {
+            result.append(literals_[i]);
+            String value = values.get(names_[i]);
+            if (value != null)
+            {
+                appendEscaped(result, value);
+            }
+        }
+        result.append(literals_[names_.length]);
+        return result.toString();
+    }
+
+    private void appendEscaped(StringBuilder result, String value)
+    {
+        switch (escape_)
+        {
+        case URL:
+            try
+            {
+                result.append(URLEncoder.encode(value, charset_));
+            }
+            catch (UnsupportedEncodingException ex)
+            {
+                // Checked in compile()
+                throw new IllegalStateException(ex);
+            }
+            break;
+
+        case JSON:
+            for (int i = 0; i < value.length(); i++)
+            {
+                char c = value.charAt(i);
+                switch (c)
+                {
+                case '"':
+                    result.append("\\\"");
+                    break;
+                case '\\':
+                    result.append("\\\\");
+                    break;
+                case '\n':
+                    result.append("\\n");
+                    break;
+                case '\r':
+                    result.append("\\r");
+                    break;
+                case '\t':
+                    result.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20)
+                    {
+                        result.append(String.format("\\u%04x", (int) c));
+                    }
+                    else
+                    {
+                        result.append(c);
+                    }
+                    break;
+                }
+            }
+            break;
+
+        case NONE:
+        default:
+            result.append(value);
+            break;
+        }
+    }
+}
@@ -0,0 +1,563 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is "SMS Library for the Java platform".
+ *
+ * The Initial Developer of the Original Code is Markus Eriksson.
+ * Portions created by the Initial Developer are Copyright (C) 2002
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.marre.sms.transport.http;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.util.EntityUtils;
+import org.marre.sms.SmsAddress;
+import org.marre.sms.SmsAlphabet;
+import org.marre.sms.SmsException;
+import org.marre.sms.SmsMessage;
+import org.marre.sms.SmsPdu;
+import org.marre.sms.transport.SmsAsyncUtil;
+import org.marre.sms.transport.SmsNotSentException;
+import org.marre.sms.transport.SmsPduResult;
+import org.marre.sms.transport.SmsQuotaException;
+import org.marre.sms.transport.SmsQuotaSource;
+import org.marre.sms.transport.SmsSendResult;
+import org.marre.sms.transport.SmsTransport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An SmsTransport for SMS gateways with a form or JSON HTTP API.
+ * <p>
+ * The request is described with templates and the message id is picked from
+ * the response with a regular expression, so a new gateway only needs
+ * properties. Every pdu is sent as a request of its own, posted over a pool
+ * of keep-alive connections.
+ * <p>
+ * This transport supports the following parameters:
+ * <pre>
+ * <b>smsj.http.url</b> - URL of the send API, may contain variables (required)
+ * <b>smsj.http.method</b> - POST or GET (default POST)
+ * <b>smsj.http.content.type</b> - Content type of a POST (default application/x-www-form-urlencoded)
+ * <b>smsj.http.body</b> - Body of a POST, with variables
+ * <b>smsj.http.charset</b> - Charset of the body and of URL encoded values (default UTF-8)
+ * <b>smsj.http.header.&lt;name&gt;</b> - A request header, may contain variables
+ * <b>smsj.http.param.&lt;name&gt;</b> - A constant, e.g. an account name, that templates can use as ${name}
+ * <b>smsj.http.id.pattern</b> - Regular expression, group 1 of the first match is the message id
+ * <b>smsj.http.error.pattern</b> - Regular expression, a response that matches it is a rejection
+ * <b>smsj.http.quota.pattern</b> - Regular expression, a response that matches it means out of credit
+ * <b>smsj.http.balance.url</b> - URL that returns the account balance, may contain params (default none)
+ * <b>smsj.http.balance.pattern</b> - Regular expression, group 1 is the balance (required with balance.url)
+ * <b>smsj.http.pool.size</b> - Max number of open HTTP connections (default 10)
+ * <b>smsj.http.pool.idle</b> - Milliseconds before an unused connection is closed (default 30000)
+ * </pre>
+ * The variables for each pdu are:
+ * <pre>
+ * <b>${to}</b> - The destination address
+ * <b>${from}</b> - The sender address, "" if none
+ * <b>${text}</b> - The message as text, "" for 8 bit data
+ * <b>${hex}</b> - The user data as hex, without the UDH
+ * <b>${udh}</b> - The user data header as hex, "" if none
+ * <b>${dcs}</b> - The data coding scheme as a decimal number
+ * <b>${unicode}</b> - "1" for a UCS2 message, otherwise "0"
+ * <b>${flash}</b> - "1" for a class 0 message, otherwise "0"
+ * </pre>
+ * Values are URL encoded in the URL and in form bodies, and JSON escaped
+ * in bodies with a JSON content type.
+ * <p>
+ * Example for a JSON API:
+ * <pre>
+ * smsj.http.url=https://sms.example.com/v1/messages
+ * smsj.http.content.type=application/json
+ * smsj.http.body={"to":"${to}","from":"${from}","text":"${text}"}
+ * smsj.http.header.Authorization=Bearer ${token}
+ * smsj.http.param.token=...
+ * smsj.http.id.pattern="id"\s*:\s*"([^"]+)"
+ * </pre>
+ * HTTP 502, 503 and 504 mean that the gateway didn't process the request,
+ * they are thrown as SmsNotSentException so that RetryTransport retries
+ * them. Other statuses of 500 or more are thrown as an IOException, the
+ * message may have been sent, and statuses of 300 or more as an
+ * SmsException. HTTP 402 and responses that
+ * match smsj.http.quota.pattern are thrown as SmsQuotaException, the
+ * balance URL is used by QuotaTransport.
+ * 
+ * @author Markus Eriksson
+ * @version $Id$
+ */
+public class HttpTransport implements SmsTransport, SmsQuotaSource
+{
+    private static final Logger log_ = LoggerFactory.getLogger(HttpTransport.class);
+
+    private static final String HEADER_PREFIX = "smsj.http.header.";
+    private static final String PARAM_PREFIX = "smsj.http.param.";
+
+    private HttpTemplate url_;
+    private HttpTemplate body_;
+    private boolean post_;
+    private ContentType contentType_;
+    private String charset_;
+    private final Map<String, HttpTemplate> headers_ = new LinkedHashMap<String, HttpTemplate>();
+    private final Map<String, String> params_ = new HashMap<String, String>();
+    private Pattern idPattern_;
+    private Pattern errorPattern_;
+    private Pattern quotaPattern_;
+    private HttpTemplate balanceUrl_;
+    private Pattern balancePattern_;
+    private int poolSize_;
+    private long idleTimeout_;
+    private CloseableHttpClient httpClient_;
+
+    /**
+     * Creates an HttpTransport.
+     */
+    public HttpTransport()
+    {
+        // Empty
+    }
+
+    public void init(Properties props) throws SmsException
+    {
+        String url = props.getProperty("smsj.http.url");
+        if (url == null)
+        {
+            throw new SmsException("smsj.http.url is required");
+        }
+
+        String method = props.getProperty("smsj.http.method", "POST");
+        if (!(method.equalsIgnoreCase("POST") || method.equalsIgnoreCase("GET")))
+        {
+            throw new SmsException("Unsupported method : " + method);
+        }
+        post_ = method.equalsIgnoreCase("POST");
+
+        charset_ = props.getProperty("smsj.http.charset", "UTF-8");
+        String contentType = props.getProperty("smsj.http.content.type", ContentType.APPLICATION_FORM_URLENCODED.getMimeType());
+        HttpTemplate.Escape bodyEscape;
+        if (contentType.indexOf("json") >= 0)
+        {
+            bodyEscape = HttpTemplate.Escape.JSON;
+        }
+        else if (contentType.indexOf("x-www-form-urlencoded") >= 0)
+        {
+            bodyEscape = HttpTemplate.Escape.URL;
+        }
+        else
+        {
+            bodyEscape = HttpTemplate.Escape.NONE;
+        }
+
+        url_ = HttpTemplate.compile(url, HttpTemplate.Escape.URL, charset_);
+        String body = props.getProperty("smsj.http.body");
+        body_ = (body == null) ? null : HttpTemplate.compile(body, bodyEscape, charset_);
+
+        headers_.clear();
+        params_.clear();
+        for (String name : props.stringPropertyNames())
+        {
+            if (name.startsWith(HEADER_PREFIX))
+            {
+                headers_.put(name.substring(HEADER_PREFIX.length()),
+                        HttpTemplate.compile(props.getProperty(name), HttpTemplate.Escape.NONE, charset_));
+            }
+            else if (name.startsWith(PARAM_PREFIX))
+            {
+                params_.put(name.substring(PARAM_PREFIX.length()), props.getProperty(name));
+            }
+        }
+
+        try
+        {
+            contentType_ = ContentType.create(contentType, charset_);
+            idPattern_ = compilePattern(props.getProperty("smsj.http.id.pattern"));
+            errorPattern_ = compilePattern(props.getProperty("smsj.http.error.pattern"));
+            quotaPattern_ = compilePattern(props.getProperty("smsj.http.quota.pattern"));
+            balancePattern_ = compilePattern(props.getProperty("smsj.http.balance.pattern"));
+            String balanceUrl = props.getProperty("smsj.http.balance.url");
+            balanceUrl_ = (balanceUrl == null) ? null : HttpTemplate.compile(balanceUrl, HttpTemplate.Escape.URL, charset_);
+            poolSize_ = Integer.parseInt(props.getProperty("smsj.http.pool.size", "10"));
+            idleTimeout_ = Long.parseLong(props.getProperty("smsj.http.pool.idle", "30000"));
+        }
+        catch (IllegalArgumentException ex)
+        {
+            // Also covers NumberFormatException, PatternSyntaxException and unknown charsets
+            throw new SmsException("Invalid HTTP transport setting: " + ex.getMessage(), ex);
+        }
+
+        if (idPattern_ != null && idPattern_.matcher("").groupCount() < 1)
+        {
+            throw new SmsException("smsj.http.id.pattern needs a group for the message id");
+        }
+        if (balanceUrl_ != null && (balancePattern_ == null || balancePattern_.matcher("").groupCount() < 1))
+        {
+            throw new SmsException("smsj.http.balance.pattern with a group for the balance is required with smsj.http.balance.url");
+        }
+        if (poolSize_ < 1)
+        {
+            throw new SmsException("smsj.http.pool.size must be at least 1");
+        }
+    }
+
+    private static Pattern compilePattern(String regex) throws PatternSyntaxException
+    {
+        return (regex == null) ? null : Pattern.compile(regex);
+    }
+
+    /**
+     * Opens the connection pool.
+     * <p>
+     * The connections are opened when they are needed.
+     */
+    public void connect()
+    {
+        getHttpClient();
+    }
+
+    /**
+     * Does nothing, HTTP APIs are connection less.
+     */
+    public void ping()
+    {
+        // Empty
+    }
+
+    /**
+     * Sends the message, one request per pdu.
+     * 
+     * @return The message id of the last pdu, or null if there is no
+     *         smsj.http.id.pattern
+     */
+    public String send(SmsMessage msg, SmsAddress dest, SmsAddress sender) throws SmsException, IOException
+    {
+        checkDestination(dest);
+
+        SmsPdu[] msgPdu = msg.getPdus();
+        List<SmsPduResult> results = new ArrayList<SmsPduResult>(msgPdu.length);
+        for (SmsPdu pdu : msgPdu)
+        {
+            results.add(send(pdu, dest, sender));
+        }
+        return new SmsSendResult(results).getMessageId();
+    }
+
+    /**
+     * Sends the message without blocking the caller.
+     * <p>
+     * The pdus are posted in parallel from the shared async pool.
+     */
+    public CompletableFuture<SmsSendResult> sendAsync(final SmsMessage msg, final SmsAddress dest, final SmsAddress sender)
+    {
+        try
+        {
+            checkDestination(dest);
+        }
+        catch (SmsException ex)
+        {
+            CompletableFuture<SmsSendResult> failed = new CompletableFuture<SmsSendResult>();
+            failed.completeExceptionally(ex);
+            return failed;
+        }
+
+        SmsPdu[] msgPdu = msg.getPdus();
+        List<CompletableFuture<SmsPduResult>> results = new ArrayList<CompletableFuture<SmsPduResult>>(msgPdu.length);
+        for (final SmsPdu pdu : msgPdu)
+        {
+            results.add(SmsAsyncUtil.supplyAsync(() -> send(pdu, dest, sender), SmsAsyncUtil.getDefaultExecutor()));
+        }
+        return SmsAsyncUtil.allOf(results);
+    }
+
+    void checkDestination(SmsAddress dest) throws SmsException
+    {
+        if (dest.isAlphanumeric())
+        {
+            throw new SmsException("Cannot send SMS to an ALPHANUMERIC address");
+        }
+    }
+
+    /**
+     * Returns the values of the variables for a pdu.
+     */
+    Map<String, String> getVariables(SmsPdu pdu, SmsAddress dest, SmsAddress sender)
+    {
+        SmsHttpParameters parameters = new SmsHttpParameters(pdu.getUserData(), pdu.getUserDataHeaders());
+
+        Map<String, String> variables = new HashMap<String, String>(params_);
+        variables.put("to", dest.getAddress());
+        variables.put("from", (sender == null) ? "" : sender.getAddress());
+        variables.put("text", (parameters.getText() == null) ? "" : parameters.getText());
+        variables.put("hex", parameters.getHex());
+        variables.put("udh", parameters.getUdhHex());
+        variables.put("dcs", String.valueOf(parameters.getDcs()));
+        variables.put("unicode", (parameters.getAlphabet() == SmsAlphabet.UCS2) ? "1" : "0");
+        variables.put("flash", parameters.isFlash() ? "1" : "0");
+        return variables;
+    }
+
+    private SmsPduResult send(SmsPdu pdu, SmsAddress dest, SmsAddress sender) throws SmsException, IOException
+    {
+        Map<String, String> variables = getVariables(pdu, dest, sender);
+
+        HttpRequestBase request;
+        String url = getUrl(variables);
+        if (post_)
+        {
+            HttpPost post = new HttpPost(url);
+            post.setEntity(new StringEntity(getBody(variables), contentType_));
+            request = post;
+        }
+        else
+        {
+            request = new HttpGet(url);
+        }
+        for (Map.Entry<String, String> header : getHeaders(variables).entrySet())
+        {
+            request.setHeader(header.getKey(), header.getValue());
+        }
+
+        log_.debug("send: " + request.getMethod() + " " + url);
+        long submitTime = System.currentTimeMillis();
+        String response;
+        int status;
+        CloseableHttpResponse httpResponse = getHttpClient().execute(request);
+        HttpEntity entity = httpResponse.getEntity();
+        try
+        {
+            status = httpResponse.getStatusLine().getStatusCode();
+            response = (entity == null) ? "" : EntityUtils.toString(entity, charset_);
+        }
+        finally
+        {
+            // Read what is left so that the connection goes back to the pool
+            EntityUtils.consumeQuietly(entity);
+            httpResponse.close();
+        }
+
+        return parseResponse(status, response, submitTime, System.currentTimeMillis());
+    }
+
+    /**
+     * Returns the expanded URL of a request.
+     */
+    String getUrl(Map<String, String> variables)
+    {
+        return url_.expand(variables);
+    }
+
+    /**
+     * Returns the expanded body of a POST, "" if there is no body template.
+     */
+    String getBody(Map<String, String> variables)
+    {
+        return (body_ == null) ? "" : body_.expand(variables);
+    }
+
+    /**
+     * Returns the expanded request headers, in the order they were configured.
+     */
+    Map<String, String> getHeaders(Map<String, String> variables)
+    {
+        Map<String, String> headers = new LinkedHashMap<String, String>();
+        for (Map.Entry<String, HttpTemplate> header : headers_.entrySet())
+        {
+            headers.put(header.getKey(), header.getValue().expand(variables));
+        }
+        return headers;
+    }
+
+    boolean isPost()
+    {
+        return post_;
+    }
+
+    /**
+     * Returns the Content-Type header of a POST, including the charset.
+     */
+    String getContentType()
+    {
+        return contentType_.toString();
+    }
+
+    String getCharset()
+    {
+        return charset_;
+    }
+
+    /**
+     * Checks the response to a request and picks out the message id.
+     * 
+     * @param status The HTTP status
+     * @param response The response body
+     * @param submitTime When the request was sent
+     * @param responseTime When the response was received
+     * @return The result of the pdu
+     * @throws SmsException If the gateway rejected the message
+     * @throws SmsNotSentException If the gateway didn't process the request, HTTP 502, 503 or 504
+     * @throws IOException If the gateway failed, HTTP 500 or more
+     */
+    SmsPduResult parseResponse(int status, String response, long submitTime, long responseTime)
+        throws SmsException, IOException
+    {
+        if (status == 402 || (quotaPattern_ != null && quotaPattern_.matcher(response).find()))
+        {
+            throw new SmsQuotaException("Gateway is out of credit, HTTP " + status + ": " + response);
+        }
+        if (status == 502 || status == 503 || status == 504)
+        {
+            throw new SmsNotSentException("Gateway returned HTTP " + status + ": " + response);
+        }
+        if (status >= 500)
+        {
+            throw new IOException("Gateway returned HTTP " + status + ": " + response);
+        }
+        if (status >= 300)
+        {
+            throw new SmsException("Gateway returned HTTP " + status + ": " + response);
+        }
+        if (errorPattern_ != null && errorPattern_.matcher(response).find())
+        {
+            throw new SmsException("Rejected by gateway: " + response);
+        }
+
+        String messageId = null;
+        if (idPattern_ != null)
+        {
+            Matcher matcher = idPattern_.matcher(response);
+            if (!matcher.find())
+            {
+                throw new SmsException("No message id in response from gateway: " + response);
+            }
+            messageId = matcher.group(1);
+        }
+
+        return new SmsPduResult(messageId, -1, response, submitTime, responseTime);
+    }
+
+    /**
+     * Gets the balance from smsj.http.balance.url.
+     * 
+     * @return The balance, or Double.NaN if there is no balance URL
+     */
+    public double queryBalance() throws SmsException, IOException
+    {
+        if (balanceUrl_ == null)
+        {
+            return Double.NaN;
+        }
+
+        HttpGet request = new HttpGet(balanceUrl_.expand(params_));
+        for (Map.Entry<String, String> header : getHeaders(params_).entrySet())
+        {
+            request.setHeader(header.getKey(), header.getValue());
+        }
+
+        String response;
+        int status;
+        CloseableHttpResponse httpResponse = getHttpClient().execute(request);
+        HttpEntity entity = httpResponse.getEntity();
+        try
+        {
+            status = httpResponse.getStatusLine().getStatusCode();
+            response = (entity == null) ? "" : EntityUtils.toString(entity, charset_);
+        }
+        finally
+        {
+            EntityUtils.consumeQuietly(entity);
+            httpResponse.close();
+        }
+
+        if (status >= 500)
+        {
+            throw new IOException("Gateway returned HTTP " + status + ": " + response);
+        }
+        if (status >= 300)
+        {
+            throw new SmsException("Gateway returned HTTP " + status + ": " + response);
+        }
+
+        Matcher matcher = balancePattern_.matcher(response);
+        try
+        {
+            if (matcher.find())
+            {
+                return Double.parseDouble(matcher.group(1));
+            }
+        }
+        catch (NumberFormatException ex)
+        {
+            // Reported below
+        }
+        throw new SmsException("No balance in response from gateway: " + response);
+    }
+
+    private synchronized CloseableHttpClient getHttpClient()
+    {
+        if (httpClient_ == null)
+        {
+            httpClient_ = SmsHttpUtil.createPooledClient(poolSize_, idleTimeout_);
+        }
+        return httpClient_;
+    }
+
+    /**
+     * Closes the pooled HTTP connections.
+     */
+    public void disconnect() throws IOException
+    {
+        CloseableHttpClient httpClient;
+        synchronized (this)
+        {
+            httpClient = httpClient_;
+            httpClient_ = null;
+        }
+
+        if (httpClient != null)
+        {
+            httpClient.close();
+        }
+    }
+}
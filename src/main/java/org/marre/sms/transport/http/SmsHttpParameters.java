@@ -0,0 +1,147 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is "SMS Library for the Java platform".
+ *
+ * The Initial Developer of the Original Code is Markus Eriksson.
+ * Portions created by the Initial Developer are Copyright (C) 2002
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.marre.sms.transport.http;
+
+import java.nio.charset.Charset;
+
+import org.marre.sms.SmsAlphabet;
+import org.marre.sms.SmsMsgClass;
+import org.marre.sms.SmsPduUtil;
+import org.marre.sms.SmsUserData;
+import org.marre.util.StringUtil;
+
+/**
+ * The values that HTTP SMS APIs want for a pdu.
+ * <p>
+ * HTTP APIs take the message either as text or as hex coded octets, with the
+ * UDH hex coded on the side. The conversions are made once, when the object
+ * is created.
+ * 
+ * @author Markus Eriksson
+ * @version $Id$
+ */
+public final class SmsHttpParameters
+{
+    private static final Charset UCS2 = Charset.forName("UTF-16BE");
+
+    private final SmsUserData userData_;
+    private final String text_;
+    private final String hex_;
+    private final String udhHex_;
+
+    /**
+     * Creates the parameters for a pdu.
+     * 
+     * @param userData The user data of the pdu
+     * @param udh The user data header, may be null
+     */
+    public SmsHttpParameters(SmsUserData userData, byte[] udh)
+    {
+        userData_ = userData;
+        hex_ = StringUtil.bytesToHexString(userData.getData());
+        udhHex_ = (udh == null || udh.length == 0) ? "" : StringUtil.bytesToHexString(udh);
+
+        switch (userData.getDcs().getAlphabet())
+        {
+        case GSM:
+            text_ = SmsPduUtil.readSeptets(userData.getData(), userData.getLength());
+            break;
+
+        case UCS2:
+            text_ = new String(userData.getData(), UCS2);
+            break;
+
+        default:
+            text_ = null;
+            break;
+        }
+    }
+
+    /**
+     * Returns the message as text.
+     * 
+     * @return The text, or null for 8 bit data
+     */
+    public String getText()
+    {
+        return text_;
+    }
+
+    /**
+     * Returns the user data as hex, without the UDH.
+     * <p>
+     * 7 bit messages are returned as packed septets.
+     */
+    public String getHex()
+    {
+        return hex_;
+    }
+
+    /**
+     * Returns the user data header as hex.
+     * 
+     * @return The UDH, or "" if the pdu has none
+     */
+    public String getUdhHex()
+    {
+        return udhHex_;
+    }
+
+    public boolean hasUdh()
+    {
+        return udhHex_.length() > 0;
+    }
+
+    public SmsAlphabet getAlphabet()
+    {
+        return userData_.getDcs().getAlphabet();
+    }
+
+    /**
+     * @return The data coding scheme, 0-255
+     */
+    public int getDcs()
+    {
+        return userData_.getDcs().getValue() & 0xff;
+    }
+
+    /**
+     * @return true for a class 0 message, that is shown directly on the display
+     */
+    public boolean isFlash()
+    {
+        return userData_.getDcs().getMessageClass() == SmsMsgClass.CLASS_0;
+    }
+}
@@ -0,0 +1,105 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is "SMS Library for the Java platform".
+ *
+ * The Initial Developer of the Original Code is Markus Eriksson.
+ * Portions created by the Initial Developer are Copyright (C) 2002
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.marre.sms.transport.http;
+
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+
+/**
+ * Helpers for the transports that talk to an SMS gateway over HTTP.
+ * 
+ * @author Markus Eriksson
+ * @version $Id$
+ */
+public final class SmsHttpUtil
+{
+    /**
+     * This class isn't intended to be instantiated.
+     */
+    private SmsHttpUtil()
+    {
+    }
+
+    /**
+     * Creates an HTTP client with a pool of keep-alive connections.
+     * <p>
+     * Connections are kept alive between requests so that only the first
+     * request on each connection pays for the TCP and TLS handshakes.
+     * 
+     * @param poolSize Max number of open connections
+     * @param idleTimeout Milliseconds before an unused connection is closed
+     * @return The client, close it when done
+     */
+    public static CloseableHttpClient createPooledClient(int poolSize, long idleTimeout)
+    {
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        // All requests go to the same host
+        connectionManager.setMaxTotal(poolSize);
+        connectionManager.setDefaultMaxPerRoute(poolSize);
+        // Don't hand out a connection that the server may have closed
+        connectionManager.setValidateAfterInactivity(1000);
+
+        return HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .evictExpiredConnections()
+                .evictIdleConnections(idleTimeout, TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    /**
+     * Creates a non-blocking HTTP client.
+     * <p>
+     * With HTTP/2 all requests to a host are multiplexed over one connection.
+     * The client falls back to HTTP/1.1 if the server doesn't support HTTP/2,
+     * which over plain http needs an upgrade that most gateways ignore.
+     * 
+     * @param version "HTTP_2" or "HTTP_1_1"
+     * @param connectTimeout Milliseconds to wait for a connection
+     * @return The client
+     * @throws IllegalArgumentException If the version is unknown
+     */
+    public static HttpClient createAsyncClient(String version, long connectTimeout)
+    {
+        return HttpClient.newBuilder()
+                .version(HttpClient.Version.valueOf(version))
+                .connectTimeout(Duration.ofMillis(connectTimeout))
+                .build();
+    }
+}
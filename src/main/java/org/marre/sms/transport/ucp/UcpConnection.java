@@ -0,0 +1,947 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is "SMS Library for the Java platform".
+ *
+ * The Initial Developer of the Original Code is Markus Eriksson.
+ * Portions created by the Initial Developer are Copyright (C) 2002
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.marre.sms.transport.ucp;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.marre.sms.SmsException;
+import org.marre.sms.transport.SmsAsyncUtil;
+import org.marre.sms.transport.SmsNotSentException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A single UCP link to an SMSC.
+ * <p>
+ * Operations are pipelined: up to <i>window</i> operations may be
+ * outstanding at the same time. Each operation gets its own transaction
+ * reference number (00-99, rolling) and every ACK/NACK is matched to the
+ * operation with the same TRN. Operations submitted while the window is full
+ * are queued and written as soon as a response frees a slot.
+ * <p>
+ * The link is a non-blocking SocketChannel driven by an UcpReactor, so one
+ * I/O thread can serve many links. Incoming data is framed (STX...ETX) out
+ * of a reusable buffer, and outgoing frames are written directly by the
+ * submitting thread when the socket accepts them, otherwise by the reactor.
+ * <p>
+ * TRNs are handed out in sequence, so a TRN that is released because of a
+ * timeout is not reused until all other 99 numbers have been used.
+ * 
+ * @author Markus Eriksson
+ * @version $Id$
+ */
+class UcpConnection
+{
+    private static final Logger log_ = LoggerFactory.getLogger(UcpConnection.class);
+
+    /** Number of available transaction reference numbers (00-99). */
+    static final int MAX_WINDOW = 100;
+
+    /** UCP frames are IRA, decode bytes one to one so checksums still add up. */
+    static final Charset CHARSET = Charset.forName("ISO-8859-1");
+
+    /** Frames larger than this are treated as garbage. */
+    private static final int MAX_FRAME_SIZE = 64 * 1024;
+
+    /** Fails requests that didn't get a response in time. Shared by all connections. */
+    private static final ScheduledExecutorService timer_ = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactory()
+            {
+                public Thread newThread(Runnable r)
+                {
+                    Thread thread = new Thread(r, "smsj-ucp-timer");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    private final String host_;
+    private final int port_;
+    private final int window_;
+    private final int timeout_;
+    private final UcpReactor reactor_;
+
+    private volatile SocketChannel channel_;
+    private SelectionKey key_;
+    private volatile boolean open_;
+    private volatile Supplier<UcpDeliveryListener> deliveryListener_;
+    private volatile long lastReceived_;
+    private volatile UcpPendingRequest keepAlive_;
+
+    /** Only touched by the reactor thread. */
+    private ByteBuffer readBuffer_ = ByteBuffer.allocate(4096);
+    private boolean inFrame_;
+
+    /** Guarded by this. */
+    private ByteBuffer writeBuffer_ = ByteBuffer.allocate(8192);
+
+    private final UcpPendingRequest[] outstanding_ = new UcpPendingRequest[MAX_WINDOW];
+    private final LinkedList<UcpPendingRequest> queue_ = new LinkedList<UcpPendingRequest>();
+    private int nOutstanding_;
+    private int nextTrn_;
+    private int consecutiveTimeouts_;
+    private UcpTokenBucket throttle_;
+    private long queueTimeout_;
+    private boolean drainScheduled_;
+
+    /**
+     * Creates a connection.
+     * 
+     * @param host Host name or ip address of the SMSC
+     * @param port Port of the SMSC
+     * @param window Max number of outstanding operations (1-100)
+     * @param timeout Connect and response timeout in milliseconds
+     * @param reactor The I/O thread that serves this connection
+     */
+    UcpConnection(String host, int port, int window, int timeout, UcpReactor reactor)
+    {
+        if (window < 1 || window > MAX_WINDOW)
+        {
+            throw new IllegalArgumentException("UCP window must be between 1 and " + MAX_WINDOW);
+        }
+
+        host_ = host;
+        port_ = port;
+        window_ = window;
+        timeout_ = timeout;
+        reactor_ = reactor;
+        nextTrn_ = 1;
+    }
+
+    /**
+     * Connects to the SMSC and registers the channel with the reactor.
+     * 
+     * @throws IOException If we fail to connect
+     */
+    void open() throws IOException
+    {
+        SocketChannel channel = SocketChannel.open();
+        try
+        {
+            channel.socket().connect(new InetSocketAddress(host_, port_), timeout_);
+            channel.socket().setTcpNoDelay(true);
+            channel.configureBlocking(false);
+        }
+        catch (IOException ex)
+        {
+            channel.close();
+            throw ex;
+        }
+
+        synchronized (this)
+        {
+            channel_ = channel;
+            open_ = true;
+            lastReceived_ = System.nanoTime();
+        }
+        reactor_.register(channel, this);
+    }
+
+    boolean isOpen()
+    {
+        return open_;
+    }
+
+    int getTimeout()
+    {
+        return timeout_;
+    }
+
+    /**
+     * Returns the number of operations that are outstanding or queued.
+     * 
+     * @return The current load of this link
+     */
+    synchronized int getLoad()
+    {
+        return nOutstanding_ + queue_.size();
+    }
+
+    /**
+     * Returns the number of outstanding operations in a row that timed out
+     * without a response. Reset by every response.
+     * 
+     * @return Number of consecutive timeouts
+     */
+    synchronized int getConsecutiveTimeouts()
+    {
+        return consecutiveTimeouts_;
+    }
+
+    /**
+     * Returns the time since anything was received from the SMSC.
+     * 
+     * @return Idle time in milliseconds
+     */
+    long getIdleTime()
+    {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lastReceived_);
+    }
+
+    /**
+     * Sends a keep-alive if nothing has been received for the given time.
+     * <p>
+     * Only one keep-alive is outstanding at a time. Any response, also a
+     * NACK, proves that the SMSC is alive. If no response arrives within the
+     * response timeout the peer is considered dead and the connection is
+     * closed, which fails everything that is waiting on it.
+     * 
+     * @param alert The operation to send, normally an OP 31
+     * @param idleTime Milliseconds without traffic before a keep-alive is sent
+     */
+    void keepAlive(UcpMsg alert, long idleTime)
+    {
+        UcpPendingRequest previous = keepAlive_;
+        if (!open_ || getIdleTime() < idleTime || (previous != null && !previous.isDone()))
+        {
+            return;
+        }
+
+        try
+        {
+            UcpPendingRequest request = submit(alert);
+            keepAlive_ = request;
+            request.whenComplete((response, ex) -> {
+                if (ex != null && open_)
+                {
+                    log_.warn("No response to keep-alive from " + host_ + ":" + port_ + ", closing the link");
+                    close(new IOException("No response to keep-alive", SmsAsyncUtil.unwrap(ex)));
+                }
+            });
+        }
+        catch (SmsException | IOException ex)
+        {
+            log_.debug("Failed to send keep-alive", ex);
+        }
+    }
+
+    public String toString()
+    {
+        return "UcpConnection[" + host_ + ":" + port_ + "]";
+    }
+
+    /**
+     * Sets where to find the listener for operations that the SMSC sends on
+     * this link. It is looked up for every operation, so the owner can
+     * change the listener without touching its connections.
+     * <p>
+     * Without a listener, deliveries are rejected so that the SMSC keeps them.
+     * 
+     * @param listener Returns the current listener or null, or is null itself
+     */
+    void setDeliveryListener(Supplier<UcpDeliveryListener> listener)
+    {
+        deliveryListener_ = listener;
+    }
+
+    /**
+     * Limits the rate of OP 51 submits on this link. Submits over the limit
+     * stay queued until the token bucket has room for them.
+     * 
+     * @param rate Submits per second, 0 for no limit
+     * @param burst Number of submits that may be sent back to back
+     */
+    synchronized void setThrottle(double rate, int burst)
+    {
+        throttle_ = (rate > 0) ? new UcpTokenBucket(rate, burst) : null;
+    }
+
+    /**
+     * Limits the time an operation may wait in the queue before it is
+     * written, e.g. behind the throttle.
+     * 
+     * @param queueTimeout Milliseconds, 0 for no limit
+     */
+    synchronized void setQueueTimeout(long queueTimeout)
+    {
+        queueTimeout_ = queueTimeout;
+    }
+
+    /**
+     * Called by the reactor when the channel has been registered.
+     */
+    synchronized void setSelectionKey(SelectionKey key)
+    {
+        key_ = key;
+        if (writeBuffer_.position() > 0)
+        {
+            key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        }
+    }
+
+    /**
+     * Queues an operation for sending. A TRN is assigned when it is written.
+     * 
+     * @param msg The operation to send
+     * @return A handle that can be used to wait for the response
+     * @throws SmsException If the connection isn't open
+     * @throws IOException If we fail to write to the socket
+     */
+    UcpPendingRequest submit(UcpMsg msg) throws SmsException, IOException
+    {
+        return enqueue(new UcpPendingRequest(msg));
+    }
+
+    /**
+     * Queues an already encoded frame for sending. The TRN of the frame
+     * is replaced with the one assigned by this connection.
+     * 
+     * @param frame Encoded frame including STX and ETX
+     * @return A handle that can be used to wait for the response
+     * @throws SmsException If the connection isn't open
+     * @throws IOException If we fail to write to the socket
+     */
+    UcpPendingRequest submit(byte[] frame) throws SmsException, IOException
+    {
+        return enqueue(new UcpPendingRequest(frame));
+    }
+
+    /**
+     * Sends an operation and waits for the response.
+     * 
+     * @param msg The operation to send
+     * @return The response from the SMSC
+     * @throws SmsException If the connection isn't open or the SMSC didn't respond in time
+     * @throws IOException If we fail to communicate with the SMSC
+     */
+    UcpResponse send(UcpMsg msg) throws SmsException, IOException
+    {
+        return await(submit(msg));
+    }
+
+    /**
+     * Waits for the response to a previously submitted operation.
+     * 
+     * @param request The pending request
+     * @return The response from the SMSC
+     * @throws SmsException If the SMSC didn't respond in time
+     * @throws IOException If the connection failed
+     */
+    UcpResponse await(UcpPendingRequest request) throws SmsException, IOException
+    {
+        return SmsAsyncUtil.get(request);
+    }
+
+    private UcpPendingRequest enqueue(final UcpPendingRequest request) throws SmsException, IOException
+    {
+        if (!open_)
+        {
+            throw new SmsException("Please Connect first");
+        }
+
+        synchronized (this)
+        {
+            queue_.addLast(request);
+            if (queueTimeout_ > 0)
+            {
+                request.setTimeoutTask(timer_.schedule(new Runnable()
+                {
+                    public void run()
+                    {
+                        queueTimeout(request);
+                    }
+                }, queueTimeout_, TimeUnit.MILLISECONDS));
+            }
+        }
+        drain();
+        return request;
+    }
+
+    /**
+     * Fails an operation that is still waiting in the queue. It was never
+     * written, so it is safe to send again.
+     */
+    private void queueTimeout(UcpPendingRequest request)
+    {
+        boolean removed;
+        synchronized (this)
+        {
+            removed = queue_.remove(request);
+        }
+        if (removed)
+        {
+            request.completeExceptionally(new SmsNotSentException(
+                    "Timeout after " + queueTimeout_ + " ms waiting in the send queue"));
+        }
+    }
+
+    private void timeout(UcpPendingRequest request)
+    {
+        if (request.isDone())
+        {
+            return;
+        }
+
+        try
+        {
+            cancel(request);
+        }
+        catch (IOException ex)
+        {
+            log_.debug("Failed to send queued operations after timeout", ex);
+        }
+        request.completeExceptionally(new SmsException("Timeout waiting for response to TRN " + request.getTRN()));
+    }
+
+    /**
+     * Writes queued operations as long as there is room in the window and,
+     * for submits, in the token bucket.
+     */
+    private void drain() throws IOException
+    {
+        IOException failure = null;
+        synchronized (this)
+        {
+            if (!open_)
+            {
+                return;
+            }
+
+            boolean added = false;
+            while (nOutstanding_ < window_ && !queue_.isEmpty())
+            {
+                UcpPendingRequest request = queue_.getFirst();
+                if (throttle_ != null && request.getOT() == UcpSeries50.OP_SUBMIT_SHORT_MESSAGE
+                        && !throttle_.tryAcquire(System.nanoTime()))
+                {
+                    scheduleDrain(throttle_.nanosUntilAvailable(System.nanoTime()));
+                    break;
+                }
+
+                queue_.removeFirst();
+                int trn = allocateTrn();
+                outstanding_[trn] = request;
+                nOutstanding_++;
+
+                ensureWriteCapacity(request.getEncodedLength());
+                int offset = writeBuffer_.position();
+                request.encode(trn, writeBuffer_);
+
+                // The response timeout starts when the operation is written
+                final UcpPendingRequest written = request;
+                request.setTimeoutTask(timer_.schedule(new Runnable()
+                {
+                    public void run()
+                    {
+                        timeout(written);
+                    }
+                }, timeout_, TimeUnit.MILLISECONDS));
+                if (log_.isDebugEnabled())
+                {
+                    log_.debug("SMSC send: " + new String(writeBuffer_.array(), offset, writeBuffer_.position() - offset));
+                }
+                added = true;
+            }
+
+            if (!added)
+            {
+                return;
+            }
+
+            try
+            {
+                // Try to write directly, leave the rest to the reactor
+                if (!flush() && key_ != null)
+                {
+                    reactor_.requestWrite(key_);
+                }
+            }
+            catch (IOException ex)
+            {
+                failure = ex;
+            }
+        }
+
+        if (failure != null)
+        {
+            // Outside the lock, the callbacks of the failed requests may call back into us
+            close(failure);
+            throw failure;
+        }
+    }
+
+    /**
+     * Runs drain() again on the timer thread once the token bucket has
+     * refilled. Must be called with the lock held.
+     */
+    private void scheduleDrain(long delay)
+    {
+        if (drainScheduled_)
+        {
+            return;
+        }
+        drainScheduled_ = true;
+        timer_.schedule(new Runnable()
+        {
+            public void run()
+            {
+                synchronized (UcpConnection.this)
+                {
+                    drainScheduled_ = false;
+                }
+                try
+                {
+                    drain();
+                }
+                catch (IOException ex)
+                {
+                    log_.debug("Failed to send throttled operations", ex);
+                }
+            }
+        }, delay, TimeUnit.NANOSECONDS);
+    }
+
+    private void ensureWriteCapacity(int length)
+    {
+        if (writeBuffer_.remaining() < length)
+        {
+            int capacity = writeBuffer_.capacity();
+            while (capacity - writeBuffer_.position() < length)
+            {
+                capacity *= 2;
+            }
+            ByteBuffer larger = ByteBuffer.allocate(capacity);
+            writeBuffer_.flip();
+            larger.put(writeBuffer_);
+            writeBuffer_ = larger;
+        }
+    }
+
+    /**
+     * Writes as much of the write buffer as the socket accepts. Must be
+     * called with the lock held.
+     * 
+     * @return true if everything was written
+     */
+    private boolean flush() throws IOException
+    {
+        writeBuffer_.flip();
+        try
+        {
+            channel_.write(writeBuffer_);
+            return !writeBuffer_.hasRemaining();
+        }
+        finally
+        {
+            writeBuffer_.compact();
+        }
+    }
+
+    /**
+     * Finds the next free TRN. Must be called with the lock held and with
+     * room in the window.
+     */
+    private int allocateTrn()
+    {
+        while (outstanding_[nextTrn_] != null)
+        {
+            nextTrn_ = (nextTrn_ + 1) % MAX_WINDOW;
+        }
+        int trn = nextTrn_;
+        nextTrn_ = (nextTrn_ + 1) % MAX_WINDOW;
+        return trn;
+    }
+
+    /**
+     * Forgets about a request that we don't want to wait for anymore.
+     */
+    private void cancel(UcpPendingRequest request) throws IOException
+    {
+        synchronized (this)
+        {
+            int trn = request.getTRN();
+            if (trn >= 0 && outstanding_[trn] == request)
+            {
+                outstanding_[trn] = null;
+                nOutstanding_--;
+                if (!request.isDone())
+                {
+                    consecutiveTimeouts_++;
+                }
+            }
+            else
+            {
+                queue_.remove(request);
+            }
+        }
+        drain();
+    }
+
+    /**
+     * Called by the reactor when the socket can accept more data.
+     * 
+     * @return true if the write buffer is empty
+     */
+    synchronized boolean onWritable() throws IOException
+    {
+        return !open_ || flush();
+    }
+
+    /**
+     * Called by the reactor when there is data to read. Extracts all
+     * complete frames from the read buffer and dispatches them.
+     */
+    void onReadable() throws IOException
+    {
+        if (channel_.read(readBuffer_) < 0)
+        {
+            close(new IOException("Connection closed by SMSC"));
+            return;
+        }
+        lastReceived_ = System.nanoTime();
+
+        readBuffer_.flip();
+        byte[] data = readBuffer_.array();
+        int pos = readBuffer_.position();
+        int limit = readBuffer_.limit();
+        int start = pos;
+
+        while (pos < limit)
+        {
+            byte b = data[pos++];
+            if (!inFrame_)
+            {
+                if (b == UcpMsg.STX)
+                {
+                    inFrame_ = true;
+                    start = pos;
+                }
+                else
+                {
+                    log_.warn("The SMSC sends a bad reply, skipping byte " + b);
+                }
+            }
+            else if (b == UcpMsg.ETX)
+            {
+                inFrame_ = false;
+                dispatch(data, start, pos - 1 - start);
+            }
+        }
+
+        if (inFrame_)
+        {
+            // Keep the partial frame at the start of the buffer
+            readBuffer_.position(start);
+            readBuffer_.compact();
+            if (!readBuffer_.hasRemaining())
+            {
+                growReadBuffer();
+            }
+        }
+        else
+        {
+            readBuffer_.clear();
+        }
+    }
+
+    private void growReadBuffer() throws IOException
+    {
+        if (readBuffer_.capacity() >= MAX_FRAME_SIZE)
+        {
+            throw new IOException("Frame from SMSC exceeds " + MAX_FRAME_SIZE + " bytes");
+        }
+        ByteBuffer larger = ByteBuffer.allocate(readBuffer_.capacity() * 2);
+        readBuffer_.flip();
+        larger.put(readBuffer_);
+        readBuffer_ = larger;
+    }
+
+    /**
+     * Called by the reactor when the channel failed.
+     */
+    void onError(IOException ex)
+    {
+        close(ex);
+    }
+
+    private void dispatch(byte[] data, int offset, int length) throws IOException
+    {
+        if (log_.isDebugEnabled())
+        {
+            log_.debug("SMSC response: " + new String(data, offset, length, CHARSET));
+        }
+
+        // TRN/LEN/O|R/OT/...
+        if (length < 13 || data[offset + 2] != '/')
+        {
+            log_.warn("Malformed frame from SMSC: " + new String(data, offset, length, CHARSET));
+            return;
+        }
+
+        if (data[offset + 9] == 'O')
+        {
+            handleOperation(new String(data, offset, length, CHARSET));
+            return;
+        }
+
+        if (data[offset + 9] != 'R')
+        {
+            log_.warn("Malformed frame from SMSC: " + new String(data, offset, length, CHARSET));
+            return;
+        }
+
+        int trn = Character.digit((char) data[offset], 10) * 10 + Character.digit((char) data[offset + 1], 10);
+        if (trn < 0 || trn >= MAX_WINDOW)
+        {
+            log_.warn("Invalid TRN in frame from SMSC: " + new String(data, offset, length, CHARSET));
+            return;
+        }
+
+        UcpResponse response = null;
+        SmsException failure = null;
+        try
+        {
+            response = UcpResponse.parse(data, offset, length);
+        }
+        catch (SmsException ex)
+        {
+            // Still release the TRN, the request won't get another response
+            log_.warn(ex.getMessage());
+            failure = ex;
+        }
+
+        UcpPendingRequest request;
+        synchronized (this)
+        {
+            request = outstanding_[trn];
+            if (request != null)
+            {
+                outstanding_[trn] = null;
+                nOutstanding_--;
+                consecutiveTimeouts_ = 0;
+            }
+        }
+
+        if (request == null)
+        {
+            log_.warn("Response for unknown TRN " + trn + ": " + new String(data, offset, length, CHARSET));
+            return;
+        }
+
+        if (response != null)
+        {
+            request.complete(response);
+        }
+        else
+        {
+            request.completeExceptionally(failure);
+        }
+        drain();
+    }
+
+    /**
+     * Handles an operation that was initiated by the SMSC. Deliveries are
+     * passed to the listener and acknowledged, everything else is rejected.
+     */
+    private void handleOperation(String frame) throws IOException
+    {
+        int trn;
+        byte ot;
+        try
+        {
+            trn = Integer.parseInt(frame.substring(0, 2));
+            ot = Byte.parseByte(frame.substring(11, 13));
+        }
+        catch (NumberFormatException ex)
+        {
+            log_.warn("Invalid operation from SMSC: " + frame);
+            return;
+        }
+
+        if (ot != UcpSeries50.OP_DELIVER_SHORT_MESSAGE && ot != UcpSeries50.OP_DELIVER_NOTIFICATION)
+        {
+            log_.warn("Unsupported operation from SMSC: " + frame);
+            writeResult(UcpResultMsg.nack(ot, trn, UcpResultMsg.EC_OPERATION_NOT_SUPPORTED, null));
+            return;
+        }
+
+        UcpSeries50 operation;
+        try
+        {
+            operation = UcpSeries50.parse(frame);
+        }
+        catch (IllegalArgumentException ex)
+        {
+            log_.warn("Invalid operation from SMSC: " + frame);
+            writeResult(UcpResultMsg.nack(ot, trn, UcpResultMsg.EC_SYNTAX_ERROR, null));
+            return;
+        }
+
+        Supplier<UcpDeliveryListener> source = deliveryListener_;
+        UcpDeliveryListener listener = (source != null) ? source.get() : null;
+        if (listener == null)
+        {
+            log_.warn("No delivery listener, rejecting operation from SMSC: " + frame);
+            writeResult(UcpResultMsg.nack(ot, trn, UcpResultMsg.EC_OPERATION_NOT_ALLOWED, null));
+            return;
+        }
+
+        try
+        {
+            if (ot == UcpSeries50.OP_DELIVER_SHORT_MESSAGE)
+            {
+                listener.deliverShortMessage(operation);
+            }
+            else
+            {
+                listener.deliverNotification(operation);
+            }
+        }
+        catch (RuntimeException ex)
+        {
+            log_.warn("Delivery listener failed, rejecting operation from SMSC: " + frame, ex);
+            writeResult(UcpResultMsg.nack(ot, trn, UcpResultMsg.EC_OPERATION_NOT_ALLOWED, null));
+            return;
+        }
+
+        // SM = AdC:SCTS
+        String sm = operation.getField(UcpSeries50.FIELD_ADC) + ":" + operation.getField(UcpSeries50.FIELD_SCTS);
+        writeResult(UcpResultMsg.ack(ot, trn, sm));
+    }
+
+    /**
+     * Writes a result for an SMSC initiated operation. Results don't use
+     * the window.
+     */
+    private void writeResult(UcpMsg result) throws IOException
+    {
+        try
+        {
+            synchronized (this)
+            {
+                if (!open_)
+                {
+                    return;
+                }
+
+                ensureWriteCapacity(result.getEncodedLength());
+                int offset = writeBuffer_.position();
+                result.encode(writeBuffer_);
+                if (log_.isDebugEnabled())
+                {
+                    log_.debug("SMSC send: " + new String(writeBuffer_.array(), offset, writeBuffer_.position() - offset));
+                }
+
+                if (!flush() && key_ != null)
+                {
+                    reactor_.requestWrite(key_);
+                }
+            }
+        }
+        catch (IOException ex)
+        {
+            // Outside the lock, see drain()
+            close(ex);
+            throw ex;
+        }
+    }
+
+    /**
+     * Closes the socket and fails all outstanding and queued operations.
+     */
+    void close()
+    {
+        close(new IOException("Connection closed"));
+    }
+
+    /**
+     * Must not be called with the lock held, the failed requests complete
+     * on the calling thread.
+     */
+    private void close(IOException reason)
+    {
+        List<UcpPendingRequest> failed = new ArrayList<UcpPendingRequest>();
+        List<UcpPendingRequest> notSent;
+
+        synchronized (this)
+        {
+            if (!open_ && (channel_ == null || !channel_.isOpen()))
+            {
+                return;
+            }
+            open_ = false;
+
+            for (int i = 0; i < outstanding_.length; i++)
+            {
+                if (outstanding_[i] != null)
+                {
+                    failed.add(outstanding_[i]);
+                    outstanding_[i] = null;
+                }
+            }
+            nOutstanding_ = 0;
+            notSent = new ArrayList<UcpPendingRequest>(queue_);
+            queue_.clear();
+            writeBuffer_.clear();
+
+            if (channel_ != null)
+            {
+                try
+                {
+                    // Also cancels the selection key
+                    channel_.close();
+                }
+                catch (IOException ex)
+                {
+                    log_.debug("Failed to close UCP channel", ex);
+                }
+            }
+        }
+
+        for (UcpPendingRequest request : failed)
+        {
+            request.fail(reason);
+        }
+
+        // Never written, safe to send again
+        for (UcpPendingRequest request : notSent)
+        {
+            request.fail(new SmsNotSentException(reason.getMessage(), reason));
+        }
+    }
+}
@@ -34,12 +34,11 @@
  * ***** END LICENSE BLOCK ***** */
 package org.marre.sms.transport.ucp;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 import org.marre.util.StringUtil;
 
 /**
@@ -53,9 +52,12 @@ public abstract class UcpMsg
     protected static final byte STX = (byte) 0x02;
     protected static final byte ETX = (byte) 0x03;
 
-    private static Logger log_ = LoggerFactory.getLogger(UcpMsg.class);
+    private static final byte[] HEX_DIGITS = {
+        '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'A', 'B', 'C', 'D', 'E', 'F' };
 
     protected String[] ucpFields_;
+    /** Fields that are hex coded when encoded, null until the first one is set. */
+    protected byte[][] hexFields_;
     protected char or_; // 'O' or 'R'
     protected int trn_;
     protected byte ot_;
@@ -68,13 +70,53 @@ public abstract class UcpMsg
     public void setField(int field, String value)
     {
         ucpFields_[field] = value;
+        if (hexFields_ != null)
+        {
+            hexFields_[field] = null;
+        }
     }
 
     public String getField(int field)
     {
+        byte[] hexField = getHexField(field);
+        if (hexField != null)
+        {
+            return StringUtil.bytesToHexString(hexField);
+        }
         return ucpFields_[field];
     }
 
+    /**
+     * Sets a field that is sent as hex coded octets, like AMsg, NMsg, XSer
+     * and PWD.
+     * <p>
+     * The octets are hex coded while the frame is encoded, so no
+     * intermediate string is built. The array is not copied.
+     * 
+     * @param field The field
+     * @param value The octets, or null to clear the field
+     */
+    public void setHexField(int field, byte[] value)
+    {
+        if (hexFields_ == null)
+        {
+            hexFields_ = new byte[ucpFields_.length][];
+        }
+        hexFields_[field] = value;
+        ucpFields_[field] = null;
+    }
+
+    /**
+     * Returns the octets of a field that was set with setHexField().
+     * 
+     * @param field The field
+     * @return The octets, or null if the field isn't set as octets
+     */
+    public byte[] getHexField(int field)
+    {
+        return (hexFields_ == null) ? null : hexFields_[field];
+    }
+
     protected void setOR(char or)
     {
         or_ = or;
@@ -90,6 +132,86 @@ public abstract class UcpMsg
         trn_ = trn;
     }
 
+    public int getTRN()
+    {
+        return trn_;
+    }
+
+    public char getOR()
+    {
+        return or_;
+    }
+
+    public byte getOT()
+    {
+        return ot_;
+    }
+
+    /**
+     * Reads the header and the fields of a received frame into this message.
+     * 
+     * @param frame The frame without STX and ETX
+     * @throws IllegalArgumentException If the frame doesn't have the expected number of fields
+     */
+    protected void parseFrame(String frame)
+    {
+        // TRN/LEN/O|R/OT/<fields>/CHECKSUM
+        String[] parts = frame.split("/", -1);
+        if (parts.length != ucpFields_.length + 5 || parts[2].length() != 1)
+        {
+            throw new IllegalArgumentException("Unexpected number of fields in UCP frame: " + frame);
+        }
+
+        trn_ = Integer.parseInt(parts[0]);
+        or_ = parts[2].charAt(0);
+        ot_ = Byte.parseByte(parts[3]);
+        for (int i = 0; i < ucpFields_.length; i++)
+        {
+            ucpFields_[i] = (parts[i + 4].length() == 0) ? null : parts[i + 4];
+        }
+    }
+
+    /**
+     * Re-stamps an encoded frame with a new transaction reference number.
+     * <p>
+     * The checksum is recalculated since it covers the TRN digits.
+     * 
+     * @param frame An encoded frame including STX and ETX
+     * @param trn The new transaction reference number (0-99)
+     * @return A copy of the frame with the new TRN and checksum
+     */
+    public static byte[] setTRN(byte[] frame, int trn)
+    {
+        byte[] copy = new byte[frame.length];
+        System.arraycopy(frame, 0, copy, 0, frame.length);
+        setTRN(ByteBuffer.wrap(copy), 0, copy.length, trn);
+        return copy;
+    }
+
+    /**
+     * Re-stamps an encoded frame in a buffer with a new transaction reference
+     * number and checksum. The position of the buffer is not changed.
+     * 
+     * @param buffer The buffer holding the frame
+     * @param offset The index of the STX
+     * @param length The length of the frame including STX and ETX
+     * @param trn The new transaction reference number (0-99)
+     */
+    public static void setTRN(ByteBuffer buffer, int offset, int length, int trn)
+    {
+        buffer.put(offset + 1, (byte) ('0' + (trn / 10) % 10));
+        buffer.put(offset + 2, (byte) ('0' + trn % 10));
+
+        // Checksum covers everything between STX and the checksum itself
+        int checksum = 0;
+        for (int i = offset + 1; i < offset + length - 3; i++)
+        {
+            checksum += buffer.get(i) & 0xff;
+        }
+        buffer.put(offset + length - 3, HEX_DIGITS[(checksum >> 4) & 0x0f]);
+        buffer.put(offset + length - 2, HEX_DIGITS[checksum & 0x0f]);
+    }
+
     public byte calcChecksum(String data)
     {
         int checksum = 0;
@@ -100,81 +222,159 @@ public abstract class UcpMsg
         return (byte) (checksum & 0xff);
     }
 
-    public String buildCommand()
+    /**
+     * Returns the value of the LEN field, the number of characters from the
+     * TRN up to and including the checksum.
+     */
+    private int getLength()
     {
-        StringBuffer command = new StringBuffer(200);
-        int length = 0;
-
-        // CALC LENGTH
-
-        // length = trn + len + o|r + ot
-        length = 3 + 5 + 2 + 3;
-        // length += data
+        // TRN/LEN/O|R/OT/ + checksum
+        int length = 3 + 6 + 2 + 3 + 2;
         for (int i = 0; i < ucpFields_.length; i++)
         {
-            if (ucpFields_[i] != null)
+            byte[] hexField = getHexField(i);
+            if (hexField != null)
+            {
+                length += hexField.length * 2;
+            }
+            else if (ucpFields_[i] != null)
             {
                 length += ucpFields_[i].length();
             }
             length += 1;
         }
-        // length += checksum
-        length += 3;
-
-        // HEADER (TRN/LEN/O|R/OT)
-
-        // TRN (2 num char)
-        command.append(StringUtil.intToString(trn_, 2));
-        command.append('/');
-        // LEN (5 num char)
-        command.append(StringUtil.intToString(length, 5));
-        command.append('/');
-        // O|R (Char 'O' or 'R')
-        command.append(or_);
-        command.append('/');
-        // OT (2 num char)
-        command.append(StringUtil.intToString(ot_, 2));
-        command.append('/');
+        return length;
+    }
+
+    /**
+     * Returns the number of bytes that encode() will write.
+     * 
+     * @return The length of the frame including STX and ETX
+     */
+    public int getEncodedLength()
+    {
+        return getLength() + 2;
+    }
+
+    /**
+     * Encodes the frame, including STX and ETX, into the given buffer.
+     * <p>
+     * Header, fields and checksum are written in one pass without creating
+     * any intermediate objects. Nothing is written if the frame doesn't fit.
+     * 
+     * @param buffer The buffer to write to
+     * @return The number of bytes written
+     * @throws BufferOverflowException If there isn't room for the frame
+     */
+    public int encode(ByteBuffer buffer)
+    {
+        int length = getLength();
+        if (buffer.remaining() < length + 2)
+        {
+            throw new BufferOverflowException();
+        }
+
+        int checksum = 0;
+        buffer.put(STX);
+
+        // HEADER (TRN/LEN/O|R/OT/)
+        checksum += putNumber(buffer, trn_, 2);
+        checksum += putChar(buffer, '/');
+        checksum += putNumber(buffer, length, 5);
+        checksum += putChar(buffer, '/');
+        checksum += putChar(buffer, or_);
+        checksum += putChar(buffer, '/');
+        checksum += putNumber(buffer, ot_, 2);
+        checksum += putChar(buffer, '/');
 
         // DATA
         for (int i = 0; i < ucpFields_.length; i++)
         {
-            if (ucpFields_[i] != null)
+            byte[] hexField = getHexField(i);
+            if (hexField != null)
+            {
+                for (byte octet : hexField)
+                {
+                    checksum += putChar(buffer, HEX_DIGITS[(octet >> 4) & 0x0f]);
+                    checksum += putChar(buffer, HEX_DIGITS[octet & 0x0f]);
+                }
+            }
+            else if (ucpFields_[i] != null)
             {
-                command.append(ucpFields_[i]);
+                String value = ucpFields_[i];
+                for (int j = 0; j < value.length(); j++)
+                {
+                    checksum += putChar(buffer, value.charAt(j));
+                }
             }
-            command.append('/');
+            checksum += putChar(buffer, '/');
         }
 
         // CHECKSUM
-        command.append(StringUtil.byteToHexString(calcChecksum(command.toString())));
+        buffer.put(HEX_DIGITS[(checksum >> 4) & 0x0f]);
+        buffer.put(HEX_DIGITS[checksum & 0x0f]);
 
-        return command.toString();
+        buffer.put(ETX);
+        return length + 2;
     }
 
-    public void writeTo(OutputStream os) throws IOException
+    private static int putChar(ByteBuffer buffer, int c)
     {
-        // STX
-        os.write(STX);
-
-        // Command
-        os.write(buildCommand().getBytes());
-
-        // ETX
-        os.write(ETX);
+        buffer.put((byte) c);
+        return c & 0xff;
     }
 
-    public byte[] getCommand()
+    /**
+     * Writes a number with leading zeroes, like StringUtil.intToString().
+     */
+    private static int putNumber(ByteBuffer buffer, int value, int nChars)
     {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(200);
-        try
+        int nDigits = 1;
+        for (int rest = value / 10; rest > 0; rest /= 10)
+        {
+            nDigits++;
+        }
+
+        int checksum = 0;
+        for (int i = nDigits; i < nChars; i++)
+        {
+            checksum += putChar(buffer, '0');
+        }
+
+        int divisor = 1;
+        for (int i = 1; i < nDigits; i++)
         {
-            writeTo(baos);
+            divisor *= 10;
         }
-        catch (IOException ex)
+        for (; divisor > 0; divisor /= 10)
         {
-            log_.debug("getCommand() - Failed to write to an ByteArrayOutputStream!");
+            checksum += putChar(buffer, '0' + (value / divisor) % 10);
         }
-        return baos.toByteArray();
+        return checksum;
+    }
+
+    public String buildCommand()
+    {
+        byte[] frame = getCommand();
+
+        // Without STX and ETX
+        char[] command = new char[frame.length - 2];
+        for (int i = 0; i < command.length; i++)
+        {
+            command[i] = (char) (frame[i + 1] & 0xff);
+        }
+        return new String(command);
+    }
+
+    public void writeTo(OutputStream os) throws IOException
+    {
+        os.write(getCommand());
+    }
+
+    public byte[] getCommand()
+    {
+        byte[] frame = new byte[getEncodedLength()];
+        encode(ByteBuffer.wrap(frame));
+        return frame;
     }
 }
@@ -0,0 +1,158 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is "SMS Library for the Java platform".
+ *
+ * The Initial Developer of the Original Code is Markus Eriksson.
+ * Portions created by the Initial Developer are Copyright (C) 2002
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.marre.sms.transport.ucp;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * A UCP operation that has been handed to an UcpConnection and is waiting
+ * for the matching response from the SMSC.
+ * <p>
+ * The future completes with the parsed response, ACK or NACK, or
+ * exceptionally with an SmsException on timeout or a malformed response,
+ * or an IOException if the connection fails. The transaction reference
+ * number is assigned by the connection when the operation is written to the
+ * socket, not when it is created.
+ * 
+ * @author Markus Eriksson
+ * @version $Id$
+ */
+class UcpPendingRequest extends CompletableFuture<UcpResponse>
+{
+    private final UcpMsg msg_;
+    private final byte[] rawFrame_;
+
+    private volatile int trn_ = -1;
+    private volatile ScheduledFuture<?> timeoutTask_;
+
+    UcpPendingRequest(UcpMsg msg)
+    {
+        msg_ = msg;
+        rawFrame_ = null;
+    }
+
+    UcpPendingRequest(byte[] rawFrame)
+    {
+        msg_ = null;
+        rawFrame_ = rawFrame;
+    }
+
+    /**
+     * Returns the number of bytes that encode() will write.
+     */
+    int getEncodedLength()
+    {
+        return (msg_ != null) ? msg_.getEncodedLength() : rawFrame_.length;
+    }
+
+    /**
+     * Assigns the transaction reference number and encodes the frame,
+     * including STX and ETX, into the buffer.
+     * 
+     * @param trn Transaction reference number (0-99)
+     * @param buffer The buffer to write to, must have room for the frame
+     */
+    void encode(int trn, ByteBuffer buffer)
+    {
+        trn_ = trn;
+        if (msg_ != null)
+        {
+            msg_.setTRN(trn);
+            msg_.encode(buffer);
+        }
+        else
+        {
+            int offset = buffer.position();
+            buffer.put(rawFrame_);
+            UcpMsg.setTRN(buffer, offset, rawFrame_.length, trn);
+        }
+    }
+
+    /**
+     * Returns the operation type, e.g. 51 for a submit.
+     */
+    byte getOT()
+    {
+        if (msg_ != null)
+        {
+            return msg_.getOT();
+        }
+        // STX TRN/LEN/O/OT
+        return (byte) ((rawFrame_[12] - '0') * 10 + (rawFrame_[13] - '0'));
+    }
+
+    int getTRN()
+    {
+        return trn_;
+    }
+
+    /**
+     * Sets the task that fails this request, and cancels the previous one.
+     */
+    void setTimeoutTask(ScheduledFuture<?> timeoutTask)
+    {
+        cancelTimeoutTask();
+        timeoutTask_ = timeoutTask;
+    }
+
+    void fail(IOException failure)
+    {
+        completeExceptionally(failure);
+    }
+
+    public boolean complete(UcpResponse response)
+    {
+        cancelTimeoutTask();
+        return super.complete(response);
+    }
+
+    public boolean completeExceptionally(Throwable ex)
+    {
+        cancelTimeoutTask();
+        return super.completeExceptionally(ex);
+    }
+
+    private void cancelTimeoutTask()
+    {
+        ScheduledFuture<?> timeoutTask = timeoutTask_;
+        if (timeoutTask != null)
+        {
+            timeoutTask.cancel(false);
+        }
+    }
+}
@@ -0,0 +1,297 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is "SMS Library for the Java platform".
+ *
+ * The Initial Developer of the Original Code is Markus Eriksson.
+ * Portions created by the Initial Developer are Copyright (C) 2002
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.marre.sms.transport.ucp;
+
+import java.io.IOException;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.marre.sms.SmsException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An UcpTransport that spreads the traffic over several binds.
+ * <p>
+ * Every bind is a separate UCP link with its own UCP60 login and its own
+ * window. Each message is sent on the bind with the fewest outstanding
+ * operations. Binds that are closed by the SMSC, or that time out too many
+ * times in a row, are taken out of rotation and reconnected in the
+ * background.
+ * <p>
+ * All properties of UcpTransport apply to every bind. In addition:
+ * <pre>
+ * <b>smsj.ucp.pool.size</b> - Number of binds (default 2)
+ * <b>smsj.ucp.pool.reconnect</b> - Milliseconds between reconnect attempts (default 5000)
+ * <b>smsj.ucp.pool.maxtimeouts</b> - Consecutive timeouts before a bind is reconnected (default 3)
+ * <b>smsj.ucp.pool.&lt;n&gt;.ip.host</b> - Host for bind n (0 based), defaults to smsj.ucp.ip.host
+ * <b>smsj.ucp.pool.&lt;n&gt;.ip.port</b> - Port for bind n, defaults to smsj.ucp.ip.port
+ * <b>smsj.ucp.pool.&lt;n&gt;.ucp60.uid</b> - UCP60 user id for bind n, defaults to smsj.ucp.ucp60.uid
+ * <b>smsj.ucp.pool.&lt;n&gt;.ucp60.password</b> - UCP60 password for bind n, defaults to smsj.ucp.ucp60.password
+ * </pre>
+ * The per-bind properties make it possible to mix several SMSC accounts in
+ * one pool.
+ * 
+ * @author Markus Eriksson
+ * @version $Id$
+ */
+public class UcpPoolTransport extends UcpTransport
+{
+    private static final Logger log_ = LoggerFactory.getLogger(UcpPoolTransport.class);
+
+    private Bind[] binds_;
+    private long reconnectInterval_;
+    private int maxTimeouts_;
+    private final AtomicInteger nextBind_ = new AtomicInteger();
+
+    /**
+     * One configured bind and its current link, if any.
+     */
+    private static class Bind
+    {
+        final String host_;
+        final int port_;
+        final String uid_;
+        final String pwd_;
+        volatile UcpConnection connection_;
+
+        Bind(String host, int port, String uid, String pwd)
+        {
+            host_ = host;
+            port_ = port;
+            uid_ = uid;
+            pwd_ = pwd;
+        }
+
+        public String toString()
+        {
+            return host_ + ":" + port_ + ((uid_ != null) ? (" (" + uid_ + ")") : "");
+        }
+    }
+
+    public UcpPoolTransport()
+    {
+    }
+
+    /**
+     * Initializes the pool. See the class description for the available
+     * properties.
+     * 
+     * @param props Properties used to configure this transport.
+     * @throws SmsException If there was a problem with the configuration.
+     */
+    public void init(Properties props) throws SmsException
+    {
+        super.init(props);
+
+        int size;
+        try
+        {
+            size = Integer.parseInt(props.getProperty("smsj.ucp.pool.size", "2"));
+            reconnectInterval_ = Long.parseLong(props.getProperty("smsj.ucp.pool.reconnect", "5000"));
+            maxTimeouts_ = Integer.parseInt(props.getProperty("smsj.ucp.pool.maxtimeouts", "3"));
+        }
+        catch (NumberFormatException ex)
+        {
+            throw new SmsException("UCP Pool: invalid pool property", ex);
+        }
+
+        if (size < 1)
+        {
+            throw new SmsException("UCP Pool: smsj.ucp.pool.size must be at least 1");
+        }
+
+        binds_ = new Bind[size];
+        for (int i = 0; i < size; i++)
+        {
+            String prefix = "smsj.ucp.pool." + i + ".";
+            String host = props.getProperty(prefix + "ip.host", props.getProperty("smsj.ucp.ip.host"));
+            String port = props.getProperty(prefix + "ip.port", props.getProperty("smsj.ucp.ip.port"));
+            String uid = props.getProperty(prefix + "ucp60.uid", props.getProperty("smsj.ucp.ucp60.uid"));
+            String pwd = props.getProperty(prefix + "ucp60.password", props.getProperty("smsj.ucp.ucp60.password"));
+
+            if (uid != null && pwd == null)
+            {
+                uid = null;
+            }
+            if ("".equals(uid))
+            {
+                throw new SmsException("UCP Pool: empty UCP60 username for bind " + i);
+            }
+
+            try
+            {
+                binds_[i] = new Bind(host, Integer.parseInt(port), uid, pwd);
+            }
+            catch (NumberFormatException ex)
+            {
+                throw new SmsException("UCP Pool: invalid port for bind " + i, ex);
+            }
+        }
+    }
+
+    /**
+     * Opens all binds.
+     * <p>
+     * Succeeds as long as at least one bind could be opened, the others are
+     * retried in the background.
+     * 
+     * @throws SmsException If no bind could be opened
+     */
+    public void connect() throws SmsException, IOException
+    {
+        Exception lastFailure = null;
+        int nOpen = 0;
+
+        for (Bind bind : binds_)
+        {
+            try
+            {
+                bind.connection_ = openConnection(bind.host_, bind.port_, bind.uid_, bind.pwd_);
+                nOpen++;
+            }
+            catch (SmsException | IOException ex)
+            {
+                log_.warn("Failed to open UCP bind " + bind + ", will retry", ex);
+                lastFailure = ex;
+            }
+        }
+
+        if (nOpen == 0)
+        {
+            throw new SmsException("Failed to open any UCP bind", lastFailure);
+        }
+
+        startMaintenance(reconnectInterval_);
+    }
+
+    /**
+     * Picks the healthy bind with the fewest outstanding operations. Ties
+     * are broken round robin.
+     */
+    UcpConnection getConnection() throws SmsException
+    {
+        UcpConnection best = null;
+        int bestLoad = Integer.MAX_VALUE;
+        int start = nextBind_.getAndIncrement() & Integer.MAX_VALUE;
+
+        for (int i = 0; i < binds_.length; i++)
+        {
+            UcpConnection connection = binds_[(start + i) % binds_.length].connection_;
+            if (connection != null && isHealthy(connection))
+            {
+                int load = connection.getLoad();
+                if (load < bestLoad)
+                {
+                    best = connection;
+                    bestLoad = load;
+                }
+            }
+        }
+
+        if (best == null)
+        {
+            throw new SmsException("No UCP bind available");
+        }
+        return best;
+    }
+
+    private boolean isHealthy(UcpConnection connection)
+    {
+        return connection.isOpen() && connection.getConsecutiveTimeouts() < maxTimeouts_;
+    }
+
+    /**
+     * Closes unhealthy binds, reopens closed ones and keeps idle binds
+     * alive. Runs on the maintenance thread.
+     */
+    void maintain()
+    {
+        for (Bind bind : binds_)
+        {
+            UcpConnection connection = bind.connection_;
+            if (connection != null && connection.isOpen() && !isHealthy(connection))
+            {
+                log_.warn("Taking UCP bind " + bind + " out of rotation after " 
+                        + connection.getConsecutiveTimeouts() + " timeouts");
+                connection.close();
+            }
+            else if (connection != null && connection.isOpen())
+            {
+                keepAlive(connection);
+            }
+
+            if (connection == null || !connection.isOpen())
+            {
+                try
+                {
+                    connection = openConnection(bind.host_, bind.port_, bind.uid_, bind.pwd_);
+                    if (!isMaintained())
+                    {
+                        // Disconnected while we were reconnecting
+                        connection.close();
+                        return;
+                    }
+                    bind.connection_ = connection;
+                    log_.info("Reconnected UCP bind " + bind);
+                }
+                catch (SmsException | IOException ex)
+                {
+                    log_.debug("Failed to reconnect UCP bind " + bind, ex);
+                }
+            }
+        }
+    }
+
+    /**
+     * Closes all binds.
+     */
+    public void disconnect() throws IOException
+    {
+        stopMaintenance();
+
+        for (Bind bind : binds_)
+        {
+            UcpConnection connection = bind.connection_;
+            if (connection != null)
+            {
+                connection.close();
+                bind.connection_ = null;
+            }
+        }
+
+        super.disconnect();
+    }
+}
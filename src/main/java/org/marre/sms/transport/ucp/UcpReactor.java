@@ -0,0 +1,226 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is "SMS Library for the Java platform".
+ *
+ * The Initial Developer of the Original Code is Markus Eriksson.
+ * Portions created by the Initial Developer are Copyright (C) 2002
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.marre.sms.transport.ucp;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A single I/O thread that multiplexes any number of UcpConnections.
+ * <p>
+ * Each connection registers its non-blocking SocketChannel with the selector
+ * of this reactor. The reactor thread reads incoming data and hands it to the
+ * connection for framing, and flushes outgoing data that couldn't be written
+ * directly by the submitting thread.
+ * <p>
+ * Responses are dispatched on the reactor thread, so callbacks registered on
+ * the futures returned by the UCP transports should not block.
+ * 
+ * @author Markus Eriksson
+ * @version $Id$
+ */
+class UcpReactor implements Runnable
+{
+    private static final Logger log_ = LoggerFactory.getLogger(UcpReactor.class);
+
+    private static UcpReactor default_;
+
+    private final Selector selector_;
+    private final ConcurrentLinkedQueue<Runnable> tasks_ = new ConcurrentLinkedQueue<Runnable>();
+    private final Thread thread_;
+
+    /**
+     * Creates a reactor and starts its thread.
+     * 
+     * @param name Name of the I/O thread
+     * @throws IOException If the selector can't be opened
+     */
+    UcpReactor(String name) throws IOException
+    {
+        selector_ = Selector.open();
+        thread_ = new Thread(this, name);
+        thread_.setDaemon(true);
+        thread_.start();
+    }
+
+    /**
+     * Returns the reactor that is shared by all UCP connections in this JVM.
+     * 
+     * @return The shared reactor
+     * @throws IOException If the selector can't be opened
+     */
+    static synchronized UcpReactor getDefault() throws IOException
+    {
+        if (default_ == null)
+        {
+            default_ = new UcpReactor("smsj-ucp-io");
+        }
+        return default_;
+    }
+
+    /**
+     * Registers a connected, non-blocking channel for reading.
+     * 
+     * @param channel The channel
+     * @param connection Receives the read and write events for the channel
+     */
+    void register(final SocketChannel channel, final UcpConnection connection)
+    {
+        execute(new Runnable()
+        {
+            public void run()
+            {
+                try
+                {
+                    connection.setSelectionKey(channel.register(selector_, SelectionKey.OP_READ, connection));
+                }
+                catch (ClosedChannelException ex)
+                {
+                    connection.onError(ex);
+                }
+            }
+        });
+    }
+
+    /**
+     * Asks the reactor to tell the connection when it can write more data.
+     * 
+     * @param key The selection key of the connection
+     */
+    void requestWrite(final SelectionKey key)
+    {
+        execute(new Runnable()
+        {
+            public void run()
+            {
+                if (key.isValid())
+                {
+                    key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                }
+            }
+        });
+    }
+
+    /**
+     * Runs the task on the I/O thread.
+     * 
+     * @param task Task to run
+     */
+    void execute(Runnable task)
+    {
+        tasks_.add(task);
+        if (Thread.currentThread() != thread_)
+        {
+            selector_.wakeup();
+        }
+    }
+
+    public void run()
+    {
+        while (true)
+        {
+            try
+            {
+                selector_.select();
+                runTasks();
+
+                Iterator<SelectionKey> keys = selector_.selectedKeys().iterator();
+                while (keys.hasNext())
+                {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    handle(key);
+                }
+            }
+            catch (Throwable ex)
+            {
+                // Never let the I/O thread die, that would stall every link
+                log_.error("Unexpected error in UCP I/O thread", ex);
+            }
+        }
+    }
+
+    private void runTasks()
+    {
+        Runnable task;
+        while ((task = tasks_.poll()) != null)
+        {
+            try
+            {
+                task.run();
+            }
+            catch (CancelledKeyException ex)
+            {
+                // The connection was closed before the task ran
+            }
+        }
+    }
+
+    private void handle(SelectionKey key)
+    {
+        UcpConnection connection = (UcpConnection) key.attachment();
+        try
+        {
+            if (key.isReadable())
+            {
+                connection.onReadable();
+            }
+            if (key.isValid() && key.isWritable())
+            {
+                if (connection.onWritable())
+                {
+                    key.interestOps(SelectionKey.OP_READ);
+                }
+            }
+        }
+        catch (CancelledKeyException ex)
+        {
+            // Closed while we were handling it
+        }
+        catch (IOException ex)
+        {
+            connection.onError(ex);
+        }
+    }
+}
@@ -0,0 +1,361 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is "SMS Library for the Java platform".
+ *
+ * The Initial Developer of the Original Code is Markus Eriksson.
+ * Portions created by the Initial Developer are Copyright (C) 2002
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.marre.sms.transport.ucp;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+import org.marre.sms.SmsException;
+
+/**
+ * A result (R) frame received from the SMSC.
+ * <p>
+ * All UCP results share the same layout, the ACK or NACK flag followed by
+ * either the modified validity period (MVP) or the error code (EC) and the
+ * system message (SM):
+ * 
+ * <pre>
+ * TRN/LEN/R/OT/A/MVP/SM/CS
+ * TRN/LEN/R/OT/N/EC/SM/CS
+ * </pre>
+ * 
+ * Session management results (OP 60) leave out MVP in the ACK. The frame is
+ * parsed in a single pass without splitting it, the length and the checksum
+ * are verified and the fields are only extracted when asked for.
+ * 
+ * @author Markus Eriksson
+ * @version $Id$
+ */
+public final class UcpResponse
+{
+    private final String frame_;
+    private final int trn_;
+    private final byte ot_;
+    private final boolean ack_;
+
+    // Start and end of the field after A|N (MVP or EC) and of SM, -1 if missing
+    private final int field2Start_;
+    private final int field2End_;
+    private final int smStart_;
+    private final int smEnd_;
+
+    private UcpResponse(String frame, int trn, byte ot, boolean ack, int field2Start, int field2End, int smStart, int smEnd)
+    {
+        frame_ = frame;
+        trn_ = trn;
+        ot_ = ot;
+        ack_ = ack;
+        field2Start_ = field2Start;
+        field2End_ = field2End;
+        smStart_ = smStart;
+        smEnd_ = smEnd;
+    }
+
+    /**
+     * Parses a result frame.
+     * 
+     * @param frame The frame without STX and ETX
+     * @return The parsed result
+     * @throws SmsException If the frame isn't a valid result, or the length or checksum is wrong
+     */
+    public static UcpResponse parse(String frame) throws SmsException
+    {
+        byte[] data = new byte[frame.length()];
+        for (int i = 0; i < data.length; i++)
+        {
+            data[i] = (byte) frame.charAt(i);
+        }
+        return parse(data, 0, data.length, frame);
+    }
+
+    /**
+     * Parses a result frame directly from a receive buffer.
+     * 
+     * @param data The buffer
+     * @param offset Index of the first character after STX
+     * @param length Number of characters up to, but not including, ETX
+     * @return The parsed result
+     * @throws SmsException If the frame isn't a valid result, or the length or checksum is wrong
+     */
+    public static UcpResponse parse(byte[] data, int offset, int length) throws SmsException
+    {
+        return parse(data, offset, length, null);
+    }
+
+    private static UcpResponse parse(byte[] data, int offset, int length, String frame) throws SmsException
+    {
+        // TRN/LEN/R/OT/ is 14 characters, A|N/ and the checksum at least 4 more
+        if (length < 18)
+        {
+            throw invalid("Truncated result", data, offset, length);
+        }
+
+        int end = offset + length;
+        int trn = readNumber(data, offset, 2);
+        int len = readNumber(data, offset + 3, 5);
+        int ot = readNumber(data, offset + 11, 2);
+        if (trn < 0 || len < 0 || ot < 0 || data[offset + 2] != '/' || data[offset + 8] != '/'
+                || data[offset + 10] != '/' || data[offset + 13] != '/')
+        {
+            throw invalid("Malformed header in result", data, offset, length);
+        }
+        if (data[offset + 9] != 'R')
+        {
+            throw invalid("Not a result", data, offset, length);
+        }
+        if (len != length)
+        {
+            throw invalid("Length " + len + " doesn't match the frame length " + length + " in result", data, offset, length);
+        }
+
+        // The checksum covers everything up to and including the last '/'
+        int checksum = 0;
+        for (int i = offset; i < end - 2; i++)
+        {
+            checksum += data[i] & 0xff;
+        }
+        int expected = readHex(data, end - 2);
+        if (data[end - 3] != '/' || expected != (checksum & 0xff))
+        {
+            throw invalid("Checksum mismatch in result", data, offset, length);
+        }
+
+        // A|N
+        int pos = offset + 14;
+        byte flag = data[pos];
+        if ((flag != 'A' && flag != 'N') || data[pos + 1] != '/')
+        {
+            throw invalid("Neither ACK nor NACK in result", data, offset, length);
+        }
+        pos += 2;
+
+        // The remaining fields, up to the '/' before the checksum
+        int fieldsEnd = end - 3;
+        int[] bounds = { -1, -1, -1, -1 };
+        int nFields = 0;
+        int fieldStart = pos;
+        for (; pos <= fieldsEnd; pos++)
+        {
+            if (data[pos] == '/')
+            {
+                if (nFields < 2)
+                {
+                    bounds[nFields * 2] = fieldStart - offset;
+                    bounds[nFields * 2 + 1] = pos - offset;
+                }
+                else
+                {
+                    // Extra separators belong to SM
+                    bounds[3] = pos - offset;
+                }
+                nFields++;
+                fieldStart = pos + 1;
+            }
+        }
+
+        if (frame == null)
+        {
+            frame = new String(data, offset, length, UcpConnection.CHARSET);
+        }
+
+        if (flag == 'A' && nFields == 1)
+        {
+            // A/SM
+            return new UcpResponse(frame, trn, (byte) ot, true, -1, -1, bounds[0], bounds[1]);
+        }
+        return new UcpResponse(frame, trn, (byte) ot, flag == 'A', bounds[0], bounds[1], bounds[2], bounds[3]);
+    }
+
+    private static SmsException invalid(String reason, byte[] data, int offset, int length)
+    {
+        return new SmsException(reason + ": " + new String(data, offset, length, UcpConnection.CHARSET));
+    }
+
+    private static int readNumber(byte[] data, int offset, int nChars)
+    {
+        int value = 0;
+        for (int i = offset; i < offset + nChars; i++)
+        {
+            int digit = data[i] - '0';
+            if (digit < 0 || digit > 9)
+            {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    private static int readHex(byte[] data, int offset)
+    {
+        int value = 0;
+        for (int i = offset; i < offset + 2; i++)
+        {
+            int digit = Character.digit((char) data[i], 16);
+            if (digit < 0)
+            {
+                return -1;
+            }
+            value = value * 16 + digit;
+        }
+        return value;
+    }
+
+    private String field(int start, int end)
+    {
+        return (start < 0 || end <= start) ? null : frame_.substring(start, end);
+    }
+
+    public int getTRN()
+    {
+        return trn_;
+    }
+
+    public byte getOT()
+    {
+        return ot_;
+    }
+
+    /**
+     * @return true for a positive result (ACK), false for a NACK
+     */
+    public boolean isAck()
+    {
+        return ack_;
+    }
+
+    /**
+     * Returns the error code of a NACK, for example "02" (syntax error) or
+     * "04" (operation not allowed).
+     * 
+     * @return The error code, or null for an ACK
+     */
+    public String getErrorCode()
+    {
+        return ack_ ? null : field(field2Start_, field2End_);
+    }
+
+    /**
+     * Returns the modified validity period of an ACK.
+     * 
+     * @return The MVP, or null if the SMSC didn't modify it
+     */
+    public String getModifiedValidityPeriod()
+    {
+        return ack_ ? field(field2Start_, field2End_) : null;
+    }
+
+    /**
+     * Returns the system message (SM) field.
+     * 
+     * @return The system message, or null if empty
+     */
+    public String getSystemMessage()
+    {
+        return field(smStart_, smEnd_);
+    }
+
+    /**
+     * Returns the identifier that the SMSC gave a submitted message.
+     * <p>
+     * For OP 51 the SM field of the ACK is the recipient address and the
+     * service centre timestamp (AdC:SCTS). The same pair identifies the
+     * message in the OP 53 delivery notification.
+     * 
+     * @return The message id, or null if the result doesn't carry one
+     */
+    public String getMessageId()
+    {
+        if (!ack_ || smStart_ < 0 || frame_.indexOf(':', smStart_) < 0)
+        {
+            return null;
+        }
+        return getSystemMessage();
+    }
+
+    /**
+     * Returns the service centre timestamp from the message id.
+     * 
+     * @return SCTS as DDMMYYhhmmss, or null if the result doesn't carry one
+     */
+    public String getScts()
+    {
+        if (getMessageId() == null)
+        {
+            return null;
+        }
+        int colon = frame_.indexOf(':', smStart_);
+        return field(colon + 1, smEnd_);
+    }
+
+    /**
+     * Returns the service centre timestamp from the message id, in the local
+     * timezone.
+     * 
+     * @return The timestamp, or null if the result doesn't carry one
+     */
+    public Date getTimestamp()
+    {
+        String scts = getScts();
+        if (scts == null || scts.length() != 12)
+        {
+            return null;
+        }
+        try
+        {
+            SimpleDateFormat format = new SimpleDateFormat("ddMMyyHHmmss");
+            format.setLenient(false);
+            return format.parse(scts);
+        }
+        catch (ParseException ex)
+        {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the frame as received, without STX and ETX.
+     */
+    public String getFrame()
+    {
+        return frame_;
+    }
+
+    public String toString()
+    {
+        return frame_;
+    }
+}
@@ -0,0 +1,101 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is "SMS Library for the Java platform".
+ *
+ * The Initial Developer of the Original Code is Markus Eriksson.
+ * Portions created by the Initial Developer are Copyright (C) 2002
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.marre.sms.transport.ucp;
+
+/**
+ * A result (R) sent back to the SMSC for an operation that the SMSC
+ * initiated, e.g. the ACK for an OP 52 delivery.
+ * <p>
+ * Uses the series 50 layout: <code>ACK/MVP/SM</code> for a positive result
+ * and <code>NACK/EC/SM</code> for a negative one.
+ * 
+ * @author Markus Eriksson
+ * @version $Id$
+ */
+public class UcpResultMsg extends UcpMsg
+{
+    /** Error code: Syntax error. */
+    public static final String EC_SYNTAX_ERROR = "02";
+    /** Error code: Operation not supported by system. */
+    public static final String EC_OPERATION_NOT_SUPPORTED = "03";
+    /** Error code: Operation not allowed. */
+    public static final String EC_OPERATION_NOT_ALLOWED = "04";
+
+    protected static final int FIELD_ACK = 0;
+    protected static final int FIELD_MVP_EC = 1;
+    protected static final int FIELD_SM = 2;
+
+    private UcpResultMsg(byte operation, int trn)
+    {
+        super(3);
+        setOR('R');
+        setOT(operation);
+        setTRN(trn);
+    }
+
+    /**
+     * Creates a positive result.
+     * 
+     * @param operation The operation type that is acknowledged
+     * @param trn The TRN of the operation
+     * @param sm System message, may be null
+     * @return The result message
+     */
+    public static UcpResultMsg ack(byte operation, int trn, String sm)
+    {
+        UcpResultMsg result = new UcpResultMsg(operation, trn);
+        result.setField(FIELD_ACK, "A");
+        result.setField(FIELD_SM, sm);
+        return result;
+    }
+
+    /**
+     * Creates a negative result.
+     * 
+     * @param operation The operation type that is rejected
+     * @param trn The TRN of the operation
+     * @param errorCode Two digit error code
+     * @param sm System message, may be null
+     * @return The result message
+     */
+    public static UcpResultMsg nack(byte operation, int trn, String errorCode, String sm)
+    {
+        UcpResultMsg result = new UcpResultMsg(operation, trn);
+        result.setField(FIELD_ACK, "N");
+        result.setField(FIELD_MVP_EC, errorCode);
+        result.setField(FIELD_SM, sm);
+        return result;
+    }
+}
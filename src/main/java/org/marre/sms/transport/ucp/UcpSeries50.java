@@ -34,6 +34,7 @@
  * ***** END LICENSE BLOCK ***** */
 package org.marre.sms.transport.ucp;
 
+import org.marre.sms.SmsPduUtil;
 import org.marre.util.StringUtil;
 
 /**
@@ -53,39 +54,39 @@ public class UcpSeries50 extends UcpMsg
 	public static final byte OP_RESPONSE_DELETE_MESSAGE = 58;
 	public static final byte XSER_TYPE_UDH = 1;
 	public static final byte XSER_TYPE_DCS = 2;
-	protected static final int FIELD_ADC = 0;
-	protected static final int FIELD_OADC = 1;
-	protected static final int FIELD_AC = 2;
-	protected static final int FIELD_NRQ = 3;
-	protected static final int FIELD_NADC = 4;
-	protected static final int FIELD_NT = 5;
-	protected static final int FIELD_NPID = 6;
-	protected static final int FIELD_LRQ = 7;
-	protected static final int FIELD_LRAD = 8;
-	protected static final int FIELD_LPID = 9;
-	protected static final int FIELD_DD = 10;
-	protected static final int FIELD_DDT = 11;
-	protected static final int FIELD_VP = 12;
-	protected static final int FIELD_RPID = 13;
-	protected static final int FIELD_SCTS = 14;
-	protected static final int FIELD_DST = 15;
-	protected static final int FIELD_RSN = 16;
-	protected static final int FIELD_DSCTS = 17;
-	protected static final int FIELD_MT = 18;
-	protected static final int FIELD_NB = 19;
-	protected static final int FIELD_MSG = 20; // NMsg, AMsg or TMsg (MT)
-	protected static final int FIELD_MMS = 21;
-	protected static final int FIELD_PR = 22;
-	protected static final int FIELD_DCS = 23;
-	protected static final int FIELD_MCLS = 24;
-	protected static final int FIELD_RPI = 25;
-	protected static final int FIELD_CPG = 26;
-	protected static final int FIELD_RPLY = 27;
-	protected static final int FIELD_OTOA = 28;
-	protected static final int FIELD_HPLMN = 29;
-	protected static final int FIELD_XSER = 30;
-	protected static final int FIELD_RES4 = 31;
-	protected static final int FIELD_RES5 = 32;
+	public static final int FIELD_ADC = 0;
+	public static final int FIELD_OADC = 1;
+	public static final int FIELD_AC = 2;
+	public static final int FIELD_NRQ = 3;
+	public static final int FIELD_NADC = 4;
+	public static final int FIELD_NT = 5;
+	public static final int FIELD_NPID = 6;
+	public static final int FIELD_LRQ = 7;
+	public static final int FIELD_LRAD = 8;
+	public static final int FIELD_LPID = 9;
+	public static final int FIELD_DD = 10;
+	public static final int FIELD_DDT = 11;
+	public static final int FIELD_VP = 12;
+	public static final int FIELD_RPID = 13;
+	public static final int FIELD_SCTS = 14;
+	public static final int FIELD_DST = 15;
+	public static final int FIELD_RSN = 16;
+	public static final int FIELD_DSCTS = 17;
+	public static final int FIELD_MT = 18;
+	public static final int FIELD_NB = 19;
+	public static final int FIELD_MSG = 20; // NMsg, AMsg or TMsg (MT)
+	public static final int FIELD_MMS = 21;
+	public static final int FIELD_PR = 22;
+	public static final int FIELD_DCS = 23;
+	public static final int FIELD_MCLS = 24;
+	public static final int FIELD_RPI = 25;
+	public static final int FIELD_CPG = 26;
+	public static final int FIELD_RPLY = 27;
+	public static final int FIELD_OTOA = 28;
+	public static final int FIELD_HPLMN = 29;
+	public static final int FIELD_XSER = 30;
+	public static final int FIELD_RES4 = 31;
+	public static final int FIELD_RES5 = 32;
 
 	public UcpSeries50(byte operation)
 	{
@@ -94,29 +95,94 @@ public class UcpSeries50 extends UcpMsg
 		setOT(operation);
 	}
 
+	/**
+	 * Parses a series 50 operation that was received from the SMSC, e.g. an
+	 * OP 52 delivery or an OP 53 delivery notification.
+	 * 
+	 * @param frame The frame without STX and ETX
+	 * @return The parsed operation
+	 * @throws IllegalArgumentException If the frame isn't a valid series 50 operation
+	 */
+	public static UcpSeries50 parse(String frame)
+	{
+		UcpSeries50 msg = new UcpSeries50((byte) 0);
+		msg.parseFrame(frame);
+		return msg;
+	}
+
+	/**
+	 * Returns the text of an alphanumeric (MT 3) message.
+	 * 
+	 * The AMsg field is decoded the same way UcpTransport encodes it, as hex
+	 * coded characters of the GSM charset.
+	 * 
+	 * @return The text, or null if this isn't an alphanumeric message
+	 */
+	public String getMessageText()
+	{
+		if (!"3".equals(ucpFields_[FIELD_MT]))
+		{
+			return null;
+		}
+
+		byte[] gsmChars = getHexField(FIELD_MSG);
+		if (gsmChars == null)
+		{
+			String msg = ucpFields_[FIELD_MSG];
+			if (msg == null)
+			{
+				return null;
+			}
+			gsmChars = StringUtil.hexStringToBytes(msg);
+		}
+		StringBuilder text = new StringBuilder(gsmChars.length);
+		for (byte gsmChar : gsmChars)
+		{
+			text.append(SmsPduUtil.fromGsmCharset((byte) (gsmChar & 0x7f)));
+		}
+		return text.toString();
+	}
+
 	public void clearXSer()
 	{
-		ucpFields_[FIELD_XSER] = null;
+		setField(FIELD_XSER, null);
 	}
 
 	public void addXSer(byte type, byte data)
 	{
-		StringBuffer xSerBuff = new StringBuffer();
-		xSerBuff.append(StringUtil.byteToHexString(type));
-		xSerBuff.append("01");
-		xSerBuff.append(StringUtil.byteToHexString(data));
-		ucpFields_[FIELD_XSER] = (ucpFields_[FIELD_XSER] == null) ? (xSerBuff.toString()) : (ucpFields_[FIELD_XSER] + xSerBuff.toString());
+		addXSer(type, new byte[] { data });
 	}
 
+	/**
+	 * Adds an extra service (type, length, data) to the XSer field.
+	 * 
+	 * The services are kept as octets and hex coded when the frame is
+	 * encoded.
+	 */
 	public void addXSer(byte type, byte[] data)
 	{
-		StringBuffer xSerBuff = new StringBuffer();
-		xSerBuff.append(StringUtil.byteToHexString(type));
-		xSerBuff.append(StringUtil.byteToHexString((byte) (data.length & 0xff)));
-		xSerBuff.append(StringUtil.bytesToHexString(data));
-		ucpFields_[FIELD_XSER] = (ucpFields_[FIELD_XSER] == null) ? (xSerBuff.toString()) : (ucpFields_[FIELD_XSER] + xSerBuff.toString());
+		byte[] xSer = getHexField(FIELD_XSER);
+		if (xSer == null && ucpFields_[FIELD_XSER] != null)
+		{
+			xSer = StringUtil.hexStringToBytes(ucpFields_[FIELD_XSER]);
+		}
+
+		int offset = (xSer == null) ? 0 : xSer.length;
+		byte[] newXSer = new byte[offset + 2 + data.length];
+		if (xSer != null)
+		{
+			System.arraycopy(xSer, 0, newXSer, 0, offset);
+		}
+		newXSer[offset] = type;
+		newXSer[offset + 1] = (byte) (data.length & 0xff);
+		System.arraycopy(data, 0, newXSer, offset + 2, data.length);
+		setHexField(FIELD_XSER, newXSer);
 	}
 
+	/**
+	 * @deprecated Use UcpResponse.parse(), which also verifies the frame
+	 */
+	@Deprecated
 	public boolean parseResult(String smscresponse)
 	{
 		boolean result = false;
@@ -0,0 +1,111 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is "SMS Library for the Java platform".
+ *
+ * The Initial Developer of the Original Code is Markus Eriksson.
+ * Portions created by the Initial Developer are Copyright (C) 2002
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.marre.sms.transport.ucp;
+
+/**
+ * Token bucket that limits the submit rate of one UCP bind.
+ * <p>
+ * The bucket holds up to <i>burst</i> tokens and is refilled with
+ * <i>rate</i> tokens per second. Each submit takes one token. Not thread
+ * safe, the owning UcpConnection only uses it with its lock held.
+ * 
+ * @author Markus Eriksson
+ * @version $Id$
+ */
+class UcpTokenBucket
+{
+    /** Tokens per nanosecond. */
+    private final double rate_;
+    private final double burst_;
+
+    private double tokens_;
+    private long lastRefill_;
+
+    /**
+     * Creates a full bucket.
+     * 
+     * @param rate Tokens per second
+     * @param burst Max number of tokens
+     */
+    UcpTokenBucket(double rate, int burst)
+    {
+        rate_ = rate / 1e9;
+        burst_ = burst;
+        tokens_ = burst;
+        lastRefill_ = System.nanoTime();
+    }
+
+    /**
+     * Takes a token if there is one.
+     * 
+     * @param now Current System.nanoTime()
+     * @return true if a token was taken
+     */
+    boolean tryAcquire(long now)
+    {
+        refill(now);
+        if (tokens_ >= 1)
+        {
+            tokens_ -= 1;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the time until the next token is available.
+     * 
+     * @param now Current System.nanoTime()
+     * @return Nanoseconds, 0 if a token is available now
+     */
+    long nanosUntilAvailable(long now)
+    {
+        refill(now);
+        if (tokens_ >= 1)
+        {
+            return 0;
+        }
+        return (long) Math.ceil((1 - tokens_) / rate_);
+    }
+
+    private void refill(long now)
+    {
+        if (now > lastRefill_)
+        {
+            tokens_ = Math.min(burst_, tokens_ + (now - lastRefill_) * rate_);
+            lastRefill_ = now;
+        }
+    }
+}
@@ -34,11 +34,15 @@
  * ***** END LICENSE BLOCK ***** */
 package org.marre.sms.transport.ucp;
 
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.IOException;
-import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import org.marre.sms.SmsAddress;
 import org.marre.sms.SmsAlphabet;
@@ -46,28 +50,56 @@ import org.marre.sms.SmsException;
 import org.marre.sms.SmsMessage;
 import org.marre.sms.SmsPdu;
 import org.marre.sms.SmsPduUtil;
+import org.marre.sms.transport.SmsAsyncUtil;
+import org.marre.sms.transport.SmsPduResult;
+import org.marre.sms.transport.SmsSendResult;
 import org.marre.sms.transport.SmsTransport;
 import org.marre.util.StringUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * An SmsTransport that sends the SMS through an UCP SMSC
- * 
- * 
+ * <p>
+ * Submits are pipelined over the link. With <b>smsj.ucp.window</b> set to N,
+ * up to N OP 51 operations can be waiting for their ACK/NACK at the same
+ * time, each with its own transaction reference number. The default window
+ * is 1 which gives the classic stop-and-wait behaviour.
+ * <p>
+ * Links that have been quiet for <b>smsj.ucp.keepalive</b> milliseconds get
+ * an OP 31 alert, so that firewalls don't drop them. If the SMSC doesn't
+ * answer the alert the link is closed and logged in again in the background,
+ * before the next submit needs it.
+ * <p>
+ * With <b>smsj.ucp.throttle.rate</b> set, submits on each link are shaped by
+ * a token bucket to stay within the rate the operator allows the account.
+ * Submits over the rate wait in the link's queue, the caller is never
+ * blocked. The response timeout starts when a submit is written, and
+ * <b>smsj.ucp.queue.timeout</b> limits the time it may wait in the queue
+ * before that. A submit that times out in the queue fails with an
+ * SmsNotSentException, and can be retried.
  * 
  * @author Markus Eriksson
  * @version $Id$
  */
 public class UcpTransport implements SmsTransport
 {
+	private static final Logger log_ = LoggerFactory.getLogger(UcpTransport.class);
+
 	private String ucpServerName_;
 	private int ucpServerPort_;
 	private String ucp60Uid_;
 	private String ucp60Pwd_;
 	private boolean doUcp60Login_;
-	private Socket ucpSocket_;
-	private DataOutputStream ucpOs_;
-	private DataInputStream ucpIs_;
+	private volatile UcpConnection connection_;
+	private int window_ = 1;
 	private int timeout = 10000;
+	private long keepAlive_ = 60000;
+	private double throttleRate_;
+	private int throttleBurst_ = 1;
+	private long queueTimeout_;
+	private volatile UcpDeliveryListener deliveryListener_;
+	private volatile ScheduledExecutorService maintenance_;
 
 	public UcpTransport()
 	{
@@ -80,7 +112,16 @@ public class UcpTransport implements SmsTransport
 	 *            <b>smsj.ucp.ip.host </b>: the ip address or dns name of the UCP server <br>
 	 *            <b>smsj.ucp.ip.port </b>: the ip port of the UCP server <br>
 	 *            <b>smsj.ucp.ucp60.uid </b>: the UCP60 user id <br>
-	 *            <b>smsj.ucp.ucp60.password </b>: the UCP60 password</br>
+	 *            <b>smsj.ucp.ucp60.password </b>: the UCP60 password<br>
+	 *            <b>smsj.ucp.window </b>: max number of outstanding operations (1-100, default 1)<br>
+	 *            <b>smsj.ucp.timeout </b>: response timeout in milliseconds (default 10000)<br>
+	 *            <b>smsj.ucp.keepalive </b>: milliseconds without traffic before an OP 31 keep-alive is sent, 0 disables
+	 *            keep-alives and reconnects (default 60000)<br>
+	 *            <b>smsj.ucp.throttle.rate </b>: max submits per second on each link, 0 for no limit (default 0)<br>
+	 *            <b>smsj.ucp.throttle.burst </b>: submits that may be sent back to back before the rate applies
+	 *            (default 1)<br>
+	 *            <b>smsj.ucp.queue.timeout </b>: max milliseconds a submit may wait in the queue before it is
+	 *            written, 0 for no limit (default 0)<br>
 	 * 
 	 * @throws SmsException
 	 */
@@ -105,42 +146,252 @@ public class UcpTransport implements SmsTransport
 		{
 			doUcp60Login_ = true;
 		}
+
+		try
+		{
+			window_ = Integer.parseInt(props.getProperty("smsj.ucp.window", "1"));
+			timeout = Integer.parseInt(props.getProperty("smsj.ucp.timeout", "10000"));
+			keepAlive_ = Long.parseLong(props.getProperty("smsj.ucp.keepalive", "60000"));
+			throttleRate_ = Double.parseDouble(props.getProperty("smsj.ucp.throttle.rate", "0"));
+			throttleBurst_ = Integer.parseInt(props.getProperty("smsj.ucp.throttle.burst", "1"));
+			queueTimeout_ = Long.parseLong(props.getProperty("smsj.ucp.queue.timeout", "0"));
+		}
+		catch (NumberFormatException ex)
+		{
+			throw new SmsException("UCP Transport: invalid window, timeout, keepalive or throttle", ex);
+		}
+		if (throttleRate_ < 0 || throttleBurst_ < 1)
+		{
+			throw new SmsException("UCP Transport: smsj.ucp.throttle.rate must not be negative and smsj.ucp.throttle.burst must be at least 1");
+		}
+		if (window_ < 1 || window_ > UcpConnection.MAX_WINDOW)
+		{
+			throw new SmsException("UCP Transport: smsj.ucp.window must be between 1 and " + UcpConnection.MAX_WINDOW);
+		}
 	}
 
 	public void connect() throws SmsException, IOException
 	{
 		// Connect to the UCP server
-		ucpSocket_ = new Socket(ucpServerName_, ucpServerPort_);
-		ucpSocket_.setSoTimeout(timeout);
-		ucpOs_ = new DataOutputStream(ucpSocket_.getOutputStream());
-		ucpIs_ = new DataInputStream(ucpSocket_.getInputStream());
+		connection_ = openConnection(ucpServerName_, ucpServerPort_, doUcp60Login_ ? ucp60Uid_ : null, ucp60Pwd_);
+
+		if (keepAlive_ > 0)
+		{
+			// Check often enough to reconnect soon after a dead link is found
+			long period = Math.max(1000, Math.min(keepAlive_ / 2, 5000));
+			startMaintenance(period);
+		}
+	}
+
+	/**
+	 * Starts the background thread that runs maintain() at a fixed delay.
+	 * 
+	 * @param period Milliseconds between runs
+	 */
+	void startMaintenance(long period)
+	{
+		ScheduledExecutorService maintenance = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "smsj-ucp-maintenance");
+			thread.setDaemon(true);
+			return thread;
+		});
+		maintenance.scheduleWithFixedDelay(this::maintain, period, period, TimeUnit.MILLISECONDS);
+		maintenance_ = maintenance;
+	}
+
+	void stopMaintenance()
+	{
+		ScheduledExecutorService maintenance = maintenance_;
+		if (maintenance != null)
+		{
+			maintenance.shutdownNow();
+			maintenance_ = null;
+		}
+	}
+
+	/**
+	 * @return false once disconnect() has been called
+	 */
+	boolean isMaintained()
+	{
+		return maintenance_ != null;
+	}
+
+	/**
+	 * Keeps the link alive, and logs in again if it was lost. Runs on the
+	 * maintenance thread.
+	 */
+	void maintain()
+	{
+		UcpConnection connection = connection_;
+		if (connection == null)
+		{
+			return;
+		}
+
+		if (connection.isOpen())
+		{
+			keepAlive(connection);
+			return;
+		}
+
+		try
+		{
+			connection = openConnection(ucpServerName_, ucpServerPort_, doUcp60Login_ ? ucp60Uid_ : null, ucp60Pwd_);
+			if (!isMaintained())
+			{
+				// Disconnected while we were reconnecting
+				connection.close();
+				return;
+			}
+			connection_ = connection;
+			log_.info("Reconnected UCP link to " + ucpServerName_ + ":" + ucpServerPort_);
+		}
+		catch (SmsException | IOException ex)
+		{
+			log_.debug("Failed to reconnect UCP link to " + ucpServerName_ + ":" + ucpServerPort_, ex);
+		}
+	}
+
+	/**
+	 * Sends an OP 31 on the link if it has been idle for the keep-alive
+	 * interval. The link is closed if the SMSC doesn't answer.
+	 */
+	void keepAlive(UcpConnection connection)
+	{
+		if (keepAlive_ > 0)
+		{
+			connection.keepAlive(createAlert(), keepAlive_);
+		}
+	}
+
+	/**
+	 * Opens a new link to an SMSC and logs in with UCP 60 if a user id is given.
+	 * 
+	 * @param host Host name or ip address of the SMSC
+	 * @param port Port of the SMSC
+	 * @param uid UCP60 user id, or null to skip the login
+	 * @param pwd UCP60 password
+	 * @return An open and authenticated connection
+	 * @throws SmsException If the SMSC rejects the login
+	 * @throws IOException If we fail to connect
+	 */
+	UcpConnection openConnection(String host, int port, String uid, String pwd) throws SmsException, IOException
+	{
+		UcpConnection connection = new UcpConnection(host, port, window_, timeout, UcpReactor.getDefault());
+		connection.setDeliveryListener(() -> deliveryListener_);
+		connection.setThrottle(throttleRate_, throttleBurst_);
+		connection.setQueueTimeout(queueTimeout_);
+		connection.open();
 		// Logging into the Remote Host via UCP 60;
-		// TODO: Add proper failure handling
-		if (doUcp60Login_)
+		if (uid != null)
 		{
-			byte[] loginCmd = buildLogin(ucp60Uid_, ucp60Pwd_);
-			String response = sendUcp(loginCmd);
-			System.out.println("SMSC response: " + response);
+			UcpResponse response;
+			try
+			{
+				response = connection.send(createLogin(uid, pwd));
+			}
+			catch (SmsException | IOException ex)
+			{
+				connection.close();
+				throw ex;
+			}
+			log_.debug("SMSC response: " + response);
+
+			if (!response.isAck())
+			{
+				connection.close();
+				throw new UcpException("UCP60 login rejected by " + host + ":" + port, response);
+			}
+		}
+		return connection;
+	}
+
+	/**
+	 * Sets the listener that receives mobile originated messages (OP 52) and
+	 * delivery notifications (OP 53) from the SMSC.
+	 * <p>
+	 * The SMSC sends these on the same link as the submits. Operations that
+	 * arrive while no listener is set are rejected, so the SMSC will try to
+	 * deliver them again later.
+	 * 
+	 * @param listener The listener, or null to stop receiving
+	 */
+	public void setDeliveryListener(UcpDeliveryListener listener)
+	{
+		deliveryListener_ = listener;
+	}
+
+	/**
+	 * Returns the link to use for the next message.
+	 * 
+	 * @return An open connection
+	 * @throws SmsException If there is no open connection
+	 */
+	UcpConnection getConnection() throws SmsException
+	{
+		UcpConnection connection = connection_;
+		if (connection == null || !connection.isOpen())
+		{
+			throw new SmsException("Please Connect first");
 		}
+		return connection;
 	}
 
+	/**
+	 * Sends the message and waits for the SMSC to accept all parts.
+	 * 
+	 * @return The message id of the last part, AdC:SCTS as given by the SMSC
+	 * @throws UcpException If the SMSC rejected a part
+	 */
 	public String send(SmsMessage msg, SmsAddress destination, SmsAddress sender) throws SmsException, IOException
 	{
-		String response = null;
-		SmsPdu[] msgPdu = null;
-		if (destination.isAlphanumeric())
+		return SmsAsyncUtil.get(sendAsync(msg, destination, sender)).getMessageId();
+	}
+
+	/**
+	 * Sends the message without waiting for the SMSC.
+	 * <p>
+	 * All parts are queued on the connection at once, so they share the
+	 * window with every other caller. The future completes when the SMSC
+	 * has responded to all parts, or exceptionally with an UcpException as
+	 * soon as the SMSC rejects one of them.
+	 */
+	public CompletableFuture<SmsSendResult> sendAsync(SmsMessage msg, SmsAddress destination, SmsAddress sender)
+	{
+		try
 		{
-			throw new SmsException("Cannot sent SMS to ALPHANUMERIC address");
+			if (destination.isAlphanumeric())
+			{
+				throw new SmsException("Cannot sent SMS to ALPHANUMERIC address");
+			}
+			// All parts of a message use the same link
+			UcpConnection connection = getConnection();
+
+			SmsPdu[] msgPdu = msg.getPdus();
+			List<CompletableFuture<SmsPduResult>> results = new ArrayList<CompletableFuture<SmsPduResult>>(msgPdu.length);
+			for (int i = 0; i < msgPdu.length; i++)
+			{
+				boolean moreToSend = (i < (msgPdu.length - 1));
+				final long submitTime = System.currentTimeMillis();
+				UcpPendingRequest request = connection.submit(createSubmit(msgPdu[i], moreToSend, destination, sender));
+				results.add(request.thenApply(response -> {
+					if (!response.isAck())
+					{
+						throw new CompletionException(new UcpException("Submit rejected by SMSC", response));
+					}
+					return new SmsPduResult(response.getMessageId(), -1, response.getFrame(), submitTime,
+							System.currentTimeMillis());
+				}));
+			}
+			return SmsAsyncUtil.allOf(results);
 		}
-		msgPdu = msg.getPdus();
-		for (int i = 0; i < msgPdu.length; i++)
+		catch (SmsException | IOException ex)
 		{
-			boolean moreToSend = (i < (msgPdu.length - 1));
-			byte[] submitCmd = buildSubmit(msgPdu[i], moreToSend, destination, sender);
-			response = sendUcp(submitCmd);
-			System.out.println("SMSC response: " + response);
+			CompletableFuture<SmsSendResult> failed = new CompletableFuture<SmsSendResult>();
+			failed.completeExceptionally(ex);
+			return failed;
 		}
-		return response;
 	}
 
 	/**
@@ -153,27 +404,41 @@ public class UcpTransport implements SmsTransport
 	 */
 	public byte[] buildLogin(String userid, String pwd)
 	{
-		UCPSeries60 ucplogin = new UCPSeries60(UCPSeries60.OP_OPEN_SESSION);
+		UCPSeries60 ucplogin = createLogin(userid, pwd);
 		ucplogin.setTRN(0x01);
+		return ucplogin.getCommand();
+	}
+
+	private UCPSeries60 createLogin(String userid, String pwd)
+	{
+		UCPSeries60 ucplogin = new UCPSeries60(UCPSeries60.OP_OPEN_SESSION);
 		ucplogin.setField(UCPSeries60.FIELD_OADC, userid);
 		ucplogin.setField(UCPSeries60.FIELD_OTON, "6");
 		ucplogin.setField(UCPSeries60.FIELD_ONPI, "5");
 		ucplogin.setField(UCPSeries60.FIELD_STYP, "1");
 		ucplogin.setField(UCPSeries60.FIELD_VERS, "0100");
-		ucplogin.setField(UCPSeries60.FIELD_PWD, StringUtil.bytesToHexString(SmsPduUtil.toGsmCharset(pwd)));
-		return ucplogin.getCommand();
+		ucplogin.setHexField(UCPSeries60.FIELD_PWD, SmsPduUtil.toGsmCharset(pwd));
+		return ucplogin;
 	}
 
 	public byte[] buildSubmit(SmsPdu pdu, boolean moreToSend, SmsAddress destination, SmsAddress sender) throws SmsException
 	{
-		String ud;
+		UcpSeries50 ucpSubmit = createSubmit(pdu, moreToSend, destination, sender);
+		ucpSubmit.setTRN(0x01);
+		return ucpSubmit.getCommand();
+	}
+
+	/**
+	 * Builds an OP 51 submit. The TRN is assigned by the connection when the
+	 * operation is written.
+	 */
+	private UcpSeries50 createSubmit(SmsPdu pdu, boolean moreToSend, SmsAddress destination, SmsAddress sender) throws SmsException
+	{
 		byte[] udhData;
 		UcpSeries50 ucpSubmit = new UcpSeries50(UcpSeries50.OP_SUBMIT_SHORT_MESSAGE);
 		byte[] udh = pdu.getUserDataHeaders();
 		boolean isSeptets = (pdu.getDcs().getAlphabet() == SmsAlphabet.GSM);
 		int udBits;
-		// FIXME: TRN
-		ucpSubmit.setTRN(0x01);
 		// OTOA = Originator Type Of Address (1139 = OadC is set to NPI
 		// telephone and TON international, 5039 The OAdC contains an
 		// alphanumeric address)
@@ -209,13 +474,12 @@ public class UcpTransport implements SmsTransport
 				System.out.println("GSM Message without UDH");
 				ucpSubmit.setField(UcpSeries50.FIELD_MT, "3");
 				String msg = SmsPduUtil.readSeptets(pdu.getUserData().getData(), pdu.getUserData().getLength());
-				ucpSubmit.setField(UcpSeries50.FIELD_MSG, StringUtil.bytesToHexString(SmsPduUtil.toGsmCharset(msg)));
+				ucpSubmit.setHexField(UcpSeries50.FIELD_MSG, SmsPduUtil.toGsmCharset(msg));
 				break;
 			case LATIN1:
 			case UCS2:
 				System.out.println("LATIN1/UCS2 Message without UDH");
-				ud = StringUtil.bytesToHexString(pdu.getUserData().getData());
-				ucpSubmit.setField(UcpSeries50.FIELD_MSG, ud);
+				ucpSubmit.setHexField(UcpSeries50.FIELD_MSG, pdu.getUserData().getData());
 				// Numer of of bits in Transperent Data Message
 				udBits = pdu.getUserData().getLength() * ((isSeptets) ? 7 : 8);
 				ucpSubmit.setField(UcpSeries50.FIELD_NB, StringUtil.intToString(udBits, 4));
@@ -237,7 +501,7 @@ public class UcpTransport implements SmsTransport
 				udhData = pdu.getUserDataHeaders();
 				ucpSubmit.setField(UcpSeries50.FIELD_MT, "3");
 				String msg = SmsPduUtil.readSeptets(pdu.getUserData().getData(), pdu.getUserData().getLength());
-				ucpSubmit.setField(UcpSeries50.FIELD_MSG, StringUtil.bytesToHexString(SmsPduUtil.toGsmCharset(msg)));
+				ucpSubmit.setHexField(UcpSeries50.FIELD_MSG, SmsPduUtil.toGsmCharset(msg));
 				ucpSubmit.clearXSer();
 				ucpSubmit.addXSer(UcpSeries50.XSER_TYPE_DCS, pdu.getDcs().getValue());
 				ucpSubmit.addXSer(UcpSeries50.XSER_TYPE_UDH, udhData);
@@ -245,9 +509,8 @@ public class UcpTransport implements SmsTransport
 			case LATIN1:
 			case UCS2:
 				System.out.println("LATIN1/UCS2 Message with UDH");
-				ud = StringUtil.bytesToHexString(pdu.getUserData().getData());
 				udhData = pdu.getUserDataHeaders();
-				ucpSubmit.setField(UcpSeries50.FIELD_MSG, ud);
+				ucpSubmit.setHexField(UcpSeries50.FIELD_MSG, pdu.getUserData().getData());
 				// Numer of of bits in Transperent Data Message
 				udBits = pdu.getUserData().getLength() * ((isSeptets) ? 7 : 8);
 				ucpSubmit.setField(UcpSeries50.FIELD_NB, StringUtil.intToString(udBits, 4));
@@ -279,11 +542,31 @@ public class UcpTransport implements SmsTransport
 		{
 			ucpSubmit.setField(UcpSeries50.FIELD_MMS, "1");
 		}
-		return ucpSubmit.getCommand();
+		return ucpSubmit;
+	}
+
+	/**
+	 * Sends an OP 31 alert and waits for the SMSC to answer it.
+	 * <p>
+	 * Idle links are kept alive in the background, see
+	 * <b>smsj.ucp.keepalive</b>, so there is normally no need to call this.
+	 * 
+	 * @throws SmsException If the SMSC didn't answer in time
+	 * @throws IOException If the link failed
+	 */
+	public void ping() throws SmsException, IOException
+	{
+		UcpResponse response = getConnection().send(createAlert());
+		log_.debug("SMSC response: " + response);
 	}
 
-	public void ping()
+	/**
+	 * Builds an OP 31 alert for keep-alives, addressed to our own UCP60 user
+	 * id when there is one.
+	 */
+	private UcpAlert createAlert()
 	{
+		return new UcpAlert(doUcp60Login_ ? ucp60Uid_ : "0000");
 	}
 
 	/**
@@ -295,13 +578,18 @@ public class UcpTransport implements SmsTransport
 	 */
 	public void disconnect() throws IOException
 	{
-		ucpOs_.close();
-		ucpIs_.close();
-		ucpSocket_.close();
+		stopMaintenance();
+		if (connection_ != null)
+		{
+			connection_.close();
+			connection_ = null;
+		}
 	}
 
 	/**
 	 * This method is sending the Data to over the existing Connection and recives the answer, the Answer is returned as a String.
+	 * <p>
+	 * The TRN in the data is replaced with the next free TRN of the connection.
 	 * 
 	 * @author Lorenz Barth
 	 * @param data
@@ -310,26 +598,7 @@ public class UcpTransport implements SmsTransport
 	 */
 	public String sendUcp(byte[] data) throws SmsException, IOException
 	{
-		if (!ucpSocket_.isConnected() || ucpOs_ == null || ucpIs_ == null)
-		{
-			throw new SmsException("Please Connect first");
-		}
-		System.out.println("SMSC send: " + new String(data, 0, data.length));
-		StringBuffer strBuf;
-		ucpOs_.write(data);
-		ucpOs_.flush();
-		byte[] b = new byte[1];
-		if ((b[0] = ucpIs_.readByte()) != 2)
-		{
-			System.out.println("SendSMS.send: The SMSC sends a bad reply");
-			throw new SmsException("The SMSC sends a bad reply");
-		}
-		strBuf = new StringBuffer();
-		while ((b[0] = ucpIs_.readByte()) != 3)
-		{
-			strBuf.append(new String(b));
-		}
-		// Return the String
-		return strBuf.toString();
+		UcpConnection connection = getConnection();
+		return connection.await(connection.submit(data)).getFrame();
 	}
 }
@@ -319,7 +319,7 @@ public class WbxmlWriter implements XmlWriter
 
         if (index == null)
         {
-            index = new Integer(stringTableBuf_.size());
+            index = Integer.valueOf(stringTableBuf_.size());
             stringTable_.put(str, index);
             writeStrI(stringTableBuf_, str);
         }
@@ -0,0 +1,244 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is "SMS Library for the Java platform".
+ *
+ * The Initial Developer of the Original Code is Markus Eriksson.
+ * Portions created by the Initial Developer are Copyright (C) 2002
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.marre.sms.transport;
+
+import java.util.Properties;
+
+import junit.framework.TestCase;
+
+import org.marre.sms.SmsAddress;
+import org.marre.sms.SmsException;
+import org.marre.sms.SmsMessage;
+import org.marre.sms.SmsTextMessage;
+
+public class QuotaTransportTest extends TestCase
+{
+    /**
+     * A gateway account with a balance that each pdu uses one credit of.
+     */
+    private static class AccountTransport implements SmsTransport, SmsQuotaSource
+    {
+        double balance_;
+        boolean reportBalance_ = true;
+        int nSends_;
+        int nBalanceChecks_;
+
+        public void init(Properties props)
+        {
+        }
+
+        public void connect()
+        {
+        }
+
+        public void ping()
+        {
+        }
+
+        public synchronized String send(SmsMessage msg, SmsAddress dest, SmsAddress sender) throws SmsException
+        {
+            nSends_++;
+            if (balance_ < msg.getPdus().length)
+            {
+                throw new SmsQuotaException("No credit left");
+            }
+            balance_ -= msg.getPdus().length;
+            return "id" + nSends_;
+        }
+
+        public synchronized double queryBalance()
+        {
+            nBalanceChecks_++;
+            return reportBalance_ ? balance_ : Double.NaN;
+        }
+
+        public void disconnect()
+        {
+        }
+    }
+
+    private AccountTransport account_;
+    private AccountTransport fallback_;
+    private SmsAddress dest_;
+
+    protected void setUp() throws Exception
+    {
+        dest_ = new SmsAddress("46701234567");
+        account_ = new AccountTransport();
+        fallback_ = new AccountTransport();
+        fallback_.balance_ = 100;
+    }
+
+    private QuotaTransport createTransport(SmsTransport fallback, String checkInterval) throws Exception
+    {
+        Properties props = new Properties();
+        props.setProperty("smsj.quota.check.interval", checkInterval);
+        QuotaTransport transport = new QuotaTransport(account_, fallback);
+        transport.init(props);
+        transport.connect();
+        return transport;
+    }
+
+    public void testStopsBeforeBalanceIsSpent() throws Exception
+    {
+        account_.balance_ = 3;
+        QuotaTransport transport = createTransport(null, "60000");
+
+        for (int i = 0; i < 3; i++)
+        {
+            transport.send(new SmsTextMessage("Hello"), dest_, null);
+        }
+        for (int i = 0; i < 10; i++)
+        {
+            try
+            {
+                transport.send(new SmsTextMessage("Hello"), dest_, null);
+                fail("Expected SmsQuotaException");
+            }
+            catch (SmsQuotaException ex)
+            {
+                // Refused locally
+            }
+        }
+
+        assertEquals(3, account_.nSends_);
+        assertEquals(0.0, transport.getQuota().getBalance(), 0.0);
+        transport.disconnect();
+    }
+
+    public void testOutOfCreditFailsFast() throws Exception
+    {
+        // Can't tell the balance, learns from the gateway error
+        account_.reportBalance_ = false;
+        QuotaTransport transport = createTransport(null, "60000");
+
+        for (int i = 0; i < 10; i++)
+        {
+            try
+            {
+                transport.send(new SmsTextMessage("Hello"), dest_, null);
+                fail("Expected SmsQuotaException");
+            }
+            catch (SmsQuotaException ex)
+            {
+                // The first from the gateway, the others refused locally
+            }
+        }
+
+        assertEquals(1, account_.nSends_);
+        transport.disconnect();
+    }
+
+    public void testReroutesToFallback() throws Exception
+    {
+        account_.balance_ = 1;
+        QuotaTransport transport = createTransport(fallback_, "60000");
+
+        assertEquals("id1", transport.send(new SmsTextMessage("Hello"), dest_, null));
+        assertEquals("id1", SmsAsyncUtil.get(transport.sendAsync(new SmsTextMessage("Hello"), dest_, null)).getMessageId());
+        assertEquals("id2", transport.send(new SmsTextMessage("Hello"), dest_, null));
+
+        assertEquals(1, account_.nSends_);
+        assertEquals(2, fallback_.nSends_);
+        transport.disconnect();
+    }
+
+    public void testBalanceCheckReopens() throws Exception
+    {
+        // The estimate says there is credit, but the gateway disagrees
+        account_.balance_ = 5;
+        QuotaTransport transport = createTransport(null, "50");
+        account_.balance_ = 0;
+
+        try
+        {
+            SmsAsyncUtil.get(transport.sendAsync(new SmsTextMessage("Hello"), dest_, null));
+            fail("Expected SmsQuotaException");
+        }
+        catch (SmsQuotaException ex)
+        {
+            // From the gateway
+        }
+        assertTrue(transport.getQuota().isClosed(System.currentTimeMillis()));
+
+        // Topped up, the periodic check finds it
+        synchronized (account_)
+        {
+            account_.balance_ = 10;
+        }
+        long timeout = System.currentTimeMillis() + 5000;
+        while (transport.getQuota().isClosed(System.currentTimeMillis()) && System.currentTimeMillis() < timeout)
+        {
+            Thread.sleep(10);
+        }
+        assertEquals("id2", transport.send(new SmsTextMessage("Hello"), dest_, null));
+        transport.disconnect();
+    }
+
+    public void testFailureReleasesCredit() throws Exception
+    {
+        SmsTransport failing = new AccountTransport()
+        {
+            public synchronized String send(SmsMessage msg, SmsAddress dest, SmsAddress sender) throws SmsException
+            {
+                throw new SmsException("Rejected");
+            }
+        };
+        ((AccountTransport) failing).balance_ = 2;
+        Properties props = new Properties();
+        QuotaTransport transport = new QuotaTransport(failing, null);
+        transport.init(props);
+        transport.connect();
+
+        for (int i = 0; i < 5; i++)
+        {
+            try
+            {
+                transport.send(new SmsTextMessage("Hello"), dest_, null);
+                fail("Expected SmsException");
+            }
+            catch (SmsQuotaException ex)
+            {
+                fail("Credit wasn't released");
+            }
+            catch (SmsException ex)
+            {
+                assertEquals("Rejected", ex.getMessage());
+            }
+        }
+        assertEquals(2.0, transport.getQuota().getBalance(), 0.0);
+        transport.disconnect();
+    }
+}
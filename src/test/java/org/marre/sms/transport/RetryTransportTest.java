@@ -0,0 +1,284 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is "SMS Library for the Java platform".
+ *
+ * The Initial Developer of the Original Code is Markus Eriksson.
+ * Portions created by the Initial Developer are Copyright (C) 2002
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.marre.sms.transport;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.util.LinkedList;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.marre.sms.SmsAddress;
+import org.marre.sms.SmsException;
+import org.marre.sms.SmsMessage;
+import org.marre.sms.SmsTextMessage;
+import org.marre.sms.transport.gsm.GsmException;
+import org.marre.sms.transport.gsm.GsmRetryPolicy;
+import org.marre.sms.transport.ucp.UcpException;
+import org.marre.sms.transport.ucp.UcpResponse;
+import org.marre.sms.transport.ucp.UcpResultMsg;
+import org.marre.sms.transport.ucp.UcpRetryPolicy;
+import org.marre.sms.transport.ucp.UcpSeries50;
+
+public class RetryTransportTest extends TestCase
+{
+    /**
+     * Fails with the queued exceptions, then succeeds.
+     */
+    private static class FailingTransport implements SmsTransport
+    {
+        final LinkedList<Exception> failures_ = new LinkedList<Exception>();
+        final AtomicInteger nSends_ = new AtomicInteger();
+
+        public void init(Properties props)
+        {
+        }
+
+        public void connect()
+        {
+        }
+
+        public void ping()
+        {
+        }
+
+        public synchronized String send(SmsMessage msg, SmsAddress dest, SmsAddress sender) throws SmsException, IOException
+        {
+            nSends_.incrementAndGet();
+            Exception failure = failures_.poll();
+            if (failure instanceof IOException)
+            {
+                throw (IOException) failure;
+            }
+            if (failure instanceof SmsException)
+            {
+                throw (SmsException) failure;
+            }
+            return "id" + nSends_.get();
+        }
+
+        public void disconnect()
+        {
+        }
+    }
+
+    private FailingTransport failing_;
+    private RetryTransport transport_;
+    private SmsAddress dest_;
+    private SmsAddress sender_;
+
+    protected void setUp() throws Exception
+    {
+        dest_ = new SmsAddress("46701234567");
+        sender_ = new SmsAddress("46707654321");
+        failing_ = new FailingTransport();
+        transport_ = createTransport("3", "10");
+    }
+
+    protected void tearDown() throws Exception
+    {
+        transport_.disconnect();
+    }
+
+    private RetryTransport createTransport(String attempts, String reserve) throws Exception
+    {
+        Properties props = new Properties();
+        props.setProperty("smsj.retry.attempts", attempts);
+        props.setProperty("smsj.retry.backoff.initial", "10");
+        props.setProperty("smsj.retry.backoff.max", "50");
+        props.setProperty("smsj.retry.budget.ratio", "0");
+        props.setProperty("smsj.retry.budget.reserve", reserve);
+        RetryTransport transport = new RetryTransport(failing_, new DefaultSmsRetryPolicy());
+        transport.init(props);
+        transport.connect();
+        return transport;
+    }
+
+    public void testRetriesIOException() throws Exception
+    {
+        failing_.failures_.add(new SmsNotSentException("Connection closed before sending"));
+        failing_.failures_.add(new SmsNotSentException("Connection closed before sending"));
+
+        assertEquals("id3", transport_.send(new SmsTextMessage("Hello"), dest_, sender_));
+        assertEquals(3, failing_.nSends_.get());
+    }
+
+    public void testGivesUpAfterMaxAttempts() throws Exception
+    {
+        for (int i = 0; i < 5; i++)
+        {
+            failing_.failures_.add(new ConnectException("Connection refused"));
+        }
+
+        try
+        {
+            transport_.send(new SmsTextMessage("Hello"), dest_, sender_);
+            fail("Expected IOException");
+        }
+        catch (IOException ex)
+        {
+            assertEquals(3, failing_.nSends_.get());
+        }
+    }
+
+    public void testDoesNotRetryUnknownOutcome() throws Exception
+    {
+        // The server may have the message
+        failing_.failures_.add(new SocketTimeoutException("Read timed out"));
+
+        try
+        {
+            transport_.send(new SmsTextMessage("Hello"), dest_, sender_);
+            fail("Expected IOException");
+        }
+        catch (IOException ex)
+        {
+            assertEquals(1, failing_.nSends_.get());
+        }
+
+        SmsRetryPolicy policy = new UcpRetryPolicy();
+        assertFalse(policy.isRetryable(new IOException("Connection closed by SMSC")));
+        assertTrue(policy.isRetryable(new SmsNotSentException("Connection closed by SMSC")));
+        assertTrue(policy.isRetryable(new ConnectException("Connection refused")));
+    }
+
+    public void testDoesNotRetrySmsException() throws Exception
+    {
+        failing_.failures_.add(new SmsException("Invalid destination"));
+
+        try
+        {
+            transport_.send(new SmsTextMessage("Hello"), dest_, sender_);
+            fail("Expected SmsException");
+        }
+        catch (SmsException ex)
+        {
+            assertEquals(1, failing_.nSends_.get());
+        }
+    }
+
+    public void testBudgetLimitsRetries() throws Exception
+    {
+        transport_.disconnect();
+        transport_ = createTransport("3", "2");
+        for (int i = 0; i < 30; i++)
+        {
+            failing_.failures_.add(new ConnectException("Connection refused"));
+        }
+
+        for (int i = 0; i < 10; i++)
+        {
+            try
+            {
+                transport_.send(new SmsTextMessage("Hello"), dest_, sender_);
+                fail("Expected IOException");
+            }
+            catch (IOException ex)
+            {
+                // Expected
+            }
+        }
+
+        // 10 first attempts and the 2 retries in the reserve
+        assertEquals(12, failing_.nSends_.get());
+    }
+
+    public void testAsyncRetry() throws Exception
+    {
+        failing_.failures_.add(new SmsNotSentException("Connection closed before sending"));
+
+        SmsSendResult result = SmsAsyncUtil.get(transport_.sendAsync(new SmsTextMessage("Hello"), dest_, sender_));
+        assertEquals("id2", result.getMessageId());
+        assertEquals(2, failing_.nSends_.get());
+    }
+
+    public void testAsyncRetryAroundConnectedTransport() throws Exception
+    {
+        // The wrapped transport is already connected, connect() is never called
+        transport_.disconnect();
+        Properties props = new Properties();
+        props.setProperty("smsj.retry.backoff.initial", "10");
+        transport_ = new RetryTransport(failing_, new DefaultSmsRetryPolicy());
+        transport_.init(props);
+        failing_.failures_.add(new SmsNotSentException("Connection closed before sending"));
+
+        SmsSendResult result = SmsAsyncUtil.get(transport_.sendAsync(new SmsTextMessage("Hello"), dest_, sender_));
+        assertEquals("id2", result.getMessageId());
+    }
+
+    public void testAsyncRetryAfterDisconnect() throws Exception
+    {
+        transport_.disconnect();
+        int balance = transport_.getRetryBudget().getBalance();
+        failing_.failures_.add(new SmsNotSentException("Connection closed before sending"));
+
+        try
+        {
+            SmsAsyncUtil.get(transport_.sendAsync(new SmsTextMessage("Hello"), dest_, sender_));
+            fail("Expected SmsNotSentException");
+        }
+        catch (SmsNotSentException ex)
+        {
+            // Expected
+        }
+        // No token is spent on a retry that can't run
+        assertEquals(balance, transport_.getRetryBudget().getBalance());
+    }
+
+    public void testGsmRetryPolicy()
+    {
+        SmsRetryPolicy policy = new GsmRetryPolicy();
+        assertTrue(policy.isRetryable(new SmsException("Send failed", new GsmException("CMS ERROR", "+CMS ERROR: 42"))));
+        assertFalse(policy.isRetryable(new SmsException("Send failed", new GsmException("CMS ERROR", "+CMS ERROR: 304"))));
+        assertFalse(policy.isRetryable(new IOException("Port closed")));
+        assertTrue(policy.isRetryable(new SmsNotSentException("Port closed")));
+    }
+
+    public void testUcpRetryPolicy() throws Exception
+    {
+        SmsRetryPolicy policy = new UcpRetryPolicy();
+        assertTrue(policy.isRetryable(nack(UcpResultMsg.EC_OPERATION_NOT_ALLOWED)));
+        assertFalse(policy.isRetryable(nack("06")));
+    }
+
+    private static UcpException nack(String errorCode) throws Exception
+    {
+        byte[] frame = UcpResultMsg.nack(UcpSeries50.OP_SUBMIT_SHORT_MESSAGE, 1, errorCode, null).getCommand();
+        return new UcpException("Submit rejected by SMSC", UcpResponse.parse(frame, 1, frame.length - 2));
+    }
+}
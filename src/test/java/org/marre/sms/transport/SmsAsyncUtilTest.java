@@ -0,0 +1,105 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is "SMS Library for the Java platform".
+ *
+ * The Initial Developer of the Original Code is Markus Eriksson.
+ * Portions created by the Initial Developer are Copyright (C) 2002
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.marre.sms.transport;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import junit.framework.TestCase;
+
+import org.marre.sms.SmsException;
+
+public class SmsAsyncUtilTest extends TestCase
+{
+    public void testAllOfKeepsPduOrder() throws Exception
+    {
+        List<CompletableFuture<SmsPduResult>> pdus = new ArrayList<CompletableFuture<SmsPduResult>>();
+        pdus.add(new CompletableFuture<SmsPduResult>());
+        pdus.add(new CompletableFuture<SmsPduResult>());
+
+        CompletableFuture<SmsSendResult> result = SmsAsyncUtil.allOf(pdus);
+        pdus.get(1).complete(new SmsPduResult("id2", null));
+        assertFalse(result.isDone());
+        pdus.get(0).complete(new SmsPduResult("id1", null));
+
+        SmsSendResult sendResult = SmsAsyncUtil.get(result);
+        assertEquals("id2", sendResult.getMessageId());
+        assertEquals("id1", sendResult.getPduResults().get(0).getMessageId());
+        assertEquals("id2", sendResult.getPduResults().get(1).getMessageId());
+    }
+
+    public void testAllOfFailsFast() throws Exception
+    {
+        List<CompletableFuture<SmsPduResult>> pdus = new ArrayList<CompletableFuture<SmsPduResult>>();
+        pdus.add(new CompletableFuture<SmsPduResult>());
+        pdus.add(new CompletableFuture<SmsPduResult>());
+
+        CompletableFuture<SmsSendResult> result = SmsAsyncUtil.allOf(pdus);
+        pdus.get(1).completeExceptionally(new IOException("lost connection"));
+
+        try
+        {
+            SmsAsyncUtil.get(result);
+            fail("Expected IOException");
+        }
+        catch (IOException ex)
+        {
+            assertEquals("lost connection", ex.getMessage());
+        }
+    }
+
+    public void testSupplyAsyncRethrowsSmsException() throws Exception
+    {
+        CompletableFuture<String> future = SmsAsyncUtil.supplyAsync(new SmsAsyncUtil.SmsCallable<String>()
+        {
+            public String call() throws SmsException
+            {
+                throw new SmsException("rejected");
+            }
+        }, SmsAsyncUtil.getDefaultExecutor());
+
+        try
+        {
+            SmsAsyncUtil.get(future);
+            fail("Expected SmsException");
+        }
+        catch (SmsException ex)
+        {
+            assertEquals("rejected", ex.getMessage());
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is "SMS Library for the Java platform".
+ *
+ * The Initial Developer of the Original Code is Markus Eriksson.
+ * Portions created by the Initial Developer are Copyright (C) 2002
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.marre.sms.transport.clickatell;
+
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+
+import junit.framework.TestCase;
+
+public class ClickatellCallbackReceiverTest extends TestCase
+{
+    private ClickatellStatusIndex index_;
+    private ClickatellCallbackReceiver receiver_;
+
+    protected void setUp() throws Exception
+    {
+        index_ = new ClickatellStatusIndex();
+        receiver_ = new ClickatellCallbackReceiver(index_, new InetSocketAddress("127.0.0.1", 0), "/status");
+        receiver_.start();
+    }
+
+    protected void tearDown() throws Exception
+    {
+        receiver_.stop();
+    }
+
+    private String getUrl()
+    {
+        return "http://127.0.0.1:" + receiver_.getAddress().getPort() + "/status";
+    }
+
+    private int get(String query) throws Exception
+    {
+        HttpURLConnection conn = (HttpURLConnection) new URL(getUrl() + "?" + query).openConnection();
+        try
+        {
+            return conn.getResponseCode();
+        }
+        finally
+        {
+            conn.disconnect();
+        }
+    }
+
+    private int post(String body) throws Exception
+    {
+        HttpURLConnection conn = (HttpURLConnection) new URL(getUrl()).openConnection();
+        try
+        {
+            conn.setDoOutput(true);
+            conn.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+            OutputStream out = conn.getOutputStream();
+            out.write(body.getBytes("UTF-8"));
+            out.close();
+            return conn.getResponseCode();
+        }
+        finally
+        {
+            conn.disconnect();
+        }
+    }
+
+    public void testCallbacks() throws Exception
+    {
+        index_.track("abc");
+
+        assertEquals(200, get("api_id=1234&apiMsgId=abc&cliMsgId=&timestamp=1218007814&to=46701234567&from=46707654321&status=003"));
+        assertEquals(ClickatellMessageStatus.STATUS_DELIVERED_TO_GATEWAY, index_.get("abc").getStatus());
+        assertEquals(1218007814000L, index_.get("abc").getTimestamp());
+
+        assertEquals(200, post("api_id=1234&apiMsgId=abc&timestamp=1218007820&status=004"));
+        assertTrue(index_.get("abc").isFinal());
+        assertTrue(index_.getPendingIds().isEmpty());
+    }
+
+    public void testLateCallbackDoesNotReplaceFinalStatus() throws Exception
+    {
+        assertEquals(200, post("apiMsgId=abc&timestamp=1218007820&status=004"));
+        assertEquals(200, post("apiMsgId=abc&timestamp=1218007814&status=003"));
+
+        assertEquals(ClickatellMessageStatus.STATUS_RECEIVED, index_.get("abc").getStatus());
+    }
+
+    public void testInvalidCallback() throws Exception
+    {
+        assertEquals(400, get("apiMsgId=abc"));
+        assertEquals(400, post("apiMsgId=abc&status=delivered"));
+        // Malformed %-encoding
+        assertEquals(400, post("apiMsgId=ab%zz&status=004"));
+        assertEquals(0, index_.size());
+    }
+}
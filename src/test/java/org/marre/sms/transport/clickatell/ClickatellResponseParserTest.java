@@ -0,0 +1,108 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is "SMS Library for the Java platform".
+ *
+ * The Initial Developer of the Original Code is Markus Eriksson.
+ * Portions created by the Initial Developer are Copyright (C) 2002
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.marre.sms.transport.clickatell;
+
+import java.io.ByteArrayInputStream;
+
+import junit.framework.TestCase;
+
+public class ClickatellResponseParserTest extends TestCase
+{
+    private static ClickatellResponseParser parser(String response, int bufferSize) throws Exception
+    {
+        return new ClickatellResponseParser(new ByteArrayInputStream(response.getBytes("ISO-8859-1")), bufferSize);
+    }
+
+    public void testId() throws Exception
+    {
+        ClickatellResponseParser parser = parser("ID: 2d6f1e5b0c3a\n", 4096);
+        assertTrue(parser.next());
+        assertFalse(parser.isError());
+        assertEquals("2d6f1e5b0c3a", parser.getValue());
+        assertNull(parser.getRecipient());
+        assertFalse(parser.next());
+    }
+
+    public void testError() throws Exception
+    {
+        ClickatellResponseParser parser = parser("ERR: 001, Authentication failed", 4096);
+        assertTrue(parser.next());
+        assertTrue(parser.isError());
+        assertEquals(1, parser.getErrorCode());
+        assertEquals("Authentication failed", parser.getValue());
+        assertFalse(parser.next());
+    }
+
+    public void testMultiRecipient() throws Exception
+    {
+        // A small buffer so that lines are split between reads
+        ClickatellResponseParser parser = parser(
+                "ID: abc123 To: 46701111111\r\n\r\nERR: 114, Cannot route message To: 46700000000\r\nID: def456 To: 46702222222",
+                7);
+
+        assertTrue(parser.next());
+        assertFalse(parser.isError());
+        assertEquals("abc123", parser.getValue());
+        assertEquals("46701111111", parser.getRecipient());
+        assertEquals("abc123 To: 46701111111", parser.getValueAndRecipient());
+
+        assertTrue(parser.next());
+        assertTrue(parser.isError());
+        assertEquals(114, parser.getErrorCode());
+        assertEquals("Cannot route message", parser.getValue());
+        assertEquals("46700000000", parser.getRecipient());
+        assertEquals("ERR: 114, Cannot route message To: 46700000000", parser.getLine());
+
+        assertTrue(parser.next());
+        assertEquals("def456", parser.getValue());
+        assertEquals("46702222222", parser.getRecipient());
+
+        assertFalse(parser.next());
+    }
+
+    public void testUnexpected() throws Exception
+    {
+        ClickatellResponseParser parser = parser("<html>Bad gateway</html>\n", 4096);
+        try
+        {
+            parser.next();
+            fail("Expected ClickatellException");
+        }
+        catch (ClickatellException ex)
+        {
+            assertEquals(ClickatellException.ERROR_UNKNOWN, ex.getErrId());
+        }
+    }
+}
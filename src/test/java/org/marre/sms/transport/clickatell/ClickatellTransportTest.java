@@ -0,0 +1,542 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is "SMS Library for the Java platform".
+ *
+ * The Initial Developer of the Original Code is Markus Eriksson.
+ * Portions created by the Initial Developer are Copyright (C) 2002
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.marre.sms.transport.clickatell;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.marre.sms.SmsAddress;
+import org.marre.sms.SmsException;
+import org.marre.sms.SmsTextMessage;
+import org.marre.sms.transport.SmsAsyncUtil;
+import org.marre.sms.transport.SmsQuotaException;
+import org.marre.sms.transport.SmsRetryPolicy;
+import org.marre.sms.transport.SmsSendResult;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class ClickatellTransportTest extends TestCase
+{
+    private HttpServer server_;
+    private ClickatellTransport transport_;
+    private final Set<Integer> clientPorts_ = Collections.synchronizedSet(new HashSet<Integer>());
+    private final AtomicInteger nRequests_ = new AtomicInteger();
+    private volatile String sendResponse_;
+    private volatile String invalidStatusId_;
+
+    // Session handling of the fake clickatell
+    private final AtomicInteger nAuth_ = new AtomicInteger();
+    private final AtomicInteger nExpired_ = new AtomicInteger();
+    private String validSession_;
+    private long sessionUsed_;
+    private long sessionTimeout_ = Long.MAX_VALUE;
+    private volatile CountDownLatch authGate_;
+
+    protected void setUp() throws Exception
+    {
+        server_ = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server_.createContext("/http/auth", new HttpHandler()
+        {
+            public void handle(HttpExchange exchange) throws IOException
+            {
+                CountDownLatch gate = authGate_;
+                if (gate != null)
+                {
+                    try
+                    {
+                        gate.await(5, TimeUnit.SECONDS);
+                    }
+                    catch (InterruptedException ex)
+                    {
+                        throw new IOException("Interrupted");
+                    }
+                }
+
+                String sessionId;
+                synchronized (ClickatellTransportTest.this)
+                {
+                    validSession_ = sessionId = "session" + nAuth_.incrementAndGet();
+                    sessionUsed_ = System.currentTimeMillis();
+                }
+                new Responder("OK: " + sessionId).handle(exchange);
+            }
+        });
+        server_.createContext("/http/sendmsg", new HttpHandler()
+        {
+            public void handle(HttpExchange exchange) throws IOException
+            {
+                String body = readBody(exchange);
+                if (!useSession(getParameter(body, "session_id")))
+                {
+                    new Responder("ERR: 003, Session ID expired").handle(exchange);
+                    return;
+                }
+
+                String to = getParameter(body, "to");
+                String response = sendResponse_;
+                if (response == null && to.indexOf(',') >= 0)
+                {
+                    // Multiple recipients, answer in reverse order with an error for "46700000000"
+                    StringBuilder lines = new StringBuilder();
+                    String[] numbers = to.split(",");
+                    for (int i = numbers.length - 1; i >= 0; i--)
+                    {
+                        if (numbers[i].equals("46700000000"))
+                        {
+                            lines.append("ERR: 114, Cannot route message To: ").append(numbers[i]).append('\n');
+                        }
+                        else
+                        {
+                            lines.append("ID: id").append(numbers[i]).append(" To: ").append(numbers[i]).append('\n');
+                        }
+                    }
+                    response = lines.toString().trim();
+                }
+                new Responder((response != null) ? response : ("ID: msg" + nRequests_.get())).handle(exchange);
+            }
+        });
+        server_.createContext("/http/getbalance", new HttpHandler()
+        {
+            public void handle(HttpExchange exchange) throws IOException
+            {
+                readBody(exchange);
+                new Responder("Credit: 42.5").handle(exchange);
+            }
+        });
+        server_.createContext("/http/querymsg", new HttpHandler()
+        {
+            public void handle(HttpExchange exchange) throws IOException
+            {
+                String body = readBody(exchange);
+                if (!useSession(getParameter(body, "session_id")))
+                {
+                    new Responder("ERR: 003, Session ID expired").handle(exchange);
+                    return;
+                }
+
+                // Even message numbers have been delivered, a batch with the invalid id is refused
+                StringBuilder lines = new StringBuilder();
+                for (String msgId : getParameter(body, "apimsgid").split(","))
+                {
+                    if (msgId.equals(invalidStatusId_))
+                    {
+                        new Responder("ERR: 116, Invalid unique identifier").handle(exchange);
+                        return;
+                    }
+                    int n = Integer.parseInt(msgId.substring(3));
+                    lines.append("ID: ").append(msgId).append(" Status: ").append((n % 2 == 0) ? "004" : "003").append('\n');
+                }
+                new Responder(lines.toString().trim()).handle(exchange);
+            }
+        });
+        server_.start();
+
+        Properties props = createProperties();
+        props.setProperty("smsj.clickatell.pool.size", "2");
+        connect(props);
+    }
+
+    private Properties createProperties()
+    {
+        Properties props = new Properties();
+        props.setProperty("smsj.clickatell.username", "user");
+        props.setProperty("smsj.clickatell.password", "secret");
+        props.setProperty("smsj.clickatell.apiid", "1234");
+        props.setProperty("smsj.clickatell.url", "http://127.0.0.1:" + server_.getAddress().getPort() + "/http");
+        return props;
+    }
+
+    private void connect(Properties props) throws Exception
+    {
+        if (transport_ != null)
+        {
+            transport_.disconnect();
+        }
+        transport_ = createTransport();
+        transport_.init(props);
+        transport_.connect();
+    }
+
+    protected ClickatellTransport createTransport()
+    {
+        return new ClickatellTransport();
+    }
+
+    private synchronized boolean useSession(String sessionId)
+    {
+        long now = System.currentTimeMillis();
+        if (sessionId.equals(validSession_) && now - sessionUsed_ <= sessionTimeout_)
+        {
+            sessionUsed_ = now;
+            return true;
+        }
+        nExpired_.incrementAndGet();
+        return false;
+    }
+
+    private synchronized void expireSession()
+    {
+        validSession_ = null;
+    }
+
+    protected void tearDown() throws Exception
+    {
+        transport_.disconnect();
+        server_.stop(0);
+    }
+
+    public void testConnectionsAreReused() throws Exception
+    {
+        for (int i = 0; i < 20; i++)
+        {
+            String msgId = transport_.send(new SmsTextMessage("Hello " + i), new SmsAddress("46701234567"), new SmsAddress("46707654321"));
+            assertEquals("msg" + (i + 1), msgId);
+        }
+
+        assertEquals(21, nRequests_.get());
+        assertEquals(1, clientPorts_.size());
+    }
+
+    public void testError() throws Exception
+    {
+        sendResponse_ = "ERR: 114, Cannot route message";
+        try
+        {
+            transport_.send(new SmsTextMessage("Hello"), new SmsAddress("46701234567"), new SmsAddress("46707654321"));
+            fail("Expected SmsException");
+        }
+        catch (SmsException ex)
+        {
+            assertTrue(ex.getMessage(), ex.getMessage().indexOf("114") >= 0);
+        }
+
+        // The connection survives the error
+        sendResponse_ = null;
+        transport_.send(new SmsTextMessage("Hello"), new SmsAddress("46701234567"), new SmsAddress("46707654321"));
+        assertEquals(1, clientPorts_.size());
+    }
+
+    public void testOutOfCredit() throws Exception
+    {
+        assertEquals(42.5, transport_.queryBalance(), 0.0);
+
+        sendResponse_ = "ERR: 301, No Credit Left";
+        try
+        {
+            transport_.send(new SmsTextMessage("Hello"), new SmsAddress("46701234567"), new SmsAddress("46707654321"));
+            fail("Expected SmsQuotaException");
+        }
+        catch (SmsQuotaException ex)
+        {
+            assertTrue(ex.getMessage(), ex.getMessage().indexOf("301") >= 0);
+        }
+
+        try
+        {
+            SmsAsyncUtil.get(transport_.sendAsync(new SmsTextMessage("Hello"), new SmsAddress("46701234567"), null));
+            fail("Expected SmsQuotaException");
+        }
+        catch (SmsQuotaException ex)
+        {
+            // Same from the async path
+        }
+    }
+
+    public void testBulk() throws Exception
+    {
+        Properties props = createProperties();
+        props.setProperty("smsj.clickatell.batch.size", "2");
+        connect(props);
+        nRequests_.set(0);
+
+        List<SmsAddress> receivers = Arrays.asList(new SmsAddress("+46701111111"), new SmsAddress("46702222222"),
+                new SmsAddress("46700000000"), new SmsAddress("46703333333"), new SmsAddress("46704444444"));
+        List<SmsSendResult> results = transport_.send(new SmsTextMessage("Hello"), receivers, new SmsAddress("46707654321"));
+
+        assertEquals(3, nRequests_.get());
+        assertEquals(5, results.size());
+        assertEquals("id46701111111", results.get(0).getPduResults().get(0).getMessageId());
+        assertEquals("id46702222222", results.get(1).getPduResults().get(0).getMessageId());
+        assertNull(results.get(2).getPduResults().get(0).getMessageId());
+        assertTrue(results.get(2).getPduResults().get(0).getResponse().indexOf("114") >= 0);
+        assertEquals("id46703333333", results.get(3).getPduResults().get(0).getMessageId());
+        // The last batch has a single recipient
+        assertEquals("msg2", results.get(4).getPduResults().get(0).getMessageId());
+    }
+
+    public void testExpiredSessionIsRenewedOnce() throws Exception
+    {
+        final int nThreads = 8;
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicInteger nSent = new AtomicInteger();
+        Thread[] threads = new Thread[nThreads];
+        for (int i = 0; i < nThreads; i++)
+        {
+            threads[i] = new Thread()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        start.await();
+                        for (int j = 0; j < 5; j++)
+                        {
+                            transport_.send(new SmsTextMessage("Hello"), new SmsAddress("46701234567"), new SmsAddress("46707654321"));
+                            nSent.incrementAndGet();
+                        }
+                    }
+                    catch (Exception ex)
+                    {
+                        ex.printStackTrace();
+                    }
+                }
+            };
+            threads[i].start();
+        }
+
+        expireSession();
+        start.countDown();
+        for (Thread thread : threads)
+        {
+            thread.join(10000);
+        }
+
+        assertEquals(nThreads * 5, nSent.get());
+        // One auth from connect() and a single renewal
+        assertEquals(2, nAuth_.get());
+    }
+
+    public void testAsyncRenewsExpiredSessionOnce() throws Exception
+    {
+        expireSession();
+
+        List<CompletableFuture<SmsSendResult>> results = new ArrayList<CompletableFuture<SmsSendResult>>();
+        for (int i = 0; i < 20; i++)
+        {
+            results.add(transport_.sendAsync(new SmsTextMessage("Hello " + i), new SmsAddress("46701234567"), new SmsAddress("46707654321")));
+        }
+        for (CompletableFuture<SmsSendResult> result : results)
+        {
+            assertNotNull(SmsAsyncUtil.get(result).getMessageId());
+        }
+
+        // One auth from connect() and a single renewal
+        assertEquals(2, nAuth_.get());
+    }
+
+    public void testIdleSessionIsRenewedBeforeUse() throws Exception
+    {
+        sessionTimeout_ = 300;
+        Properties props = createProperties();
+        props.setProperty("smsj.clickatell.session.timeout", "300");
+        connect(props);
+        int nAuth = nAuth_.get();
+
+        transport_.send(new SmsTextMessage("Hello"), new SmsAddress("46701234567"), new SmsAddress("46707654321"));
+        Thread.sleep(350);
+        transport_.send(new SmsTextMessage("Hello"), new SmsAddress("46701234567"), new SmsAddress("46707654321"));
+
+        assertEquals(nAuth + 1, nAuth_.get());
+        assertEquals(0, nExpired_.get());
+    }
+
+    public void testAsyncIdleSessionRenewalDoesNotBlock() throws Exception
+    {
+        sessionTimeout_ = 300;
+        Properties props = createProperties();
+        props.setProperty("smsj.clickatell.session.timeout", "300");
+        connect(props);
+        int nAuth = nAuth_.get();
+        Thread.sleep(350);
+
+        // Clickatell is slow to authenticate
+        authGate_ = new CountDownLatch(1);
+        long start = System.currentTimeMillis();
+        CompletableFuture<SmsSendResult> result = transport_.sendAsync(new SmsTextMessage("Hello"),
+                new SmsAddress("46701234567"), new SmsAddress("46707654321"));
+        long elapsed = System.currentTimeMillis() - start;
+        assertTrue("Blocked for " + elapsed + " ms", elapsed < 1000);
+        assertFalse(result.isDone());
+
+        authGate_.countDown();
+        assertNotNull(SmsAsyncUtil.get(result).getMessageId());
+        assertEquals(nAuth + 1, nAuth_.get());
+        assertEquals(0, nExpired_.get());
+    }
+
+    public void testStatusPolling() throws Exception
+    {
+        Properties props = createProperties();
+        props.setProperty("smsj.clickatell.status.batch.size", "2");
+        connect(props);
+        ClickatellStatusIndex index = new ClickatellStatusIndex();
+        transport_.setStatusIndex(index);
+
+        for (int i = 0; i < 5; i++)
+        {
+            transport_.send(new SmsTextMessage("Hello " + i), new SmsAddress("46701234567"), new SmsAddress("46707654321"));
+        }
+        assertEquals(5, index.getPendingIds().size());
+
+        nRequests_.set(0);
+        ClickatellStatusPoller poller = new ClickatellStatusPoller(transport_, index, 60000);
+        assertEquals(5, poller.poll());
+        // 5 ids, 2 in each querymsg
+        assertEquals(3, nRequests_.get());
+
+        // The messages are msg2 to msg6, msg3 and msg5 have only reached the gateway
+        assertEquals(ClickatellMessageStatus.STATUS_RECEIVED, index.get("msg4").getStatus());
+        assertEquals(ClickatellMessageStatus.STATUS_DELIVERED_TO_GATEWAY, index.get("msg5").getStatus());
+        assertEquals(2, index.getPendingIds().size());
+
+        // Only the pending messages are polled again, and nothing changed
+        nRequests_.set(0);
+        assertEquals(0, poller.poll());
+        assertEquals(1, nRequests_.get());
+    }
+
+    public void testStatusPollingWithInvalidId() throws Exception
+    {
+        Properties props = createProperties();
+        props.setProperty("smsj.clickatell.status.batch.size", "2");
+        connect(props);
+        ClickatellStatusIndex index = new ClickatellStatusIndex();
+        transport_.setStatusIndex(index);
+
+        for (int i = 0; i < 5; i++)
+        {
+            transport_.send(new SmsTextMessage("Hello " + i), new SmsAddress("46701234567"), new SmsAddress("46707654321"));
+        }
+
+        // msg4 is refused, msg5 in the same batch must still get its status
+        invalidStatusId_ = "msg4";
+        nRequests_.set(0);
+        ClickatellStatusPoller poller = new ClickatellStatusPoller(transport_, index, 60000);
+        assertEquals(5, poller.poll());
+        // 3 batches, and the refused one once more per id
+        assertEquals(5, nRequests_.get());
+
+        assertEquals(ClickatellMessageStatus.STATUS_RECEIVED, index.get("msg2").getStatus());
+        assertEquals(ClickatellMessageStatus.STATUS_QUERY_ERROR, index.get("msg4").getStatus());
+        assertTrue(index.get("msg4").isFinal());
+        assertEquals(ClickatellMessageStatus.STATUS_DELIVERED_TO_GATEWAY, index.get("msg5").getStatus());
+        assertEquals(ClickatellMessageStatus.STATUS_RECEIVED, index.get("msg6").getStatus());
+        assertFalse(index.getPendingIds().contains("msg4"));
+        assertEquals(2, index.getPendingIds().size());
+    }
+
+    public void testRetryPolicy()
+    {
+        SmsRetryPolicy policy = new ClickatellRetryPolicy();
+        assertTrue(policy.isRetryable(new SmsException("Internal error",
+                new ClickatellException("Internal error", ClickatellException.ERROR_INTERNAL))));
+        // An unparseable answer means that the request reached clickatell
+        assertFalse(policy.isRetryable(new SmsException("Empty response",
+                new ClickatellException("Empty response", ClickatellException.ERROR_UNKNOWN))));
+        assertFalse(policy.isRetryable(new SmsException("No credit",
+                new ClickatellException("No credit", ClickatellException.ERROR_NO_CREDIT))));
+    }
+
+    private static String readBody(HttpExchange exchange) throws IOException
+    {
+        InputStream in = exchange.getRequestBody();
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        int c;
+        while ((c = in.read()) >= 0)
+        {
+            body.write(c);
+        }
+        return body.toString("ISO-8859-1");
+    }
+
+    private static String getParameter(String query, String name) throws IOException
+    {
+        for (String param : query.split("&"))
+        {
+            if (param.startsWith(name + "="))
+            {
+                return URLDecoder.decode(param.substring(name.length() + 1), "ISO-8859-1");
+            }
+        }
+        return "";
+    }
+
+    private class Responder implements HttpHandler
+    {
+        private final String response_;
+
+        Responder(String response)
+        {
+            response_ = response;
+        }
+
+        public void handle(HttpExchange exchange) throws IOException
+        {
+            nRequests_.incrementAndGet();
+            clientPorts_.add(exchange.getRemoteAddress().getPort());
+
+            InputStream in = exchange.getRequestBody();
+            while (in.read() >= 0)
+            {
+                // Drain the request
+            }
+
+            byte[] body = (response_ + "\n").getBytes("ISO-8859-1");
+            exchange.sendResponseHeaders(200, body.length);
+            OutputStream out = exchange.getResponseBody();
+            out.write(body);
+            out.close();
+        }
+    }
+}
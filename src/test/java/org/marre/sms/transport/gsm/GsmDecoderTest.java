@@ -0,0 +1,203 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is "SMS Library for the Java platform".
+ *
+ * The Initial Developer of the Original Code is Markus Eriksson.
+ * Portions created by the Initial Developer are Copyright (C) 2002
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.marre.sms.transport.gsm;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+import junit.framework.TestCase;
+
+import org.marre.sms.SmsException;
+import org.marre.sms.SmsPduUtil;
+import org.marre.sms.SmsTon;
+import org.marre.util.StringUtil;
+
+public class GsmDecoderTest extends TestCase
+{
+    /** SMSC +31624000000. */
+    static final String SMSC = "07911326040000F0";
+    /** Originator +31641600986. */
+    static final String OA = "0B911346610089F6";
+    /** 2002-08-26 19:37:41 +02:00. */
+    static final String SCTS = "20806291731480";
+    static final long SCTS_MILLIS = 1030383461000L;
+
+    /**
+     * Builds an SMS-DELIVER pdu with GSM coded text.
+     */
+    static String deliver(String udh, String text)
+    {
+        int nUdhBytes = (udh == null) ? 0 : udh.length() / 2;
+        int nUdhSeptets = (nUdhBytes * 8 + 6) / 7;
+
+        StringBuilder padded = new StringBuilder();
+        for (int i = 0; i < nUdhSeptets; i++)
+        {
+            padded.append('@');
+        }
+        byte[] ud = SmsPduUtil.getSeptets(padded + text);
+        if (udh != null)
+        {
+            System.arraycopy(StringUtil.hexStringToBytes(udh), 0, ud, 0, nUdhBytes);
+        }
+
+        return SMSC + ((udh == null) ? "04" : "44") + OA + "0000" + SCTS
+            + hex(nUdhSeptets + text.length()) + StringUtil.bytesToHexString(ud);
+    }
+
+    static String hex(int octet)
+    {
+        return StringUtil.bytesToHexString(new byte[] { (byte) octet });
+    }
+
+    public void testDeliver() throws Exception
+    {
+        GsmDeliverPdu pdu = GsmDecoder.decodeDeliver(StringUtil.hexStringToBytes(
+                "07911326040000F0040B911346610089F60000" + SCTS + "0CC8F71D14969741F977FD07"));
+
+        assertEquals("31641600986", pdu.getOriginator());
+        assertEquals(SmsTon.INTERNATIONAL, pdu.getOriginatorTon());
+        assertEquals("How are you?", pdu.getText());
+        assertNull(pdu.getData());
+        assertNull(pdu.getUserDataHeaders());
+        assertEquals(SCTS_MILLIS, pdu.getTimestamp());
+        assertFalse(pdu.isConcatenated());
+    }
+
+    public void testConcatenatedParts() throws Exception
+    {
+        GsmDeliverPdu pdu = GsmDecoder.decodeDeliver(StringUtil.hexStringToBytes(deliver("050003A70302", "second part")));
+
+        assertEquals("second part", pdu.getText());
+        assertTrue(pdu.isConcatenated());
+        assertEquals(0xA7, pdu.getConcatRef());
+        assertEquals(3, pdu.getConcatTotal());
+        assertEquals(2, pdu.getConcatSeq());
+
+        // 16 bit reference, 7 octet header without fill bits
+        pdu = GsmDecoder.decodeDeliver(StringUtil.hexStringToBytes(deliver("06080412340201", "first")));
+        assertEquals("first", pdu.getText());
+        assertEquals(0x1234, pdu.getConcatRef());
+        assertEquals(2, pdu.getConcatTotal());
+        assertEquals(1, pdu.getConcatSeq());
+    }
+
+    public void testUcs2AndData() throws Exception
+    {
+        byte[] ucs2 = "Åka €".getBytes(StandardCharsets.UTF_16BE);
+        GsmDeliverPdu pdu = GsmDecoder.decodeDeliver(StringUtil.hexStringToBytes(
+                SMSC + "04" + OA + "0008" + SCTS + hex(ucs2.length) + StringUtil.bytesToHexString(ucs2)));
+        assertEquals("Åka €", pdu.getText());
+
+        // 8 bit data with a port header
+        pdu = GsmDecoder.decodeDeliver(StringUtil.hexStringToBytes(
+                SMSC + "44" + OA + "0004" + SCTS + "09" + "0605040B8423F0" + "CAFE"));
+        assertNull(pdu.getText());
+        assertEquals("CAFE", StringUtil.bytesToHexString(pdu.getData()));
+        assertEquals("0605040B8423F0", StringUtil.bytesToHexString(pdu.getUserDataHeaders()));
+    }
+
+    public void testAlphanumericOriginator() throws Exception
+    {
+        ByteArrayOutputStream oa = new ByteArrayOutputStream();
+        SmsPduUtil.writeSeptets(oa, "Bank");
+        GsmDeliverPdu pdu = GsmDecoder.decodeDeliver(StringUtil.hexStringToBytes(
+                "00" + "04" + "07D0" + StringUtil.bytesToHexString(oa.toByteArray()) + "0000" + SCTS + "0131"));
+
+        assertEquals("Bank", pdu.getOriginator());
+        assertEquals(SmsTon.ALPHANUMERIC, pdu.getOriginatorTon());
+        assertEquals("1", pdu.getText());
+    }
+
+    public void testStatusReport() throws Exception
+    {
+        byte[] pdu = StringUtil.hexStringToBytes(SMSC + "06" + "2A" + OA + SCTS + "20806291741480" + "00");
+        assertEquals(GsmDecoder.MTI_STATUS_REPORT, GsmDecoder.getMessageType(pdu));
+
+        GsmStatusReport report = GsmDecoder.decodeStatusReport(pdu);
+        assertEquals(42, report.getMessageReference());
+        assertEquals("31641600986", report.getRecipient());
+        assertEquals(SCTS_MILLIS, report.getTimestamp());
+        assertEquals(SCTS_MILLIS + 600000L, report.getDischargeTime());
+        assertTrue(report.isDelivered());
+        assertTrue(report.isFinal());
+
+        // Temporary error, SC still trying
+        report = GsmDecoder.decodeStatusReport(StringUtil.hexStringToBytes(SMSC + "06" + "2A" + OA + SCTS + SCTS + "30"));
+        assertFalse(report.isDelivered());
+        assertFalse(report.isFinal());
+    }
+
+    public void testInvalidPdu()
+    {
+        try
+        {
+            GsmDecoder.decodeDeliver(StringUtil.hexStringToBytes(SMSC + "040B9113"));
+            fail("Expected SmsException");
+        }
+        catch (SmsException ex)
+        {
+            // Expected
+        }
+
+        try
+        {
+            GsmDecoder.decodeStatusReport(StringUtil.hexStringToBytes(deliver(null, "x")));
+            fail("Expected SmsException");
+        }
+        catch (SmsException ex)
+        {
+            // Expected
+        }
+    }
+
+    public void testInvalidConcatenation()
+    {
+        // Part 0, part 4 of 3 and 0 parts would be out of range in the assembler
+        String[] udhs = { "050003A70300", "050003A70304", "050003A70000", "0608041234FF00" };
+        for (String udh : udhs)
+        {
+            try
+            {
+                GsmDecoder.decodeDeliver(StringUtil.hexStringToBytes(deliver(udh, "part")));
+                fail("Expected SmsException for " + udh);
+            }
+            catch (SmsException ex)
+            {
+                // Expected
+            }
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is "SMS Library for the Java platform".
+ *
+ * The Initial Developer of the Original Code is Markus Eriksson.
+ * Portions created by the Initial Developer are Copyright (C) 2002
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.marre.sms.transport.gsm;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import junit.framework.TestCase;
+
+public class GsmLineReaderTest extends TestCase
+{
+    private static final String TRANSCRIPT = "AT+CMGS=23\r\r\n> 0011000B916407281553F80000AA0AE8329BFD4697D9EC37\u001a\r\n"
+        + "+CMGS: 17\r\n\r\nOK\r\n";
+
+    /**
+     * Returns one byte per read, like a slow serial port.
+     */
+    private static class TrickleInputStream extends FilterInputStream
+    {
+        TrickleInputStream(InputStream in)
+        {
+            super(in);
+        }
+
+        public int read(byte[] b, int off, int len) throws IOException
+        {
+            return super.read(b, off, Math.min(len, 1));
+        }
+    }
+
+    private static void assertTranscript(GsmLineReader reader) throws IOException
+    {
+        assertEquals("AT+CMGS=23", reader.readLine(null));
+        assertEquals("> ", reader.readLine("> "));
+        assertEquals("0011000B916407281553F80000AA0AE8329BFD4697D9EC37\u001a", reader.readLine(null));
+        assertEquals("+CMGS: 17", reader.readLine("> "));
+        assertEquals("", reader.readLine(null));
+        assertEquals("OK", reader.readLine(null));
+        // End of stream
+        assertEquals("", reader.readLine(null));
+    }
+
+    public void testReadLine() throws Exception
+    {
+        assertTranscript(new GsmLineReader(new ByteArrayInputStream(TRANSCRIPT.getBytes("ISO-8859-1"))));
+    }
+
+    public void testReadLineOneByteAtATime() throws Exception
+    {
+        assertTranscript(new GsmLineReader(new TrickleInputStream(new ByteArrayInputStream(TRANSCRIPT.getBytes("ISO-8859-1")))));
+    }
+
+    public void testFindOnlyMatchesWholeRow() throws Exception
+    {
+        GsmLineReader reader = new GsmLineReader(new ByteArrayInputStream("a> b\r\n> ".getBytes("ISO-8859-1")));
+        assertEquals("a> b", reader.readLine("> "));
+        assertEquals("> ", reader.readLine("> "));
+    }
+
+    public void testLongRow() throws Exception
+    {
+        StringBuilder row = new StringBuilder();
+        for (int i = 0; i < 1000; i++)
+        {
+            row.append((char) ('0' + i % 10));
+        }
+        GsmLineReader reader = new GsmLineReader(new ByteArrayInputStream((row + "\r\nOK\r\n").getBytes("ISO-8859-1")));
+        assertEquals(row.toString(), reader.readLine(null));
+        assertEquals("OK", reader.readLine(null));
+    }
+
+    public void testSkipEcho() throws Exception
+    {
+        GsmLineReader reader = new GsmLineReader(new TrickleInputStream(
+                new ByteArrayInputStream("AT\r\r\n\r\nOK\r\nAT\r\nOK\r\n".getBytes("ISO-8859-1"))));
+
+        reader.skipLine();
+        reader.skipCrLf();
+        assertEquals("OK", reader.readLine(null));
+
+        // No extra \r\n
+        reader.skipLine();
+        reader.skipCrLf();
+        assertEquals("OK", reader.readLine(null));
+    }
+}
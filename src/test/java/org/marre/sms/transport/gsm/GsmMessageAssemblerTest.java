@@ -0,0 +1,91 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is "SMS Library for the Java platform".
+ *
+ * The Initial Developer of the Original Code is Markus Eriksson.
+ * Portions created by the Initial Developer are Copyright (C) 2002
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.marre.sms.transport.gsm;
+
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.marre.util.StringUtil;
+
+public class GsmMessageAssemblerTest extends TestCase
+{
+    private static GsmDeliverPdu part(int ref, int total, int seq, String text) throws Exception
+    {
+        String udh = "050003" + GsmDecoderTest.hex(ref) + GsmDecoderTest.hex(total) + GsmDecoderTest.hex(seq);
+        return GsmDecoder.decodeDeliver(StringUtil.hexStringToBytes(GsmDecoderTest.deliver(udh, text)));
+    }
+
+    public void testReassembleOutOfOrder() throws Exception
+    {
+        GsmMessageAssembler assembler = new GsmMessageAssembler(60000);
+
+        assertNull(assembler.add(part(7, 3, 3, "three"), 5));
+        assertNull(assembler.add(part(7, 3, 1, "one "), 3));
+        // The same part again, e.g. read again from storage
+        assertNull(assembler.add(part(7, 3, 1, "one "), 3));
+        assertEquals(1, assembler.getPendingCount());
+
+        GsmIncomingMessage msg = assembler.add(part(7, 3, 2, "two "), 4);
+        assertNotNull(msg);
+        assertEquals("one two three", msg.getText());
+        assertEquals("31641600986", msg.getOriginator());
+        assertTrue(msg.isComplete());
+        assertEquals(3, msg.getPartCount());
+        assertEquals(3, msg.getIndexes().length);
+        assertEquals(0, assembler.getPendingCount());
+    }
+
+    public void testSinglePart() throws Exception
+    {
+        GsmMessageAssembler assembler = new GsmMessageAssembler(60000);
+        GsmIncomingMessage msg = assembler.add(GsmDecoder.decodeDeliver(
+                StringUtil.hexStringToBytes(GsmDecoderTest.deliver(null, "hello"))), 1);
+        assertEquals("hello", msg.getText());
+        assertEquals(1, msg.getIndexes()[0]);
+    }
+
+    public void testExpire() throws Exception
+    {
+        GsmMessageAssembler assembler = new GsmMessageAssembler(0);
+        assertNull(assembler.add(part(9, 2, 2, "tail"), 8));
+
+        List<GsmIncomingMessage> expired = assembler.expire();
+        assertEquals(1, expired.size());
+        assertEquals("tail", expired.get(0).getText());
+        assertFalse(expired.get(0).isComplete());
+        assertEquals(0, assembler.getPendingCount());
+    }
+}
@@ -0,0 +1,192 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is "SMS Library for the Java platform".
+ *
+ * The Initial Developer of the Original Code is Markus Eriksson.
+ * Portions created by the Initial Developer are Copyright (C) 2002
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.marre.sms.transport.gsm;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+
+import junit.framework.TestCase;
+
+import org.marre.sms.SmsAddress;
+import org.marre.sms.SmsException;
+import org.marre.sms.SmsTextMessage;
+import org.marre.sms.transport.SmsAsyncUtil;
+import org.marre.sms.transport.SmsSendResult;
+
+public class GsmPoolTransportTest extends TestCase
+{
+    private final List<MockModemComm> modems_ = new ArrayList<MockModemComm>();
+    private GsmPoolTransport transport_;
+    private SmsAddress dest_;
+
+    protected void setUp() throws Exception
+    {
+        dest_ = new SmsAddress("46701234567");
+    }
+
+    protected void tearDown() throws Exception
+    {
+        if (transport_ != null)
+        {
+            transport_.disconnect();
+        }
+    }
+
+    private void connect(int nModems, long sendDelay) throws Exception
+    {
+        List<GsmTransport> transports = new ArrayList<GsmTransport>();
+        for (int i = 0; i < nModems; i++)
+        {
+            MockModemComm modem = new MockModemComm(sendDelay);
+            modems_.add(modem);
+            transports.add(new GsmTransport(modem, "modem" + i));
+        }
+
+        Properties props = new Properties();
+        props.setProperty("sms.gsm.pool.quarantine.errors", "3");
+        props.setProperty("sms.gsm.pool.quarantine.time", "200");
+        transport_ = new GsmPoolTransport(transports);
+        transport_.init(props);
+        transport_.connect();
+    }
+
+    public void testModemsSendInParallel() throws Exception
+    {
+        connect(4, 20);
+
+        long start = System.currentTimeMillis();
+        List<CompletableFuture<SmsSendResult>> results = new ArrayList<CompletableFuture<SmsSendResult>>();
+        for (int i = 0; i < 40; i++)
+        {
+            results.add(transport_.sendAsync(new SmsTextMessage("Hello " + i), dest_, null));
+        }
+        for (CompletableFuture<SmsSendResult> result : results)
+        {
+            assertNotNull(SmsAsyncUtil.get(result).getMessageId());
+        }
+        long elapsed = System.currentTimeMillis() - start;
+
+        // Dispatched on queue depth, so the modems share the load evenly
+        for (MockModemComm modem : modems_)
+        {
+            assertTrue("Sent " + modem.getMessageCount(), modem.getMessageCount() >= 8);
+        }
+        // One modem would need 40 * 20 ms
+        assertTrue("Took " + elapsed + " ms", elapsed < 600);
+    }
+
+    public void testFailingModemIsQuarantined() throws Exception
+    {
+        connect(2, 0);
+        modems_.get(0).setCmsError("500");
+
+        int nFailed = 0;
+        for (int i = 0; i < 20; i++)
+        {
+            try
+            {
+                transport_.send(new SmsTextMessage("Hello " + i), dest_, null);
+            }
+            catch (SmsException ex)
+            {
+                nFailed++;
+            }
+        }
+
+        assertEquals(3, nFailed);
+        assertEquals(17, modems_.get(1).getMessageCount());
+        assertTrue(transport_.isQuarantined(0));
+
+        // Repaired, it is probed and put back when the quarantine is over
+        modems_.get(0).setCmsError(null);
+        long timeout = System.currentTimeMillis() + 5000;
+        while (transport_.isQuarantined(0) && System.currentTimeMillis() < timeout)
+        {
+            Thread.sleep(10);
+        }
+        assertFalse(transport_.isQuarantined(0));
+
+        for (int i = 0; i < 10; i++)
+        {
+            transport_.send(new SmsTextMessage("Hello " + i), dest_, null);
+        }
+        assertTrue(modems_.get(0).getMessageCount() > 0);
+    }
+
+    public void testDeadPortIsReopened() throws Exception
+    {
+        connect(2, 0);
+        modems_.get(0).breakPort();
+        transport_.ping();
+        assertTrue(transport_.isQuarantined(0));
+
+        // The failed probe closes the port, the next one opens it again
+        long timeout = System.currentTimeMillis() + 5000;
+        while ((modems_.get(0).isBroken() || transport_.isQuarantined(0)) && System.currentTimeMillis() < timeout)
+        {
+            Thread.sleep(10);
+        }
+        assertFalse(modems_.get(0).isBroken());
+        assertFalse(transport_.isQuarantined(0));
+
+        // Back in rotation once the reconnect is done
+        while (modems_.get(0).getMessageCount() == 0 && System.currentTimeMillis() < timeout)
+        {
+            transport_.send(new SmsTextMessage("Hello"), dest_, null);
+        }
+        assertTrue(modems_.get(0).getMessageCount() > 0);
+    }
+
+    public void testMessageErrorsDoNotQuarantine() throws Exception
+    {
+        connect(1, 0);
+
+        for (int i = 0; i < 5; i++)
+        {
+            try
+            {
+                transport_.send(new SmsTextMessage("Hello"), new SmsAddress("Alpha"), null);
+                fail("Expected SmsException");
+            }
+            catch (SmsException ex)
+            {
+                // Rejected before it reached the modem
+            }
+        }
+        assertFalse(transport_.isQuarantined(0));
+    }
+}
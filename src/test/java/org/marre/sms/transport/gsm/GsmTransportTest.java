@@ -0,0 +1,251 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is "SMS Library for the Java platform".
+ *
+ * The Initial Developer of the Original Code is Markus Eriksson.
+ * Portions created by the Initial Developer are Copyright (C) 2002
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.marre.sms.transport.gsm;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.marre.sms.SmsAddress;
+import org.marre.sms.SmsTextMessage;
+import org.marre.sms.transport.SmsAsyncUtil;
+import org.marre.sms.transport.SmsSendResult;
+
+public class GsmTransportTest extends TestCase
+{
+    private final List<GsmIncomingMessage> messages_ = new ArrayList<GsmIncomingMessage>();
+    private final List<GsmStatusReport> reports_ = new ArrayList<GsmStatusReport>();
+    private MockModemComm modem_;
+    private GsmTransport transport_;
+    private boolean fail_;
+
+    protected void setUp() throws Exception
+    {
+        // Slow enough for sendAsync() to queue up messages
+        modem_ = new MockModemComm(20);
+        transport_ = new GsmTransport(modem_, "test");
+        transport_.setMessageListener(new GsmMessageListener() {
+            public void messageReceived(GsmIncomingMessage msg)
+            {
+                if (fail_ || msg.getText().equals("fail"))
+                {
+                    throw new IllegalStateException("Listener failed");
+                }
+                messages_.add(msg);
+            }
+
+            public void statusReportReceived(GsmStatusReport report)
+            {
+                reports_.add(report);
+            }
+        });
+        transport_.connect();
+    }
+
+    protected void tearDown() throws Exception
+    {
+        transport_.disconnect();
+    }
+
+    private static String longText()
+    {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 20; i++)
+        {
+            text.append("0123456789");
+        }
+        return text.toString();
+    }
+
+    private List<String> getCmmsCommands()
+    {
+        List<String> cmms = new ArrayList<String>();
+        for (String command : modem_.getCommands())
+        {
+            if (command.startsWith("AT+CMMS") || command.startsWith("AT+CMGS"))
+            {
+                cmms.add(command.startsWith("AT+CMGS") ? "AT+CMGS" : command);
+            }
+        }
+        return cmms;
+    }
+
+    public void testCmmsAroundMultipartMessage() throws Exception
+    {
+        transport_.setMoreMessagesToSend(true);
+        SmsAddress dest = new SmsAddress("46701234567");
+
+        transport_.send(new SmsTextMessage("short"), dest, null);
+        transport_.send(new SmsTextMessage(longText()), dest, null);
+
+        List<String> expected = new ArrayList<String>();
+        expected.add("AT+CMGS");
+        expected.add("AT+CMMS=2");
+        expected.add("AT+CMGS");
+        expected.add("AT+CMGS");
+        expected.add("AT+CMMS=0");
+        assertEquals(expected, getCmmsCommands());
+    }
+
+    public void testCmmsAroundQueuedMessages() throws Exception
+    {
+        transport_.setMoreMessagesToSend(true);
+        SmsAddress dest = new SmsAddress("46701234567");
+
+        List<CompletableFuture<SmsSendResult>> results = new ArrayList<CompletableFuture<SmsSendResult>>();
+        CompletableFuture<SmsSendResult> first = transport_.sendAsync(new SmsTextMessage(longText()), dest, null);
+        for (int i = 0; i < 3; i++)
+        {
+            results.add(transport_.sendAsync(new SmsTextMessage("msg " + i), dest, null));
+        }
+        SmsAsyncUtil.get(first);
+        for (CompletableFuture<SmsSendResult> result : results)
+        {
+            SmsAsyncUtil.get(result);
+        }
+
+        List<String> commands = getCmmsCommands();
+        assertEquals("AT+CMMS=2", commands.get(0));
+        assertEquals("AT+CMMS=0", commands.get(commands.size() - 1));
+        assertEquals(7, commands.size());
+    }
+
+    public void testCmmsNotSupported() throws Exception
+    {
+        modem_.setUnsupported("AT+CMMS");
+        transport_.setMoreMessagesToSend(true);
+        SmsAddress dest = new SmsAddress("46701234567");
+
+        transport_.send(new SmsTextMessage(longText()), dest, null);
+        transport_.send(new SmsTextMessage(longText()), dest, null);
+
+        // Only tried once
+        assertEquals(5, getCmmsCommands().size());
+    }
+
+    private static String part(int seq, String text)
+    {
+        return GsmDecoderTest.deliver("0500030E02" + GsmDecoderTest.hex(seq), text);
+    }
+
+    public void testReceiveDeletesInOneBatch() throws Exception
+    {
+        modem_.store(GsmDecoderTest.deliver(null, "hello"));
+        modem_.store(GsmDecoderTest.SMSC + "06" + "2A" + GsmDecoderTest.OA
+                + GsmDecoderTest.SCTS + GsmDecoderTest.SCTS + "00");
+
+        assertEquals(2, transport_.receive());
+        assertEquals("hello", messages_.get(0).getText());
+        assertEquals(42, reports_.get(0).getMessageReference());
+        assertEquals(0, modem_.getStoredCount());
+        assertTrue(modem_.getCommands().contains("AT+CMGD=1,1"));
+    }
+
+    public void testPartsStayUntilComplete() throws Exception
+    {
+        modem_.store(part(2, " world"));
+        assertEquals(0, transport_.receive());
+        assertEquals(1, modem_.getStoredCount());
+
+        modem_.store(part(1, "hello"));
+        assertEquals(1, transport_.receive());
+        assertEquals("hello world", messages_.get(0).getText());
+        assertEquals(0, modem_.getStoredCount());
+    }
+
+    public void testListenerFailureKeepsMessage() throws Exception
+    {
+        modem_.store(GsmDecoderTest.deliver(null, "hello"));
+        fail_ = true;
+        assertEquals(0, transport_.receive());
+        assertEquals(1, modem_.getStoredCount());
+
+        fail_ = false;
+        assertEquals(1, transport_.receive());
+        assertEquals(0, modem_.getStoredCount());
+    }
+
+    public void testUndecodableMessageIsDeleted() throws Exception
+    {
+        modem_.store("00FF");
+        modem_.store(GsmDecoderTest.deliver(null, "ok"));
+        assertEquals(1, transport_.receive());
+        assertEquals(0, modem_.getStoredCount());
+    }
+
+    public void testPartialDeleteKeepsFailedMessage() throws Exception
+    {
+        transport_.disconnect();
+        modem_.setBlocking(true);
+        UrcComm urcComm = new UrcComm(modem_, "test", false, 5000);
+        transport_ = new GsmTransport(urcComm, "test");
+        transport_.setMessageListener(new GsmMessageListener() {
+            public void messageReceived(GsmIncomingMessage msg)
+            {
+                if (msg.getText().equals("fail"))
+                {
+                    throw new IllegalStateException("Listener failed");
+                }
+                messages_.add(msg);
+            }
+
+            public void statusReportReceived(GsmStatusReport report)
+            {
+                reports_.add(report);
+            }
+        });
+        transport_.connect();
+
+        // The first part is routed directly, it has no storage index
+        final CountDownLatch routed = new CountDownLatch(1);
+        urcComm.addUrcListener((urc, pdu) -> routed.countDown());
+        modem_.receive("+CMT: ,24", part(1, "hello"));
+        assertTrue(routed.await(5, TimeUnit.SECONDS));
+
+        modem_.store(part(2, " world"));
+        int failed = modem_.store(GsmDecoderTest.deliver(null, "fail"));
+        assertEquals(1, transport_.receive());
+        assertEquals("hello world", messages_.get(0).getText());
+
+        // Only the handled part is deleted, not every read message
+        assertEquals(1, modem_.getStoredCount());
+        assertFalse(modem_.getCommands().contains("AT+CMGD=-1,1"));
+        assertFalse(modem_.getCommands().contains("AT+CMGD=" + failed));
+    }
+}
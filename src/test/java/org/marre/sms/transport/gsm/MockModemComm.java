@@ -0,0 +1,272 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is "SMS Library for the Java platform".
+ *
+ * The Initial Developer of the Original Code is Markus Eriksson.
+ * Portions created by the Initial Developer are Copyright (C) 2002
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.marre.sms.transport.gsm;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A GsmComm that answers AT commands like a modem.
+ * <p>
+ * Each AT+CMGS takes sendDelay ms, like the radio round trip of a real
+ * modem, and fails with "+CMS ERROR" while cmsError is set.
+ * <p>
+ * Received messages are stored with store() and handled by AT+CMGL and
+ * AT+CMGD.
+ */
+public class MockModemComm implements GsmComm
+{
+    private final LinkedList<String> lines_ = new LinkedList<String>();
+    private final long sendDelay_;
+    private volatile String cmsError_;
+    private int nMessages_;
+
+    /** Stored pdus and their stat, by index. */
+    private final Map<Integer, String> stored_ = new TreeMap<Integer, String>();
+    private final Map<Integer, Integer> stat_ = new TreeMap<Integer, Integer>();
+    private int nextIndex_ = 1;
+    private final List<String> commands_ = new ArrayList<String>();
+    private String unsupported_;
+    private boolean blocking_;
+    private boolean closed_;
+    private boolean broken_;
+
+    public MockModemComm(long sendDelay)
+    {
+        sendDelay_ = sendDelay;
+    }
+
+    public void setCmsError(String cmsError)
+    {
+        cmsError_ = cmsError;
+    }
+
+    public synchronized int getMessageCount()
+    {
+        return nMessages_;
+    }
+
+    /**
+     * Stores a received, unread, message.
+     * 
+     * @return The index
+     */
+    public synchronized int store(String pdu)
+    {
+        int index = nextIndex_++;
+        stored_.put(index, pdu);
+        stat_.put(index, 0);
+        return index;
+    }
+
+    /**
+     * Answers ERROR to the commands that start with the prefix.
+     */
+    public synchronized void setUnsupported(String prefix)
+    {
+        unsupported_ = prefix;
+    }
+
+    /**
+     * Makes readLine() wait for a line instead of failing, as the reader
+     * thread of a UrcComm expects.
+     */
+    public synchronized void setBlocking(boolean blocking)
+    {
+        blocking_ = blocking;
+    }
+
+    /**
+     * Sends unsolicited lines, e.g. a +CMT and its pdu.
+     */
+    public synchronized void receive(String... lines)
+    {
+        lines_.addAll(Arrays.asList(lines));
+        notifyAll();
+    }
+
+    /**
+     * Fails every command with an IOException until the device is reopened.
+     */
+    public synchronized void breakPort()
+    {
+        broken_ = true;
+    }
+
+    public synchronized boolean isBroken()
+    {
+        return broken_;
+    }
+
+    public synchronized int getStoredCount()
+    {
+        return stored_.size();
+    }
+
+    /**
+     * Returns the AT commands that were sent, without "\r".
+     */
+    public synchronized List<String> getCommands()
+    {
+        return new ArrayList<String>(commands_);
+    }
+
+    public synchronized void open()
+    {
+        closed_ = false;
+        broken_ = false;
+    }
+
+    public synchronized void close()
+    {
+        closed_ = true;
+        notifyAll();
+    }
+
+    public synchronized void send(String data) throws IOException
+    {
+        if (broken_)
+        {
+            throw new IOException("Port broken");
+        }
+        if (data.startsWith("AT"))
+        {
+            commands_.add(data.trim());
+        }
+
+        if (unsupported_ != null && data.startsWith(unsupported_))
+        {
+            lines_.add("ERROR");
+        }
+        else if (data.startsWith("AT+CMGL="))
+        {
+            for (Map.Entry<Integer, String> entry : stored_.entrySet())
+            {
+                int index = entry.getKey();
+                lines_.add("+CMGL: " + index + "," + stat_.get(index) + ",," + (entry.getValue().length() / 2));
+                lines_.add(entry.getValue());
+                if (stat_.get(index) == 0)
+                {
+                    stat_.put(index, 1);
+                }
+            }
+            lines_.add("");
+            lines_.add("OK");
+        }
+        else if (data.startsWith("AT+CMGD="))
+        {
+            String[] params = data.substring(8).trim().split(",");
+            if (params.length > 1 && params[1].equals("1"))
+            {
+                for (Iterator<Integer> i = stored_.keySet().iterator(); i.hasNext();)
+                {
+                    if (stat_.get(i.next()) == 1)
+                    {
+                        i.remove();
+                    }
+                }
+            }
+            else
+            {
+                stored_.remove(Integer.valueOf(params[0]));
+            }
+            lines_.add("OK");
+        }
+        else if (data.startsWith("AT+CMGS="))
+        {
+            lines_.add("> ");
+        }
+        else if (data.endsWith("\032"))
+        {
+            try
+            {
+                Thread.sleep(sendDelay_);
+            }
+            catch (InterruptedException ex)
+            {
+                throw new IOException("Interrupted");
+            }
+
+            String cmsError = cmsError_;
+            if (cmsError != null)
+            {
+                lines_.add("+CMS ERROR: " + cmsError);
+            }
+            else
+            {
+                nMessages_++;
+                lines_.add("+CMGS: " + nMessages_);
+                lines_.add("");
+                lines_.add("OK");
+            }
+        }
+        else if (data.startsWith("AT"))
+        {
+            lines_.add("OK");
+        }
+        notifyAll();
+    }
+
+    public synchronized String readLine() throws IOException
+    {
+        while (blocking_ && lines_.isEmpty() && !closed_)
+        {
+            try
+            {
+                wait();
+            }
+            catch (InterruptedException ex)
+            {
+                throw new IOException("Interrupted");
+            }
+        }
+        if (lines_.isEmpty())
+        {
+            throw new IOException(closed_ ? "Closed" : "Timeout");
+        }
+        return lines_.removeFirst();
+    }
+
+    public String readLine(String find) throws IOException
+    {
+        return readLine();
+    }
+}
@@ -0,0 +1,199 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is "SMS Library for the Java platform".
+ *
+ * The Initial Developer of the Original Code is Markus Eriksson.
+ * Portions created by the Initial Developer are Copyright (C) 2002
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.marre.sms.transport.gsm;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.marre.sms.transport.gsm.commands.PduSendMessageReq;
+import org.marre.sms.transport.gsm.commands.PduSendMessageRsp;
+import org.marre.sms.transport.gsm.commands.PingReq;
+
+public class UrcCommTest extends TestCase
+{
+    /**
+     * A device that echoes the commands and sends a URC in the middle of
+     * every response, like a modem that receives a message while sending.
+     */
+    private static class DeviceComm implements GsmComm
+    {
+        private final BlockingQueue<String> lines_ = new LinkedBlockingQueue<String>();
+        private volatile boolean open_;
+
+        void receive(String line)
+        {
+            lines_.add(line);
+        }
+
+        public void open()
+        {
+            open_ = true;
+        }
+
+        public void close()
+        {
+            open_ = false;
+        }
+
+        public void send(String data)
+        {
+            receive(data.trim());
+            receive("");
+            if (data.startsWith("AT+CMGS="))
+            {
+                receive("> ");
+            }
+            else if (data.endsWith("\032"))
+            {
+                receive("+CMTI: \"SM\",3");
+                receive("+CMGS: 17");
+                receive("+CDS: 25");
+                receive("0791641000000000000000");
+                receive("");
+                receive("OK");
+            }
+            else if (data.startsWith("AT+CREG?"))
+            {
+                receive("+CREG: 0,1");
+                receive("OK");
+            }
+            else
+            {
+                receive("RING");
+                receive("OK");
+            }
+        }
+
+        public String readLine() throws IOException
+        {
+            while (open_)
+            {
+                try
+                {
+                    String line = lines_.poll(50, TimeUnit.MILLISECONDS);
+                    if (line != null)
+                    {
+                        return line;
+                    }
+                }
+                catch (InterruptedException ex)
+                {
+                    throw new IOException("Interrupted");
+                }
+            }
+            throw new IOException("Closed");
+        }
+
+        public String readLine(String find) throws IOException
+        {
+            return readLine();
+        }
+    }
+
+    private final List<String> urcs_ = Collections.synchronizedList(new ArrayList<String>());
+    private CountDownLatch latch_;
+    private UrcComm comm_;
+
+    protected void setUp() throws Exception
+    {
+        comm_ = new UrcComm(new DeviceComm(), "test", true, 2000);
+        comm_.addUrcListener(new GsmUrcListener() {
+            public void urcReceived(String urc, String pdu)
+            {
+                urcs_.add((pdu == null) ? urc : urc + " " + pdu);
+                latch_.countDown();
+            }
+        });
+        comm_.open();
+    }
+
+    protected void tearDown() throws Exception
+    {
+        comm_.close();
+    }
+
+    public void testUrcDuringSend() throws Exception
+    {
+        latch_ = new CountDownLatch(2);
+        PduSendMessageReq req = new PduSendMessageReq(new byte[] { 0x01, 0x02 });
+        PduSendMessageRsp rsp = req.send(comm_);
+
+        assertEquals(17, rsp.getMessageReference());
+        assertTrue(latch_.await(2, TimeUnit.SECONDS));
+        assertEquals("+CMTI: \"SM\",3", urcs_.get(0));
+        assertEquals("+CDS: 25 0791641000000000000000", urcs_.get(1));
+    }
+
+    public void testSolicitedResponse() throws Exception
+    {
+        latch_ = new CountDownLatch(1);
+        comm_.send("AT+CREG?\r");
+        assertEquals("+CREG: 0,1", comm_.readLine());
+        assertEquals("OK", comm_.readLine());
+
+        new PingReq().send(comm_);
+        assertTrue(latch_.await(2, TimeUnit.SECONDS));
+        assertEquals(Collections.singletonList("RING"), urcs_);
+    }
+
+    public void testReadTimeout() throws Exception
+    {
+        try
+        {
+            comm_.readLine();
+            fail("Expected IOException");
+        }
+        catch (IOException ex)
+        {
+            // Expected
+        }
+    }
+
+    public void testCommandName()
+    {
+        assertEquals("+CMGS", UrcComm.getCommandName("AT+CMGS=23\r"));
+        assertEquals("+CREG", UrcComm.getCommandName("at+creg?\r"));
+        assertNull(UrcComm.getCommandName("AT\r"));
+        assertNull(UrcComm.getCommandName("0011000B\032"));
+    }
+}
@@ -52,6 +52,15 @@ public class PduSendMessageReqTest extends TestCase
         
         PduSendMessageReq req = new PduSendMessageReq(StringUtil.hexStringToBytes("41000C919333289868390000A0050003B5020140201008040281623010080402814020190C040281402010680603814020100804A2C1402010080402816A30100804028140201B0C040281402010E80603814020100804C2C140201008040281723010080402814031180C0402814020502C060381402010081493C1402010080402C56630100804028140311A0C040281402050AC06038140"));
         
-        req.send(comm);
+        PduSendMessageRsp rsp = req.send(comm);
+        assertEquals(97, rsp.getMessageReference());
+    }
+
+    public void testParseCMGS()
+    {
+        assertEquals(5, PduSendMessageRsp.parse("+CMGS: 5").getMessageReference());
+        assertEquals(200, PduSendMessageRsp.parse("+CMGS: 200,\"07/01/01,12:00:00+04\"").getMessageReference());
+        assertEquals(-1, PduSendMessageRsp.parse("+CMGS:").getMessageReference());
+        assertEquals(-1, PduSendMessageRsp.parse("+CMGS: 300").getMessageReference());
     }
 }
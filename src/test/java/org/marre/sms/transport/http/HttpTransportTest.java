@@ -0,0 +1,274 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is "SMS Library for the Java platform".
+ *
+ * The Initial Developer of the Original Code is Markus Eriksson.
+ * Portions created by the Initial Developer are Copyright (C) 2002
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.marre.sms.transport.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+import junit.framework.TestCase;
+
+import org.marre.sms.SmsAddress;
+import org.marre.sms.SmsAlphabet;
+import org.marre.sms.SmsException;
+import org.marre.sms.SmsMsgClass;
+import org.marre.sms.SmsTextMessage;
+import org.marre.sms.transport.DefaultSmsRetryPolicy;
+import org.marre.sms.transport.SmsAsyncUtil;
+import org.marre.sms.transport.SmsNotSentException;
+import org.marre.sms.transport.SmsQuotaException;
+import org.marre.sms.transport.SmsSendResult;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class HttpTransportTest extends TestCase
+{
+    private HttpServer server_;
+    private HttpTransport transport_;
+    private final List<String> requests_ = Collections.synchronizedList(new ArrayList<String>());
+    private volatile int status_ = 200;
+    private volatile String response_;
+
+    protected void setUp() throws Exception
+    {
+        server_ = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server_.createContext("/", new HttpHandler()
+        {
+            public void handle(HttpExchange exchange) throws IOException
+            {
+                InputStream in = exchange.getRequestBody();
+                ByteArrayOutputStream body = new ByteArrayOutputStream();
+                int c;
+                while ((c = in.read()) >= 0)
+                {
+                    body.write(c);
+                }
+
+                String request = exchange.getRequestMethod() + " " + exchange.getRequestURI() + " "
+                        + exchange.getRequestHeaders().getFirst("Authorization") + " " + body.toString("UTF-8");
+                requests_.add(request);
+
+                String response = (response_ != null) ? response_ : "{\"id\": \"msg" + requests_.size() + "\"}";
+                byte[] data = response.getBytes("UTF-8");
+                exchange.sendResponseHeaders(status_, data.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(data);
+                out.close();
+            }
+        });
+        server_.start();
+    }
+
+    protected void tearDown() throws Exception
+    {
+        if (transport_ != null)
+        {
+            transport_.disconnect();
+        }
+        server_.stop(0);
+    }
+
+    private String getBaseUrl()
+    {
+        return "http://127.0.0.1:" + server_.getAddress().getPort();
+    }
+
+    private void connect(Properties props) throws Exception
+    {
+        transport_ = createTransport();
+        transport_.init(props);
+        transport_.connect();
+    }
+
+    protected HttpTransport createTransport()
+    {
+        return new HttpTransport();
+    }
+
+    private Properties createJsonProperties()
+    {
+        Properties props = new Properties();
+        props.setProperty("smsj.http.url", getBaseUrl() + "/v1/messages");
+        props.setProperty("smsj.http.content.type", "application/json");
+        props.setProperty("smsj.http.body", "{\"to\":\"${to}\",\"from\":\"${from}\",\"text\":\"${text}\",\"udh\":\"${udh}\"}");
+        props.setProperty("smsj.http.header.Authorization", "Bearer ${token}");
+        props.setProperty("smsj.http.param.token", "secret");
+        props.setProperty("smsj.http.id.pattern", "\"id\"\\s*:\\s*\"([^\"]+)\"");
+        return props;
+    }
+
+    public void testJson() throws Exception
+    {
+        connect(createJsonProperties());
+
+        String msgId = transport_.send(new SmsTextMessage("Say \"hi\""), new SmsAddress("46701234567"), new SmsAddress("46707654321"));
+
+        assertEquals("msg1", msgId);
+        assertEquals("POST /v1/messages Bearer secret {\"to\":\"46701234567\",\"from\":\"46707654321\",\"text\":\"Say \\\"hi\\\"\",\"udh\":\"\"}",
+                requests_.get(0));
+    }
+
+    public void testConcatUsesUdh() throws Exception
+    {
+        connect(createJsonProperties());
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 200; i++)
+        {
+            text.append((char) ('a' + i % 26));
+        }
+
+        SmsSendResult result = SmsAsyncUtil.get(transport_.sendAsync(
+                new SmsTextMessage(text.toString(), SmsAlphabet.UCS2, SmsMsgClass.CLASS_UNKNOWN),
+                new SmsAddress("46701234567"), null));
+
+        assertEquals(3, requests_.size());
+        assertEquals(3, result.getPduResults().size());
+        for (String request : requests_)
+        {
+            // UDH length 5, concatenation IEI 0 with 3 octets of data
+            assertTrue(request, request.indexOf("\"udh\":\"050003") >= 0);
+        }
+    }
+
+    public void testFormGet() throws Exception
+    {
+        Properties props = new Properties();
+        props.setProperty("smsj.http.method", "GET");
+        props.setProperty("smsj.http.url", getBaseUrl() + "/send?user=${user}&to=${to}&text=${text}&dcs=${dcs}");
+        props.setProperty("smsj.http.param.user", "me@example.com");
+        props.setProperty("smsj.http.id.pattern", "^OK (\\S+)");
+        props.setProperty("smsj.http.error.pattern", "^ERR");
+        connect(props);
+
+        response_ = "OK 42";
+        assertEquals("42", transport_.send(new SmsTextMessage("1+1 = 2"), new SmsAddress("46701234567"), null));
+        assertEquals("GET /send?user=me%40example.com&to=46701234567&text=1%2B1+%3D+2&dcs=0 null ", requests_.get(0));
+
+        response_ = "ERR invalid destination";
+        try
+        {
+            transport_.send(new SmsTextMessage("Hello"), new SmsAddress("46701234567"), null);
+            fail("Expected SmsException");
+        }
+        catch (SmsException ex)
+        {
+            assertTrue(ex.getMessage(), ex.getMessage().indexOf("invalid destination") >= 0);
+        }
+    }
+
+    public void testHttpStatus() throws Exception
+    {
+        connect(createJsonProperties());
+
+        status_ = 503;
+        try
+        {
+            transport_.send(new SmsTextMessage("Hello"), new SmsAddress("46701234567"), null);
+            fail("Expected SmsNotSentException");
+        }
+        catch (SmsNotSentException ex)
+        {
+            assertTrue(ex.getMessage(), ex.getMessage().indexOf("503") >= 0);
+            assertTrue(new DefaultSmsRetryPolicy().isRetryable(ex));
+        }
+
+        // The gateway may have sent the message, don't retry
+        status_ = 500;
+        try
+        {
+            transport_.send(new SmsTextMessage("Hello"), new SmsAddress("46701234567"), null);
+            fail("Expected IOException");
+        }
+        catch (IOException ex)
+        {
+            assertFalse(new DefaultSmsRetryPolicy().isRetryable(ex));
+        }
+
+        status_ = 400;
+        try
+        {
+            transport_.send(new SmsTextMessage("Hello"), new SmsAddress("46701234567"), null);
+            fail("Expected SmsException");
+        }
+        catch (SmsException ex)
+        {
+            assertTrue(ex.getMessage(), ex.getMessage().indexOf("400") >= 0);
+        }
+    }
+
+    public void testQuota() throws Exception
+    {
+        Properties props = createJsonProperties();
+        props.setProperty("smsj.http.quota.pattern", "insufficient_funds");
+        props.setProperty("smsj.http.balance.url", getBaseUrl() + "/v1/balance");
+        props.setProperty("smsj.http.balance.pattern", "\"balance\"\\s*:\\s*([0-9.]+)");
+        connect(props);
+
+        response_ = "{\"balance\": 17.25}";
+        assertEquals(17.25, transport_.queryBalance(), 0.0);
+        assertEquals("GET /v1/balance Bearer secret ", requests_.get(0));
+
+        response_ = "{\"error\": \"insufficient_funds\"}";
+        try
+        {
+            transport_.send(new SmsTextMessage("Hello"), new SmsAddress("46701234567"), null);
+            fail("Expected SmsQuotaException");
+        }
+        catch (SmsQuotaException ex)
+        {
+            // Matched the quota pattern
+        }
+
+        response_ = null;
+        status_ = 402;
+        try
+        {
+            transport_.send(new SmsTextMessage("Hello"), new SmsAddress("46701234567"), null);
+            fail("Expected SmsQuotaException");
+        }
+        catch (SmsQuotaException ex)
+        {
+            assertTrue(ex.getMessage(), ex.getMessage().indexOf("402") >= 0);
+        }
+    }
+}
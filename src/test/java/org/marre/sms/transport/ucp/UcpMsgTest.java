@@ -0,0 +1,135 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is "SMS Library for the Java platform".
+ *
+ * The Initial Developer of the Original Code is Markus Eriksson.
+ * Portions created by the Initial Developer are Copyright (C) 2002
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.marre.sms.transport.ucp;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+public class UcpMsgTest extends TestCase
+{
+    private UcpSeries50 createSubmit()
+    {
+        UcpSeries50 submit = new UcpSeries50(UcpSeries50.OP_SUBMIT_SHORT_MESSAGE);
+        submit.setField(UcpSeries50.FIELD_ADC, "0612345678");
+        submit.setField(UcpSeries50.FIELD_OADC, "0687654321");
+        submit.setField(UcpSeries50.FIELD_MT, "3");
+        submit.setField(UcpSeries50.FIELD_MSG, "48656C6C6F");
+        return submit;
+    }
+
+    public void testBuildCommand()
+    {
+        UcpSeries50 submit = createSubmit();
+        submit.setTRN(1);
+        assertEquals("01/00080/O/51/0612345678/0687654321/////////////////3//48656C6C6F/////////////65",
+                submit.buildCommand());
+    }
+
+    public void testSetTRN()
+    {
+        UcpSeries50 submit = createSubmit();
+        submit.setTRN(1);
+        byte[] frame = submit.getCommand();
+
+        for (int trn = 0; trn < 100; trn += 7)
+        {
+            submit.setTRN(trn);
+            assertTrue(Arrays.equals(submit.getCommand(), UcpMsg.setTRN(frame, trn)));
+        }
+    }
+
+    public void testParse()
+    {
+        UcpSeries50 submit = createSubmit();
+        submit.setTRN(42);
+        UcpSeries50 parsed = UcpSeries50.parse(submit.buildCommand());
+
+        assertEquals(42, parsed.getTRN());
+        assertEquals('O', parsed.getOR());
+        assertEquals(UcpSeries50.OP_SUBMIT_SHORT_MESSAGE, parsed.getOT());
+        assertEquals("0612345678", parsed.getField(UcpSeries50.FIELD_ADC));
+        assertNull(parsed.getField(UcpSeries50.FIELD_SCTS));
+        assertEquals("Hello", parsed.getMessageText());
+        assertEquals(submit.buildCommand(), parsed.buildCommand());
+    }
+
+    public void testEncode()
+    {
+        UcpSeries50 submit = createSubmit();
+        submit.setTRN(1);
+        byte[] expected = ("\u000201/00080/O/51/0612345678/0687654321/////////////////3//48656C6C6F/////////////65\u0003")
+                .getBytes();
+        assertEquals(expected.length, submit.getEncodedLength());
+
+        ByteBuffer buffer = ByteBuffer.allocate(200);
+        buffer.put((byte) 'x');
+        assertEquals(expected.length, submit.encode(buffer));
+        assertEquals(1 + expected.length, buffer.position());
+        byte[] frame = new byte[expected.length];
+        System.arraycopy(buffer.array(), 1, frame, 0, frame.length);
+        assertTrue(Arrays.equals(expected, frame));
+
+        ByteBuffer small = ByteBuffer.allocate(expected.length - 1);
+        try
+        {
+            submit.encode(small);
+            fail("Expected BufferOverflowException");
+        }
+        catch (BufferOverflowException ex)
+        {
+            assertEquals(0, small.position());
+        }
+    }
+
+    public void testHexFields()
+    {
+        UcpSeries50 submit = createSubmit();
+        submit.setHexField(UcpSeries50.FIELD_MSG, new byte[] { 0x48, 0x65, 0x6c, 0x6c, 0x6f });
+        submit.setTRN(1);
+        assertEquals("01/00080/O/51/0612345678/0687654321/////////////////3//48656C6C6F/////////////65",
+                submit.buildCommand());
+        assertEquals("48656C6C6F", submit.getField(UcpSeries50.FIELD_MSG));
+
+        submit.addXSer(UcpSeries50.XSER_TYPE_DCS, (byte) 0x08);
+        submit.addXSer(UcpSeries50.XSER_TYPE_UDH, new byte[] { 0x05, 0x00, 0x03, (byte) 0xff, 0x02, 0x01 });
+        assertEquals("0201080106050003FF0201", submit.getField(UcpSeries50.FIELD_XSER));
+
+        submit.clearXSer();
+        assertNull(submit.getField(UcpSeries50.FIELD_XSER));
+    }
+}
@@ -0,0 +1,117 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is "SMS Library for the Java platform".
+ *
+ * The Initial Developer of the Original Code is Markus Eriksson.
+ * Portions created by the Initial Developer are Copyright (C) 2002
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.marre.sms.transport.ucp;
+
+import java.util.Calendar;
+
+import junit.framework.TestCase;
+
+import org.marre.sms.SmsException;
+
+public class UcpResponseTest extends TestCase
+{
+    public void testSubmitAck() throws Exception
+    {
+        UcpResponse response = UcpResponse.parse("07/00043/R/51/A//0612345678:180101120000/32");
+
+        assertEquals(7, response.getTRN());
+        assertEquals(UcpSeries50.OP_SUBMIT_SHORT_MESSAGE, response.getOT());
+        assertTrue(response.isAck());
+        assertNull(response.getErrorCode());
+        assertNull(response.getModifiedValidityPeriod());
+        assertEquals("0612345678:180101120000", response.getMessageId());
+        assertEquals("180101120000", response.getScts());
+
+        Calendar timestamp = Calendar.getInstance();
+        timestamp.setTime(response.getTimestamp());
+        assertEquals(2001, timestamp.get(Calendar.YEAR));
+        assertEquals(Calendar.JANUARY, timestamp.get(Calendar.MONTH));
+        assertEquals(18, timestamp.get(Calendar.DAY_OF_MONTH));
+        assertEquals(12, timestamp.get(Calendar.HOUR_OF_DAY));
+    }
+
+    public void testAckWithValidityPeriod() throws Exception
+    {
+        UcpResponse response = UcpResponse.parse("12/00053/R/51/A/0101121300/0612345678:311299235959/44");
+
+        assertTrue(response.isAck());
+        assertEquals("0101121300", response.getModifiedValidityPeriod());
+        assertEquals("0612345678:311299235959", response.getMessageId());
+    }
+
+    public void testNack() throws Exception
+    {
+        UcpResponse response = UcpResponse.parse("03/00022/R/51/N/04//0A");
+
+        assertEquals(3, response.getTRN());
+        assertFalse(response.isAck());
+        assertEquals("04", response.getErrorCode());
+        assertNull(response.getSystemMessage());
+        assertNull(response.getMessageId());
+    }
+
+    public void testSessionAck() throws Exception
+    {
+        byte[] data = "x00/00019/R/60/A//6Dx".getBytes("US-ASCII");
+        UcpResponse response = UcpResponse.parse(data, 1, data.length - 2);
+
+        assertTrue(response.isAck());
+        assertEquals(UCPSeries60.OP_OPEN_SESSION, response.getOT());
+        assertNull(response.getSystemMessage());
+        assertEquals("00/00019/R/60/A//6D", response.getFrame());
+    }
+
+    public void testInvalidFrames()
+    {
+        assertInvalid("07/00043/R/51/A//0612345678:180101120000/33");
+        assertInvalid("07/00044/R/51/A//0612345678:180101120000/32");
+        assertInvalid("07/00043/O/51/A//0612345678:180101120000/32");
+        assertInvalid("07/00019/R/51/X//12");
+        assertInvalid("07/00010/R/5");
+    }
+
+    private void assertInvalid(String frame)
+    {
+        try
+        {
+            UcpResponse.parse(frame);
+            fail("Expected SmsException for " + frame);
+        }
+        catch (SmsException ex)
+        {
+            // Expected
+        }
+    }
+}
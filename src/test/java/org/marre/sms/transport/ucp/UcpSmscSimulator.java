@@ -0,0 +1,524 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is "SMS Library for the Java platform".
+ *
+ * The Initial Developer of the Original Code is Markus Eriksson.
+ * Portions created by the Initial Developer are Copyright (C) 2002
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.marre.sms.transport.ucp;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.marre.sms.SmsException;
+import org.marre.sms.SmsPduUtil;
+import org.marre.util.StringUtil;
+
+/**
+ * A UCP SMSC stand-in for tests and benchmarks.
+ * <p>
+ * Listens on a free port on the loopback interface and answers:
+ * <ul>
+ * <li>OP 60 with ACK, or NACK 07 if the user id or password don't match</li>
+ * <li>OP 51 with ACK and an AdC:SCTS message id, or with a NACK for a
+ * configurable share of the submits</li>
+ * <li>OP 31 with ACK</li>
+ * <li>everything else with NACK 03</li>
+ * </ul>
+ * Results are sent after a configurable latency, so a client with a larger
+ * window gets more throughput. Operations beyond the simulated SMSC window
+ * are NACKed with EC 04, like an SMSC that enforces its window would. The
+ * simulator can also push OP 52 and OP 53 to the connected clients.
+ * 
+ * @author Markus Eriksson
+ * @version $Id$
+ */
+public class UcpSmscSimulator
+{
+    /** Error code for a failed UCP60 login. */
+    public static final String EC_AUTHENTICATION_FAILURE = "07";
+
+    private final ServerSocket serverSocket_;
+    private final ScheduledExecutorService scheduler_;
+    private final List<Link> links_ = new CopyOnWriteArrayList<Link>();
+    private final Random random_ = new Random();
+
+    private volatile long latency_;
+    private volatile double errorRate_;
+    private volatile String errorCode_ = "01";
+    private volatile int window_ = Integer.MAX_VALUE;
+    private volatile boolean responding_ = true;
+    private volatile boolean recording_ = true;
+    private volatile String uid_;
+    private volatile String password_;
+
+    private final AtomicInteger nLogins_ = new AtomicInteger();
+    private final AtomicInteger nSubmits_ = new AtomicInteger();
+    private final AtomicInteger nAlerts_ = new AtomicInteger();
+    private final AtomicInteger nWindowViolations_ = new AtomicInteger();
+    private final AtomicLong nextScts_ = new AtomicLong(System.currentTimeMillis());
+    private final List<UcpSeries50> submits_ = new CopyOnWriteArrayList<UcpSeries50>();
+
+    /**
+     * Starts a simulator on a free port.
+     * 
+     * @throws IOException If the server socket can't be opened
+     */
+    public UcpSmscSimulator() throws IOException
+    {
+        serverSocket_ = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        scheduler_ = Executors.newScheduledThreadPool(2, r -> {
+            Thread thread = new Thread(r, "ucp-simulator-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        Thread acceptor = new Thread(this::accept, "ucp-simulator-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    public int getPort()
+    {
+        return serverSocket_.getLocalPort();
+    }
+
+    /**
+     * Returns properties that point an UcpTransport to this simulator.
+     */
+    public Properties createProperties()
+    {
+        Properties props = new Properties();
+        props.setProperty("smsj.ucp.ip.host", "127.0.0.1");
+        props.setProperty("smsj.ucp.ip.port", Integer.toString(getPort()));
+        if (uid_ != null)
+        {
+            props.setProperty("smsj.ucp.ucp60.uid", uid_);
+            props.setProperty("smsj.ucp.ucp60.password", password_);
+        }
+        return props;
+    }
+
+    /**
+     * Requires an UCP60 login with the given credentials. Without it, any
+     * login is accepted.
+     */
+    public void setLogin(String uid, String password)
+    {
+        uid_ = uid;
+        password_ = password;
+    }
+
+    /**
+     * @param latency Milliseconds before a result is sent
+     */
+    public void setLatency(long latency)
+    {
+        latency_ = latency;
+    }
+
+    /**
+     * @param errorRate Share of the submits (0.0 - 1.0) that are NACKed
+     * @param errorCode The error code of those NACKs
+     */
+    public void setErrorRate(double errorRate, String errorCode)
+    {
+        errorRate_ = errorRate;
+        errorCode_ = errorCode;
+    }
+
+    /**
+     * @param window Max number of operations per link that may wait for a result
+     */
+    public void setWindow(int window)
+    {
+        window_ = window;
+    }
+
+    /**
+     * @param responding false to silently drop all operations, like a dead peer
+     */
+    public void setResponding(boolean responding)
+    {
+        responding_ = responding;
+    }
+
+    /**
+     * @param recording false to stop keeping the received submits, for long benchmarks
+     */
+    public void setRecording(boolean recording)
+    {
+        recording_ = recording;
+    }
+
+    public int getLoginCount()
+    {
+        return nLogins_.get();
+    }
+
+    public int getSubmitCount()
+    {
+        return nSubmits_.get();
+    }
+
+    public int getAlertCount()
+    {
+        return nAlerts_.get();
+    }
+
+    public int getWindowViolationCount()
+    {
+        return nWindowViolations_.get();
+    }
+
+    public int getLinkCount()
+    {
+        return links_.size();
+    }
+
+    /**
+     * @return The submits received so far
+     */
+    public List<UcpSeries50> getSubmits()
+    {
+        return new ArrayList<UcpSeries50>(submits_);
+    }
+
+    /**
+     * Sends an OP 52 with an alphanumeric message on the first link.
+     * 
+     * @param adc The recipient, normally the short code of the client
+     * @param oadc The mobile that sent the message
+     * @param text The message text
+     * @return The result sent by the client
+     */
+    public CompletableFuture<UcpResponse> deliverShortMessage(String adc, String oadc, String text)
+    {
+        UcpSeries50 deliver = new UcpSeries50(UcpSeries50.OP_DELIVER_SHORT_MESSAGE);
+        deliver.setField(UcpSeries50.FIELD_ADC, adc);
+        deliver.setField(UcpSeries50.FIELD_OADC, oadc);
+        deliver.setField(UcpSeries50.FIELD_SCTS, nextScts());
+        deliver.setField(UcpSeries50.FIELD_MT, "3");
+        deliver.setHexField(UcpSeries50.FIELD_MSG, SmsPduUtil.toGsmCharset(text));
+        return getFirstLink().send(deliver);
+    }
+
+    /**
+     * Sends an OP 53 for an earlier submit on the first link.
+     * 
+     * @param messageId The message id from the ACK of the submit (AdC:SCTS)
+     * @param oadc The originator of the submit
+     * @param status Delivery status (Dst), 0 = delivered, 1 = buffered, 2 = not delivered
+     * @return The result sent by the client
+     */
+    public CompletableFuture<UcpResponse> deliverNotification(String messageId, String oadc, String status)
+    {
+        int colon = messageId.indexOf(':');
+        UcpSeries50 notification = new UcpSeries50(UcpSeries50.OP_DELIVER_NOTIFICATION);
+        notification.setField(UcpSeries50.FIELD_ADC, messageId.substring(0, colon));
+        notification.setField(UcpSeries50.FIELD_OADC, oadc);
+        notification.setField(UcpSeries50.FIELD_SCTS, messageId.substring(colon + 1));
+        notification.setField(UcpSeries50.FIELD_DST, status);
+        notification.setField(UcpSeries50.FIELD_RSN, "000");
+        notification.setField(UcpSeries50.FIELD_DSCTS, nextScts());
+        notification.setField(UcpSeries50.FIELD_MT, "3");
+        notification.setHexField(UcpSeries50.FIELD_MSG, SmsPduUtil.toGsmCharset("Status " + status));
+        return getFirstLink().send(notification);
+    }
+
+    /**
+     * Closes all links, like an SMSC that drops its clients.
+     */
+    public void dropLinks()
+    {
+        for (Link link : links_)
+        {
+            link.close();
+        }
+    }
+
+    /**
+     * Stops the simulator.
+     */
+    public void close()
+    {
+        try
+        {
+            serverSocket_.close();
+        }
+        catch (IOException ex)
+        {
+            // Ignore
+        }
+        dropLinks();
+        scheduler_.shutdownNow();
+    }
+
+    private Link getFirstLink()
+    {
+        if (links_.isEmpty())
+        {
+            throw new IllegalStateException("No client connected");
+        }
+        return links_.get(0);
+    }
+
+    /**
+     * Returns a service centre timestamp that is unique within this
+     * simulator, so that AdC:SCTS identifies a submit.
+     */
+    private String nextScts()
+    {
+        return new SimpleDateFormat("ddMMyyHHmmss").format(new Date(nextScts_.getAndAdd(1000)));
+    }
+
+    private void accept()
+    {
+        while (!serverSocket_.isClosed())
+        {
+            try
+            {
+                Socket socket = serverSocket_.accept();
+                socket.setTcpNoDelay(true);
+                Link link = new Link(socket);
+                links_.add(link);
+                Thread reader = new Thread(link::read, "ucp-simulator-link");
+                reader.setDaemon(true);
+                reader.start();
+            }
+            catch (IOException ex)
+            {
+                // Closed
+            }
+        }
+    }
+
+    /**
+     * One client connection.
+     */
+    private class Link
+    {
+        private final Socket socket_;
+        private final OutputStream out_;
+        private final AtomicInteger inFlight_ = new AtomicInteger();
+        private final AtomicInteger nextTrn_ = new AtomicInteger();
+        private final Map<Integer, CompletableFuture<UcpResponse>> pending_ = new ConcurrentHashMap<Integer, CompletableFuture<UcpResponse>>();
+
+        Link(Socket socket) throws IOException
+        {
+            socket_ = socket;
+            out_ = socket.getOutputStream();
+        }
+
+        void read()
+        {
+            try
+            {
+                InputStream in = new BufferedInputStream(socket_.getInputStream());
+                ByteArrayOutputStream frame = new ByteArrayOutputStream();
+                int b;
+                while ((b = in.read()) >= 0)
+                {
+                    if (b == UcpMsg.STX)
+                    {
+                        frame.reset();
+                    }
+                    else if (b == UcpMsg.ETX)
+                    {
+                        handle(new String(frame.toByteArray(), "ISO-8859-1"));
+                    }
+                    else
+                    {
+                        frame.write(b);
+                    }
+                }
+            }
+            catch (IOException ex)
+            {
+                // Closed
+            }
+            close();
+        }
+
+        private void handle(String frame)
+        {
+            if (frame.charAt(9) == 'R')
+            {
+                try
+                {
+                    UcpResponse response = UcpResponse.parse(frame);
+                    CompletableFuture<UcpResponse> future = pending_.remove(response.getTRN());
+                    if (future != null)
+                    {
+                        future.complete(response);
+                    }
+                }
+                catch (SmsException ex)
+                {
+                    // Not ours to judge, leave the future hanging
+                }
+                return;
+            }
+
+            if (!responding_)
+            {
+                return;
+            }
+
+            final int trn = Integer.parseInt(frame.substring(0, 2));
+            final byte ot = Byte.parseByte(frame.substring(11, 13));
+
+            if (inFlight_.incrementAndGet() > window_)
+            {
+                inFlight_.decrementAndGet();
+                nWindowViolations_.incrementAndGet();
+                write(UcpResultMsg.nack(ot, trn, UcpResultMsg.EC_OPERATION_NOT_ALLOWED, null));
+                return;
+            }
+
+            final UcpMsg result = createResult(frame, trn, ot);
+            Runnable reply = () -> {
+                inFlight_.decrementAndGet();
+                write(result);
+            };
+            if (latency_ > 0)
+            {
+                scheduler_.schedule(reply, latency_, TimeUnit.MILLISECONDS);
+            }
+            else
+            {
+                reply.run();
+            }
+        }
+
+        private UcpMsg createResult(String frame, int trn, byte ot)
+        {
+            switch (ot)
+            {
+            case UCPSeries60.OP_OPEN_SESSION:
+                nLogins_.incrementAndGet();
+                UCPSeries60 login = new UCPSeries60(ot);
+                login.parseFrame(frame);
+                if (uid_ != null && (!uid_.equals(login.getField(UCPSeries60.FIELD_OADC))
+                        || !StringUtil.bytesToHexString(SmsPduUtil.toGsmCharset(password_)).equals(login.getField(UCPSeries60.FIELD_PWD))))
+                {
+                    return UcpResultMsg.nack(ot, trn, EC_AUTHENTICATION_FAILURE, null);
+                }
+                return UcpResultMsg.ack(ot, trn, null);
+
+            case UcpSeries50.OP_SUBMIT_SHORT_MESSAGE:
+                nSubmits_.incrementAndGet();
+                UcpSeries50 submit = UcpSeries50.parse(frame);
+                if (recording_)
+                {
+                    submits_.add(submit);
+                }
+                if (errorRate_ > 0 && random_.nextDouble() < errorRate_)
+                {
+                    return UcpResultMsg.nack(ot, trn, errorCode_, null);
+                }
+                return UcpResultMsg.ack(ot, trn, submit.getField(UcpSeries50.FIELD_ADC) + ":" + nextScts());
+
+            case UcpAlert.OP_ALERT:
+                nAlerts_.incrementAndGet();
+                return UcpResultMsg.ack(ot, trn, null);
+
+            default:
+                return UcpResultMsg.nack(ot, trn, UcpResultMsg.EC_OPERATION_NOT_SUPPORTED, null);
+            }
+        }
+
+        CompletableFuture<UcpResponse> send(UcpMsg operation)
+        {
+            CompletableFuture<UcpResponse> future = new CompletableFuture<UcpResponse>();
+            int trn = nextTrn_.getAndIncrement() % 100;
+            pending_.put(trn, future);
+            operation.setTRN(trn);
+            write(operation);
+            return future;
+        }
+
+        private void write(UcpMsg msg)
+        {
+            byte[] frame = msg.getCommand();
+            try
+            {
+                synchronized (out_)
+                {
+                    out_.write(frame);
+                    out_.flush();
+                }
+            }
+            catch (IOException ex)
+            {
+                close();
+            }
+        }
+
+        void close()
+        {
+            links_.remove(this);
+            try
+            {
+                socket_.close();
+            }
+            catch (IOException ex)
+            {
+                // Ignore
+            }
+            for (CompletableFuture<UcpResponse> future : pending_.values())
+            {
+                future.completeExceptionally(new SocketException("Link closed"));
+            }
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is "SMS Library for the Java platform".
+ *
+ * The Initial Developer of the Original Code is Markus Eriksson.
+ * Portions created by the Initial Developer are Copyright (C) 2002
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.marre.sms.transport.ucp;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+
+import org.marre.sms.SmsAddress;
+import org.marre.sms.SmsTextMessage;
+import org.marre.sms.transport.SmsAsyncUtil;
+import org.marre.sms.transport.SmsSendResult;
+
+/**
+ * Measures UcpTransport throughput against the UcpSmscSimulator.
+ * <p>
+ * Not a unit test, run it with the test classpath:
+ * 
+ * <pre>
+ * java -cp target/classes:target/test-classes:slf4j-api.jar org.marre.sms.transport.ucp.UcpTransportBenchmark [messages] [window] [latency ms]
+ * </pre>
+ * 
+ * @author Markus Eriksson
+ * @version $Id$
+ */
+public final class UcpTransportBenchmark
+{
+    private UcpTransportBenchmark()
+    {
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        int nMessages = (args.length > 0) ? Integer.parseInt(args[0]) : 10000;
+        int window = (args.length > 1) ? Integer.parseInt(args[1]) : 50;
+        long latency = (args.length > 2) ? Long.parseLong(args[2]) : 20;
+
+        UcpSmscSimulator smsc = new UcpSmscSimulator();
+        smsc.setLatency(latency);
+        smsc.setRecording(false);
+
+        Properties props = smsc.createProperties();
+        props.setProperty("smsj.ucp.window", Integer.toString(window));
+        UcpTransport transport = new UcpTransport();
+        transport.init(props);
+        transport.connect();
+
+        SmsTextMessage msg = new SmsTextMessage("Benchmark");
+        SmsAddress destination = new SmsAddress("46701234567");
+        SmsAddress sender = new SmsAddress("46707654321");
+
+        try
+        {
+            long start = System.nanoTime();
+            List<CompletableFuture<SmsSendResult>> results = new ArrayList<CompletableFuture<SmsSendResult>>(nMessages);
+            for (int i = 0; i < nMessages; i++)
+            {
+                results.add(transport.sendAsync(msg, destination, sender));
+            }
+            for (CompletableFuture<SmsSendResult> result : results)
+            {
+                SmsAsyncUtil.get(result);
+            }
+            long elapsed = System.nanoTime() - start;
+
+            System.out.println(nMessages + " messages, window " + window + ", latency " + latency + " ms: "
+                    + (elapsed / 1000000) + " ms, " + (long) (nMessages * 1e9 / elapsed) + " msg/s");
+        }
+        finally
+        {
+            transport.disconnect();
+            smsc.close();
+        }
+    }
+}
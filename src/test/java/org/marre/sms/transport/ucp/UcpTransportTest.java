@@ -0,0 +1,361 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is "SMS Library for the Java platform".
+ *
+ * The Initial Developer of the Original Code is Markus Eriksson.
+ * Portions created by the Initial Developer are Copyright (C) 2002
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.marre.sms.transport.ucp;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.marre.sms.SmsAddress;
+import org.marre.sms.SmsException;
+import org.marre.sms.SmsTextMessage;
+import org.marre.sms.transport.SmsAsyncUtil;
+import org.marre.sms.transport.SmsNotSentException;
+import org.marre.sms.transport.SmsPduResult;
+import org.marre.sms.transport.SmsSendResult;
+
+public class UcpTransportTest extends TestCase
+{
+    private UcpSmscSimulator smsc_;
+    private UcpTransport transport_;
+
+    protected void setUp() throws Exception
+    {
+        smsc_ = new UcpSmscSimulator();
+        smsc_.setLogin("4321", "secret");
+    }
+
+    protected void tearDown() throws Exception
+    {
+        if (transport_ != null)
+        {
+            transport_.disconnect();
+        }
+        smsc_.close();
+    }
+
+    private UcpTransport connect(Properties props) throws Exception
+    {
+        transport_ = new UcpTransport();
+        transport_.init(props);
+        transport_.connect();
+        return transport_;
+    }
+
+    private static SmsTextMessage longMessage(int length)
+    {
+        StringBuilder text = new StringBuilder(length);
+        for (int i = 0; i < length; i++)
+        {
+            text.append((char) ('a' + i % 26));
+        }
+        return new SmsTextMessage(text.toString());
+    }
+
+    public void testSend() throws Exception
+    {
+        connect(smsc_.createProperties());
+
+        String messageId = transport_.send(new SmsTextMessage("Hello"), new SmsAddress("46701234567"),
+                new SmsAddress("46707654321"));
+
+        assertTrue(messageId, messageId.startsWith("46701234567:"));
+        assertEquals(1, smsc_.getLoginCount());
+        assertEquals(1, smsc_.getSubmitCount());
+        UcpSeries50 submit = smsc_.getSubmits().get(0);
+        assertEquals("46707654321", submit.getField(UcpSeries50.FIELD_OADC));
+        assertEquals("Hello", submit.getMessageText());
+    }
+
+    public void testLoginRejected() throws Exception
+    {
+        Properties props = smsc_.createProperties();
+        props.setProperty("smsj.ucp.ucp60.password", "wrong");
+        try
+        {
+            connect(props);
+            fail("Expected UcpException");
+        }
+        catch (UcpException ex)
+        {
+            transport_ = null;
+            assertEquals(UcpSmscSimulator.EC_AUTHENTICATION_FAILURE, ex.getErrorCode());
+        }
+    }
+
+    public void testNack() throws Exception
+    {
+        smsc_.setErrorRate(1.0, "24");
+        connect(smsc_.createProperties());
+
+        try
+        {
+            transport_.send(new SmsTextMessage("Hello"), new SmsAddress("46701234567"), new SmsAddress("46707654321"));
+            fail("Expected UcpException");
+        }
+        catch (UcpException ex)
+        {
+            assertEquals("24", ex.getErrorCode());
+        }
+    }
+
+    public void testWindowPipelinesParts() throws Exception
+    {
+        smsc_.setLatency(100);
+        smsc_.setWindow(10);
+        Properties props = smsc_.createProperties();
+        props.setProperty("smsj.ucp.window", "10");
+        connect(props);
+
+        // 8 parts, that would take 800 ms with stop-and-wait
+        long start = System.currentTimeMillis();
+        SmsSendResult result = SmsAsyncUtil.get(transport_.sendAsync(longMessage(8 * 153),
+                new SmsAddress("46701234567"), new SmsAddress("46707654321")));
+        long elapsed = System.currentTimeMillis() - start;
+
+        assertEquals(8, result.getPduResults().size());
+        for (SmsPduResult pduResult : result.getPduResults())
+        {
+            assertNotNull(pduResult.getMessageId());
+            // The SMSC has a latency of 100 ms
+            assertTrue(pduResult.toString(), pduResult.getLatency() >= 90);
+        }
+        assertTrue("Took " + elapsed + " ms", elapsed < 600);
+        assertEquals(0, smsc_.getWindowViolationCount());
+    }
+
+    public void testWindowIsRespected() throws Exception
+    {
+        smsc_.setLatency(20);
+        smsc_.setWindow(3);
+        Properties props = smsc_.createProperties();
+        props.setProperty("smsj.ucp.window", "3");
+        connect(props);
+
+        List<CompletableFuture<SmsSendResult>> results = new ArrayList<CompletableFuture<SmsSendResult>>();
+        for (int i = 0; i < 30; i++)
+        {
+            results.add(transport_.sendAsync(new SmsTextMessage("Message " + i), new SmsAddress("46701234567"),
+                    new SmsAddress("46707654321")));
+        }
+        for (CompletableFuture<SmsSendResult> result : results)
+        {
+            SmsAsyncUtil.get(result);
+        }
+
+        assertEquals(30, smsc_.getSubmitCount());
+        assertEquals(0, smsc_.getWindowViolationCount());
+    }
+
+    public void testTimeout() throws Exception
+    {
+        Properties props = smsc_.createProperties();
+        props.setProperty("smsj.ucp.timeout", "200");
+        connect(props);
+        smsc_.setResponding(false);
+
+        try
+        {
+            transport_.send(new SmsTextMessage("Hello"), new SmsAddress("46701234567"), new SmsAddress("46707654321"));
+            fail("Expected SmsException");
+        }
+        catch (SmsException ex)
+        {
+            assertTrue(ex.getMessage(), ex.getMessage().startsWith("Timeout"));
+        }
+    }
+
+    public void testDeliveries() throws Exception
+    {
+        final BlockingQueue<UcpSeries50> received = new LinkedBlockingQueue<UcpSeries50>();
+        connect(smsc_.createProperties());
+        transport_.setDeliveryListener(new UcpDeliveryListener()
+        {
+            public void deliverShortMessage(UcpSeries50 msg)
+            {
+                received.add(msg);
+            }
+
+            public void deliverNotification(UcpSeries50 msg)
+            {
+                received.add(msg);
+            }
+        });
+
+        UcpResponse response = smsc_.deliverShortMessage("4321", "46701234567", "Hi there").get(5, TimeUnit.SECONDS);
+        assertTrue(response.isAck());
+        UcpSeries50 mo = received.poll(5, TimeUnit.SECONDS);
+        assertEquals(UcpSeries50.OP_DELIVER_SHORT_MESSAGE, mo.getOT());
+        assertEquals("46701234567", mo.getField(UcpSeries50.FIELD_OADC));
+        assertEquals("Hi there", mo.getMessageText());
+
+        String messageId = transport_.send(new SmsTextMessage("Hello"), new SmsAddress("46701234567"),
+                new SmsAddress("4321"));
+        response = smsc_.deliverNotification(messageId, "4321", "0").get(5, TimeUnit.SECONDS);
+        assertTrue(response.isAck());
+        assertEquals(messageId, response.getSystemMessage());
+        UcpSeries50 receipt = received.poll(5, TimeUnit.SECONDS);
+        assertEquals(UcpSeries50.OP_DELIVER_NOTIFICATION, receipt.getOT());
+        assertEquals("0", receipt.getField(UcpSeries50.FIELD_DST));
+
+        // Removing the listener takes effect on the open link
+        transport_.setDeliveryListener(null);
+        response = smsc_.deliverShortMessage("4321", "46701234567", "Anyone?").get(5, TimeUnit.SECONDS);
+        assertFalse(response.isAck());
+        assertEquals(UcpResultMsg.EC_OPERATION_NOT_ALLOWED, response.getErrorCode());
+        assertTrue(received.isEmpty());
+    }
+
+    public void testDeliveryWithoutListenerIsRejected() throws Exception
+    {
+        connect(smsc_.createProperties());
+
+        UcpResponse response = smsc_.deliverShortMessage("4321", "46701234567", "Hi").get(5, TimeUnit.SECONDS);
+        assertFalse(response.isAck());
+        assertEquals(UcpResultMsg.EC_OPERATION_NOT_ALLOWED, response.getErrorCode());
+    }
+
+    public void testKeepAliveReconnects() throws Exception
+    {
+        Properties props = smsc_.createProperties();
+        props.setProperty("smsj.ucp.keepalive", "300");
+        props.setProperty("smsj.ucp.timeout", "300");
+        connect(props);
+
+        Thread.sleep(1500);
+        assertTrue(smsc_.getAlertCount() > 0);
+
+        // The SMSC goes silent and the link is found dead
+        smsc_.setResponding(false);
+        Thread.sleep(1500);
+        smsc_.setResponding(true);
+        Thread.sleep(2000);
+
+        assertTrue(smsc_.getLoginCount() > 1);
+        transport_.send(new SmsTextMessage("Hello"), new SmsAddress("46701234567"), new SmsAddress("46707654321"));
+    }
+
+    public void testThrottle() throws Exception
+    {
+        Properties props = smsc_.createProperties();
+        props.setProperty("smsj.ucp.window", "10");
+        props.setProperty("smsj.ucp.throttle.rate", "20");
+        props.setProperty("smsj.ucp.throttle.burst", "5");
+        connect(props);
+
+        // 5 in the burst, the other 10 at 20/s
+        long start = System.currentTimeMillis();
+        List<CompletableFuture<SmsSendResult>> results = new ArrayList<CompletableFuture<SmsSendResult>>();
+        for (int i = 0; i < 15; i++)
+        {
+            results.add(transport_.sendAsync(new SmsTextMessage("Message " + i), new SmsAddress("46701234567"),
+                    new SmsAddress("46707654321")));
+        }
+        assertTrue(System.currentTimeMillis() - start < 400);
+        for (CompletableFuture<SmsSendResult> result : results)
+        {
+            SmsAsyncUtil.get(result);
+        }
+        long elapsed = System.currentTimeMillis() - start;
+
+        assertEquals(15, smsc_.getSubmitCount());
+        assertTrue("Took " + elapsed + " ms", elapsed >= 450);
+    }
+
+    public void testThrottledSubmitsDontTimeOutInQueue() throws Exception
+    {
+        Properties props = smsc_.createProperties();
+        props.setProperty("smsj.ucp.window", "10");
+        props.setProperty("smsj.ucp.timeout", "300");
+        props.setProperty("smsj.ucp.throttle.rate", "10");
+        connect(props);
+
+        // The last submit waits about 700 ms in the queue, longer than the response timeout
+        List<CompletableFuture<SmsSendResult>> results = new ArrayList<CompletableFuture<SmsSendResult>>();
+        for (int i = 0; i < 8; i++)
+        {
+            results.add(transport_.sendAsync(new SmsTextMessage("Message " + i), new SmsAddress("46701234567"),
+                    new SmsAddress("46707654321")));
+        }
+        for (CompletableFuture<SmsSendResult> result : results)
+        {
+            SmsAsyncUtil.get(result);
+        }
+        assertEquals(8, smsc_.getSubmitCount());
+    }
+
+    public void testQueueTimeout() throws Exception
+    {
+        Properties props = smsc_.createProperties();
+        props.setProperty("smsj.ucp.window", "10");
+        props.setProperty("smsj.ucp.throttle.rate", "5");
+        props.setProperty("smsj.ucp.queue.timeout", "300");
+        connect(props);
+
+        List<CompletableFuture<SmsSendResult>> results = new ArrayList<CompletableFuture<SmsSendResult>>();
+        for (int i = 0; i < 5; i++)
+        {
+            results.add(transport_.sendAsync(new SmsTextMessage("Message " + i), new SmsAddress("46701234567"),
+                    new SmsAddress("46707654321")));
+        }
+
+        int nSent = 0;
+        int nNotSent = 0;
+        for (CompletableFuture<SmsSendResult> result : results)
+        {
+            try
+            {
+                SmsAsyncUtil.get(result);
+                nSent++;
+            }
+            catch (SmsNotSentException ex)
+            {
+                nNotSent++;
+            }
+        }
+
+        // One submit at once and one after 200 ms, the rest would wait too long
+        assertTrue("Sent " + nSent, nSent >= 1 && nSent <= 3);
+        assertEquals(5, nSent + nNotSent);
+        Thread.sleep(500);
+        assertEquals(nSent, smsc_.getSubmitCount());
+    }
+}